@@ -23,7 +23,6 @@ PLAYWRIGHT=$(rlocation typescript_bazel_minimal/e2e/playwright_bin_test_/playwri
 GATEWAY_TAR=$(rlocation typescript_bazel_minimal/services/gateway/gateway.tar)
 GREETER_TAR=$(rlocation typescript_bazel_minimal/services/greeter/greeter.tar)
 CALCULATOR_TAR=$(rlocation typescript_bazel_minimal/services/calculator/calculator.tar)
-ENVOY_TAR=$(rlocation typescript_bazel_minimal/envoy/envoy.tar)
 DEPLOYMENT_YAML=$(rlocation typescript_bazel_minimal/k8s/deployment.yaml)
 
 # Ensure binaries are executable (bazel might strip permissions in data path?)
@@ -52,7 +51,6 @@ echo "Loading images..."
 "$KIND" load image-archive "$GATEWAY_TAR" --name "$CLUSTER_NAME"
 "$KIND" load image-archive "$GREETER_TAR" --name "$CLUSTER_NAME"
 "$KIND" load image-archive "$CALCULATOR_TAR" --name "$CLUSTER_NAME"
-"$KIND" load image-archive "$ENVOY_TAR" --name "$CLUSTER_NAME"
 
 # Apply Deployment
 echo "Applying deployment..."
@@ -70,7 +68,7 @@ POD_NAME=$("$KUBECTL" --context "kind-$CLUSTER_NAME" get pods -l app=greeter -o
 LOCAL_PORT=$(shuf -i 20000-30000 -n 1)
 echo "Using local port: $LOCAL_PORT"
 
-"$KUBECTL" --context "kind-$CLUSTER_NAME" port-forward "$POD_NAME" "$LOCAL_PORT":8080 &
+"$KUBECTL" --context "kind-$CLUSTER_NAME" port-forward "$POD_NAME" "$LOCAL_PORT":8000 &
 PF_PID=$!
 
 # Update trap
@@ -0,0 +1,92 @@
+package services.calculator;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scalar against vector {@link ArithmeticEngine} over arrays from one cache line to
+ * well past the L2 cache.
+ *
+ * <p>Run with {@code bazel run //services/calculator:calculator_benchmarks -- ArithmeticBenchmark}.
+ * Forks get {@code --add-modules jdk.incubator.vector}; without it the vector
+ * engine cannot be created and those runs fail rather than quietly measuring
+ * the scalar fallback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ArithmeticBenchmark {
+
+    // ArithmeticEngine.Kind is package-private, and JMH's generated code lives in another package
+    public enum Engine {
+        SCALAR,
+        VECTOR,
+    }
+
+    @Param({"SCALAR", "VECTOR"})
+    public Engine engineKind;
+
+    @Param({"16", "1024", "65536", "1048576"})
+    public int size;
+
+    private ArithmeticEngine engine;
+    private int[] a;
+    private int[] b;
+    private int[] out;
+    private long[] values;
+
+    @Setup
+    public void setUp() {
+        engine = ArithmeticEngine.create(ArithmeticEngine.Kind.valueOf(engineKind.name()));
+        a = new int[size];
+        b = new int[size];
+        out = new int[size];
+        values = new long[size];
+        for (int i = 0; i < size; i++) {
+            a[i] = ThreadLocalRandom.current().nextInt();
+            b[i] = ThreadLocalRandom.current().nextInt();
+            // Small enough that the sum never overflows and sumExact stays on its fast path
+            values[i] = ThreadLocalRandom.current().nextLong() >> 24;
+        }
+    }
+
+    @Benchmark
+    public int[] add() {
+        engine.add(a, b, out, size);
+        return out;
+    }
+
+    @Benchmark
+    public long sum() {
+        return engine.sum(a, size);
+    }
+
+    @Benchmark
+    public long sumExact() {
+        return engine.sumExact(values, size);
+    }
+
+    @Benchmark
+    public int min() {
+        return engine.min(a, size);
+    }
+
+    @Benchmark
+    public int max() {
+        return engine.max(a, size);
+    }
+}
@@ -0,0 +1,157 @@
+package services.calculator;
+
+import java.util.logging.Logger;
+
+/**
+ * Bulk arithmetic over packed operand arrays. Every method reads the first
+ * {@code n} elements only, so decoders can hand over arrays sized by an upper bound.
+ */
+interface ArithmeticEngine {
+
+    /** {@code out[i] = a[i] + b[i]}, wrapping on int overflow like the unary Sum. */
+    void add(int[] a, int[] b, int[] out, int n);
+
+    /**
+     * Sum of {@code values} accumulated in 64 bits. No Java array holds enough ints
+     * to overflow a long, so unlike {@link #sumExact} this never throws.
+     */
+    long sum(int[] values, int n);
+
+    /**
+     * Sum of {@code values}, throwing {@link ArithmeticException} if it does not fit
+     * in a long. Intermediate overflow that later cancels out is not an error, so
+     * the result does not depend on the order the engine adds in.
+     */
+    long sumExact(long[] values, int n);
+
+    /** Smallest of {@code values}; {@code n} must be positive. */
+    int min(int[] values, int n);
+
+    /** Largest of {@code values}; {@code n} must be positive. */
+    int max(int[] values, int n);
+
+    String name();
+
+    enum Kind {
+        // Vector when the jdk.incubator.vector module is present, scalar otherwise
+        AUTO,
+        SCALAR,
+        VECTOR,
+    }
+
+    /**
+     * Returns the engine for {@code kind}. The vector engine is loaded reflectively,
+     * so this class links even when the JVM was started without
+     * {@code --add-modules jdk.incubator.vector}.
+     */
+    static ArithmeticEngine create(Kind kind) {
+        Logger logger = Logger.getLogger(ArithmeticEngine.class.getName());
+        if (kind == Kind.SCALAR) {
+            return new Scalar();
+        }
+        if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            if (kind == Kind.VECTOR) {
+                throw new IllegalStateException(
+                        "The vector engine needs the JVM flag --add-modules jdk.incubator.vector");
+            }
+            logger.info("jdk.incubator.vector is not enabled; using the scalar arithmetic engine");
+            return new Scalar();
+        }
+        try {
+            return (ArithmeticEngine) Class.forName("services.calculator.VectorArithmeticEngine")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            if (kind == Kind.VECTOR) {
+                throw new IllegalStateException("Could not load the vector engine", e);
+            }
+            logger.warning("Could not load the vector engine, using the scalar one: " + e);
+            return new Scalar();
+        }
+    }
+
+    /** Engine selected by {@code CALCULATOR_ENGINE} (auto, scalar or vector), auto by default. */
+    static ArithmeticEngine fromEnvironment() {
+        String value = System.getenv("CALCULATOR_ENGINE");
+        if (value == null || value.isBlank()) {
+            return create(Kind.AUTO);
+        }
+        try {
+            return create(Kind.valueOf(value.trim().toUpperCase()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("CALCULATOR_ENGINE must be auto, scalar or vector, got: " + value, e);
+        }
+    }
+
+    // Exact 128-bit accumulation for when a plain 64-bit pass has overflowed along the way
+    static long wideSumExact(long[] values, int n) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < n; i++) {
+            long value = values[i];
+            long next = low + value;
+            // Sign extension of value plus the unsigned carry out of the low word
+            high += (value >> 63) + (Long.compareUnsigned(next, low) < 0 ? 1 : 0);
+            low = next;
+        }
+        if (high != (low >> 63)) {
+            throw new ArithmeticException("long overflow");
+        }
+        return low;
+    }
+
+    /** Plain loops; the JIT may still auto-vectorize some of them. */
+    final class Scalar implements ArithmeticEngine {
+        @Override
+        public void add(int[] a, int[] b, int[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = a[i] + b[i];
+            }
+        }
+
+        @Override
+        public long sum(int[] values, int n) {
+            long sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }
+
+        @Override
+        public long sumExact(long[] values, int n) {
+            long sum = 0;
+            try {
+                for (int i = 0; i < n; i++) {
+                    sum = Math.addExact(sum, values[i]);
+                }
+                return sum;
+            } catch (ArithmeticException e) {
+                return wideSumExact(values, n);
+            }
+        }
+
+        @Override
+        public int min(int[] values, int n) {
+            int min = values[0];
+            for (int i = 1; i < n; i++) {
+                min = Math.min(min, values[i]);
+            }
+            return min;
+        }
+
+        @Override
+        public int max(int[] values, int n) {
+            int max = values[0];
+            for (int i = 1; i < n; i++) {
+                max = Math.max(max, values[i]);
+            }
+            return max;
+        }
+
+        @Override
+        public String name() {
+            return "scalar";
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package services.calculator;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the vector engine against the scalar one around every vector-length boundary. */
+@RunWith(JUnit4.class)
+public class ArithmeticEngineTest {
+    private static final int[] SIZES = {1, 2, 3, 7, 8, 9, 15, 16, 17, 31, 32, 33, 64, 100, 1023, 100_000};
+
+    private final ArithmeticEngine scalar = ArithmeticEngine.create(ArithmeticEngine.Kind.SCALAR);
+    // The test runs with --add-modules jdk.incubator.vector, so this must not fall back
+    private final ArithmeticEngine vector = ArithmeticEngine.create(ArithmeticEngine.Kind.VECTOR);
+
+    @Test
+    public void testVectorMatchesScalar() {
+        Random random = new Random(7);
+        for (int n : SIZES) {
+            // Longer than n so that reading past it would show up as a mismatch
+            int[] a = randomInts(random, n + 5);
+            int[] b = randomInts(random, n + 5);
+            long[] values = new long[n + 5];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextLong() >> 16;
+            }
+
+            int[] expected = new int[n];
+            int[] actual = new int[n];
+            scalar.add(a, b, expected, n);
+            vector.add(a, b, actual, n);
+            assertThat(actual).isEqualTo(expected);
+            assertThat(vector.sum(a, n)).isEqualTo(scalar.sum(a, n));
+            assertThat(vector.min(a, n)).isEqualTo(scalar.min(a, n));
+            assertThat(vector.max(a, n)).isEqualTo(scalar.max(a, n));
+            assertThat(vector.sumExact(values, n)).isEqualTo(scalar.sumExact(values, n));
+        }
+    }
+
+    @Test
+    public void testSumExactToleratesIntermediateOverflow() {
+        long[] values = new long[33];
+        values[0] = Long.MAX_VALUE;
+        values[1] = Long.MAX_VALUE;
+        values[17] = Long.MIN_VALUE;
+        values[32] = -5;
+
+        assertThat(scalar.sumExact(values, values.length)).isEqualTo(Long.MAX_VALUE - 6);
+        assertThat(vector.sumExact(values, values.length)).isEqualTo(Long.MAX_VALUE - 6);
+    }
+
+    @Test
+    public void testSumExactThrowsOnOverflow() {
+        long[] values = new long[33];
+        values[0] = Long.MAX_VALUE;
+        values[20] = 1;
+
+        assertThrows(ArithmeticException.class, () -> scalar.sumExact(values, values.length));
+        assertThrows(ArithmeticException.class, () -> vector.sumExact(values, values.length));
+    }
+
+    @Test
+    public void testScalarIsAlwaysAvailable() {
+        assertThat(ArithmeticEngine.create(ArithmeticEngine.Kind.SCALAR).name()).isEqualTo("scalar");
+    }
+
+    private static int[] randomInts(Random random, int n) {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextInt();
+        }
+        return values;
+    }
+}
@@ -1,27 +1,120 @@
 package services.calculator;
 
+import io.grpc.MethodDescriptor;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.protobuf.services.HealthStatusManager;
+import io.grpc.stub.ServerCalls;
 import io.grpc.stub.StreamObserver;
 import calculator.CalculatorGrpc;
 import calculator.CalculatorOuterClass;
 import java.util.logging.Logger;
+import services.common.Ports;
+import services.common.ServerExecutor;
 
 public class CalculatorServer {
     private static final Logger logger = Logger.getLogger(CalculatorServer.class.getName());
-    private static final int PORT = 9091;
+    private static final int DEFAULT_PORT = 9091;
 
     public static void main(String[] args) throws Exception {
-        Server server = ServerBuilder.forPort(PORT)
-                .addService(new CalculatorImpl())
+        ArithmeticEngine engine = ArithmeticEngine.fromEnvironment();
+        ServerExecutor executor = ServerExecutor.fromArgs(args, "CALCULATOR");
+        int port = Ports.fromEnv("CALCULATOR_PORT", DEFAULT_PORT);
+        ServerBuilder<?> builder = ServerBuilder.forPort(port);
+        executor.configure(builder);
+        // Answers the gateway's grpc.health.v1 probes
+        HealthStatusManager health = new HealthStatusManager();
+        Server server = builder
+                .addService(bindPacked(new CalculatorImpl(engine)))
+                .addService(health.getHealthService())
                 .build()
                 .start();
-        
-        logger.info("Calculator Server started, listening on " + PORT);
+        health.setStatus(CalculatorGrpc.SERVICE_NAME, ServingStatus.SERVING);
+        // Tells the gateway to stop sending calls before they start failing
+        Runtime.getRuntime().addShutdownHook(new Thread(health::enterTerminalState));
+
+        logger.info("Calculator Server started, listening on " + port + " with the " + engine.name()
+                + " arithmetic engine and the " + executor + " executor");
         server.awaitTermination();
+        executor.close();
+    }
+
+    /**
+     * The calculator service as this server runs it, with the engine
+     * {@code CALCULATOR_ENGINE} picks, for hosting it in another server such as the
+     * gateway's embedded mode.
+     */
+    public static ServerServiceDefinition bindService() {
+        return bindPacked(new CalculatorImpl(ArithmeticEngine.fromEnvironment()));
+    }
+
+    // Serves the bulk methods through PackedCodec so their operands never become
+    // generated messages; every other method keeps its generated handler
+    static ServerServiceDefinition bindPacked(CalculatorImpl impl) {
+        ServerServiceDefinition.Builder service = ServerServiceDefinition.builder(CalculatorGrpc.SERVICE_NAME);
+        for (ServerMethodDefinition<?, ?> method : impl.bindService().getMethods()) {
+            String name = method.getMethodDescriptor().getFullMethodName();
+            if (name.equals(CalculatorGrpc.getSumBatchMethod().getFullMethodName())) {
+                service.addMethod(packed(CalculatorGrpc.getSumBatchMethod(), PackedCodec.OPERANDS),
+                        ServerCalls.asyncUnaryCall((operands, responseObserver) -> {
+                            responseObserver.onNext(impl.sumBatchEncoded(operands));
+                            responseObserver.onCompleted();
+                        }));
+            } else if (name.equals(CalculatorGrpc.getSumStreamMethod().getFullMethodName())) {
+                service.addMethod(packed(CalculatorGrpc.getSumStreamMethod(), PackedCodec.OPERANDS),
+                        ServerCalls.asyncBidiStreamingCall(responseObserver -> new StreamObserver<PackedCodec.Operands>() {
+                            @Override
+                            public void onNext(PackedCodec.Operands operands) {
+                                responseObserver.onNext(impl.sumBatchEncoded(operands));
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                                // The client went away; there is nobody left to reply to
+                            }
+
+                            @Override
+                            public void onCompleted() {
+                                responseObserver.onCompleted();
+                            }
+                        }));
+            } else if (name.equals(CalculatorGrpc.getTotalMethod().getFullMethodName())) {
+                service.addMethod(packed(CalculatorGrpc.getTotalMethod(), PackedCodec.VALUES),
+                        ServerCalls.asyncUnaryCall((values, responseObserver) -> {
+                            responseObserver.onNext(impl.total(values).toByteArray());
+                            responseObserver.onCompleted();
+                        }));
+            } else {
+                service.addMethod(method);
+            }
+        }
+        return service.build();
+    }
+
+    private static <ReqT> MethodDescriptor<ReqT, byte[]> packed(MethodDescriptor<?, ?> generated,
+            MethodDescriptor.Marshaller<ReqT> requestMarshaller) {
+        return MethodDescriptor.<ReqT, byte[]>newBuilder()
+                .setType(generated.getType())
+                .setFullMethodName(generated.getFullMethodName())
+                .setRequestMarshaller(requestMarshaller)
+                .setResponseMarshaller(PackedCodec.ENCODED)
+                .build();
     }
 
     static class CalculatorImpl extends CalculatorGrpc.CalculatorImplBase {
+        private final ArithmeticEngine engine;
+
+        CalculatorImpl() {
+            this(ArithmeticEngine.create(ArithmeticEngine.Kind.AUTO));
+        }
+
+        CalculatorImpl(ArithmeticEngine engine) {
+            this.engine = engine;
+        }
+
         @Override
         public void sum(CalculatorOuterClass.SumRequest request, StreamObserver<CalculatorOuterClass.SumReply> responseObserver) {
             int result = request.getA() + request.getB();
@@ -31,5 +124,107 @@ public class CalculatorServer {
             responseObserver.onNext(reply);
             responseObserver.onCompleted();
         }
+
+        @Override
+        public void sumBatch(CalculatorOuterClass.SumBatchRequest request,
+                StreamObserver<CalculatorOuterClass.SumBatchReply> responseObserver) {
+            responseObserver.onNext(sumBatch(request));
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public StreamObserver<CalculatorOuterClass.SumBatchRequest> sumStream(
+                StreamObserver<CalculatorOuterClass.SumBatchReply> responseObserver) {
+            return new StreamObserver<CalculatorOuterClass.SumBatchRequest>() {
+                @Override
+                public void onNext(CalculatorOuterClass.SumBatchRequest request) {
+                    responseObserver.onNext(sumBatch(request));
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    // The client went away; there is nobody left to reply to
+                }
+
+                @Override
+                public void onCompleted() {
+                    responseObserver.onCompleted();
+                }
+            };
+        }
+
+        @Override
+        public void total(CalculatorOuterClass.TotalRequest request,
+                StreamObserver<CalculatorOuterClass.TotalReply> responseObserver) {
+            long[] values = new long[request.getValuesCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = request.getValues(i);
+            }
+            responseObserver.onNext(total(values));
+            responseObserver.onCompleted();
+        }
+
+        // The generated code keeps packed int32 fields as primitive int lists, so indexed
+        // reads and addResults(int) never box. Going through getAList() would.
+        CalculatorOuterClass.SumBatchReply sumBatch(CalculatorOuterClass.SumBatchRequest request) {
+            int n = request.getACount();
+            if (n != request.getBCount()) {
+                return mismatchedOperands(n, request.getBCount());
+            }
+            int[] a = new int[n];
+            int[] b = new int[n];
+            for (int i = 0; i < n; i++) {
+                a[i] = request.getA(i);
+                b[i] = request.getB(i);
+            }
+            int[] results = new int[n];
+            engine.add(a, b, results, n);
+            CalculatorOuterClass.SumBatchReply.Builder reply = CalculatorOuterClass.SumBatchReply.newBuilder()
+                    .setTotal(engine.sum(a, n) + engine.sum(b, n));
+            for (int i = 0; i < n; i++) {
+                reply.addResults(results[i]);
+            }
+            if (n > 0) {
+                reply.setMin(engine.min(results, n)).setMax(engine.max(results, n));
+            }
+            return reply.build();
+        }
+
+        byte[] sumBatchEncoded(PackedCodec.Operands operands) {
+            int n = operands.aCount;
+            if (n != operands.bCount) {
+                return mismatchedOperands(n, operands.bCount).toByteArray();
+            }
+            int[] results = new int[n];
+            engine.add(operands.a, operands.b, results, n);
+            // Two sums of ints cannot overflow a long, so the total is exact
+            long total = engine.sum(operands.a, n) + engine.sum(operands.b, n);
+            return n == 0
+                    ? PackedCodec.writeSumBatchReply(results, 0, 0, 0, 0)
+                    : PackedCodec.writeSumBatchReply(results, n, total, engine.min(results, n),
+                            engine.max(results, n));
+        }
+
+        CalculatorOuterClass.TotalReply total(long[] values) {
+            try {
+                return CalculatorOuterClass.TotalReply.newBuilder()
+                        .setTotal(engine.sumExact(values, values.length))
+                        .build();
+            } catch (ArithmeticException e) {
+                return CalculatorOuterClass.TotalReply.newBuilder()
+                        .setStatus(com.google.rpc.Status.newBuilder()
+                                .setCode(io.grpc.Status.Code.OUT_OF_RANGE.value())
+                                .setMessage("Total does not fit in an int64"))
+                        .build();
+            }
+        }
+
+        private static CalculatorOuterClass.SumBatchReply mismatchedOperands(int aCount, int bCount) {
+            return CalculatorOuterClass.SumBatchReply.newBuilder()
+                    .setStatus(com.google.rpc.Status.newBuilder()
+                            .setCode(io.grpc.Status.Code.INVALID_ARGUMENT.value())
+                            .setMessage("a has " + aCount + " operands but b has " + bCount))
+                    .build();
+        }
     }
 }
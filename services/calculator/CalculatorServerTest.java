@@ -0,0 +1,221 @@
+package services.calculator;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import calculator.CalculatorGrpc;
+import calculator.CalculatorOuterClass.SumBatchReply;
+import calculator.CalculatorOuterClass.SumBatchRequest;
+import calculator.CalculatorOuterClass.SumRequest;
+import calculator.CalculatorOuterClass.TotalRequest;
+import calculator.CalculatorOuterClass.TotalReply;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Calls the server as deployed, with the bulk methods on PackedCodec, through
+ * generated client stubs, so the hand-written codec is checked against protobuf's.
+ */
+@RunWith(JUnit4.class)
+public class CalculatorServerTest {
+    private Server server;
+    private ManagedChannel channel;
+    private CalculatorGrpc.CalculatorBlockingStub stub;
+
+    @Before
+    public void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .addService(CalculatorServer.bindPacked(new CalculatorServer.CalculatorImpl()))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        stub = CalculatorGrpc.newBlockingStub(channel);
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void testSum() {
+        assertThat(stub.sum(SumRequest.newBuilder().setA(2).setB(3).build()).getResult()).isEqualTo(5);
+    }
+
+    @Test
+    public void testSumBatch() {
+        SumBatchReply reply = stub.sumBatch(batch(new int[] {1, 2, -3}, new int[] {10, 20, 3}));
+
+        assertThat(reply.getResultsList()).containsExactly(11, 22, 0).inOrder();
+        assertThat(reply.getTotal()).isEqualTo(33);
+        assertThat(reply.getMin()).isEqualTo(0);
+        assertThat(reply.getMax()).isEqualTo(22);
+        assertThat(reply.hasStatus()).isFalse();
+    }
+
+    @Test
+    public void testSumBatchTotalIsExactWhenResultsWrap() {
+        SumBatchReply reply = stub.sumBatch(batch(new int[] {Integer.MAX_VALUE}, new int[] {1}));
+
+        assertThat(reply.getResultsList()).containsExactly(Integer.MIN_VALUE);
+        assertThat(reply.getTotal()).isEqualTo(Integer.MAX_VALUE + 1L);
+    }
+
+    @Test
+    public void testPackedAndGeneratedPathsAgree() {
+        Random random = new Random(42);
+        int[] a = new int[5000];
+        int[] b = new int[5000];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextInt();
+            b[i] = random.nextInt();
+        }
+        SumBatchRequest request = batch(a, b);
+        CalculatorServer.CalculatorImpl scalar = new CalculatorServer.CalculatorImpl(
+                ArithmeticEngine.create(ArithmeticEngine.Kind.SCALAR));
+
+        assertThat(stub.sumBatch(request)).isEqualTo(scalar.sumBatch(request));
+    }
+
+    @Test
+    public void testTotal() {
+        TotalReply reply = stub.total(TotalRequest.newBuilder()
+                .addValues(Long.MAX_VALUE).addValues(1).addValues(-2)
+                .build());
+
+        assertThat(reply.getTotal()).isEqualTo(Long.MAX_VALUE - 1);
+        assertThat(reply.hasStatus()).isFalse();
+    }
+
+    @Test
+    public void testTotalReportsOverflow() {
+        TotalReply reply = stub.total(TotalRequest.newBuilder()
+                .addValues(Long.MAX_VALUE).addValues(1)
+                .build());
+
+        assertThat(reply.getStatus().getCode()).isEqualTo(Status.Code.OUT_OF_RANGE.value());
+    }
+
+    @Test
+    public void testSumBatchRejectsMismatchedOperands() {
+        SumBatchReply reply = stub.sumBatch(batch(new int[] {1, 2}, new int[] {1}));
+
+        assertThat(reply.getResultsCount()).isEqualTo(0);
+        assertThat(reply.getStatus().getCode()).isEqualTo(Status.Code.INVALID_ARGUMENT.value());
+    }
+
+    @Test
+    public void testOversizedLengthPrefixIsRejectedWithoutAllocating() {
+        // A packed field claiming 2^31 - 1 bytes, or more, in a message of a few
+        for (byte[] body : List.of(new byte[] {0x0a, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f},
+                new byte[] {0x0a, (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07},
+                new byte[] {0x0a, 0x05, 0x01})) {
+            for (String method : List.of(CalculatorGrpc.getSumBatchMethod().getFullMethodName(),
+                    CalculatorGrpc.getTotalMethod().getFullMethodName())) {
+                assertThrows(StatusRuntimeException.class,
+                        () -> ClientCalls.blockingUnaryCall(channel, raw(method), CallOptions.DEFAULT, body));
+            }
+            assertThrows(InvalidProtocolBufferException.class,
+                    () -> PackedCodec.readOperands(PackedCodec.open(new ByteArrayInputStream(body))));
+            assertThrows(InvalidProtocolBufferException.class,
+                    () -> PackedCodec.readValues(PackedCodec.open(new ByteArrayInputStream(body))));
+        }
+        // The server is still up
+        testSum();
+    }
+
+    @Test
+    public void testSumStreamRepliesToEachBatchInOrder() throws Exception {
+        List<SumBatchReply> replies = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        StreamObserver<SumBatchRequest> requests = CalculatorGrpc.newStub(channel).sumStream(
+                new StreamObserver<SumBatchReply>() {
+                    @Override
+                    public void onNext(SumBatchReply reply) {
+                        replies.add(reply);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        done.countDown();
+                    }
+                });
+        requests.onNext(batch(new int[] {1}, new int[] {1}));
+        // A bad batch is reported in its own reply and does not end the stream
+        requests.onNext(batch(new int[] {1}, new int[] {}));
+        requests.onNext(batch(new int[] {5, 6}, new int[] {7, 8}));
+        requests.onCompleted();
+
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(replies).hasSize(3);
+        assertThat(replies.get(0).getResultsList()).containsExactly(2);
+        assertThat(replies.get(1).getStatus().getCode()).isEqualTo(Status.Code.INVALID_ARGUMENT.value());
+        assertThat(replies.get(2).getResultsList()).containsExactly(12, 14).inOrder();
+    }
+
+    // The method as raw bytes, so the test can send what no generated client would
+    private static MethodDescriptor<byte[], byte[]> raw(String fullMethodName) {
+        MethodDescriptor.Marshaller<byte[]> bytes = new MethodDescriptor.Marshaller<byte[]>() {
+            @Override
+            public InputStream stream(byte[] value) {
+                return new ByteArrayInputStream(value);
+            }
+
+            @Override
+            public byte[] parse(InputStream stream) {
+                try {
+                    return stream.readAllBytes();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName(fullMethodName)
+                .setRequestMarshaller(bytes)
+                .setResponseMarshaller(bytes)
+                .build();
+    }
+
+    private static SumBatchRequest batch(int[] a, int[] b) {
+        SumBatchRequest.Builder request = SumBatchRequest.newBuilder();
+        for (int value : a) {
+            request.addA(value);
+        }
+        for (int value : b) {
+            request.addB(value);
+        }
+        return request.build();
+    }
+}
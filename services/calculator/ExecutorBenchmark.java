@@ -0,0 +1,78 @@
+package services.calculator;
+
+import calculator.CalculatorGrpc;
+import calculator.CalculatorOuterClass.SumRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import services.common.ServerExecutor;
+
+/**
+ * Unary Sum over a real loopback HTTP/2 connection with the server on each
+ * {@link ServerExecutor.Mode}, under enough concurrent callers to keep every
+ * executor busy.
+ *
+ * <p>Run with {@code bazel run //services/calculator:calculator_benchmarks -- ExecutorBenchmark}.
+ * Throughput mode reports calls per second; sample mode reports the latency
+ * distribution including {@code p0.99}. Client and server share the machine, so
+ * compare modes within one run rather than across hosts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Threads(32)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExecutorBenchmark {
+
+    @Param({"DEFAULT", "DIRECT", "FIXED", "VIRTUAL"})
+    public ServerExecutor.Mode mode;
+
+    private ServerExecutor executor;
+    private Server server;
+    private ManagedChannel channel;
+    private CalculatorGrpc.CalculatorBlockingStub stub;
+
+    @Setup
+    public void setUp() throws Exception {
+        executor = ServerExecutor.of(mode);
+        ServerBuilder<?> builder = ServerBuilder.forPort(0);
+        executor.configure(builder);
+        server = builder
+                .addService(CalculatorServer.bindPacked(new CalculatorServer.CalculatorImpl()))
+                .build()
+                .start();
+        channel = ManagedChannelBuilder.forAddress("localhost", server.getPort()).usePlaintext().build();
+        stub = CalculatorGrpc.newBlockingStub(channel);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        channel.shutdownNow();
+        server.shutdownNow().awaitTermination();
+        executor.close();
+    }
+
+    @Benchmark
+    public int sum() {
+        int a = ThreadLocalRandom.current().nextInt(1 << 20);
+        return stub.sum(SumRequest.newBuilder().setA(a).setB(1).build()).getResult();
+    }
+}
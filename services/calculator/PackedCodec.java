@@ -0,0 +1,250 @@
+package services.calculator;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Wire codec for the bulk Calculator messages that skips the generated classes.
+ * Packed operands are decoded from a {@link CodedInputStream} straight into
+ * primitive arrays the {@link ArithmeticEngine} can work on, and replies are
+ * encoded from arrays with a {@link CodedOutputStream}, so a batch costs a few
+ * array allocations no matter how many elements it has.
+ *
+ * <p>Field numbers must match {@code calculator.proto}.
+ */
+final class PackedCodec {
+    // SumBatchRequest
+    private static final int A_FIELD = 1;
+    private static final int B_FIELD = 2;
+    // SumBatchReply
+    private static final int RESULTS_FIELD = 1;
+    private static final int TOTAL_FIELD = 3;
+    private static final int MIN_FIELD = 4;
+    private static final int MAX_FIELD = 5;
+    // TotalRequest and TotalReply
+    private static final int VALUES_FIELD = 1;
+
+    static final MethodDescriptor.Marshaller<Operands> OPERANDS = new MethodDescriptor.Marshaller<Operands>() {
+        @Override
+        public InputStream stream(Operands value) {
+            throw new UnsupportedOperationException("Operands are only ever received");
+        }
+
+        @Override
+        public Operands parse(InputStream stream) {
+            try {
+                return readOperands(open(stream));
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+    };
+
+    static final MethodDescriptor.Marshaller<long[]> VALUES = new MethodDescriptor.Marshaller<long[]>() {
+        @Override
+        public InputStream stream(long[] value) {
+            throw new UnsupportedOperationException("Values are only ever received");
+        }
+
+        @Override
+        public long[] parse(InputStream stream) {
+            try {
+                return readValues(open(stream));
+            } catch (IOException e) {
+                throw invalid(e);
+            }
+        }
+    };
+
+    // Replies are encoded by the handler, which already knows their exact size
+    static final MethodDescriptor.Marshaller<byte[]> ENCODED = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            throw new UnsupportedOperationException("Replies are only ever sent");
+        }
+    };
+
+    private PackedCodec() {
+    }
+
+    /** The two operand lists of a SumBatchRequest; only the first {@code aCount} / {@code bCount} are valid. */
+    static final class Operands {
+        final int[] a;
+        final int aCount;
+        final int[] b;
+        final int bCount;
+
+        Operands(int[] a, int aCount, int[] b, int bCount) {
+            this.a = a;
+            this.aCount = aCount;
+            this.b = b;
+            this.bCount = bCount;
+        }
+    }
+
+    /**
+     * Decodes a SumBatchRequest from {@code in}, which must be limited to the message with
+     * {@link CodedInputStream#pushLimit}, as {@link #open} does.
+     */
+    static Operands readOperands(CodedInputStream in) throws IOException {
+        int[] a = new int[0];
+        int aCount = 0;
+        int[] b = new int[0];
+        int bCount = 0;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            int field = WireFormat.getTagFieldNumber(tag);
+            if (field == A_FIELD || field == B_FIELD) {
+                boolean isA = field == A_FIELD;
+                int[] values = isA ? a : b;
+                int count = isA ? aCount : bCount;
+                if (WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                    int length = readPackedLength(in);
+                    int limit = in.pushLimit(length);
+                    // Every varint takes at least one byte, so this is room enough
+                    values = ensureCapacity(values, count + length);
+                    while (in.getBytesUntilLimit() > 0) {
+                        values[count++] = in.readInt32();
+                    }
+                    in.popLimit(limit);
+                } else {
+                    // Parsers must also accept the unpacked encoding
+                    values = ensureCapacity(values, count + 1);
+                    values[count++] = in.readInt32();
+                }
+                if (isA) {
+                    a = values;
+                    aCount = count;
+                } else {
+                    b = values;
+                    bCount = count;
+                }
+            } else if (!in.skipField(tag)) {
+                break;
+            }
+        }
+        return new Operands(a, aCount, b, bCount);
+    }
+
+    /** Decodes a TotalRequest from {@code in}, limited to the message as for {@link #readOperands}. */
+    static long[] readValues(CodedInputStream in) throws IOException {
+        long[] values = new long[0];
+        int count = 0;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (WireFormat.getTagFieldNumber(tag) != VALUES_FIELD) {
+                if (!in.skipField(tag)) {
+                    break;
+                }
+                continue;
+            }
+            if (WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                int length = readPackedLength(in);
+                int limit = in.pushLimit(length);
+                values = ensureCapacity(values, count + length);
+                while (in.getBytesUntilLimit() > 0) {
+                    values[count++] = in.readInt64();
+                }
+                in.popLimit(limit);
+            } else {
+                values = ensureCapacity(values, count + 1);
+                values[count++] = in.readInt64();
+            }
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    /** Encodes a SumBatchReply carrying the first {@code n} of {@code results}. */
+    static byte[] writeSumBatchReply(int[] results, int n, long total, int min, int max) {
+        int packedSize = 0;
+        for (int i = 0; i < n; i++) {
+            packedSize += CodedOutputStream.computeInt32SizeNoTag(results[i]);
+        }
+        // Proto3 leaves default values off the wire
+        int size = (total != 0 ? CodedOutputStream.computeInt64Size(TOTAL_FIELD, total) : 0)
+                + (min != 0 ? CodedOutputStream.computeInt32Size(MIN_FIELD, min) : 0)
+                + (max != 0 ? CodedOutputStream.computeInt32Size(MAX_FIELD, max) : 0);
+        if (n > 0) {
+            size += CodedOutputStream.computeTagSize(RESULTS_FIELD)
+                    + CodedOutputStream.computeUInt32SizeNoTag(packedSize) + packedSize;
+        }
+        byte[] encoded = new byte[size];
+        CodedOutputStream out = CodedOutputStream.newInstance(encoded);
+        try {
+            if (n > 0) {
+                out.writeTag(RESULTS_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                out.writeUInt32NoTag(packedSize);
+                for (int i = 0; i < n; i++) {
+                    out.writeInt32NoTag(results[i]);
+                }
+            }
+            if (total != 0) {
+                out.writeInt64(TOTAL_FIELD, total);
+            }
+            if (min != 0) {
+                out.writeInt32(MIN_FIELD, min);
+            }
+            if (max != 0) {
+                out.writeInt32(MAX_FIELD, max);
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new IllegalStateException("Encoded size was miscomputed", e);
+        }
+        return encoded;
+    }
+
+    // Limits the input to the message, so no length prefix in it can claim more bytes than it has
+    static CodedInputStream open(InputStream stream) throws IOException {
+        CodedInputStream in;
+        int size;
+        if (stream instanceof KnownLength) {
+            size = stream.available();
+            in = CodedInputStream.newInstance(stream);
+        } else {
+            byte[] bytes = stream.readAllBytes();
+            size = bytes.length;
+            in = CodedInputStream.newInstance(bytes);
+        }
+        in.pushLimit(size);
+        return in;
+    }
+
+    // The prefix comes straight off the wire; arrays are sized from it only once the
+    // message is known to hold that many bytes
+    private static int readPackedLength(CodedInputStream in) throws IOException {
+        int length = in.readRawVarint32();
+        if (length < 0 || length > in.getBytesUntilLimit()) {
+            throw new InvalidProtocolBufferException(
+                    "Packed field of " + length + " bytes with " + in.getBytesUntilLimit() + " left in the message");
+        }
+        return length;
+    }
+
+    private static int[] ensureCapacity(int[] values, int capacity) {
+        return capacity <= values.length ? values : Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+    }
+
+    private static long[] ensureCapacity(long[] values, int capacity) {
+        return capacity <= values.length ? values : Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+    }
+
+    // Same status the generated protobuf marshaller reports for malformed messages
+    private static RuntimeException invalid(IOException e) {
+        return Status.INTERNAL.withDescription("Invalid protobuf byte sequence").withCause(e).asRuntimeException();
+    }
+}
@@ -0,0 +1,144 @@
+package services.calculator;
+
+import calculator.CalculatorGrpc;
+import calculator.CalculatorOuterClass.SumBatchReply;
+import calculator.CalculatorOuterClass.SumBatchRequest;
+import calculator.CalculatorOuterClass.SumRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to add {@code batchSize} pairs of operands against an in-process
+ * CalculatorImpl: one unary Sum per pair, one SumBatch call, or one batch over an
+ * already open SumStream.
+ *
+ * <p>Run with {@code bazel run //services/calculator:calculator_benchmarks}. Every
+ * method does the same number of additions per operation, so the scores compare
+ * directly; {@code gc.alloc.rate.norm} shows the per-call allocation the batched
+ * paths avoid.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SumBenchmark {
+
+    @Param({"1", "64", "1024"})
+    public int batchSize;
+
+    private Server server;
+    private ManagedChannel channel;
+    private CalculatorGrpc.CalculatorBlockingStub blockingStub;
+    private StreamObserver<SumBatchRequest> stream;
+    private final BlockingQueue<SumBatchReply> streamReplies = new ArrayBlockingQueue<>(1);
+
+    private int[] a;
+    private int[] b;
+    private SumRequest[] unaryRequests;
+    private SumBatchRequest batchRequest;
+
+    @Setup
+    public void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .addService(CalculatorServer.bindPacked(new CalculatorServer.CalculatorImpl()))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        blockingStub = CalculatorGrpc.newBlockingStub(channel);
+        stream = CalculatorGrpc.newStub(channel).sumStream(new StreamObserver<SumBatchReply>() {
+            @Override
+            public void onNext(SumBatchReply reply) {
+                streamReplies.add(reply);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                throw new IllegalStateException("SumStream failed", t);
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+
+        a = new int[batchSize];
+        b = new int[batchSize];
+        unaryRequests = new SumRequest[batchSize];
+        SumBatchRequest.Builder batch = SumBatchRequest.newBuilder();
+        for (int i = 0; i < batchSize; i++) {
+            a[i] = ThreadLocalRandom.current().nextInt(1 << 20);
+            b[i] = ThreadLocalRandom.current().nextInt(1 << 20);
+            unaryRequests[i] = SumRequest.newBuilder().setA(a[i]).setB(b[i]).build();
+            batch.addA(a[i]).addB(b[i]);
+        }
+        batchRequest = batch.build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        stream.onCompleted();
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Benchmark
+    public long unary() {
+        long total = 0;
+        for (SumRequest request : unaryRequests) {
+            total += blockingStub.sum(request).getResult();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long batch() {
+        return total(blockingStub.sumBatch(batchRequest));
+    }
+
+    @Benchmark
+    public long stream() throws InterruptedException {
+        stream.onNext(batchRequest);
+        return total(streamReplies.take());
+    }
+
+    // Build the request inside the measurement too, as a real client would
+    @Benchmark
+    public long batchIncludingEncode() {
+        SumBatchRequest.Builder request = SumBatchRequest.newBuilder();
+        for (int i = 0; i < batchSize; i++) {
+            request.addA(a[i]).addB(b[i]);
+        }
+        return total(blockingStub.sumBatch(request.build()));
+    }
+
+    private static long total(SumBatchReply reply) {
+        long total = 0;
+        for (int i = 0; i < reply.getResultsCount(); i++) {
+            total += reply.getResults(i);
+        }
+        return total;
+    }
+}
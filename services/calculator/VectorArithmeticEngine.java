@@ -0,0 +1,120 @@
+package services.calculator;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ArithmeticEngine} on the incubating Vector API, using the widest vectors
+ * the CPU supports. Each method runs whole vectors over the bulk of the array and
+ * finishes the remainder with scalar code.
+ *
+ * <p>Only {@link ArithmeticEngine#create} instantiates this class, and only when
+ * the {@code jdk.incubator.vector} module is present.
+ */
+final class VectorArithmeticEngine implements ArithmeticEngine {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    @Override
+    public void add(int[] a, int[] b, int[] out, int n) {
+        int i = 0;
+        for (int bound = INTS.loopBound(n); i < bound; i += INTS.length()) {
+            IntVector.fromArray(INTS, a, i).add(IntVector.fromArray(INTS, b, i)).intoArray(out, i);
+        }
+        for (; i < n; i++) {
+            out[i] = a[i] + b[i];
+        }
+    }
+
+    @Override
+    public long sum(int[] values, int n) {
+        // Both species have the same bit size, so each int vector widens into two long vectors
+        LongVector low = LongVector.zero(LONGS);
+        LongVector high = LongVector.zero(LONGS);
+        int i = 0;
+        for (int bound = INTS.loopBound(n); i < bound; i += INTS.length()) {
+            IntVector v = IntVector.fromArray(INTS, values, i);
+            low = low.add((LongVector) v.convertShape(VectorOperators.I2L, LONGS, 0));
+            high = high.add((LongVector) v.convertShape(VectorOperators.I2L, LONGS, 1));
+        }
+        long sum = low.add(high).reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public long sumExact(long[] values, int n) {
+        LongVector acc = LongVector.zero(LONGS);
+        int i = 0;
+        for (int bound = LONGS.loopBound(n); i < bound; i += LONGS.length()) {
+            LongVector v = LongVector.fromArray(LONGS, values, i);
+            LongVector next = acc.add(v);
+            // A lane overflowed if both operands' signs differ from the result's
+            VectorMask<Long> overflow = acc.lanewise(VectorOperators.XOR, next)
+                    .and(v.lanewise(VectorOperators.XOR, next))
+                    .compare(VectorOperators.LT, 0);
+            if (overflow.anyTrue()) {
+                return ArithmeticEngine.wideSumExact(values, n);
+            }
+            acc = next;
+        }
+        long sum = 0;
+        try {
+            for (long lane : acc.toArray()) {
+                sum = Math.addExact(sum, lane);
+            }
+            for (; i < n; i++) {
+                sum = Math.addExact(sum, values[i]);
+            }
+            return sum;
+        } catch (ArithmeticException e) {
+            return ArithmeticEngine.wideSumExact(values, n);
+        }
+    }
+
+    @Override
+    public int min(int[] values, int n) {
+        int i = 0;
+        int min = Integer.MAX_VALUE;
+        int bound = INTS.loopBound(n);
+        if (bound > 0) {
+            IntVector acc = IntVector.fromArray(INTS, values, 0);
+            for (i = INTS.length(); i < bound; i += INTS.length()) {
+                acc = acc.min(IntVector.fromArray(INTS, values, i));
+            }
+            min = acc.reduceLanes(VectorOperators.MIN);
+        }
+        for (; i < n; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    @Override
+    public int max(int[] values, int n) {
+        int i = 0;
+        int max = Integer.MIN_VALUE;
+        int bound = INTS.loopBound(n);
+        if (bound > 0) {
+            IntVector acc = IntVector.fromArray(INTS, values, 0);
+            for (i = INTS.length(); i < bound; i += INTS.length()) {
+                acc = acc.max(IntVector.fromArray(INTS, values, i));
+            }
+            max = acc.reduceLanes(VectorOperators.MAX);
+        }
+        for (; i < n; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    @Override
+    public String name() {
+        return "vector(" + INTS.vectorBitSize() + "-bit)";
+    }
+}
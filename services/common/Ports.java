@@ -0,0 +1,29 @@
+package services.common;
+
+/**
+ * The ports the servers listen on. Each has a fixed default and can be moved with an
+ * environment variable, which is how the AppCDS training runs start servers on free
+ * ports instead of the ones the service normally holds.
+ */
+public final class Ports {
+    private Ports() {
+    }
+
+    /** The port {@code envName} names, or {@code defaultPort} when it is unset. */
+    public static int fromEnv(String envName, int defaultPort) {
+        String value = System.getenv(envName);
+        if (value == null || value.isBlank()) {
+            return defaultPort;
+        }
+        int port;
+        try {
+            port = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(envName + " must be a port number, got: " + value, e);
+        }
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException(envName + " must be between 1 and 65535, got: " + value);
+        }
+        return port;
+    }
+}
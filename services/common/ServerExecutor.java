@@ -0,0 +1,164 @@
+package services.common;
+
+import com.sun.net.httpserver.HttpServer;
+import io.grpc.ServerBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * The executor a gRPC server runs its call handlers on, chosen per service with
+ * {@code --executor} / {@code --executor-threads} or, failing that, the
+ * {@code <SERVICE>_EXECUTOR} / {@code <SERVICE>_EXECUTOR_THREADS} environment
+ * variables.
+ *
+ * <p>Handlers that never block are cheapest on {@link Mode#DIRECT}, which runs them
+ * on the transport thread and skips a handoff per callback. Handlers that may block
+ * need one of the other modes.
+ */
+public final class ServerExecutor implements AutoCloseable {
+    public enum Mode {
+        // grpc-java's own cached thread pool
+        DEFAULT,
+        DIRECT,
+        // Bounded pool of --executor-threads platform threads
+        FIXED,
+        VIRTUAL,
+    }
+
+    private final Mode mode;
+    private final int threads;
+    @Nullable
+    private final ExecutorService executor;
+
+    private ServerExecutor(Mode mode, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Executor threads must be positive: " + threads);
+        }
+        this.mode = mode;
+        this.threads = threads;
+        switch (mode) {
+            case FIXED:
+                this.executor = Executors.newFixedThreadPool(threads);
+                break;
+            case VIRTUAL:
+                this.executor = Executors.newVirtualThreadPerTaskExecutor();
+                break;
+            default:
+                this.executor = null;
+        }
+    }
+
+    public static ServerExecutor of(Mode mode) {
+        return of(mode, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static ServerExecutor of(Mode mode, int threads) {
+        return new ServerExecutor(mode, threads);
+    }
+
+    /**
+     * Reads the mode from {@code args}, then from the environment variables named
+     * after {@code service} (e.g. {@code CALCULATOR} reads {@code CALCULATOR_EXECUTOR}).
+     */
+    public static ServerExecutor fromArgs(String[] args, String service) {
+        return fromArgs(args, service, Mode.DEFAULT);
+    }
+
+    /** As {@link #fromArgs(String[], String)}, with {@code defaultMode} when neither names a mode. */
+    public static ServerExecutor fromArgs(String[] args, String service, Mode defaultMode) {
+        Options options = new Options()
+                .addOption(Option.builder().longOpt("executor").hasArg().argName("mode")
+                        .desc("default, direct, fixed or virtual").build())
+                .addOption(Option.builder().longOpt("executor-threads").hasArg().argName("n")
+                        .desc("pool size for --executor=fixed").build());
+        CommandLine line;
+        try {
+            line = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+        String modeName = valueOrEnv(line.getOptionValue("executor"), service + "_EXECUTOR");
+        String threadsValue = valueOrEnv(line.getOptionValue("executor-threads"), service + "_EXECUTOR_THREADS");
+
+        Mode mode = defaultMode;
+        if (modeName != null) {
+            try {
+                mode = Mode.valueOf(modeName.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Executor must be default, direct, fixed or virtual, got: "
+                        + modeName, e);
+            }
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (threadsValue != null) {
+            try {
+                threads = Integer.parseInt(threadsValue.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Executor threads must be an integer, got: " + threadsValue, e);
+            }
+        }
+        return of(mode, threads);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void configure(ServerBuilder<?> builder) {
+        if (mode == Mode.DIRECT) {
+            builder.directExecutor();
+        } else if (executor != null) {
+            builder.executor(executor);
+        }
+    }
+
+    /**
+     * Runs {@code server}'s handlers on this executor. {@link Mode#DEFAULT} and
+     * {@link Mode#DIRECT} leave them on the server's single dispatcher thread.
+     */
+    public void configure(HttpServer server) {
+        if (executor != null) {
+            server.setExecutor(executor);
+        }
+    }
+
+    /**
+     * Stops the pool this created, if any; call once the servers using it have terminated.
+     * An interrupted wait stops the pool at once and leaves the thread interrupted, so
+     * close() does not throw InterruptedException from try-with-resources.
+     */
+    @Override
+    public void close() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.FIXED ? "fixed(" + threads + ")" : mode.name().toLowerCase();
+    }
+
+    @Nullable
+    private static String valueOrEnv(@Nullable String value, String envName) {
+        if (value != null) {
+            return value;
+        }
+        String env = System.getenv(envName);
+        return env == null || env.isBlank() ? null : env;
+    }
+}
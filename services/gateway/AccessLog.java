@@ -0,0 +1,219 @@
+package services.gateway;
+
+import io.grpc.Grpc;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import java.net.SocketAddress;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * One line per finished proxied call, written by a background thread.
+ *
+ * <p>{@link #log} decides first whether a call is logged: every failed or slow call
+ * is, and a successful one with probability {@link ProxyConfig#getAccessLogSampleRate()}.
+ * A call that is not logged costs one random number. A logged call copies references
+ * and numbers into a preallocated slot of a ring buffer without taking a lock;
+ * strings are only built by the writer thread. When the writer falls behind and
+ * the ring is full, entries are dropped and the count is reported in the log.
+ */
+final class AccessLog {
+    private static final Logger logger = Logger.getLogger(AccessLog.class.getName());
+    // The writer sleeps this long when it finds the ring empty
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    static final AccessLog DISABLED = new AccessLog(0, Long.MAX_VALUE, 1, line -> { });
+
+    private final double sampleRate;
+    private final long slowNanos;
+    private final Consumer<String> sink;
+    // Without a writer thread, entries wait for a call to drain()
+    private final boolean background;
+
+    // A bounded multi-producer queue after Dmitry Vyukov's: a slot may be filled for
+    // position p when its sequence is p, and read once the producer sets it to p + 1
+    private final Entry[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Only the writer, holding the lock on this object, moves the head
+    private long head;
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicBoolean writerStarted = new AtomicBoolean();
+    private final StringBuilder line = new StringBuilder(256);
+
+    AccessLog(double sampleRate, long slowNanos, int bufferSize, Consumer<String> sink) {
+        this(sampleRate, slowNanos, bufferSize, sink, false);
+    }
+
+    private AccessLog(double sampleRate, long slowNanos, int bufferSize, Consumer<String> sink, boolean background) {
+        this.sampleRate = sampleRate;
+        this.slowNanos = slowNanos;
+        this.sink = sink;
+        this.background = background;
+        int capacity = Integer.highestOneBit(Math.max(bufferSize - 1, 1)) << 1;
+        this.slots = new Entry[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Entry();
+            sequences.set(i, i);
+        }
+    }
+
+    static AccessLog create(ProxyConfig config) {
+        return new AccessLog(config.getAccessLogSampleRate(), config.getAccessLogSlowThreshold().toNanos(),
+                config.getAccessLogBufferSize(), logger::info, true);
+    }
+
+    /** Records a finished call if it is failed, slow or sampled; never blocks. */
+    void log(ServerCall<?, ?> call, @Nullable Backend backend, @Nullable Object endpoint, Status status,
+            long durationNanos) {
+        if (this == DISABLED) {
+            return;
+        }
+        Reason reason;
+        if (!status.isOk()) {
+            reason = Reason.ERROR;
+        } else if (durationNanos >= slowNanos) {
+            reason = Reason.SLOW;
+        } else if (sampleRate > 0 && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate)) {
+            reason = Reason.SAMPLED;
+        } else {
+            return;
+        }
+
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The writer has not read this slot since the last lap: full
+                dropped.increment();
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+        Entry entry = slots[index];
+        entry.timeMillis = System.currentTimeMillis();
+        entry.method = call.getMethodDescriptor().getFullMethodName();
+        entry.backend = backend != null ? backend.getName() : null;
+        entry.endpoint = endpoint;
+        entry.peer = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+        entry.status = status;
+        entry.durationNanos = durationNanos;
+        entry.reason = reason;
+        sequences.set(index, position + 1);
+
+        // Started on the first entry, so gateways that never log never start a thread
+        if (background && !writerStarted.get() && writerStarted.compareAndSet(false, true)) {
+            Thread writer = new Thread(this::writeLoop, "gateway-access-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    long droppedCount() {
+        return dropped.sum();
+    }
+
+    private void writeLoop() {
+        while (true) {
+            if (drain() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /** Writes every entry published so far; returns how many were written. */
+    synchronized int drain() {
+        int written = 0;
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            Entry entry = slots[index];
+            sink.accept(format(entry));
+            entry.clear();
+            // Hand the slot to the producer one lap ahead
+            sequences.set(index, head + slots.length);
+            head++;
+            written++;
+        }
+        long lost = dropped.sumThenReset();
+        if (lost > 0) {
+            sink.accept("access log full, dropped=" + lost);
+        }
+        return written;
+    }
+
+    private String format(Entry entry) {
+        line.setLength(0);
+        line.append("ts=").append(Instant.ofEpochMilli(entry.timeMillis))
+                .append(" method=").append(entry.method)
+                .append(" target=").append(entry.backend)
+                .append(" endpoint=").append(entry.endpoint)
+                .append(" peer=").append(entry.peer)
+                .append(" status=").append(entry.status.getCode())
+                .append(" duration_us=").append(TimeUnit.NANOSECONDS.toMicros(entry.durationNanos))
+                .append(" reason=").append(entry.reason.label);
+        if (entry.status.getDescription() != null) {
+            line.append(" description=\"").append(GatewayMetrics.escape(entry.status.getDescription())).append('"');
+        }
+        return line.toString();
+    }
+
+    private enum Reason {
+        ERROR("error"),
+        SLOW("slow"),
+        SAMPLED("sampled");
+
+        private final String label;
+
+        Reason(String label) {
+            this.label = label;
+        }
+    }
+
+    // Fields are published to the writer by the release of the slot's sequence
+    private static final class Entry {
+        long timeMillis;
+        String method;
+        @Nullable
+        String backend;
+        @Nullable
+        Object endpoint;
+        @Nullable
+        SocketAddress peer;
+        Status status;
+        long durationNanos;
+        Reason reason;
+
+        // Drops references so a quiet ring does not keep statuses and their causes alive
+        void clear() {
+            method = null;
+            backend = null;
+            endpoint = null;
+            peer = null;
+            status = null;
+            reason = null;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import io.grpc.Attributes;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AccessLogTest {
+    private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FAST_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final List<String> lines = new ArrayList<>();
+    private final ServerCall<InputStream, InputStream> call = new FakeServerCall();
+
+    @Test
+    public void testFailedAndSlowCallsAreAlwaysLogged() {
+        AccessLog log = new AccessLog(0, SLOW_NANOS, 16, lines::add);
+
+        log.log(call, null, null, Status.OK, FAST_NANOS);
+        log.log(call, null, null, Status.UNAVAILABLE.withDescription("backend \"down\""), FAST_NANOS);
+        log.log(call, null, null, Status.OK, SLOW_NANOS);
+
+        assertThat(log.drain()).isEqualTo(2);
+        assertThat(lines).hasSize(2);
+        assertThat(lines.get(0)).contains(" method=test.Log/Call ");
+        assertThat(lines.get(0)).contains(" peer=/127.0.0.1:5000 ");
+        assertThat(lines.get(0)).contains(" status=UNAVAILABLE duration_us=1000 reason=error");
+        assertThat(lines.get(0)).endsWith(" description=\"backend \\\"down\\\"\"");
+        assertThat(lines.get(1)).contains(" status=OK duration_us=100000 reason=slow");
+    }
+
+    @Test
+    public void testSuccessfulCallsAreSampled() {
+        AccessLog all = new AccessLog(1, SLOW_NANOS, 1024, lines::add);
+        AccessLog some = new AccessLog(0.1, SLOW_NANOS, 1024, line -> { });
+        for (int i = 0; i < 1000; i++) {
+            all.log(call, null, null, Status.OK, FAST_NANOS);
+            some.log(call, null, null, Status.OK, FAST_NANOS);
+        }
+
+        assertThat(all.drain()).isEqualTo(1000);
+        assertThat(lines.get(0)).contains(" reason=sampled");
+        // 100 expected; the bounds are over six standard deviations wide
+        int sampled = some.drain();
+        assertThat(sampled).isAtLeast(40);
+        assertThat(sampled).isAtMost(160);
+    }
+
+    @Test
+    public void testFullBufferDropsAndReportsEntries() {
+        AccessLog log = new AccessLog(1, SLOW_NANOS, 4, lines::add);
+        for (int i = 0; i < 10; i++) {
+            log.log(call, null, null, Status.OK, FAST_NANOS);
+        }
+
+        assertThat(log.droppedCount()).isEqualTo(6);
+        assertThat(log.drain()).isEqualTo(4);
+        assertThat(lines).hasSize(5);
+        assertThat(lines.get(4)).isEqualTo("access log full, dropped=6");
+
+        // Drained slots are reused on the next lap
+        log.log(call, null, null, Status.OK, FAST_NANOS);
+        assertThat(log.drain()).isEqualTo(1);
+    }
+
+    private static final class FakeServerCall extends ServerCall<InputStream, InputStream> {
+        private static final MethodDescriptor<InputStream, InputStream> METHOD =
+                MethodDescriptor.<InputStream, InputStream>newBuilder()
+                        .setType(MethodDescriptor.MethodType.UNARY)
+                        .setFullMethodName("test.Log/Call")
+                        .setRequestMarshaller(new GatewayServer.InputStreamMarshaller())
+                        .setResponseMarshaller(new GatewayServer.InputStreamMarshaller())
+                        .build();
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+        }
+
+        @Override
+        public void sendMessage(InputStream message) {
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return Attributes.newBuilder()
+                    .set(Grpc.TRANSPORT_ATTR_REMOTE_ADDR, new InetSocketAddress("127.0.0.1", 5000))
+                    .build();
+        }
+
+        @Override
+        public MethodDescriptor<InputStream, InputStream> getMethodDescriptor() {
+            return METHOD;
+        }
+    }
+}
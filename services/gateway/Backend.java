@@ -0,0 +1,200 @@
+package services.gateway;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * A logical backend target ("greeter", "calculator") served by one or more
+ * replicas. {@link #pick()} assigns each proxied call to a replica, passing over
+ * replicas that fail their health checks or have been ejected as outliers unless
+ * none are left.
+ */
+final class Backend {
+    enum Policy {
+        ROUND_ROBIN,
+        // Sample two replicas at random and take the one with fewer calls in flight
+        POWER_OF_TWO_CHOICES,
+    }
+
+    private final String name;
+    private final Endpoint[] endpoints;
+    private final Policy policy;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    Backend(String name, List<? extends ManagedChannel> channels, Policy policy) {
+        this(name, channels, policy, OutlierDetection.DISABLED);
+    }
+
+    Backend(String name, List<? extends ManagedChannel> channels, Policy policy, OutlierDetection outliers) {
+        if (channels.isEmpty()) {
+            throw new IllegalArgumentException("A backend needs at least one endpoint");
+        }
+        this.name = name;
+        this.endpoints = new Endpoint[channels.size()];
+        for (int i = 0; i < endpoints.length; i++) {
+            endpoints[i] = new Endpoint(channels.get(i), outliers);
+        }
+        this.policy = policy;
+    }
+
+    Endpoint pick() {
+        if (endpoints.length == 1) {
+            return endpoints[0];
+        }
+        if (policy == Policy.ROUND_ROBIN) {
+            int start = nextIndex.getAndIncrement() & Integer.MAX_VALUE;
+            Endpoint up = firstAvailable(start);
+            return up != null ? up : endpoints[start % endpoints.length];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(endpoints.length);
+        int second = random.nextInt(endpoints.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        Endpoint a = endpoints[first];
+        Endpoint b = endpoints[second];
+        boolean aUp = a.isAvailable();
+        if (aUp != b.isAvailable()) {
+            return aUp ? a : b;
+        }
+        if (!aUp) {
+            Endpoint up = firstAvailable(first);
+            if (up != null) {
+                return up;
+            }
+        }
+        return b.inFlight() < a.inFlight() ? b : a;
+    }
+
+    // Null when every replica is out. pick() then spreads calls over all of them: a
+    // replica that was wrongly judged bad still serves, and one really down fails fast
+    @Nullable
+    private Endpoint firstAvailable(int start) {
+        for (int i = 0; i < endpoints.length; i++) {
+            Endpoint endpoint = endpoints[(start + i) % endpoints.length];
+            if (endpoint.isAvailable()) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    /** The {@code x-backend-target} this backend serves. */
+    String getName() {
+        return name;
+    }
+
+    List<Endpoint> getEndpoints() {
+        return List.of(endpoints);
+    }
+
+    // One replica of a backend, with the number of proxied calls currently open on it
+    // and whether it should be sent more
+    static final class Endpoint {
+        private final ManagedChannel channel;
+        private final OutlierDetection outliers;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        // Set by the HealthChecker from the replica's own grpc.health.v1 answers
+        private volatile boolean serving = true;
+        // Written under the lock and read without it when picking. ejectedUntilNanos
+        // means nothing until the first ejection sets hasBeenEjected
+        private volatile boolean hasBeenEjected;
+        private volatile long ejectedUntilNanos;
+        private int ejectionsInARow;
+        private volatile long ejections;
+
+        Endpoint(ManagedChannel channel) {
+            this(channel, OutlierDetection.DISABLED);
+        }
+
+        Endpoint(ManagedChannel channel, OutlierDetection outliers) {
+            this.channel = channel;
+            this.outliers = outliers;
+        }
+
+        ManagedChannel getChannel() {
+            return channel;
+        }
+
+        int inFlight() {
+            return inFlight.get();
+        }
+
+        void callStarted() {
+            inFlight.incrementAndGet();
+        }
+
+        /**
+         * Records a call that ended with {@code code}, {@code responseNanos} after it
+         * was sent: the time to its response headers, or to its close if it had none.
+         * Streams pass {@link OutlierDetection#UNTIMED}, so only their code is judged.
+         */
+        void callFinished(Status.Code code, long responseNanos) {
+            inFlight.decrementAndGet();
+            if (!outliers.isEnabled() || !outliers.isJudged(code, responseNanos)) {
+                return;
+            }
+            if (!outliers.isFailure(code, responseNanos)) {
+                // Read first so healthy replicas do not all write the same cache line
+                if (consecutiveFailures.get() != 0) {
+                    consecutiveFailures.set(0);
+                }
+                return;
+            }
+            if (consecutiveFailures.incrementAndGet() >= outliers.getConsecutiveFailures()) {
+                eject();
+            }
+        }
+
+        private synchronized void eject() {
+            // Calls sent before the ejection are still failing; they do not extend it
+            if (isEjected()) {
+                return;
+            }
+            long now = System.nanoTime();
+            // A replica that stayed in long enough since its last ejection starts over
+            if (hasBeenEjected && now - ejectedUntilNanos > outliers.ejectionNanos(
+                    OutlierDetection.MAX_EJECTION_MULTIPLIER)) {
+                ejectionsInARow = 0;
+            }
+            ejectionsInARow++;
+            ejections++;
+            consecutiveFailures.set(0);
+            ejectedUntilNanos = now + outliers.ejectionNanos(ejectionsInARow);
+            hasBeenEjected = true;
+        }
+
+        boolean isEjected() {
+            return hasBeenEjected && System.nanoTime() - ejectedUntilNanos < 0;
+        }
+
+        /** Times the replica has been ejected as an outlier. */
+        long getEjections() {
+            return ejections;
+        }
+
+        boolean isServing() {
+            return serving;
+        }
+
+        void setServing(boolean serving) {
+            this.serving = serving;
+        }
+
+        /** Whether calls should be sent here while other replicas are available. */
+        boolean isAvailable() {
+            return serving && !isEjected();
+        }
+
+        @Override
+        public String toString() {
+            return channel.authority();
+        }
+    }
+}
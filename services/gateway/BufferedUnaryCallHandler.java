@@ -0,0 +1,330 @@
+package services.gateway;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.Context;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.Status;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Proxies a unary method whose replies may be served from the {@link ResponseCache}
+ * or shared with identical concurrent calls through {@link SingleFlight}.
+ *
+ * <p>Unlike {@link GatewayServer.GatewayServerCallHandler} this buffers the request
+ * and reply, since both are needed as bytes to key the cache and the flights. Only
+ * the methods listed in {@code GATEWAY_CACHE_METHODS} or
+ * {@code GATEWAY_SINGLE_FLIGHT_METHODS} take this path.
+ */
+final class BufferedUnaryCallHandler implements ServerCallHandler<InputStream, InputStream> {
+    // Transports replace it only on calls that have a deadline of their own
+    private static final Metadata.Key<String> TIMEOUT_KEY = Metadata.Key.of("grpc-timeout",
+            Metadata.ASCII_STRING_MARSHALLER);
+
+    private final MethodDescriptor<InputStream, InputStream> method;
+    @Nullable
+    private final ResponseCache cache;
+    @Nullable
+    private final SingleFlight singleFlight;
+    private final GatewayMetrics metrics;
+    private final GatewayMetrics.MethodMetrics methodMetrics;
+    private final AccessLog accessLog;
+    private final DeadlinePolicy deadlines;
+    @Nullable
+    private final ConcurrencyLimiter.PerBackend concurrencyLimits;
+
+    BufferedUnaryCallHandler(MethodDescriptor<InputStream, InputStream> method, @Nullable ResponseCache cache,
+            @Nullable SingleFlight singleFlight, GatewayMetrics metrics, AccessLog accessLog,
+            DeadlinePolicy deadlines, @Nullable ConcurrencyLimiter.PerBackend concurrencyLimits) {
+        this.method = method;
+        this.cache = cache;
+        this.singleFlight = singleFlight;
+        this.metrics = metrics;
+        this.methodMetrics = metrics.forMethod(method.getFullMethodName());
+        this.accessLog = accessLog;
+        this.deadlines = deadlines;
+        this.concurrencyLimits = concurrencyLimits;
+    }
+
+    @Override
+    public ServerCall.Listener<InputStream> startCall(ServerCall<InputStream, InputStream> serverCall,
+            Metadata headers) {
+        long startNanos = methodMetrics.callStarted();
+        Backend backend = GatewayServer.ORCHESTRATION_TARGET_BACKEND.get();
+        Backend.Endpoint endpoint = GatewayServer.ORCHESTRATION_TARGET_ENDPOINT.get();
+        if (backend == null) {
+            Status status = Status.INTERNAL.withDescription("No channel selected");
+            serverCall.close(status, new Metadata());
+            accessLog.log(serverCall, null, null, status, methodMetrics.callFinished(status.getCode(), startNanos));
+            return new ServerCall.Listener<InputStream>() {
+            };
+        }
+        String target = headers.get(GatewayServer.TARGET_HEADER_KEY);
+
+        // Ask for two so that a second message reveals a method that is not unary
+        serverCall.request(2);
+
+        return new ServerCall.Listener<InputStream>() {
+            private byte[] request;
+            private boolean closed;
+            private Runnable cancelUpstream;
+            // A caller leaving a flight can race the flight delivering to it; count it once
+            private final AtomicBoolean finished = new AtomicBoolean();
+
+            private void finish(Status status) {
+                if (finished.compareAndSet(false, true)) {
+                    accessLog.log(serverCall, backend, null, status,
+                            methodMetrics.callFinished(status.getCode(), startNanos));
+                }
+            }
+
+            @Override
+            public void onMessage(InputStream message) {
+                if (closed || request != null) {
+                    // Dropped, so the buffers it holds are released here
+                    GatewayServer.closeQuietly(message);
+                }
+                if (closed) {
+                    return;
+                }
+                if (request != null) {
+                    closed = true;
+                    Status status = Status.INTERNAL.withDescription(
+                            method.getFullMethodName() + " is buffered but is not unary");
+                    serverCall.close(status, new Metadata());
+                    finish(status);
+                    return;
+                }
+                request = readAll(message);
+                methodMetrics.messageReceived(request.length);
+            }
+
+            @Override
+            public void onHalfClose() {
+                if (closed) {
+                    return;
+                }
+                if (request == null) {
+                    closed = true;
+                    Status status = Status.INTERNAL.withDescription("Missing request message");
+                    serverCall.close(status, new Metadata());
+                    finish(status);
+                    return;
+                }
+                RequestKey key = new RequestKey(method.getFullMethodName(), target, request);
+                if (cache != null) {
+                    InputStream cached = cache.lookup(key);
+                    if (cached != null) {
+                        closed = true;
+                        methodMetrics.messageSent(GatewayMetrics.sizeOf(cached));
+                        serverCall.sendHeaders(new Metadata());
+                        serverCall.sendMessage(cached);
+                        serverCall.close(Status.OK, new Metadata());
+                        finish(Status.OK);
+                        return;
+                    }
+                }
+                CallOptions callOptions = deadlines.backendCallOptions(Context.current().getDeadline());
+                if (callOptions == null) {
+                    closed = true;
+                    methodMetrics.deadlineRejected();
+                    serverCall.close(DeadlinePolicy.TOO_LITTLE_TIME, new Metadata());
+                    finish(DeadlinePolicy.TOO_LITTLE_TIME);
+                    return;
+                }
+                if (singleFlight != null && singleFlight.isCoalesced(key.method())) {
+                    // Whoever leads the flight sends its own headers upstream on behalf of
+                    // all, but not its deadline: a follower may wait longer than the leader.
+                    // The flight outlives its leader, so the backend call is started outside
+                    // the leader's Context and only SingleFlight cancels it, once the last
+                    // waiter has left; each waiter leaves when its own deadline passes
+                    CallOptions flightOptions = deadlines.backendCallOptions(null);
+                    Metadata flightHeaders = new Metadata();
+                    flightHeaders.merge(headers);
+                    flightHeaders.discardAll(TIMEOUT_KEY);
+                    AtomicBoolean answered = new AtomicBoolean();
+                    SingleFlight.Subscription subscription = singleFlight.join(key,
+                            reply -> {
+                                if (answered.compareAndSet(false, true)) {
+                                    methodMetrics.messageSent(reply.messageSize());
+                                    reply.deliverTo(serverCall);
+                                    finish(reply.getStatus());
+                                }
+                            },
+                            complete -> {
+                                Context flight = Context.current().fork();
+                                Context previous = flight.attach();
+                                try {
+                                    return forward(backend, endpoint, flightHeaders, key, flightOptions,
+                                            new Buffering(complete));
+                                } finally {
+                                    flight.detach(previous);
+                                }
+                            });
+                    cancelUpstream = subscription::leave;
+                    Context.current().addListener(context -> {
+                        if (!(context.cancellationCause() instanceof TimeoutException)) {
+                            // Cancelled by the caller, which onCancel handles
+                            return;
+                        }
+                        subscription.leave();
+                        if (answered.compareAndSet(false, true)) {
+                            Status status = Status.DEADLINE_EXCEEDED.withDescription(
+                                    "Deadline passed while waiting on a shared backend call");
+                            serverCall.close(status, new Metadata());
+                            finish(status);
+                        }
+                    }, Runnable::run);
+                } else {
+                    cancelUpstream = forward(backend, endpoint, headers, key, callOptions,
+                            new Relaying(serverCall, methodMetrics, this::finish));
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                if (cancelUpstream != null) {
+                    cancelUpstream.run();
+                }
+                // A relayed call is normally counted when its backend call closes, but
+                // a caller that leaves a flight, or leaves early, is not closed by anyone
+                finish(Status.CANCELLED);
+            }
+        };
+    }
+
+    // Sends the buffered request to the backend and hands its reply to the listener.
+    // Returns a handle that cancels the backend call. A flight takes one place under
+    // the backend's concurrency limit however many callers wait on it.
+    private Runnable forward(Backend backend, Backend.Endpoint endpoint, Metadata headers, RequestKey key,
+            CallOptions callOptions, ReplyListener listener) {
+        ConcurrencyLimiter.Permit permit = concurrencyLimits != null
+                ? concurrencyLimits.forBackend(backend.getName()).tryAcquire() : null;
+        if (concurrencyLimits != null && permit == null) {
+            listener.onClose(ConcurrencyLimiter.LIMIT_EXCEEDED, new Metadata());
+            return () -> {
+            };
+        }
+        GatewayMetrics.BackendMetrics backendMetrics = metrics.forBackend(backend.getName());
+        ClientCall<InputStream, InputStream> clientCall = endpoint.getChannel().newCall(method, callOptions);
+        endpoint.callStarted();
+        long backendStartNanos = backendMetrics.callStarted();
+        clientCall.start(new ClientCall.Listener<InputStream>() {
+            private byte[] reply;
+            private long responseNanos = -1;
+
+            @Override
+            public void onHeaders(Metadata responseHeaders) {
+                responseNanos = System.nanoTime() - backendStartNanos;
+                listener.onHeaders(responseHeaders);
+            }
+
+            @Override
+            public void onMessage(InputStream message) {
+                reply = readAll(message);
+                listener.onMessage(reply);
+            }
+
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+                endpoint.callFinished(status.getCode(),
+                        responseNanos >= 0 ? responseNanos : System.nanoTime() - backendStartNanos);
+                backendMetrics.callFinished(status.getCode(), backendStartNanos);
+                if (permit != null) {
+                    permit.release(status.getCode());
+                }
+                if (cache != null && status.isOk() && reply != null) {
+                    cache.put(key, reply);
+                }
+                listener.onClose(status, trailers);
+            }
+        }, headers);
+        clientCall.sendMessage(new ByteBufferInputStream(ByteBuffer.wrap(key.request())));
+        clientCall.halfClose();
+        clientCall.request(1);
+        return () -> clientCall.cancel("Server call cancelled", null);
+    }
+
+    private interface ReplyListener {
+        void onHeaders(Metadata headers);
+
+        void onMessage(byte[] message);
+
+        void onClose(Status status, Metadata trailers);
+    }
+
+    // Passes the backend's reply straight through to the one caller
+    private static final class Relaying implements ReplyListener {
+        private final ServerCall<InputStream, InputStream> serverCall;
+        private final GatewayMetrics.MethodMetrics methodMetrics;
+        private final Consumer<Status> finished;
+
+        Relaying(ServerCall<InputStream, InputStream> serverCall, GatewayMetrics.MethodMetrics methodMetrics,
+                Consumer<Status> finished) {
+            this.serverCall = serverCall;
+            this.methodMetrics = methodMetrics;
+            this.finished = finished;
+        }
+
+        @Override
+        public void onHeaders(Metadata headers) {
+            serverCall.sendHeaders(headers);
+        }
+
+        @Override
+        public void onMessage(byte[] message) {
+            methodMetrics.messageSent(message.length);
+            serverCall.sendMessage(new ByteBufferInputStream(ByteBuffer.wrap(message)));
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            serverCall.close(status, trailers);
+            finished.accept(status);
+        }
+    }
+
+    // Collects the backend's reply for a flight, which replays it to every waiter
+    private static final class Buffering implements ReplyListener {
+        private final Consumer<SingleFlight.Reply> complete;
+        private Metadata headers;
+        private byte[] message;
+
+        Buffering(Consumer<SingleFlight.Reply> complete) {
+            this.complete = complete;
+        }
+
+        @Override
+        public void onHeaders(Metadata headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        public void onMessage(byte[] message) {
+            this.message = message;
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            complete.accept(new SingleFlight.Reply(headers, message, status, trailers));
+        }
+    }
+
+    private static byte[] readAll(InputStream message) {
+        try (InputStream in = message) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package services.gateway;
+
+import io.grpc.KnownLength;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+// KnownLength lets the transport size the outbound frame without buffering it first
+final class ByteBufferInputStream extends InputStream implements KnownLength {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
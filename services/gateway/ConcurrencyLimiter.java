@@ -0,0 +1,268 @@
+package services.gateway;
+
+import io.grpc.Status;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * Caps the calls open to one backend target at a limit that follows the backend's
+ * latency, so a backend that slows down is sent less work instead of a growing queue.
+ *
+ * <p>The limit is adjusted with a gradient on round-trip time. Calls are averaged in
+ * windows of about one limit's worth, and each window's average is compared with the
+ * lowest recent one, the backend's time with little or nothing queued: while calls
+ * take more than {@link #RTT_TOLERANCE} times that, the limit shrinks in proportion,
+ * and while they do not it grows by about its square root, which leaves room for a
+ * queue that small. The lowest time creeps up by {@link #BASELINE_RISE} a window, so
+ * a backend that has become slower for good is eventually judged by its new speed.
+ * A window in which the backend dropped a call, ending it with
+ * {@code RESOURCE_EXHAUSTED}, {@code UNAVAILABLE} or {@code DEADLINE_EXCEEDED}, cuts
+ * the limit by {@link #BACKOFF} instead. Calls over the limit fail with
+ * {@link #LIMIT_EXCEEDED} without reaching the backend. Streams are not limited:
+ * methods listed in {@link ProxyConfig#getStreamingMethods()} never take a permit,
+ * and any other call gives its permit back once it carries a second message either way.
+ *
+ * <p>Nothing here blocks. Permits are taken with a compare-and-set, samples are added
+ * to the window atomically, and whichever thread fills a window updates the limit
+ * while the others carry on without waiting for it.
+ */
+final class ConcurrencyLimiter {
+    static final Status LIMIT_EXCEEDED = Status.RESOURCE_EXHAUSTED
+            .withDescription("Too many calls open to the backend");
+
+    // The limit shrinks only once calls take this much longer than the baseline
+    static final double RTT_TOLERANCE = 1.5;
+    // Share of each new estimate blended into the limit, so one window cannot swing it
+    static final double SMOOTHING = 0.2;
+    // Multiplier applied to the limit after a window in which the backend dropped calls
+    static final double BACKOFF = 0.9;
+    // Share the baseline rises by each window it is not undercut
+    static final double BASELINE_RISE = 1.0 / 300;
+    // Fewest calls averaged into one window, however low the limit
+    private static final int MIN_WINDOW = 10;
+
+    private final String backend;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile double limit;
+
+    // The window being filled. A sample that lands while a window is being closed
+    // may be split across it and the next, which the averages absorb
+    private final AtomicInteger windowSamples = new AtomicInteger();
+    private final AtomicLong windowRttNanos = new AtomicLong();
+    private final AtomicInteger windowMaxInFlight = new AtomicInteger();
+    private volatile boolean windowDropped;
+    // Held by the thread closing a window; only it reads or writes baselineRttNanos
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private double baselineRttNanos;
+
+    ConcurrencyLimiter(String backend, int initialLimit, int minLimit, int maxLimit) {
+        this.backend = backend;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = clamp(initialLimit);
+    }
+
+    /**
+     * Takes a permit for a call to the backend, or returns null when the limit is
+     * reached. The permit must be released exactly once, when the call closes.
+     */
+    @Nullable
+    Permit tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= getLimit()) {
+                rejected.increment();
+                return null;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return new Permit(this, current + 1);
+    }
+
+    /** The number of calls currently allowed. */
+    int getLimit() {
+        return (int) limit;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    /** Releases a call that took {@code rttNanos} and was one of {@code inFlightAtStart}. */
+    void onSample(long rttNanos, int inFlightAtStart) {
+        inFlight.decrementAndGet();
+        windowRttNanos.addAndGet(rttNanos);
+        windowMaxInFlight.accumulateAndGet(inFlightAtStart, Math::max);
+        sampleAdded();
+    }
+
+    /** Releases a call the backend dropped. */
+    void onDropped() {
+        inFlight.decrementAndGet();
+        windowDropped = true;
+        sampleAdded();
+    }
+
+    /** Releases a call that says nothing about the backend's latency. */
+    void onIgnored() {
+        inFlight.decrementAndGet();
+    }
+
+    private void sampleAdded() {
+        if (windowSamples.incrementAndGet() < Math.max(MIN_WINDOW, limit) || !updating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int samples = windowSamples.getAndSet(0);
+            long rttNanos = windowRttNanos.getAndSet(0);
+            int maxInFlight = windowMaxInFlight.getAndSet(0);
+            boolean dropped = windowDropped;
+            windowDropped = false;
+            limit = dropped ? clamp(limit * BACKOFF) : nextLimit((double) rttNanos / samples, maxInFlight);
+        } finally {
+            updating.set(false);
+        }
+    }
+
+    private double nextLimit(double windowRtt, int maxInFlight) {
+        double current = limit;
+        baselineRttNanos = baselineRttNanos == 0 || windowRtt < baselineRttNanos
+                ? windowRtt : baselineRttNanos * (1 + BASELINE_RISE);
+        // A backend that is not being kept busy says little about what it can take
+        if (maxInFlight < current / 2) {
+            return current;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * baselineRttNanos / windowRtt));
+        double next = clamp(current * (1 - SMOOTHING) + (current * gradient + Math.sqrt(current)) * SMOOTHING);
+        // Near the floor few of our calls can be waiting at the backend, so the time
+        // they take now is its new normal rather than a queue to drain
+        if (gradient < 1.0 && next <= minLimit * 1.5) {
+            baselineRttNanos = windowRtt / RTT_TOLERANCE;
+        }
+        return next;
+    }
+
+    private double clamp(double value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+
+    private String labels() {
+        return "backend=\"" + GatewayMetrics.escape(backend) + "\"";
+    }
+
+    /** One call's hold on the limiter, which also times it for the next sample. */
+    static final class Permit {
+        private final ConcurrencyLimiter limiter;
+        private final int inFlightAtStart;
+        private final long startNanos = System.nanoTime();
+        // Each counter is only touched by one direction of the call; either may flag it
+        private int requests;
+        private int replies;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(ConcurrencyLimiter limiter, int inFlightAtStart) {
+            this.limiter = limiter;
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        void requestSent() {
+            if (++requests == 2) {
+                streamed();
+            }
+        }
+
+        void replyReceived() {
+            if (++replies == 2) {
+                streamed();
+            }
+        }
+
+        // A stream lasts as long as its caller keeps it open, so it gives its place back
+        // as soon as it shows itself and is never timed. Otherwise a few long streams
+        // would hold the limit down with no samples coming in to raise it again
+        private void streamed() {
+            if (released.compareAndSet(false, true)) {
+                limiter.onIgnored();
+            }
+        }
+
+        /**
+         * Gives the permit back, unless the call already did when it turned out to be a
+         * stream. Only calls that carried at most one message each way are timed, and
+         * not those the caller cancelled, which did not run their course.
+         */
+        void release(Status.Code code) {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            switch (code) {
+                case RESOURCE_EXHAUSTED:
+                case UNAVAILABLE:
+                case DEADLINE_EXCEEDED:
+                    limiter.onDropped();
+                    return;
+                case CANCELLED:
+                    limiter.onIgnored();
+                    return;
+                default:
+                    limiter.onSample(System.nanoTime() - startNanos, inFlightAtStart);
+            }
+        }
+    }
+
+    /** One limiter per backend target, made the first time a call is sent to it. */
+    static final class PerBackend {
+        private final int initialLimit;
+        private final int minLimit;
+        private final int maxLimit;
+        private final ConcurrentHashMap<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+        PerBackend(int initialLimit, int minLimit, int maxLimit) {
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        /** Returns limiters as {@code config} asks, or null when calls are not limited. */
+        @Nullable
+        static PerBackend create(ProxyConfig config) {
+            if (!config.isConcurrencyLimitEnabled()) {
+                return null;
+            }
+            return new PerBackend(config.getInitialConcurrencyLimit(), config.getMinConcurrencyLimit(),
+                    config.getMaxConcurrencyLimit());
+        }
+
+        ConcurrencyLimiter forBackend(String backend) {
+            ConcurrencyLimiter limiter = limiters.get(backend);
+            return limiter != null ? limiter : limiters.computeIfAbsent(backend,
+                    name -> new ConcurrencyLimiter(name, initialLimit, minLimit, maxLimit));
+        }
+
+        /** Appends each backend's limit and rejections in the Prometheus text format. */
+        void writeTo(StringBuilder out) {
+            Map<String, ConcurrencyLimiter> byBackend = new TreeMap<>(limiters);
+            GatewayMetrics.header(out, "gateway_backend_concurrency_limit", "gauge",
+                    "Calls each backend may have open, as adapted to its latency.");
+            byBackend.values().forEach(l -> GatewayMetrics.sample(out, "gateway_backend_concurrency_limit",
+                    l.labels(), l.getLimit()));
+            GatewayMetrics.header(out, "gateway_backend_concurrency_rejected_total", "counter",
+                    "Calls failed without a backend call, as the backend's limit was reached.");
+            byBackend.values().forEach(l -> GatewayMetrics.sample(out, "gateway_backend_concurrency_rejected_total",
+                    l.labels(), l.getRejected()));
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCalls;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConcurrencyLimiterTest {
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> WORK = method("Work");
+    private static final MethodDescriptor<byte[], byte[]> HANG = method("Hang");
+    private static final MethodDescriptor<byte[], byte[]> COALESCED = method("Coalesced");
+
+    // The backend works on this many calls at a time and queues the rest
+    private static final int BACKEND_WORKERS = 8;
+    private static final int CALLERS = 64;
+
+    private final Semaphore workers = new Semaphore(BACKEND_WORKERS, true);
+    private final AtomicLong serviceMillis = new AtomicLong(2);
+    private final AtomicInteger hanging = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Runnable> cleanup = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        cleanup.forEach(Runnable::run);
+    }
+
+    @Test
+    public void testLimitGrowsWhileLatencyHolds() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20, 4, 100);
+
+        rounds(limiter, 50, TimeUnit.MILLISECONDS.toNanos(1));
+
+        assertThat(limiter.getLimit()).isGreaterThan(20);
+        assertThat(limiter.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void testLimitShrinksWhenLatencyRises() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20, 4, 100);
+        rounds(limiter, 5, TimeUnit.MILLISECONDS.toNanos(1));
+        int before = limiter.getLimit();
+
+        rounds(limiter, 20, TimeUnit.MILLISECONDS.toNanos(5));
+
+        assertThat(limiter.getLimit()).isLessThan(before / 2);
+        assertThat(limiter.getLimit()).isAtLeast(4);
+    }
+
+    @Test
+    public void testLimitRecoversOnceTheSlowerLatencyIsTheNorm() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20, 4, 100);
+        rounds(limiter, 5, TimeUnit.MILLISECONDS.toNanos(1));
+        rounds(limiter, 30, TimeUnit.MILLISECONDS.toNanos(5));
+        int shrunk = limiter.getLimit();
+
+        rounds(limiter, 30, TimeUnit.MILLISECONDS.toNanos(5));
+
+        assertThat(limiter.getLimit()).isGreaterThan(shrunk);
+    }
+
+    @Test
+    public void testIdleBackendDoesNotGrowTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20, 4, 100);
+
+        // One call at a time, far below the limit
+        for (int i = 0; i < 1000; i++) {
+            limiter.tryAcquire();
+            limiter.onSample(TimeUnit.MILLISECONDS.toNanos(1), 1);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(20);
+    }
+
+    @Test
+    public void testDroppedCallsBackOff() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 20, 4, 100);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.tryAcquire().release(Status.Code.UNAVAILABLE);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo((int) (20 * ConcurrencyLimiter.BACKOFF));
+    }
+
+    @Test
+    public void testStreamsAndCancelledCallsAreNotTimed() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 4, 4, 100);
+
+        for (int i = 0; i < 100; i++) {
+            ConcurrencyLimiter.Permit stream = limiter.tryAcquire();
+            stream.replyReceived();
+            stream.replyReceived();
+            stream.release(Status.Code.OK);
+            limiter.tryAcquire().release(Status.Code.CANCELLED);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(4);
+        assertThat(limiter.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void testStreamsGiveTheirPlaceBackOnceTheyShow() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 4, 4, 4);
+        List<ConcurrencyLimiter.Permit> streams = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            streams.add(limiter.tryAcquire());
+        }
+        assertThat(limiter.tryAcquire()).isNull();
+
+        for (ConcurrencyLimiter.Permit stream : streams) {
+            stream.requestSent();
+            stream.requestSent();
+            stream.replyReceived();
+            stream.replyReceived();
+        }
+
+        assertThat(limiter.getInFlight()).isEqualTo(0);
+        ConcurrencyLimiter.Permit call = limiter.tryAcquire();
+        assertThat(call).isNotNull();
+        streams.forEach(stream -> stream.release(Status.Code.OK));
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+        call.release(Status.Code.OK);
+        assertThat(limiter.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void testStreamingMethodsAreNotLimited() throws Exception {
+        Channel channel = start(ProxyComponents.create(ProxyConfig.newBuilder()
+                .setConcurrencyLimitEnabled(true)
+                .setInitialConcurrencyLimit(1)
+                .setMinConcurrencyLimit(1)
+                .setMaxConcurrencyLimit(1)
+                .setStreamingMethods(Set.of(HANG.getFullMethodName()))
+                .build()));
+        List<Future<byte[]>> open = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            open.add(ClientCalls.futureUnaryCall(channel.newCall(HANG, CallOptions.DEFAULT), new byte[] {1}));
+        }
+        while (hanging.get() < 3) {
+            Thread.sleep(1);
+        }
+
+        ClientCalls.blockingUnaryCall(channel, WORK, CallOptions.DEFAULT, new byte[] {2});
+
+        release.countDown();
+        for (Future<byte[]> call : open) {
+            call.get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testCallsOverTheLimitFailWithoutReachingTheBackend() throws Exception {
+        ProxyComponents components = ProxyComponents.create(ProxyConfig.newBuilder()
+                .setConcurrencyLimitEnabled(true)
+                .setInitialConcurrencyLimit(2)
+                .setMinConcurrencyLimit(2)
+                .setMaxConcurrencyLimit(2)
+                .setSingleFlightMethods(Set.of("test.Limit/Coalesced"))
+                .build());
+        Channel channel = start(components);
+        Future<byte[]> first = ClientCalls.futureUnaryCall(channel.newCall(HANG, CallOptions.DEFAULT), new byte[] {1});
+        Future<byte[]> second = ClientCalls.futureUnaryCall(channel.newCall(HANG, CallOptions.DEFAULT), new byte[] {2});
+        while (hanging.get() < 2) {
+            Thread.sleep(1);
+        }
+
+        for (MethodDescriptor<byte[], byte[]> method : List.of(WORK, COALESCED)) {
+            StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                    () -> ClientCalls.blockingUnaryCall(channel, method, CallOptions.DEFAULT, new byte[] {3}));
+            assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED);
+            assertThat(e.getStatus().getDescription())
+                    .isEqualTo(ConcurrencyLimiter.LIMIT_EXCEEDED.getDescription());
+        }
+
+        assertThat(hanging.get()).isEqualTo(2);
+        StringBuilder metrics = new StringBuilder();
+        components.getConcurrencyLimits().writeTo(metrics);
+        assertThat(metrics.toString()).contains("gateway_backend_concurrency_limit{backend=\"limit\"} 2");
+        assertThat(metrics.toString()).contains("gateway_backend_concurrency_rejected_total{backend=\"limit\"} 2");
+
+        // Once a call finishes its place is free again
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        ClientCalls.blockingUnaryCall(channel, WORK, CallOptions.DEFAULT, new byte[] {4});
+    }
+
+    @Test
+    public void testHoldsGoodputAndTailLatencyWhenTheBackendSlowsDown() throws Exception {
+        LoadResult unlimited = load(false);
+        LoadResult limited = load(true);
+
+        // Unlimited, every caller queues at the backend and waits behind all the others;
+        // limited, the excess fail fast and those admitted are served about as fast as
+        // the backend can work
+        assertThat(limited.p99Nanos).isLessThan(unlimited.p99Nanos / 2);
+        assertThat(limited.goodput).isAtLeast(unlimited.goodput * 8 / 10);
+    }
+
+    private static final class LoadResult {
+        final long goodput;
+        final long p99Nanos;
+
+        LoadResult(long goodput, long p99Nanos) {
+            this.goodput = goodput;
+            this.p99Nanos = p99Nanos;
+        }
+    }
+
+    // Drives CALLERS back-to-back callers at the backend, slows it from 2ms to 10ms a
+    // call, and measures the calls that succeed once the limit has had time to adapt
+    private LoadResult load(boolean limited) throws Exception {
+        serviceMillis.set(2);
+        Channel channel = start(ProxyComponents.create(ProxyConfig.newBuilder()
+                .setConcurrencyLimitEnabled(limited)
+                .build()));
+        AtomicBoolean measuring = new AtomicBoolean();
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Long> latencies = new ArrayList<>();
+        ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+        for (int i = 0; i < CALLERS; i++) {
+            callers.execute(() -> {
+                while (!stop.get()) {
+                    long startNanos = System.nanoTime();
+                    try {
+                        ClientCalls.blockingUnaryCall(channel, WORK, CallOptions.DEFAULT, new byte[] {1});
+                    } catch (StatusRuntimeException e) {
+                        // Turned away; try again shortly, as a retrying client would
+                        sleep(1);
+                        continue;
+                    }
+                    long latencyNanos = System.nanoTime() - startNanos;
+                    if (measuring.get()) {
+                        synchronized (latencies) {
+                            latencies.add(latencyNanos);
+                        }
+                    }
+                }
+            });
+        }
+
+        Thread.sleep(1000);
+        serviceMillis.set(10);
+        Thread.sleep(500);
+        measuring.set(true);
+        Thread.sleep(1500);
+        measuring.set(false);
+        stop.set(true);
+        callers.shutdown();
+        assertThat(callers.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        List<Long> measured;
+        synchronized (latencies) {
+            measured = new ArrayList<>(latencies);
+        }
+        measured.sort(null);
+        assertThat(measured).isNotEmpty();
+        return new LoadResult(measured.size(), measured.get(measured.size() * 99 / 100));
+    }
+
+    // Fills every free place under the limit, then finishes those calls with the given
+    // round-trip time
+    private static void rounds(ConcurrencyLimiter limiter, int rounds, long rttNanos) {
+        for (int round = 0; round < rounds; round++) {
+            List<ConcurrencyLimiter.Permit> permits = new ArrayList<>();
+            ConcurrencyLimiter.Permit permit;
+            while ((permit = limiter.tryAcquire()) != null) {
+                permits.add(permit);
+            }
+            int inFlight = permits.size();
+            for (int i = 0; i < inFlight; i++) {
+                limiter.onSample(rttNanos, inFlight);
+            }
+        }
+    }
+
+    private Channel start(ProxyComponents components) throws IOException {
+        String backendName = InProcessServerBuilder.generateName();
+        Server backendServer = InProcessServerBuilder.forName(backendName)
+                .addService(ServerServiceDefinition.builder("test.Limit")
+                        .addMethod(WORK, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            workers.acquireUninterruptibly();
+                            try {
+                                sleep(serviceMillis.get());
+                            } finally {
+                                workers.release();
+                            }
+                            responseObserver.onNext(request);
+                            responseObserver.onCompleted();
+                        }))
+                        .addMethod(HANG, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            hanging.incrementAndGet();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            responseObserver.onNext(request);
+                            responseObserver.onCompleted();
+                        }))
+                        .addMethod(COALESCED, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            responseObserver.onNext(request);
+                            responseObserver.onCompleted();
+                        }))
+                        .build())
+                .build()
+                .start();
+        ManagedChannel backendChannel = InProcessChannelBuilder.forName(backendName).build();
+
+        String gatewayName = InProcessServerBuilder.generateName();
+        Server gatewayServer = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName),
+                RoutingTable.of(Map.of("limit", backendChannel)), components).start();
+        ManagedChannel gatewayChannel = InProcessChannelBuilder.forName(gatewayName).build();
+        cleanup.add(() -> {
+            gatewayChannel.shutdownNow();
+            gatewayServer.shutdownNow();
+            backendChannel.shutdownNow();
+            backendServer.shutdownNow();
+        });
+
+        Metadata headers = new Metadata();
+        headers.put(GatewayServer.TARGET_HEADER_KEY, "limit");
+        return ClientInterceptors.intercept(gatewayChannel, MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static MethodDescriptor<byte[], byte[]> method(String name) {
+        return MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName("test.Limit/" + name)
+                .setRequestMarshaller(BYTES)
+                .setResponseMarshaller(BYTES)
+                .build();
+    }
+}
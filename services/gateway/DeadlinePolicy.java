@@ -0,0 +1,51 @@
+package services.gateway;
+
+import io.grpc.CallOptions;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Gives each backend call the caller's deadline, less {@link ProxyConfig#getDeadlineBudget()}
+ * for the gateway's own work, and turns away calls that would reach the backend with
+ * less than {@link ProxyConfig#getMinBackendDeadline()} left: by the time such a
+ * backend answered, the caller would have given up on it.
+ *
+ * <p>Backend calls started while the caller's {@link Context} is current are also
+ * cancelled as soon as the caller cancels or its deadline passes.
+ */
+final class DeadlinePolicy {
+    static final DeadlinePolicy DEFAULT = create(ProxyConfig.defaults());
+    static final Status TOO_LITTLE_TIME = Status.DEADLINE_EXCEEDED
+            .withDescription("Too little of the deadline left to call a backend");
+
+    private final long budgetNanos;
+    private final long minimumNanos;
+
+    private DeadlinePolicy(long budgetNanos, long minimumNanos) {
+        this.budgetNanos = budgetNanos;
+        this.minimumNanos = minimumNanos;
+    }
+
+    static DeadlinePolicy create(ProxyConfig config) {
+        return new DeadlinePolicy(config.getDeadlineBudget().toNanos(), config.getMinBackendDeadline().toNanos());
+    }
+
+    /**
+     * Returns the options for a backend call on behalf of a caller with
+     * {@code deadline}, or null when too little of it is left to make the call.
+     */
+    @Nullable
+    CallOptions backendCallOptions(@Nullable Deadline deadline) {
+        if (deadline == null) {
+            return CallOptions.DEFAULT;
+        }
+        long backendNanos = deadline.timeRemaining(TimeUnit.NANOSECONDS) - budgetNanos;
+        if (backendNanos < minimumNanos) {
+            return null;
+        }
+        return CallOptions.DEFAULT.withDeadlineAfter(backendNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,204 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptors;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DeadlinePolicyTest {
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> ECHO = method("Echo");
+    private static final MethodDescriptor<byte[], byte[]> HANG = method("Hang");
+    private static final MethodDescriptor<byte[], byte[]> COALESCED = method("Coalesced");
+
+    private final AtomicInteger backendCalls = new AtomicInteger();
+    private final AtomicReference<Deadline> backendDeadline = new AtomicReference<>();
+    private final CountDownLatch hangStarted = new CountDownLatch(1);
+    private final CountDownLatch backendCancelled = new CountDownLatch(1);
+    private Server backendServer;
+    private ManagedChannel backendChannel;
+    private Server gatewayServer;
+    private ManagedChannel gatewayChannel;
+    private ProxyComponents components;
+    private Channel channel;
+
+    @After
+    public void tearDown() {
+        gatewayChannel.shutdownNow();
+        gatewayServer.shutdownNow();
+        backendChannel.shutdownNow();
+        backendServer.shutdownNow();
+    }
+
+    @Test
+    public void testBackendGetsTheCallersDeadlineLessTheBudget() throws Exception {
+        start(Duration.ofMillis(500), Duration.ofMillis(10));
+
+        ClientCalls.blockingUnaryCall(channel, ECHO, CallOptions.DEFAULT.withDeadlineAfter(5, TimeUnit.SECONDS),
+                new byte[] {1});
+
+        long remainingMillis = backendDeadline.get().timeRemaining(TimeUnit.MILLISECONDS);
+        assertThat(remainingMillis).isAtMost(4500);
+        assertThat(remainingMillis).isGreaterThan(3500);
+    }
+
+    @Test
+    public void testCallsWithoutDeadlineReachTheBackendWithout() throws Exception {
+        start(Duration.ofMillis(500), Duration.ofMillis(10));
+
+        ClientCalls.blockingUnaryCall(channel, ECHO, CallOptions.DEFAULT, new byte[] {1});
+
+        assertThat(backendCalls.get()).isEqualTo(1);
+        assertThat(backendDeadline.get()).isNull();
+    }
+
+    @Test
+    public void testCallsWithTooLittleTimeLeftAreRejectedBeforeTheBackend() throws Exception {
+        start(Duration.ofMillis(100), Duration.ofSeconds(1));
+
+        for (MethodDescriptor<byte[], byte[]> method : List.of(ECHO, COALESCED)) {
+            StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                    () -> ClientCalls.blockingUnaryCall(channel, method,
+                            CallOptions.DEFAULT.withDeadlineAfter(1, TimeUnit.SECONDS), new byte[] {1}));
+            assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.DEADLINE_EXCEEDED);
+            assertThat(e.getStatus().getDescription()).isEqualTo(DeadlinePolicy.TOO_LITTLE_TIME.getDescription());
+        }
+
+        assertThat(backendCalls.get()).isEqualTo(0);
+        StringBuilder metrics = new StringBuilder();
+        components.getMetrics().writeTo(metrics);
+        assertThat(metrics.toString()).contains(
+                "gateway_deadline_rejected_total{method=\"test.Deadline/Echo\"} 1");
+    }
+
+    @Test
+    public void testCoalescedCallsLeaveTheDeadlineToEachWaiter() throws Exception {
+        start(Duration.ofMillis(500), Duration.ofMillis(10));
+
+        ClientCalls.blockingUnaryCall(channel, COALESCED,
+                CallOptions.DEFAULT.withDeadlineAfter(5, TimeUnit.SECONDS), new byte[] {1});
+
+        // Later callers may wait longer than the first, so the shared call carries no deadline
+        assertThat(backendDeadline.get()).isNull();
+    }
+
+    @Test
+    public void testCancellationReachesTheBackend() throws Exception {
+        start(Duration.ofMillis(5), Duration.ofMillis(10));
+
+        ClientCall<byte[], byte[]> call = channel.newCall(HANG, CallOptions.DEFAULT);
+        ClientCalls.futureUnaryCall(call, new byte[] {1});
+        assertThat(hangStarted.await(5, TimeUnit.SECONDS)).isTrue();
+        call.cancel("caller gave up", null);
+
+        assertThat(backendCancelled.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testExpiredDeadlineCancelsTheBackendCall() throws Exception {
+        start(Duration.ofMillis(5), Duration.ofMillis(10));
+
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> ClientCalls.blockingUnaryCall(channel, HANG,
+                        CallOptions.DEFAULT.withDeadlineAfter(200, TimeUnit.MILLISECONDS), new byte[] {1}));
+
+        assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.DEADLINE_EXCEEDED);
+        assertThat(backendCancelled.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private void start(Duration budget, Duration minimum) throws IOException {
+        String backendName = InProcessServerBuilder.generateName();
+        ServerCalls.UnaryMethod<byte[], byte[]> echo = (request, responseObserver) -> {
+            backendCalls.incrementAndGet();
+            backendDeadline.set(Context.current().getDeadline());
+            responseObserver.onNext(request);
+            responseObserver.onCompleted();
+        };
+        backendServer = InProcessServerBuilder.forName(backendName)
+                .addService(ServerServiceDefinition.builder("test.Deadline")
+                        .addMethod(ECHO, ServerCalls.asyncUnaryCall(echo))
+                        .addMethod(COALESCED, ServerCalls.asyncUnaryCall(echo))
+                        .addMethod(HANG, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            backendCalls.incrementAndGet();
+                            ((ServerCallStreamObserver<byte[]>) responseObserver)
+                                    .setOnCancelHandler(backendCancelled::countDown);
+                            hangStarted.countDown();
+                        }))
+                        .build())
+                .build()
+                .start();
+        backendChannel = InProcessChannelBuilder.forName(backendName).build();
+
+        components = ProxyComponents.create(ProxyConfig.newBuilder()
+                .setDeadlineBudget(budget)
+                .setMinBackendDeadline(minimum)
+                .setSingleFlightMethods(Set.of("test.Deadline/Coalesced"))
+                .build());
+        String gatewayName = InProcessServerBuilder.generateName();
+        gatewayServer = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName),
+                RoutingTable.of(Map.of("deadline", backendChannel)), components).start();
+        gatewayChannel = InProcessChannelBuilder.forName(gatewayName).build();
+        Metadata headers = new Metadata();
+        headers.put(GatewayServer.TARGET_HEADER_KEY, "deadline");
+        channel = ClientInterceptors.intercept(gatewayChannel, MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    private static MethodDescriptor<byte[], byte[]> method(String name) {
+        return MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName("test.Deadline/" + name)
+                .setRequestMarshaller(BYTES)
+                .setResponseMarshaller(BYTES)
+                .build();
+    }
+}
@@ -0,0 +1,144 @@
+package services.gateway;
+
+import calculator.CalculatorGrpc;
+import calculator.CalculatorOuterClass.SumBatchRequest;
+import helloworld.GreeterGrpc;
+import helloworld.Helloworld.HelloRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.stub.MetadataUtils;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import services.calculator.CalculatorServer;
+import services.common.ServerExecutor;
+import services.greeter.GreeterServer;
+
+/**
+ * SayHello and a 1000-pair SumBatch through the gateway, with the greeter and
+ * calculator services in their own servers over loopback HTTP/2 or hosted in the
+ * gateway by {@link EmbeddedBackends}.
+ *
+ * <p>{@code LOOPBACK} is the pod as {@code k8s/deployment.yaml} runs it: each backend
+ * behind its own Netty server, which the gateway reaches over pinned connections on its
+ * event loops. {@code EMBEDDED} serves the same service definitions on an in-process
+ * server. The client reaches the gateway over loopback either way.
+ *
+ * <p>Run with {@code bazel run //services/gateway:gateway_benchmarks -- EmbeddedBackendBenchmark}.
+ * Client, gateway and backends share the machine, so compare the two within one run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Threads(32)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EmbeddedBackendBenchmark {
+    private static final int BATCH_SIZE = 1000;
+
+    public enum Layout {
+        LOOPBACK,
+        EMBEDDED,
+    }
+
+    @Param({"LOOPBACK", "EMBEDDED"})
+    public Layout layout;
+
+    private Server greeter;
+    private Server calculator;
+    private ManagedChannel greeterChannel;
+    private ManagedChannel calculatorChannel;
+    private EmbeddedBackends embedded;
+    private EventLoops eventLoops;
+    private Server gateway;
+    private ManagedChannel client;
+    private GreeterGrpc.GreeterBlockingStub greeterStub;
+    private CalculatorGrpc.CalculatorBlockingStub calculatorStub;
+    private SumBatchRequest batch;
+
+    @Setup
+    public void setUp() throws Exception {
+        ProxyConfig config = ProxyConfig.newBuilder()
+                .setStreamPlacement(StripedChannel.Placement.EVENT_LOOP)
+                .build();
+        eventLoops = EventLoops.create(config);
+        ServerExecutor executor = ServerExecutor.of(ServerExecutor.Mode.DIRECT);
+        if (layout == Layout.EMBEDDED) {
+            embedded = EmbeddedBackends.start(Set.of("greeter", "calculator"), executor);
+            greeterChannel = embedded.channelFor("greeter");
+            calculatorChannel = embedded.channelFor("calculator");
+        } else {
+            embedded = EmbeddedBackends.start(Set.of(), executor);
+            greeter = eventLoops.serverBuilder(0).directExecutor()
+                    .addService(GreeterServer.bindService())
+                    .build()
+                    .start();
+            calculator = eventLoops.serverBuilder(0).directExecutor()
+                    .addService(CalculatorServer.bindService())
+                    .build()
+                    .start();
+            greeterChannel = GatewayServer.pinnedChannel("localhost:" + greeter.getPort(), eventLoops, config);
+            calculatorChannel = GatewayServer.pinnedChannel("localhost:" + calculator.getPort(), eventLoops, config);
+        }
+        gateway = GatewayServer.buildGrpcServer(eventLoops.serverBuilder(0).directExecutor(),
+                Map.of("greeter", greeterChannel, "calculator", calculatorChannel), config).start();
+
+        client = ManagedChannelBuilder.forAddress("localhost", gateway.getPort()).usePlaintext().build();
+        greeterStub = GreeterGrpc.newBlockingStub(client)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(target("greeter")));
+        calculatorStub = CalculatorGrpc.newBlockingStub(client)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(target("calculator")));
+        SumBatchRequest.Builder request = SumBatchRequest.newBuilder();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            request.addA(ThreadLocalRandom.current().nextInt(1 << 20)).addB(i);
+        }
+        batch = request.build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.shutdownNow();
+        gateway.shutdownNow().awaitTermination();
+        embedded.close();
+        if (greeter != null) {
+            greeterChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            calculatorChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            greeter.shutdownNow().awaitTermination();
+            calculator.shutdownNow().awaitTermination();
+        }
+        eventLoops.close();
+    }
+
+    @Benchmark
+    public String sayHello() {
+        return greeterStub.sayHello(HelloRequest.newBuilder().setName("bench").build()).getMessage();
+    }
+
+    @Benchmark
+    public int sumBatch() {
+        return calculatorStub.sumBatch(batch).getResultsCount();
+    }
+
+    private static Metadata target(String target) {
+        Metadata headers = new Metadata();
+        headers.put(GatewayServer.TARGET_HEADER_KEY, target);
+        return headers;
+    }
+}
@@ -0,0 +1,110 @@
+package services.gateway;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.services.HealthStatusManager;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import services.calculator.CalculatorServer;
+import services.common.ServerExecutor;
+import services.greeter.GreeterServer;
+
+/**
+ * Backend services hosted in the gateway's own JVM, for deployments that would
+ * otherwise run each backend as a container beside the gateway and reach it over
+ * loopback.
+ *
+ * <p>The services are served by one in-process server, so a proxied call to them skips
+ * the TCP connection and HTTP/2 framing both ways, and the request bytes the gateway
+ * received are parsed once, by the backend, rather than written to a socket and read
+ * back. Targets that are not embedded are reached over the network as before. The
+ * server also answers {@code grpc.health.v1} checks, as each backend's own server does,
+ * so health probes and warm-up treat embedded targets like the rest.
+ */
+final class EmbeddedBackends implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(EmbeddedBackends.class.getName());
+
+    // Each target the gateway knows how to host, with the services it is made of
+    static final Map<String, Supplier<ServerServiceDefinition>> SERVICES = Map.of(
+            "greeter", GreeterServer::bindService,
+            "calculator", CalculatorServer::bindService);
+
+    private final Set<String> targets;
+    @Nullable
+    private final HealthStatusManager health;
+    @Nullable
+    private final Server server;
+    @Nullable
+    private final ManagedChannel channel;
+
+    private EmbeddedBackends(Set<String> targets, @Nullable HealthStatusManager health, @Nullable Server server,
+            @Nullable ManagedChannel channel) {
+        this.targets = targets;
+        this.health = health;
+        this.server = server;
+        this.channel = channel;
+    }
+
+    /**
+     * Starts the services of {@code targets}, whose handlers run as {@code executor}
+     * says, as the gateway's own do. No server is started for an empty set.
+     */
+    static EmbeddedBackends start(Set<String> targets, ServerExecutor executor) throws IOException {
+        if (targets.isEmpty()) {
+            return new EmbeddedBackends(Set.of(), null, null, null);
+        }
+        String name = InProcessServerBuilder.generateName();
+        InProcessServerBuilder builder = InProcessServerBuilder.forName(name);
+        executor.configure(builder);
+        HealthStatusManager health = new HealthStatusManager();
+        builder.addService(health.getHealthService());
+        for (String target : targets) {
+            Supplier<ServerServiceDefinition> service = SERVICES.get(target);
+            if (service == null) {
+                throw new IllegalArgumentException("Cannot embed " + target + "; embeddable targets are "
+                        + SERVICES.keySet());
+            }
+            ServerServiceDefinition definition = service.get();
+            builder.addService(definition);
+            health.setStatus(definition.getServiceDescriptor().getName(), ServingStatus.SERVING);
+        }
+        Server server = builder.build().start();
+        logger.info("Serving " + targets + " in process with the " + executor + " executor");
+        // Replies are handed to the proxy on the thread that sends them, as for the
+        // gRPC-Web channel; the proxy's listeners never block
+        ManagedChannel channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        return new EmbeddedBackends(Set.copyOf(targets), health, server, channel);
+    }
+
+    /** Targets named in {@code GATEWAY_EMBEDDED_TARGETS}, e.g. "greeter,calculator". */
+    static Set<String> targetsFromEnvironment() {
+        return ProxyConfig.methodsFromEnv("GATEWAY_EMBEDDED_TARGETS");
+    }
+
+    /** Returns the channel to {@code target}'s embedded services, or null if it is not embedded. */
+    @Nullable
+    ManagedChannel channelFor(String target) {
+        return targets.contains(target) ? channel : null;
+    }
+
+    @Override
+    public void close() {
+        if (health != null) {
+            health.enterTerminalState();
+        }
+        if (channel != null) {
+            channel.shutdown();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import calculator.CalculatorGrpc;
+import calculator.CalculatorOuterClass.SumBatchReply;
+import calculator.CalculatorOuterClass.SumBatchRequest;
+import helloworld.GreeterGrpc;
+import helloworld.Helloworld.HelloRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.health.v1.HealthCheckRequest;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.health.v1.HealthGrpc;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import services.common.ServerExecutor;
+
+@RunWith(JUnit4.class)
+public class EmbeddedBackendsTest {
+    private EmbeddedBackends embedded;
+    private Server gatewayServer;
+    private ManagedChannel gatewayChannel;
+
+    @After
+    public void tearDown() {
+        if (gatewayChannel != null) {
+            gatewayChannel.shutdownNow();
+        }
+        if (gatewayServer != null) {
+            gatewayServer.shutdownNow();
+        }
+        if (embedded != null) {
+            embedded.close();
+        }
+    }
+
+    @Test
+    public void testEmbeddedTargetsAreServedThroughTheGateway() throws Exception {
+        embedded = EmbeddedBackends.start(Set.of("greeter", "calculator"),
+                ServerExecutor.of(ServerExecutor.Mode.DIRECT));
+        String gatewayName = InProcessServerBuilder.generateName();
+        gatewayServer = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName),
+                Map.of("greeter", embedded.channelFor("greeter"), "calculator", embedded.channelFor("calculator")))
+                .start();
+        gatewayChannel = InProcessChannelBuilder.forName(gatewayName).build();
+
+        String greeting = GreeterGrpc.newBlockingStub(gatewayChannel)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(target("greeter")))
+                .sayHello(HelloRequest.newBuilder().setName("Embedded").build())
+                .getMessage();
+        SumBatchReply sums = CalculatorGrpc.newBlockingStub(gatewayChannel)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(target("calculator")))
+                .sumBatch(SumBatchRequest.newBuilder().addAllA(List.of(1, 2)).addAllB(List.of(10, 20)).build());
+
+        // The greeter still sees the routing header, as it does in its own container
+        assertThat(greeting).isEqualTo("Hello Embedded (Header: greeter)");
+        assertThat(sums.getResultsList()).containsExactly(11, 22).inOrder();
+    }
+
+    @Test
+    public void testEmbeddedTargetsAnswerHealthChecksThroughTheGateway() throws Exception {
+        embedded = EmbeddedBackends.start(Set.of("greeter", "calculator"),
+                ServerExecutor.of(ServerExecutor.Mode.DIRECT));
+        String gatewayName = InProcessServerBuilder.generateName();
+        gatewayServer = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName),
+                Map.of("greeter", embedded.channelFor("greeter"), "calculator", embedded.channelFor("calculator")))
+                .start();
+        gatewayChannel = InProcessChannelBuilder.forName(gatewayName).build();
+
+        // The checks warm-up sends, and those a prober sends for each service
+        for (String service : List.of("", GreeterGrpc.SERVICE_NAME, CalculatorGrpc.SERVICE_NAME)) {
+            for (String target : List.of("greeter", "calculator")) {
+                ServingStatus status = HealthGrpc.newBlockingStub(gatewayChannel)
+                        .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(target(target)))
+                        .check(HealthCheckRequest.newBuilder().setService(service).build())
+                        .getStatus();
+                assertThat(status).isEqualTo(ServingStatus.SERVING);
+            }
+        }
+    }
+
+    @Test
+    public void testTargetsNotEmbeddedHaveNoChannel() throws Exception {
+        embedded = EmbeddedBackends.start(Set.of("greeter"), ServerExecutor.of(ServerExecutor.Mode.DIRECT));
+
+        assertThat(embedded.channelFor("greeter")).isNotNull();
+        assertThat(embedded.channelFor("calculator")).isNull();
+        assertThat(EmbeddedBackends.start(Set.of(), ServerExecutor.of(ServerExecutor.Mode.DIRECT))
+                .channelFor("greeter")).isNull();
+    }
+
+    @Test
+    public void testUnknownTargetsAreRejected() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> EmbeddedBackends.start(Set.of("inventory"), ServerExecutor.of(ServerExecutor.Mode.DIRECT)));
+
+        assertThat(e).hasMessageThat().contains("inventory");
+    }
+
+    private static Metadata target(String target) {
+        Metadata headers = new Metadata();
+        headers.put(GatewayServer.TARGET_HEADER_KEY, target);
+        return headers;
+    }
+}
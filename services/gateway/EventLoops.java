@@ -0,0 +1,119 @@
+package services.gateway;
+
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.Channel;
+import io.grpc.netty.shaded.io.netty.channel.EventLoop;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.ServerChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+import io.grpc.netty.shaded.io.netty.util.concurrent.EventExecutor;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * One set of Netty event loops shared by the gateway's gRPC servers and its backend
+ * channels, on native epoll where available and NIO otherwise.
+ *
+ * <p>With a direct server executor, a call's handler runs on the loop that owns the
+ * client's connection. Backend connections opened with {@link #channelBuilder(String,
+ * EventLoop)} are each owned by one of the same loops, so picking the connection of
+ * the current loop keeps the whole proxied call on one thread.
+ */
+final class EventLoops implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(EventLoops.class.getName());
+
+    private final EventLoopGroup boss;
+    private final EventLoopGroup workers;
+    private final Class<? extends ServerChannel> serverChannelType;
+    private final Class<? extends Channel> channelType;
+    private final ProxyConfig config;
+
+    private EventLoops(EventLoopGroup boss, EventLoopGroup workers, Class<? extends ServerChannel> serverChannelType,
+            Class<? extends Channel> channelType, ProxyConfig config) {
+        this.boss = boss;
+        this.workers = workers;
+        this.serverChannelType = serverChannelType;
+        this.channelType = channelType;
+        this.config = config;
+    }
+
+    static EventLoops create(ProxyConfig config) {
+        // Zero lets Netty pick its default of twice the number of cores
+        int threads = config.getEventLoopThreads();
+        if (config.isNativeTransport() && Epoll.isAvailable()) {
+            logger.info("Using native epoll transport");
+            return new EventLoops(
+                    new EpollEventLoopGroup(1, new DefaultThreadFactory("gateway-boss", true)),
+                    new EpollEventLoopGroup(threads, new DefaultThreadFactory("gateway-loop", true)),
+                    EpollServerSocketChannel.class, EpollSocketChannel.class, config);
+        }
+        if (config.isNativeTransport()) {
+            logger.info("Native epoll transport unavailable, using NIO: " + Epoll.unavailabilityCause());
+        }
+        return new EventLoops(
+                new NioEventLoopGroup(1, new DefaultThreadFactory("gateway-boss", true)),
+                new NioEventLoopGroup(threads, new DefaultThreadFactory("gateway-loop", true)),
+                NioServerSocketChannel.class, NioSocketChannel.class, config);
+    }
+
+    boolean isNative() {
+        return serverChannelType == EpollServerSocketChannel.class;
+    }
+
+    /** The worker loops, each of which can own backend connections. */
+    List<EventLoop> loops() {
+        List<EventLoop> loops = new ArrayList<>();
+        for (EventExecutor executor : workers) {
+            loops.add((EventLoop) executor);
+        }
+        return loops;
+    }
+
+    NettyServerBuilder serverBuilder(int port) {
+        NettyServerBuilder builder = NettyServerBuilder.forAddress(new InetSocketAddress(port))
+                .bossEventLoopGroup(boss)
+                .workerEventLoopGroup(workers)
+                .channelType(serverChannelType);
+        // The initial variant leaves Netty's window auto-tuning on, the plain one turns it off
+        return config.isFlowControlAutoTune()
+                ? builder.initialFlowControlWindow(config.getFlowControlWindow())
+                : builder.flowControlWindow(config.getFlowControlWindow());
+    }
+
+    /** A channel whose connections may use any of the shared loops. */
+    NettyChannelBuilder channelBuilder(String target) {
+        return channelBuilder(target, workers);
+    }
+
+    /** A channel whose connections all live on {@code loop}. */
+    NettyChannelBuilder channelBuilder(String target, EventLoop loop) {
+        return channelBuilder(target, (EventLoopGroup) loop);
+    }
+
+    private NettyChannelBuilder channelBuilder(String target, EventLoopGroup group) {
+        NettyChannelBuilder builder = NettyChannelBuilder.forTarget(target)
+                .eventLoopGroup(group)
+                .channelType(channelType);
+        return config.isFlowControlAutoTune()
+                ? builder.initialFlowControlWindow(config.getFlowControlWindow())
+                : builder.flowControlWindow(config.getFlowControlWindow());
+    }
+
+    /** Stops the loops; call once every server and channel using them has terminated. */
+    @Override
+    public void close() {
+        boss.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+        workers.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+    }
+}
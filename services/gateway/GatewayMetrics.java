@@ -0,0 +1,257 @@
+package services.gateway;
+
+import io.grpc.Status;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call counters and latency histograms for the proxy, per method and per backend,
+ * rendered in the Prometheus text format by {@link #writeTo(StringBuilder)}.
+ *
+ * <p>Every counter is a {@link LongAdder}, so threads recording at once update
+ * separate cells instead of contending on one. Handlers resolve their
+ * {@link MethodMetrics} once, when the method's definition is built, and record
+ * into it without allocating.
+ */
+final class GatewayMetrics {
+    // Calls to methods past the limit are counted under this label, so clients
+    // inventing method names cannot grow the exposition without bound
+    static final String OTHER_METHOD = "other";
+
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    private final int maxMethods;
+    private final ConcurrentHashMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, BackendMetrics> backends = new ConcurrentHashMap<>();
+    private final MethodMetrics other = new MethodMetrics(OTHER_METHOD);
+
+    GatewayMetrics(int maxMethods) {
+        this.maxMethods = maxMethods;
+    }
+
+    MethodMetrics forMethod(String method) {
+        MethodMetrics metrics = methods.get(method);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (methods.size() >= maxMethods) {
+            return other;
+        }
+        return methods.computeIfAbsent(method, MethodMetrics::new);
+    }
+
+    BackendMetrics forBackend(String backend) {
+        BackendMetrics metrics = backends.get(backend);
+        return metrics != null ? metrics : backends.computeIfAbsent(backend, BackendMetrics::new);
+    }
+
+    /** Bytes left in a message the transport handed over, without reading it. */
+    static int sizeOf(InputStream message) {
+        try {
+            return message.available();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /** Calls the gateway accepted for one method, whatever backend they went to. */
+    static final class MethodMetrics {
+        private final String method;
+        private final LongAdder started = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder deadlineRejected = new LongAdder();
+        private final LongAdder[] finished = newCounters();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private MethodMetrics(String method) {
+            this.method = method;
+        }
+
+        /** Returns the start time to hand back to {@link #callFinished}. */
+        long callStarted() {
+            started.increment();
+            inFlight.increment();
+            return System.nanoTime();
+        }
+
+        void messageReceived(int bytes) {
+            bytesReceived.add(bytes);
+        }
+
+        void messageSent(int bytes) {
+            bytesSent.add(bytes);
+        }
+
+        /** Counts a call turned away for its deadline; it is still finished as usual. */
+        void deadlineRejected() {
+            deadlineRejected.increment();
+        }
+
+        /** Returns the call's duration, for the access log. */
+        long callFinished(Status.Code code, long startNanos) {
+            long durationNanos = System.nanoTime() - startNanos;
+            inFlight.decrement();
+            finished[code.value()].increment();
+            latency.record(durationNanos);
+            return durationNanos;
+        }
+    }
+
+    /** Calls the gateway made to one backend target, across its replicas. */
+    static final class BackendMetrics {
+        private final String backend;
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder[] finished = newCounters();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private BackendMetrics(String backend) {
+            this.backend = backend;
+        }
+
+        /** Returns the start time to hand back to {@link #callFinished}. */
+        long callStarted() {
+            inFlight.increment();
+            return System.nanoTime();
+        }
+
+        void callFinished(Status.Code code, long startNanos) {
+            inFlight.decrement();
+            finished[code.value()].increment();
+            latency.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[CODES.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    /**
+     * Fixed-bucket histogram with the bucket bounds Prometheus clients use by default,
+     * stretched down to 100us since proxied calls are often faster than a millisecond.
+     */
+    static final class LatencyHistogram {
+        static final double[] BOUNDS_SECONDS = {
+                0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+        private static final long[] BOUNDS_NANOS = new long[BOUNDS_SECONDS.length];
+
+        static {
+            for (int i = 0; i < BOUNDS_SECONDS.length; i++) {
+                BOUNDS_NANOS[i] = (long) (BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+
+        // One more than the bounds: the last bucket is +Inf
+        private final LongAdder[] buckets = new LongAdder[BOUNDS_NANOS.length + 1];
+        private final LongAdder sumNanos = new LongAdder();
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            int i = 0;
+            while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        // Buckets are read one at a time while others record, so a scrape may see a
+        // count that is a few calls off its buckets; Prometheus tolerates that
+        void writeTo(StringBuilder out, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                out.append(name).append("_bucket{").append(labels).append(",le=\"")
+                        .append(i < BOUNDS_SECONDS.length ? Double.toString(BOUNDS_SECONDS[i]) : "+Inf")
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum{").append(labels).append("} ")
+                    .append(sumNanos.sum() / 1e9).append('\n');
+            out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+        }
+    }
+
+    /** Appends every series in the Prometheus text exposition format, version 0.0.4. */
+    void writeTo(StringBuilder out) {
+        // Sorted so consecutive scrapes list series in the same order
+        Map<String, MethodMetrics> byMethod = new TreeMap<>(methods);
+        if (other.started.sum() > 0) {
+            byMethod.put(OTHER_METHOD, other);
+        }
+        Map<String, BackendMetrics> byBackend = new TreeMap<>(backends);
+
+        header(out, "gateway_requests_total", "counter", "Calls accepted by the gateway.");
+        byMethod.values().forEach(m -> sample(out, "gateway_requests_total", method(m), m.started.sum()));
+        header(out, "gateway_requests_in_flight", "gauge", "Calls accepted and not yet finished.");
+        byMethod.values().forEach(m -> sample(out, "gateway_requests_in_flight", method(m), m.inFlight.sum()));
+        header(out, "gateway_received_bytes_total", "counter", "Request message bytes received from clients.");
+        byMethod.values().forEach(m -> sample(out, "gateway_received_bytes_total", method(m),
+                m.bytesReceived.sum()));
+        header(out, "gateway_sent_bytes_total", "counter", "Response message bytes sent to clients.");
+        byMethod.values().forEach(m -> sample(out, "gateway_sent_bytes_total", method(m), m.bytesSent.sum()));
+        header(out, "gateway_responses_total", "counter", "Calls finished, by gRPC status code.");
+        byMethod.values().forEach(m -> codes(out, "gateway_responses_total", method(m), m.finished));
+        header(out, "gateway_deadline_rejected_total", "counter", "Calls failed without a backend call, as too "
+                + "little of their deadline was left.");
+        byMethod.values().forEach(m -> sample(out, "gateway_deadline_rejected_total", method(m),
+                m.deadlineRejected.sum()));
+        header(out, "gateway_request_duration_seconds", "histogram", "Time from accepting a call to closing it.");
+        byMethod.values().forEach(m -> m.latency.writeTo(out, "gateway_request_duration_seconds", method(m)));
+
+        header(out, "gateway_backend_requests_in_flight", "gauge", "Calls open to each backend.");
+        byBackend.values().forEach(b -> sample(out, "gateway_backend_requests_in_flight", backend(b),
+                b.inFlight.sum()));
+        header(out, "gateway_backend_responses_total", "counter", "Backend calls finished, by gRPC status code.");
+        byBackend.values().forEach(b -> codes(out, "gateway_backend_responses_total", backend(b), b.finished));
+        header(out, "gateway_backend_request_duration_seconds", "histogram", "Time from opening a backend call "
+                + "to its close.");
+        byBackend.values().forEach(b -> b.latency.writeTo(out, "gateway_backend_request_duration_seconds",
+                backend(b)));
+    }
+
+    static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    // Only codes that occurred, so the exposition is not mostly zeros
+    private static void codes(StringBuilder out, String name, String labels, LongAdder[] counters) {
+        for (Status.Code code : CODES) {
+            long count = counters[code.value()].sum();
+            if (count > 0) {
+                sample(out, name, labels + ",code=\"" + code + "\"", count);
+            }
+        }
+    }
+
+    private static String method(MethodMetrics metrics) {
+        return "method=\"" + escape(metrics.method) + "\"";
+    }
+
+    private static String backend(BackendMetrics metrics) {
+        return "backend=\"" + escape(metrics.backend) + "\"";
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,189 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCalls;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GatewayMetricsTest {
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> ECHO = method("Echo");
+    private static final MethodDescriptor<byte[], byte[]> FAIL = method("Fail");
+
+    private Server backendServer;
+    private ManagedChannel backendChannel;
+    private Server gatewayServer;
+    private ManagedChannel gatewayChannel;
+
+    @After
+    public void tearDown() {
+        if (gatewayChannel != null) {
+            gatewayChannel.shutdownNow();
+            gatewayServer.shutdownNow();
+            backendChannel.shutdownNow();
+            backendServer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCountsCallsByMethodAndStatus() {
+        GatewayMetrics metrics = new GatewayMetrics(10);
+        GatewayMetrics.MethodMetrics echo = metrics.forMethod("test.Metrics/Echo");
+
+        echo.callFinished(Status.Code.OK, echo.callStarted());
+        echo.callFinished(Status.Code.OK, echo.callStarted());
+        echo.callFinished(Status.Code.UNAVAILABLE, echo.callStarted());
+        echo.callStarted();
+        echo.messageReceived(100);
+        echo.messageSent(40);
+
+        String exposition = render(metrics);
+        assertThat(exposition).contains("gateway_requests_total{method=\"test.Metrics/Echo\"} 4\n");
+        assertThat(exposition).contains("gateway_requests_in_flight{method=\"test.Metrics/Echo\"} 1\n");
+        assertThat(exposition).contains(
+                "gateway_responses_total{method=\"test.Metrics/Echo\",code=\"OK\"} 2\n");
+        assertThat(exposition).contains(
+                "gateway_responses_total{method=\"test.Metrics/Echo\",code=\"UNAVAILABLE\"} 1\n");
+        assertThat(exposition).doesNotContain("code=\"INTERNAL\"");
+        assertThat(exposition).contains("gateway_received_bytes_total{method=\"test.Metrics/Echo\"} 100\n");
+        assertThat(exposition).contains("gateway_sent_bytes_total{method=\"test.Metrics/Echo\"} 40\n");
+        assertThat(exposition).contains("gateway_request_duration_seconds_count{method=\"test.Metrics/Echo\"} 3\n");
+    }
+
+    @Test
+    public void testMethodsPastTheLimitShareOneSeries() {
+        GatewayMetrics metrics = new GatewayMetrics(2);
+
+        assertThat(metrics.forMethod("a/A")).isSameInstanceAs(metrics.forMethod("a/A"));
+        metrics.forMethod("b/B");
+        GatewayMetrics.MethodMetrics other = metrics.forMethod("c/C");
+        assertThat(metrics.forMethod("d/D")).isSameInstanceAs(other);
+        other.callStarted();
+
+        assertThat(render(metrics)).contains(
+                "gateway_requests_total{method=\"" + GatewayMetrics.OTHER_METHOD + "\"} 1\n");
+        assertThat(render(metrics)).doesNotContain("c/C");
+    }
+
+    @Test
+    public void testHistogramBucketsAreCumulative() {
+        GatewayMetrics.LatencyHistogram histogram = new GatewayMetrics.LatencyHistogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(50));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.SECONDS.toNanos(30));
+
+        StringBuilder out = new StringBuilder();
+        histogram.writeTo(out, "h", "m=\"x\"");
+        String rendered = out.toString();
+
+        assertThat(rendered).contains("h_bucket{m=\"x\",le=\"1.0E-4\"} 1\n");
+        assertThat(rendered).contains("h_bucket{m=\"x\",le=\"0.0025\"} 1\n");
+        assertThat(rendered).contains("h_bucket{m=\"x\",le=\"0.005\"} 2\n");
+        assertThat(rendered).contains("h_bucket{m=\"x\",le=\"10.0\"} 2\n");
+        assertThat(rendered).contains("h_bucket{m=\"x\",le=\"+Inf\"} 3\n");
+        assertThat(rendered).contains("h_count{m=\"x\"} 3\n");
+    }
+
+    @Test
+    public void testEscapesLabelValues() {
+        assertThat(GatewayMetrics.escape("a\"b\\c\nd")).isEqualTo("a\\\"b\\\\c\\nd");
+    }
+
+    @Test
+    public void testProxiedCallsAreRecorded() throws Exception {
+        String backendName = InProcessServerBuilder.generateName();
+        backendServer = InProcessServerBuilder.forName(backendName).directExecutor()
+                .addService(ServerServiceDefinition.builder("test.Metrics")
+                        .addMethod(ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            responseObserver.onNext(request);
+                            responseObserver.onCompleted();
+                        }))
+                        .addMethod(FAIL, ServerCalls.asyncUnaryCall((request, responseObserver) ->
+                                responseObserver.onError(Status.NOT_FOUND.asRuntimeException())))
+                        .build())
+                .build()
+                .start();
+        backendChannel = InProcessChannelBuilder.forName(backendName).directExecutor().build();
+        ProxyComponents components = ProxyComponents.create(ProxyConfig.defaults());
+        String gatewayName = InProcessServerBuilder.generateName();
+        gatewayServer = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName).directExecutor(),
+                RoutingTable.of(Map.of("metrics", backendChannel)), components).start();
+        gatewayChannel = InProcessChannelBuilder.forName(gatewayName).directExecutor().build();
+        Metadata headers = new Metadata();
+        headers.put(GatewayServer.TARGET_HEADER_KEY, "metrics");
+        Channel channel = ClientInterceptors.intercept(gatewayChannel,
+                MetadataUtils.newAttachHeadersInterceptor(headers));
+
+        ClientCalls.blockingUnaryCall(channel, ECHO, CallOptions.DEFAULT, new byte[] {1, 2, 3});
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> ClientCalls.blockingUnaryCall(channel, FAIL, CallOptions.DEFAULT, new byte[0]));
+        assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.NOT_FOUND);
+
+        String exposition = render(components.getMetrics());
+        assertThat(exposition).contains("gateway_requests_in_flight{method=\"test.Metrics/Echo\"} 0\n");
+        assertThat(exposition).contains(
+                "gateway_responses_total{method=\"test.Metrics/Echo\",code=\"OK\"} 1\n");
+        assertThat(exposition).contains(
+                "gateway_responses_total{method=\"test.Metrics/Fail\",code=\"NOT_FOUND\"} 1\n");
+        assertThat(exposition).contains("gateway_received_bytes_total{method=\"test.Metrics/Echo\"} 3\n");
+        assertThat(exposition).contains("gateway_sent_bytes_total{method=\"test.Metrics/Echo\"} 3\n");
+        assertThat(exposition).contains("gateway_backend_requests_in_flight{backend=\"metrics\"} 0\n");
+        assertThat(exposition).contains(
+                "gateway_backend_responses_total{backend=\"metrics\",code=\"NOT_FOUND\"} 1\n");
+    }
+
+    private static String render(GatewayMetrics metrics) {
+        StringBuilder out = new StringBuilder();
+        metrics.writeTo(out);
+        return out.toString();
+    }
+
+    private static MethodDescriptor<byte[], byte[]> method(String name) {
+        return MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNARY)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName("test.Metrics", name))
+                .setRequestMarshaller(BYTES)
+                .setResponseMarshaller(BYTES)
+                .build();
+    }
+}
@@ -1,159 +1,386 @@
 package services.gateway;
 
-import com.sun.net.httpserver.SimpleFileServer;
-
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.net.URI;
 import java.io.IOException;
 import java.io.OutputStream;
 import io.grpc.*;
-import io.grpc.stub.ClientCalls;
-import io.grpc.stub.ServerCalls;
-import io.grpc.stub.StreamObserver;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoop;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Collections;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
+import services.common.Ports;
+import services.common.ServerExecutor;
 
 public class GatewayServer {
     private static final Logger logger = Logger.getLogger(GatewayServer.class.getName());
-    private static final int HTTP_PORT = 8000;
-    private static final int GRPC_PORT = 9000;
-    private static final int NATIVE_GRPC_PORT = 9001;
+    private static final int DEFAULT_HTTP_PORT = 8000;
+    private static final int DEFAULT_GRPC_PORT = 9000;
+    private static final int DEFAULT_NATIVE_GRPC_PORT = 9001;
 
+    // The channel to the replica the call was routed to, for interceptors that ran before it
     public static final Context.Key<ManagedChannel> ORCHESTRATION_TARGET_CHANNEL = Context.key("target-channel");
+    static final Context.Key<Backend> ORCHESTRATION_TARGET_BACKEND = Context.key("target-backend");
+    static final Context.Key<Backend.Endpoint> ORCHESTRATION_TARGET_ENDPOINT = Context.key("target-endpoint");
     public static final Metadata.Key<String> TARGET_HEADER_KEY = Metadata.Key.of("x-backend-target",
             Metadata.ASCII_STRING_MARSHALLER);
 
     public static void main(String[] args) throws Exception {
+        int httpPort = Ports.fromEnv("GATEWAY_HTTP_PORT", DEFAULT_HTTP_PORT);
+        int grpcPort = Ports.fromEnv("GATEWAY_GRPC_PORT", DEFAULT_GRPC_PORT);
+        int nativeGrpcPort = Ports.fromEnv("GATEWAY_NATIVE_GRPC_PORT", DEFAULT_NATIVE_GRPC_PORT);
+
         // 1. Static Assets Server
         Path staticDir = Paths.get("/app/static");
         if (!staticDir.toFile().exists()) {
             staticDir = Paths.get("services/gateway/static");
         }
 
-        HttpServer httpServer = SimpleFileServer.createFileServer(
-                new InetSocketAddress(HTTP_PORT),
-                staticDir,
-                SimpleFileServer.OutputLevel.VERBOSE);
+        // Assets are read and compressed once, here, and served from memory
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress(httpPort), 0);
+        httpServer.createContext("/", StaticAssetHandler.load(staticDir));
+        // Without an executor every request would run on the server's one dispatcher thread
+        ServerExecutor httpExecutor = ServerExecutor.fromArgs(new String[0], "GATEWAY_HTTP",
+                ServerExecutor.Mode.VIRTUAL);
+        httpExecutor.configure(httpServer);
 
         // Add Proxy Handler for OIDC Token Endpoint
-        httpServer.createContext("/api/proxy_token", new TokenProxyHandler("http://localhost:8081/token"));
+        httpServer.createContext("/api/proxy_token", new TokenProxyHandler(
+                envOrDefault("GATEWAY_TOKEN_ENDPOINT", "http://localhost:8081/token"),
+                ProxyConfig.intFromEnv("GATEWAY_TOKEN_MAX_CONCURRENT", TokenProxyHandler.DEFAULT_MAX_CONCURRENT),
+                ProxyConfig.durationFromEnv("GATEWAY_TOKEN_TIMEOUT", TokenProxyHandler.DEFAULT_TIMEOUT)));
 
         httpServer.start();
-        logger.info("HTTP Server started on port " + HTTP_PORT);
+        logger.info("HTTP Server started on port " + httpPort + " with the " + httpExecutor + " executor");
 
         // 2. Generic gRPC Proxy
-        // Channels (Localhost for testing)
-        ManagedChannel greeterChannel = ManagedChannelBuilder.forAddress("localhost", 9090)
-                .usePlaintext()
-                .build();
-
-        ManagedChannel calculatorChannel = ManagedChannelBuilder.forAddress("localhost", 9091)
-                .usePlaintext()
-                .build();
-
-        Map<String, ManagedChannel> channelMap = new HashMap<>();
-        channelMap.put("greeter", greeterChannel);
-        channelMap.put("calculator", calculatorChannel);
-
-        Server grpcServer = createGrpcServer(ServerBuilder.forPort(GRPC_PORT), channelMap).start();
-        logger.info("Generic gRPC Proxy Server started on port " + GRPC_PORT);
+        // Channels (Localhost for testing). Each target may list several replicas,
+        // e.g. GREETER_ENDPOINTS=localhost:9090,localhost:9092
+        ProxyConfig config = ProxyConfig.fromEnvironment();
+        // Both servers and every backend connection share one set of event loops. The
+        // proxy's handlers never block, so by default they run directly on those loops
+        EventLoops eventLoops = EventLoops.create(config);
+        ServerExecutor executor = ServerExecutor.fromArgs(args, "GATEWAY", ServerExecutor.Mode.DIRECT);
+
+        // Targets listed in GATEWAY_EMBEDDED_TARGETS are served by this JVM over an
+        // in-process channel instead of dialing another container; the rest are remote
+        EmbeddedBackends embedded = EmbeddedBackends.start(EmbeddedBackends.targetsFromEnvironment(), executor);
+        Map<String, List<ManagedChannel>> endpoints = new HashMap<>();
+        endpoints.put("greeter", endpointsFor("greeter", envOrDefault("GREETER_ENDPOINTS", "localhost:9090"),
+                embedded, eventLoops, config));
+        endpoints.put("calculator", endpointsFor("calculator",
+                envOrDefault("CALCULATOR_ENDPOINTS", "localhost:9091"), embedded, eventLoops, config));
+        RoutingTable routingTable = RoutingTable.forEndpoints(endpoints,
+                Backend.Policy.valueOf(envOrDefault("GATEWAY_LB_POLICY", "POWER_OF_TWO_CHOICES")),
+                OutlierDetection.create(config));
+        // Replicas that say they are not serving, or do not answer, stop getting calls
+        HealthChecker healthChecker = HealthChecker.start(routingTable, config);
+
+        httpServer.createContext("/debug/connections", new ConnectionStatsHandler(routingTable));
+        // Kubernetes sends the pod traffic once /readyz answers 200, i.e. after the warm-up
+        // below; /healthz only says the process is up, so a slow warm-up is not restarted
+        WarmUp warmUp = new WarmUp();
+        httpServer.createContext("/readyz", new ProbeHandler(warmUp::isReady));
+        httpServer.createContext("/healthz", new ProbeHandler(() -> true));
+
+        // Both servers share one cache and one set of in-flight calls
+        ProxyComponents components = ProxyComponents.create(config);
+        if (components.getResponseCache() != null) {
+            httpServer.createContext("/debug/cache", new CacheStatsHandler(components.getResponseCache()));
+        }
+        httpServer.createContext("/metrics", new MetricsHandler(components.getMetrics(), routingTable,
+                components.getConcurrencyLimits()));
+
+        // Browsers speak gRPC-Web to the HTTP port. Their calls go to an in-process
+        // instance of the proxy, so they are authenticated, routed and measured like
+        // calls on the gRPC port, without a translating proxy or a network hop in between
+        String grpcWebServerName = InProcessServerBuilder.generateName();
+        Server grpcWebServer = buildGrpcServer(InProcessServerBuilder.forName(grpcWebServerName).directExecutor(),
+                routingTable, components).start();
+        ManagedChannel grpcWebChannel = InProcessChannelBuilder.forName(grpcWebServerName).directExecutor().build();
+        httpServer.createContext(GrpcWebHandler.PATH_PREFIX, new GrpcWebHandler(grpcWebChannel));
+
+        ServerBuilder<?> grpcBuilder = eventLoops.serverBuilder(grpcPort);
+        executor.configure(grpcBuilder);
+        Server grpcServer = buildGrpcServer(grpcBuilder, routingTable, components).start();
+        logger.info("Generic gRPC Proxy Server started on port " + grpcPort + " with the " + executor + " executor");
 
         // 3. Native gRPC Proxy (for passthrough)
-        Server nativeGrpcServer = createGrpcServer(ServerBuilder.forPort(NATIVE_GRPC_PORT), channelMap).start();
-        logger.info("Native gRPC Proxy Server started on port " + NATIVE_GRPC_PORT);
+        ServerBuilder<?> nativeGrpcBuilder = eventLoops.serverBuilder(nativeGrpcPort);
+        executor.configure(nativeGrpcBuilder);
+        Server nativeGrpcServer = buildGrpcServer(nativeGrpcBuilder, routingTable, components).start();
+        logger.info("Native gRPC Proxy Server started on port " + nativeGrpcPort);
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            warmUp.notReady();
             grpcServer.shutdown();
             nativeGrpcServer.shutdown();
             httpServer.stop(0);
+            grpcWebChannel.shutdown();
+            grpcWebServer.shutdown();
+            if (healthChecker != null) {
+                healthChecker.close();
+            }
+            embedded.close();
+            // The writer is a daemon thread; flush what it has not written yet
+            components.getAccessLog().drain();
         }));
 
+        // Connect every backend and run synthetic calls through the gRPC port, so the first
+        // real calls find open connections and compiled code. The calls carry no token, so
+        // with authentication on they go to an in-process instance of the proxy without it
+        Server warmupServer = null;
+        ManagedChannel warmupChannel;
+        if (components.getJwtAuth() != null) {
+            String warmupServerName = InProcessServerBuilder.generateName();
+            warmupServer = buildUnauthenticatedGrpcServer(InProcessServerBuilder.forName(warmupServerName)
+                    .directExecutor(), routingTable, components).start();
+            warmupChannel = InProcessChannelBuilder.forName(warmupServerName).directExecutor().build();
+        } else {
+            warmupChannel = eventLoops.channelBuilder("localhost:" + grpcPort).usePlaintext().build();
+        }
+        try {
+            warmUp.run(routingTable, warmupChannel, config);
+        } finally {
+            warmupChannel.shutdownNow();
+            if (warmupServer != null) {
+                warmupServer.shutdownNow();
+            }
+        }
+
         grpcServer.awaitTermination();
         nativeGrpcServer.awaitTermination();
+        executor.close();
+        httpExecutor.close();
+        eventLoops.close();
     }
 
     public static Server buildGrpcServer(ServerBuilder<?> serverBuilder, Map<String, ManagedChannel> channelMap) {
-        // We use an interceptor to orchestrate routing
-        ServerInterceptor routingInterceptor = new ServerInterceptor() {
-            @Override
-            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
-                    ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
-
-                String target = headers.get(TARGET_HEADER_KEY);
-                logger.info("Orchestration header x-backend-target: " + target);
-
-                ManagedChannel selected = channelMap.values().stream().findFirst().orElse(null); // Default to first
-                                                                                                 // available or null
-                                                                                                 // logic
-                // Replicate original logic: default to the one named "greeter" if available, or
-                // first?
-                // Original logic: "ManagedChannel selected = greeterChannel;"
-                if (channelMap.containsKey("greeter")) {
-                    selected = channelMap.get("greeter");
-                }
+        return buildGrpcServer(serverBuilder, channelMap, ProxyConfig.defaults());
+    }
 
-                if (target != null && channelMap.containsKey(target)) {
-                    selected = channelMap.get(target);
-                }
+    public static Server buildGrpcServer(ServerBuilder<?> serverBuilder, Map<String, ManagedChannel> channelMap,
+            ProxyConfig config) {
+        return buildGrpcServer(serverBuilder, RoutingTable.of(channelMap), config);
+    }
 
-                Context ctx = Context.current().withValue(ORCHESTRATION_TARGET_CHANNEL, selected);
-                return Contexts.interceptCall(ctx, call, headers, next);
-            }
-        };
+    static Server buildGrpcServer(ServerBuilder<?> serverBuilder, RoutingTable routingTable, ProxyConfig config) {
+        return buildGrpcServer(serverBuilder, routingTable, ProxyComponents.create(config));
+    }
+
+    // Servers that should share cached replies and in-flight calls are handed the same components
+    static Server buildGrpcServer(ServerBuilder<?> serverBuilder, RoutingTable routingTable,
+            ProxyComponents components) {
+        return buildGrpcServer(serverBuilder, routingTable, components, true);
+    }
+
+    // The proxy without bearer token checks, for the warm-up calls, which carry no token.
+    // Only in-process, so nothing outside this JVM can reach it
+    static Server buildUnauthenticatedGrpcServer(InProcessServerBuilder serverBuilder, RoutingTable routingTable,
+            ProxyComponents components) {
+        return buildGrpcServer(serverBuilder, routingTable, components, false);
+    }
 
+    private static Server buildGrpcServer(ServerBuilder<?> serverBuilder, RoutingTable routingTable,
+            ProxyComponents components, boolean authenticate) {
+        serverBuilder.intercept(new RoutingInterceptor(routingTable)); // Global interceptor
+        if (authenticate && components.getJwtAuth() != null) {
+            // Added last so it runs first: a call without a valid token is never routed
+            serverBuilder.intercept(components.getJwtAuth());
+        }
         return serverBuilder
-                .intercept(routingInterceptor) // Global interceptor
-                .fallbackHandlerRegistry(new GenericProxyRegistry())
+                .fallbackHandlerRegistry(new GenericProxyRegistry(components))
                 .build();
     }
 
-    // Deprecated wrapper to match signature if needed, or just inline in main.
-    // I renamed it to buildGrpcServer to be clear it returns a built (but not
-    // started) server.
-    private static Server createGrpcServer(ServerBuilder<?> serverBuilder, Map<String, ManagedChannel> channelMap) {
-        return buildGrpcServer(serverBuilder, channelMap);
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+
+    // One pool of plaintext connections per comma-separated host:port
+    private static List<ManagedChannel> endpointsFor(String target, String addresses, EmbeddedBackends embedded,
+            EventLoops eventLoops, ProxyConfig config) {
+        ManagedChannel channel = embedded.channelFor(target);
+        return channel != null ? List.of(channel) : channelsFor(addresses, eventLoops, config);
+    }
+
+    private static List<ManagedChannel> channelsFor(String addresses, EventLoops eventLoops, ProxyConfig config) {
+        List<ManagedChannel> channels = new ArrayList<>();
+        for (String address : addresses.split(",")) {
+            String target = address.trim();
+            if (config.getStreamPlacement() == StripedChannel.Placement.EVENT_LOOP) {
+                channels.add(pinnedChannel(target, eventLoops, config));
+                continue;
+            }
+            channels.add(new StripedChannel(
+                    () -> eventLoops.channelBuilder(target)
+                            .usePlaintext()
+                            .build(),
+                    config.getStreamPlacement(),
+                    config.getConnectionsPerEndpoint(),
+                    config.getMaxConnectionsPerEndpoint(),
+                    config.getMaxStreamsPerConnection()));
+        }
+        return channels;
+    }
+
+    // One connection per event loop, so a call handled on a loop is forwarded over that
+    // loop's own connection. Replies are then delivered directly on the same loop instead
+    // of hopping to the channel's executor; the proxy's listeners never block.
+    static StripedChannel pinnedChannel(String target, EventLoops eventLoops, ProxyConfig config) {
+        List<ManagedChannel> channels = new ArrayList<>();
+        List<BooleanSupplier> owners = new ArrayList<>();
+        for (EventLoop loop : eventLoops.loops()) {
+            channels.add(eventLoops.channelBuilder(target, loop)
+                    .usePlaintext()
+                    .directExecutor()
+                    .build());
+            owners.add(loop::inEventLoop);
+        }
+        return StripedChannel.pinned(channels, owners, config.getMaxStreamsPerConnection());
+    }
+
+    // We use an interceptor to orchestrate routing: it places the backend for the
+    // x-backend-target header, and the replica of it picked for this call, into the
+    // Context for GatewayServerCallHandler
+    static class RoutingInterceptor implements ServerInterceptor {
+        private final RoutingTable routingTable;
+
+        RoutingInterceptor(RoutingTable routingTable) {
+            this.routingTable = routingTable;
+        }
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+
+            String target = headers.get(TARGET_HEADER_KEY);
+            Backend backend = routingTable.route(target);
+            if (backend == null) {
+                return next.startCall(call, headers);
+            }
+            Backend.Endpoint endpoint = backend.pick();
+            Context ctx = Context.current().withValues(ORCHESTRATION_TARGET_BACKEND, backend,
+                    ORCHESTRATION_TARGET_ENDPOINT, endpoint, ORCHESTRATION_TARGET_CHANNEL, endpoint.getChannel());
+            return Contexts.interceptCall(ctx, call, headers, next);
+        }
     }
 
-    // Registry resolves ANY method, relying on Context for channel selection
+    // Registry resolves ANY method, relying on Context for channel selection.
+    // Definitions are stateless, so each method's is built once and shared by every
+    // later call. The cache is bounded so clients inventing method names cannot grow
+    // it without limit; past the bound, definitions are simply built per call.
     static class GenericProxyRegistry extends HandlerRegistry {
+        private static final InputStreamMarshaller MARSHALLER = new InputStreamMarshaller();
+
+        private final ProxyConfig config;
+        @Nullable
+        private final ResponseCache responseCache;
+        @Nullable
+        private final SingleFlight singleFlight;
+        private final GatewayMetrics metrics;
+        private final AccessLog accessLog;
+        private final DeadlinePolicy deadlines;
+        @Nullable
+        private final ConcurrencyLimiter.PerBackend concurrencyLimits;
+        private final ConcurrentHashMap<String, ServerMethodDefinition<?, ?>> methods = new ConcurrentHashMap<>();
+
+        GenericProxyRegistry(ProxyConfig config) {
+            this(ProxyComponents.create(config));
+        }
+
+        GenericProxyRegistry(ProxyComponents components) {
+            this.config = components.getConfig();
+            this.responseCache = components.getResponseCache();
+            this.singleFlight = components.getSingleFlight();
+            this.metrics = components.getMetrics();
+            this.accessLog = components.getAccessLog();
+            this.deadlines = DeadlinePolicy.create(config);
+            this.concurrencyLimits = components.getConcurrencyLimits();
+        }
 
         @Override
         @Nullable
         public ServerMethodDefinition<?, ?> lookupMethod(String methodName, @Nullable String authority) {
+            ServerMethodDefinition<?, ?> definition = methods.get(methodName);
+            if (definition != null) {
+                return definition;
+            }
+            definition = createMethod(methodName);
+            if (methods.size() < config.getMaxCachedMethods()) {
+                ServerMethodDefinition<?, ?> existing = methods.putIfAbsent(methodName, definition);
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            return definition;
+        }
+
+        private ServerMethodDefinition<?, ?> createMethod(String methodName) {
             // Normalize method name (strip leading slash)
             String normalizedMethodName = methodName;
             if (normalizedMethodName.startsWith("/")) {
                 normalizedMethodName = normalizedMethodName.substring(1);
             }
 
-            // Create a MethodDescriptor on the fly for the requested method
+            // Create a MethodDescriptor for the requested method
             MethodDescriptor<InputStream, InputStream> methodDescriptor = MethodDescriptor
                     .<InputStream, InputStream>newBuilder()
                     .setType(MethodDescriptor.MethodType.UNKNOWN) // Unknown allows streaming or unary
                     .setFullMethodName(normalizedMethodName)
-                    .setRequestMarshaller(new InputStreamMarshaller())
-                    .setResponseMarshaller(new InputStreamMarshaller())
+                    .setRequestMarshaller(MARSHALLER)
+                    .setResponseMarshaller(MARSHALLER)
                     .build();
 
+            // Cached and coalesced methods need the whole request and reply as bytes
+            boolean cached = responseCache != null && responseCache.isCached(normalizedMethodName);
+            boolean coalesced = singleFlight != null && singleFlight.isCoalesced(normalizedMethodName);
+            if (cached || coalesced) {
+                return ServerMethodDefinition.create(
+                        methodDescriptor,
+                        new BufferedUnaryCallHandler(methodDescriptor, cached ? responseCache : null,
+                                coalesced ? singleFlight : null, metrics, accessLog, deadlines, concurrencyLimits));
+            }
             return ServerMethodDefinition.create(
                     methodDescriptor,
-                    new GatewayServerCallHandler(methodDescriptor));
+                    new GatewayServerCallHandler(methodDescriptor, config.getRequestWindow(), metrics,
+                            accessLog, deadlines, concurrencyLimits,
+                            config.getStreamingMethods().contains(normalizedMethodName)));
         }
     }
 
-    // Trivial Marshaller for InputStream (Pass-through with buffering)
+    // Pass-through Marshaller for InputStream.
+    // The transport closes the stream handed to parse() as soon as the message has
+    // been delivered, so we detach it instead: the returned stream takes ownership
+    // of the transport's buffers without copying them. On the way out, the
+    // outbound transport drains it (it is KnownLength / HasByteBuffer) directly into
+    // its framer and closes it, which releases the buffers.
     static class InputStreamMarshaller implements MethodDescriptor.Marshaller<InputStream> {
         @Override
         public InputStream stream(InputStream value) {
@@ -162,6 +389,10 @@ public class GatewayServer {
 
         @Override
         public InputStream parse(InputStream stream) {
+            if (stream instanceof Detachable) {
+                return ((Detachable) stream).detach();
+            }
+            // Transports that cannot hand over their buffers still need a private copy
             try {
                 return new java.io.ByteArrayInputStream(stream.readAllBytes());
             } catch (java.io.IOException e) {
@@ -171,67 +402,187 @@ public class GatewayServer {
     }
 
     // Handler that forwards the call to the backend selected in Context, including
-    // headers
+    // headers. The replica is picked here so the call can be counted against it
+    // while it is open, which is what the balancer's least-loaded choice reads.
     static class GatewayServerCallHandler implements ServerCallHandler<InputStream, InputStream> {
         private final MethodDescriptor<InputStream, InputStream> method;
+        private final int requestWindow;
+        private final GatewayMetrics metrics;
+        private final GatewayMetrics.MethodMetrics methodMetrics;
+        private final AccessLog accessLog;
+        private final DeadlinePolicy deadlines;
+        @Nullable
+        private final ConcurrencyLimiter.PerBackend concurrencyLimits;
+        private final boolean streaming;
 
         public GatewayServerCallHandler(MethodDescriptor<InputStream, InputStream> method) {
+            this(method, ProxyConfig.DEFAULT_REQUEST_WINDOW);
+        }
+
+        public GatewayServerCallHandler(MethodDescriptor<InputStream, InputStream> method, int requestWindow) {
+            this(method, requestWindow, new GatewayMetrics(ProxyConfig.DEFAULT_MAX_CACHED_METHODS),
+                    AccessLog.DISABLED, DeadlinePolicy.DEFAULT, null, false);
+        }
+
+        /**
+         * {@code streaming} says the method is known to stream. Its calls stay open as
+         * long as their callers like, so they are not limited and not timed.
+         */
+        GatewayServerCallHandler(MethodDescriptor<InputStream, InputStream> method, int requestWindow,
+                GatewayMetrics metrics, AccessLog accessLog, DeadlinePolicy deadlines,
+                @Nullable ConcurrencyLimiter.PerBackend concurrencyLimits, boolean streaming) {
             this.method = method;
+            this.requestWindow = requestWindow;
+            this.metrics = metrics;
+            this.methodMetrics = metrics.forMethod(method.getFullMethodName());
+            this.accessLog = accessLog;
+            this.deadlines = deadlines;
+            this.concurrencyLimits = streaming ? null : concurrencyLimits;
+            this.streaming = streaming;
         }
 
         @Override
         public ServerCall.Listener<InputStream> startCall(ServerCall<InputStream, InputStream> serverCall,
                 Metadata headers) {
-            // Retrieve channel from Context
-            ManagedChannel channel = ORCHESTRATION_TARGET_CHANNEL.get();
-            if (channel == null) {
-                serverCall.close(Status.INTERNAL.withDescription("No channel selected"), new Metadata());
+            long startNanos = methodMetrics.callStarted();
+            // Retrieve backend from Context
+            Backend backend = ORCHESTRATION_TARGET_BACKEND.get();
+            if (backend == null) {
+                Status status = Status.INTERNAL.withDescription("No channel selected");
+                serverCall.close(status, new Metadata());
+                accessLog.log(serverCall, null, null, status,
+                        methodMetrics.callFinished(status.getCode(), startNanos));
                 return new ServerCall.Listener<InputStream>() {
                 };
             }
-
-            // Create Client Call
-            ClientCall<InputStream, InputStream> clientCall = channel.newCall(method, CallOptions.DEFAULT);
+            // The caller's Context carries its deadline. A call that could not finish in
+            // time fails here instead of taking up a backend that may be overloaded
+            CallOptions callOptions = deadlines.backendCallOptions(Context.current().getDeadline());
+            if (callOptions == null) {
+                Status status = DeadlinePolicy.TOO_LITTLE_TIME;
+                methodMetrics.deadlineRejected();
+                serverCall.close(status, new Metadata());
+                accessLog.log(serverCall, backend, null, status,
+                        methodMetrics.callFinished(status.getCode(), startNanos));
+                return new ServerCall.Listener<InputStream>() {
+                };
+            }
+            // A backend already holding as many calls as its latency allows gets no
+            // more; the caller can retry elsewhere sooner than it would be served here
+            ConcurrencyLimiter.Permit permit = concurrencyLimits != null
+                    ? concurrencyLimits.forBackend(backend.getName()).tryAcquire() : null;
+            if (concurrencyLimits != null && permit == null) {
+                Status status = ConcurrencyLimiter.LIMIT_EXCEEDED;
+                serverCall.close(status, new Metadata());
+                accessLog.log(serverCall, backend, null, status,
+                        methodMetrics.callFinished(status.getCode(), startNanos));
+                return new ServerCall.Listener<InputStream>() {
+                };
+            }
+            // Picked by the RoutingInterceptor, which also published its channel
+            Backend.Endpoint endpoint = ORCHESTRATION_TARGET_ENDPOINT.get();
+            GatewayMetrics.BackendMetrics backendMetrics = metrics.forBackend(backend.getName());
+
+            // Started in the caller's Context, so the backend call is cancelled the
+            // moment the caller cancels or its deadline passes
+            ClientCall<InputStream, InputStream> clientCall = endpoint.getChannel().newCall(method, callOptions);
+            endpoint.callStarted();
+            long backendStartNanos = backendMetrics.callStarted();
+
+            // Each direction only asks its source for more once its sink can take it
+            MessagePump requests = new MessagePump(serverCall::request, clientCall::isReady);
+            MessagePump responses = new MessagePump(clientCall::request, serverCall::isReady);
+            // Any other call shows itself a stream with its second message either way
+            AtomicBoolean streamed = new AtomicBoolean(streaming);
 
             // Start Client Call with listener that forwards response to Server Call
             clientCall.start(new ClientCall.Listener<InputStream>() {
+                // Time the backend took to start answering, which outlier detection judges
+                private long responseNanos = -1;
+                private int repliesSent;
+
                 @Override
                 public void onHeaders(Metadata responseHeaders) {
+                    responseNanos = System.nanoTime() - backendStartNanos;
                     serverCall.sendHeaders(responseHeaders);
                 }
 
                 @Override
                 public void onMessage(InputStream message) {
-                    serverCall.sendMessage(message);
+                    // Sized before sending, since the transport drains the stream
+                    methodMetrics.messageSent(GatewayMetrics.sizeOf(message));
+                    if (++repliesSent == 2) {
+                        streamed.set(true);
+                    }
+                    if (permit != null) {
+                        permit.replyReceived();
+                    }
+                    try {
+                        serverCall.sendMessage(message);
+                    } catch (RuntimeException e) {
+                        // The transport only closes messages it accepted; this one holds buffers
+                        closeQuietly(message);
+                        throw e;
+                    }
+                    responses.onDelivered();
                 }
 
                 @Override
                 public void onClose(Status status, Metadata trailers) {
-                    logger.info("Gateway ClientCall closed: " + status);
+                    endpoint.callFinished(status.getCode(), streamed.get() ? OutlierDetection.UNTIMED
+                            : responseNanos >= 0 ? responseNanos : System.nanoTime() - backendStartNanos);
+                    backendMetrics.callFinished(status.getCode(), backendStartNanos);
+                    if (permit != null) {
+                        permit.release(status.getCode());
+                    }
                     serverCall.close(status, trailers);
+                    accessLog.log(serverCall, backend, endpoint, status,
+                            methodMetrics.callFinished(status.getCode(), startNanos));
+                }
+
+                @Override
+                public void onReady() {
+                    // Backend can take more requests
+                    requests.onSinkReady();
                 }
             }, headers); // Forward REQUEST headers here
 
-            // Flow control: Request first message from backend
-            clientCall.request(1);
-            // Flow control: Request first message from client (browser)
-            serverCall.request(1);
+            // Flow control: open the window in both directions so messages are pipelined
+            clientCall.request(requestWindow);
+            serverCall.request(requestWindow);
 
             // Return Server Call Listener that forwards request to Client Call
             return new ServerCall.Listener<InputStream>() {
+                private int requestsSent;
+
                 @Override
                 public void onMessage(InputStream message) {
-                    clientCall.sendMessage(message);
+                    methodMetrics.messageReceived(GatewayMetrics.sizeOf(message));
+                    if (++requestsSent == 2) {
+                        streamed.set(true);
+                    }
+                    if (permit != null) {
+                        permit.requestSent();
+                    }
+                    try {
+                        clientCall.sendMessage(message);
+                    } catch (RuntimeException e) {
+                        // e.g. the backend call was already cancelled
+                        closeQuietly(message);
+                        throw e;
+                    }
+                    requests.onDelivered();
                 }
 
                 @Override
                 public void onHalfClose() {
                     try {
                         clientCall.halfClose();
-                    } catch (Throwable t) {
-                        System.err.println("CRASH in onHalfClose: " + t);
-                        t.printStackTrace();
-                        throw t;
+                    } catch (RuntimeException e) {
+                        // Cancelling ends the call through onClose above, which closes the
+                        // caller's side and does the bookkeeping
+                        logger.log(Level.WARNING, "Could not half-close the call to " + endpoint, e);
+                        clientCall.cancel("Failed to half-close", e);
                     }
                 }
 
@@ -242,74 +593,360 @@ public class GatewayServer {
 
                 @Override
                 public void onReady() {
+                    // Client can take more responses
+                    responses.onSinkReady();
                 }
             };
         }
     }
 
-    // Simple Proxy Handler for forwarding POST requests (like Token Exchange)
-    static class TokenProxyHandler implements HttpHandler {
-        private final String targetUrl;
-        private final HttpClient httpClient;
+    // Releases the transport buffers a detached message holds
+    static void closeQuietly(InputStream message) {
+        try {
+            message.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to close a message", e);
+        }
+    }
 
-        public TokenProxyHandler(String targetUrl) {
-            this.targetUrl = targetUrl;
-            this.httpClient = HttpClient.newHttpClient();
+    // Moves demand across one direction of a proxied call. Every message handed to
+    // the sink is owed back to the source as request(1), but only while the sink is
+    // ready; otherwise the debt is parked until the sink's onReady(). onDelivered()
+    // and onSinkReady() run on different call executors, so the debt is parked
+    // before isReady() is checked to avoid losing a wakeup in between.
+    static final class MessagePump {
+        interface Source {
+            void request(int numMessages);
+        }
+
+        interface Sink {
+            boolean isReady();
+        }
+
+        private final Source source;
+        private final Sink sink;
+        private final AtomicInteger owed = new AtomicInteger();
+
+        MessagePump(Source source, Sink sink) {
+            this.source = source;
+            this.sink = sink;
+        }
+
+        void onDelivered() {
+            owed.incrementAndGet();
+            if (sink.isReady()) {
+                flush();
+            }
+        }
+
+        void onSinkReady() {
+            flush();
+        }
+
+        private void flush() {
+            int n = owed.getAndSet(0);
+            if (n > 0) {
+                source.request(n);
+            }
+        }
+    }
+
+    // Plain-text dump of active streams on every backend connection, one line each
+    static class ConnectionStatsHandler implements HttpHandler {
+        private final RoutingTable routingTable;
+
+        ConnectionStatsHandler(RoutingTable routingTable) {
+            this.routingTable = routingTable;
         }
 
         @Override
         public void handle(HttpExchange exchange) throws IOException {
-            try {
-                // CORS Headers (Always allow from our own origin/subdomains)
-                exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
-                exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
-                exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "*");
-
-                if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) {
-                    exchange.sendResponseHeaders(204, -1);
-                    return;
+            StringBuilder body = new StringBuilder();
+            routingTable.getBackends().forEach((target, backend) -> {
+                for (Backend.Endpoint endpoint : backend.getEndpoints()) {
+                    if (!(endpoint.getChannel() instanceof StripedChannel)) {
+                        continue;
+                    }
+                    int[] active = ((StripedChannel) endpoint.getChannel()).activeStreamsPerStripe();
+                    for (int i = 0; i < active.length; i++) {
+                        body.append(target).append(' ').append(endpoint)
+                                .append(" connection=").append(i)
+                                .append(" active_streams=").append(active[i]).append('\n');
+                    }
                 }
+            });
+            byte[] bytes = body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+
+    // 200 "ready" or 503 "not ready", for Kubernetes probes
+    static class ProbeHandler implements HttpHandler {
+        private final BooleanSupplier ready;
 
-                if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
-                    exchange.sendResponseHeaders(405, -1);
-                    return;
+        ProbeHandler(BooleanSupplier ready) {
+            this.ready = ready;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            boolean isReady = ready.getAsBoolean();
+            byte[] bytes = (isReady ? "ready\n" : "not ready\n").getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+            exchange.getResponseHeaders().add("Cache-Control", "no-store");
+            exchange.sendResponseHeaders(isReady ? 200 : 503, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+
+    // Plain-text response cache counters
+    static class CacheStatsHandler implements HttpHandler {
+        private final ResponseCache responseCache;
+
+        CacheStatsHandler(ResponseCache responseCache) {
+            this.responseCache = responseCache;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            com.github.benmanes.caffeine.cache.stats.CacheStats stats = responseCache.stats();
+            String body = "entries=" + responseCache.estimatedSize()
+                    + "\nhits=" + stats.hitCount()
+                    + "\nmisses=" + stats.missCount()
+                    + "\nevictions=" + stats.evictionCount()
+                    + "\nhit_rate=" + stats.hitRate() + "\n";
+            byte[] bytes = body.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+
+    // Prometheus scrape target: call metrics, replica health and the per-connection gauge of /debug/connections
+    static class MetricsHandler implements HttpHandler {
+        private final GatewayMetrics metrics;
+        private final RoutingTable routingTable;
+        @Nullable
+        private final ConcurrencyLimiter.PerBackend concurrencyLimits;
+
+        MetricsHandler(GatewayMetrics metrics, RoutingTable routingTable,
+                @Nullable ConcurrencyLimiter.PerBackend concurrencyLimits) {
+            this.metrics = metrics;
+            this.routingTable = routingTable;
+            this.concurrencyLimits = concurrencyLimits;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            StringBuilder body = new StringBuilder(8192);
+            metrics.writeTo(body);
+            if (concurrencyLimits != null) {
+                concurrencyLimits.writeTo(body);
+            }
+            GatewayMetrics.header(body, "gateway_backend_endpoint_available", "gauge",
+                    "Whether each replica is in rotation: serving, as far as health checks tell, and not ejected.");
+            routingTable.getBackends().forEach((target, backend) -> {
+                for (Backend.Endpoint endpoint : backend.getEndpoints()) {
+                    GatewayMetrics.sample(body, "gateway_backend_endpoint_available", endpointLabels(target, endpoint),
+                            endpoint.isAvailable() ? 1 : 0);
+                }
+            });
+            GatewayMetrics.header(body, "gateway_backend_endpoint_ejections_total", "counter",
+                    "Times each replica was taken out of rotation for failing or slow calls.");
+            routingTable.getBackends().forEach((target, backend) -> {
+                for (Backend.Endpoint endpoint : backend.getEndpoints()) {
+                    GatewayMetrics.sample(body, "gateway_backend_endpoint_ejections_total",
+                            endpointLabels(target, endpoint), endpoint.getEjections());
+                }
+            });
+            GatewayMetrics.header(body, "gateway_backend_connection_active_streams", "gauge",
+                    "Streams open on each backend connection.");
+            routingTable.getBackends().forEach((target, backend) -> {
+                for (Backend.Endpoint endpoint : backend.getEndpoints()) {
+                    if (!(endpoint.getChannel() instanceof StripedChannel)) {
+                        continue;
+                    }
+                    int[] active = ((StripedChannel) endpoint.getChannel()).activeStreamsPerStripe();
+                    for (int i = 0; i < active.length; i++) {
+                        GatewayMetrics.sample(body, "gateway_backend_connection_active_streams",
+                                endpointLabels(target, endpoint) + ",connection=\"" + i + "\"",
+                                active[i]);
+                    }
                 }
+            });
+            byte[] bytes = body.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+
+        private static String endpointLabels(String target, Backend.Endpoint endpoint) {
+            return "backend=\"" + GatewayMetrics.escape(target)
+                    + "\",endpoint=\"" + GatewayMetrics.escape(endpoint.toString()) + "\"";
+        }
+    }
 
-                // Read request body
-                InputStream is = exchange.getRequestBody();
-                byte[] val = is.readAllBytes();
+    // Forwards POSTs (the OIDC token exchange) to the IdP without tying up an HTTP
+    // server thread: the call is sent with sendAsync and the reply is streamed back
+    // from the client's thread when it arrives. At most maxConcurrent calls are
+    // outstanding; past that, and past the timeout, the browser gets an error at
+    // once rather than a request queued behind a slow IdP.
+    static class TokenProxyHandler implements HttpHandler {
+        static final int DEFAULT_MAX_CONCURRENT = 64;
+        static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+        // Hop-by-hop and framing headers; the server sets its own
+        private static final Set<String> UNFORWARDED_HEADERS = Set.of(
+                "connection", "content-length", "keep-alive", "transfer-encoding", "upgrade");
+
+        private final URI target;
+        private final HttpClient httpClient;
+        private final Semaphore permits;
+        private final Duration timeout;
+
+        public TokenProxyHandler(String targetUrl) {
+            this(targetUrl, DEFAULT_MAX_CONCURRENT, DEFAULT_TIMEOUT);
+        }
+
+        TokenProxyHandler(String targetUrl, int maxConcurrent, Duration timeout) {
+            if (maxConcurrent < 1) {
+                throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+            }
+            this.target = URI.create(targetUrl);
+            this.httpClient = HttpClient.newBuilder().connectTimeout(timeout).build();
+            this.permits = new Semaphore(maxConcurrent);
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            // CORS Headers (Always allow from our own origin/subdomains)
+            exchange.getResponseHeaders().add("Access-Control-Allow-Origin", "*");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Methods", "POST, OPTIONS");
+            exchange.getResponseHeaders().add("Access-Control-Allow-Headers", "*");
+
+            if ("OPTIONS".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+                return;
+            }
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+            HttpRequest request;
+            try {
+                request = buildRequest(exchange);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, "Bad token request: " + e.getMessage());
+                return;
+            }
+            if (!permits.tryAcquire()) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                sendError(exchange, 503, "Too many token requests in flight");
+                return;
+            }
 
-                // Forward to IdP
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(URI.create(targetUrl))
-                        .header("Content-Type", "application/x-www-form-urlencoded") // Token endpoint usually expects
-                                                                                     // this
-                        .POST(HttpRequest.BodyPublishers.ofByteArray(val))
-                        .build();
+            try {
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                        .whenComplete((response, failure) -> {
+                            try {
+                                if (failure != null) {
+                                    fail(exchange, failure);
+                                } else {
+                                    relay(exchange, response);
+                                }
+                            } finally {
+                                permits.release();
+                            }
+                        });
+            } catch (RuntimeException e) {
+                permits.release();
+                fail(exchange, e);
+            }
+        }
 
-                HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        // Everything that can reject the request happens here, before a permit is held
+        private HttpRequest buildRequest(HttpExchange exchange) {
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.ofInputStream(exchange::getRequestBody);
+            String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (contentLength != null) {
+                long length;
+                try {
+                    length = Long.parseLong(contentLength.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Content-Length is not a number: " + contentLength);
+                }
+                if (length < 0) {
+                    throw new IllegalArgumentException("Content-Length is negative: " + contentLength);
+                }
+                // A known length is sent as such rather than chunked, which some IdPs reject; fromPublisher
+                // takes only positive lengths
+                body = length == 0
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.fromPublisher(body, length);
+            }
+            return HttpRequest.newBuilder(target)
+                    .timeout(timeout)
+                    // Token endpoints expect a form unless the browser said otherwise
+                    .header("Content-Type", contentType != null ? contentType : "application/x-www-form-urlencoded")
+                    .POST(body)
+                    .build();
+        }
 
-                // Forward response headers (selected)
-                response.headers().map().forEach((k, v) -> {
-                    if (!k.equalsIgnoreCase("Content-Length") && !k.equalsIgnoreCase("Transfer-Encoding")) {
-                        v.forEach(h -> exchange.getResponseHeaders().add(k, h));
+        private static void relay(HttpExchange exchange, HttpResponse<InputStream> response) {
+            try (InputStream in = response.body()) {
+                response.headers().map().forEach((name, values) -> {
+                    if (!UNFORWARDED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                        values.forEach(value -> exchange.getResponseHeaders().add(name, value));
                     }
                 });
-
-                // Send response
-                byte[] body = response.body();
-                exchange.sendResponseHeaders(response.statusCode(), body.length);
+                long length = response.headers().firstValueAsLong("Content-Length").orElse(0);
+                exchange.sendResponseHeaders(response.statusCode(), length > 0 ? length : 0);
                 try (OutputStream os = exchange.getResponseBody()) {
-                    os.write(body);
+                    in.transferTo(os);
                 }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed relaying token response", e);
+            } finally {
+                exchange.close();
+            }
+        }
 
-            } catch (Exception e) {
-                e.printStackTrace();
-                String err = "Internal Proxy Error: " + e.getMessage();
-                exchange.sendResponseHeaders(500, err.length());
-                try (OutputStream os = exchange.getResponseBody()) {
-                    os.write(err.getBytes());
+        private static void fail(HttpExchange exchange, Throwable failure) {
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                    ? failure.getCause() : failure;
+            logger.log(Level.WARNING, "Token request to IdP failed", cause);
+            try {
+                if (cause instanceof HttpTimeoutException) {
+                    sendError(exchange, 504, "Token endpoint timed out");
+                } else {
+                    sendError(exchange, 502, "Token endpoint unavailable");
                 }
+            } catch (IOException e) {
+                exchange.close();
+            }
+        }
+
+        private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+            byte[] bytes = message.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            } finally {
+                exchange.close();
             }
         }
     }
@@ -3,6 +3,9 @@ package services.gateway;
 import static com.google.common.truth.Truth.assertThat;
 import static io.grpc.Metadata.ASCII_STRING_MARSHALLER;
 
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingServerCall;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder; // Added
 import io.grpc.Metadata;
@@ -14,10 +17,17 @@ import io.grpc.ServerInterceptor; // Added
 import io.grpc.ServerInterceptors; // Added
 import io.grpc.StatusRuntimeException; // Added
 import io.grpc.stub.MetadataUtils;
+import io.grpc.internal.ReadableBuffers;
 import io.grpc.stub.StreamObserver;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.time.Duration;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -40,6 +50,7 @@ public class GatewayServerTest {
     private Server calculatorServer;
     private ManagedChannel greeterChannel;
     private ManagedChannel calculatorChannel;
+    private CalculatorImpl calculatorImpl;
 
     @Before
     public void setUp() throws Exception {
@@ -61,7 +72,7 @@ public class GatewayServerTest {
 
         // Setup Calculator Backend with ephemeral port
         calculatorServer = ServerBuilder.forPort(0)
-                .addService(new CalculatorImpl())
+                .addService(calculatorImpl = new CalculatorImpl())
                  .build()
                 .start();
         calculatorChannel = ManagedChannelBuilder.forAddress("localhost", calculatorServer.getPort())
@@ -132,6 +143,200 @@ public class GatewayServerTest {
         }
     }
 
+    @Test
+    public void testRoutingLargePayload() {
+        char[] name = new char[1024 * 1024];
+        Arrays.fill(name, 'x');
+        HelloRequest request = HelloRequest.newBuilder().setName(new String(name)).build();
+
+        GreeterGrpc.GreeterBlockingStub stub = GreeterGrpc.newBlockingStub(gatewayChannel)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(header("x-backend-target", "greeter")));
+
+        HelloReply response = stub.sayHello(request);
+        assertThat(response.getMessage()).isEqualTo("Hello " + request.getName());
+    }
+
+    @Test
+    public void testMarshallerDetachesTransportBuffers() throws Exception {
+        byte[] payload = "payload".getBytes();
+        InputStream transportStream = ReadableBuffers.openStream(ReadableBuffers.wrap(payload), true);
+
+        InputStream parsed = new GatewayServer.InputStreamMarshaller().parse(transportStream);
+        // The transport closes its stream as soon as parse() returns
+        transportStream.close();
+
+        assertThat(parsed).isNotSameInstanceAs(transportStream);
+        assertThat(parsed.readAllBytes()).isEqualTo(payload);
+    }
+
+    @Test
+    public void testRegistryReusesMethodDefinitions() {
+        GatewayServer.GenericProxyRegistry registry = new GatewayServer.GenericProxyRegistry(
+                ProxyConfig.newBuilder().setMaxCachedMethods(1).build());
+
+        assertThat(registry.lookupMethod("helloworld.Greeter/SayHello", null))
+                .isSameInstanceAs(registry.lookupMethod("helloworld.Greeter/SayHello", null));
+        // Past the bound, definitions are still served, just not retained
+        assertThat(registry.lookupMethod("calculator.Calculator/Sum", null))
+                .isNotSameInstanceAs(registry.lookupMethod("calculator.Calculator/Sum", null));
+    }
+
+    @Test
+    public void testRoutingTableFallsBackToGreeter() {
+        Map<String, ManagedChannel> channelMap = new HashMap<>();
+        channelMap.put("calculator", calculatorChannel);
+        channelMap.put("greeter", greeterChannel);
+        RoutingTable routingTable = RoutingTable.of(channelMap);
+
+        assertThat(routingTable.route("calculator").pick().getChannel()).isSameInstanceAs(calculatorChannel);
+        assertThat(routingTable.route("unknown").pick().getChannel()).isSameInstanceAs(greeterChannel);
+        assertThat(routingTable.route(null).pick().getChannel()).isSameInstanceAs(greeterChannel);
+    }
+
+    @Test
+    public void testTargetChannelIsPublishedToLaterInterceptors() throws Exception {
+        List<ManagedChannel> seen = new ArrayList<>();
+        // Registered before the routing interceptor, so it sees the call after routing
+        Server server = GatewayServer.buildGrpcServer(ServerBuilder.forPort(0).intercept(new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                    Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                seen.add(GatewayServer.ORCHESTRATION_TARGET_CHANNEL.get());
+                return next.startCall(call, headers);
+            }
+        }), Map.of("greeter", greeterChannel, "calculator", calculatorChannel)).start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", server.getPort())
+                .usePlaintext()
+                .build();
+        try {
+            Metadata target = header("x-backend-target", "calculator");
+            CalculatorGrpc.newBlockingStub(channel)
+                    .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(target))
+                    .sum(SumRequest.newBuilder().setA(1).setB(2).build());
+            GreeterGrpc.newBlockingStub(channel)
+                    .sayHello(HelloRequest.newBuilder().setName("Default").build());
+        } finally {
+            channel.shutdownNow();
+            server.shutdownNow();
+        }
+
+        assertThat(seen).containsExactly(calculatorChannel, greeterChannel).inOrder();
+    }
+
+    @Test
+    public void testStripedChannelGrowsWhenConnectionsSaturate() throws Exception {
+        StripedChannel striped = new StripedChannel(
+                () -> ManagedChannelBuilder.forAddress("localhost", greeterServer.getPort()).usePlaintext().build(),
+                StripedChannel.Placement.ROUND_ROBIN, 1, 3, 1);
+        List<ClientCall<HelloRequest, HelloReply>> calls = new ArrayList<>();
+        try {
+            // Calls stay open until they are sent a request, so each holds a stream
+            for (int i = 0; i < 4; i++) {
+                ClientCall<HelloRequest, HelloReply> call = striped.newCall(
+                        GreeterGrpc.getSayHelloMethod(), CallOptions.DEFAULT);
+                call.start(new ClientCall.Listener<HelloReply>() {
+                }, new Metadata());
+                calls.add(call);
+            }
+            // One stream per connection until the pool is full, then the least loaded one doubles up
+            assertThat(striped.activeStreamsPerStripe()).asList().containsExactly(2, 1, 1);
+
+            calls.forEach(call -> call.cancel("done", null));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (Arrays.stream(striped.activeStreamsPerStripe()).sum() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(striped.activeStreamsPerStripe()).asList().containsExactly(0, 0, 0);
+        } finally {
+            striped.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testResponseCacheServesRepeatedRequests() throws Exception {
+        Map<String, ManagedChannel> channelMap = new HashMap<>();
+        channelMap.put("calculator", calculatorChannel);
+        ProxyConfig config = ProxyConfig.newBuilder()
+                .setCachedMethods(Map.of("calculator.Calculator/Sum", Duration.ofMinutes(1)))
+                .setCacheOffHeap(true)
+                .build();
+        Server cachingGateway = GatewayServer.buildGrpcServer(ServerBuilder.forPort(0), channelMap, config).start();
+        ManagedChannel cachingChannel = ManagedChannelBuilder.forAddress("localhost", cachingGateway.getPort())
+                .usePlaintext()
+                .build();
+        try {
+            CalculatorGrpc.CalculatorBlockingStub stub = CalculatorGrpc.newBlockingStub(cachingChannel)
+                    .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(header("x-backend-target", "calculator")));
+
+            for (int i = 0; i < 3; i++) {
+                assertThat(stub.sum(SumRequest.newBuilder().setA(1).setB(2).build()).getResult()).isEqualTo(3);
+            }
+            assertThat(stub.sum(SumRequest.newBuilder().setA(2).setB(3).build()).getResult()).isEqualTo(5);
+
+            assertThat(calculatorImpl.calls.get()).isEqualTo(2);
+        } finally {
+            cachingChannel.shutdownNow();
+            cachingGateway.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSharedEventLoopsKeepProxiedCallOnOneLoop() throws Exception {
+        ProxyConfig config = ProxyConfig.newBuilder()
+                .setEventLoopThreads(2)
+                .setStreamPlacement(StripedChannel.Placement.EVENT_LOOP)
+                .build();
+        EventLoops eventLoops = EventLoops.create(config);
+        StripedChannel pinned = GatewayServer.pinnedChannel(
+                "localhost:" + calculatorServer.getPort(), eventLoops, config);
+        List<String> mismatches = new ArrayList<>();
+        // Records the thread that starts each call and compares it with the one relaying the reply
+        ServerInterceptor loopCheck = new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                    Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                Thread started = Thread.currentThread();
+                return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+                    @Override
+                    public void sendMessage(RespT message) {
+                        if (Thread.currentThread() != started || !started.getName().startsWith("gateway-loop")) {
+                            synchronized (mismatches) {
+                                mismatches.add(started.getName() + " -> " + Thread.currentThread().getName());
+                            }
+                        }
+                        super.sendMessage(message);
+                    }
+                }, headers);
+            }
+        };
+        Server sharedGateway = GatewayServer.buildGrpcServer(
+                eventLoops.serverBuilder(0).directExecutor().intercept(loopCheck),
+                Map.of("calculator", (ManagedChannel) pinned), config).start();
+        // Several client connections so both loops serve calls
+        List<ManagedChannel> clients = new ArrayList<>();
+        try {
+            for (int c = 0; c < 4; c++) {
+                ManagedChannel client = ManagedChannelBuilder.forAddress("localhost", sharedGateway.getPort())
+                        .usePlaintext()
+                        .build();
+                clients.add(client);
+                CalculatorGrpc.CalculatorBlockingStub stub = CalculatorGrpc.newBlockingStub(client)
+                        .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(
+                                header("x-backend-target", "calculator")));
+                for (int i = 0; i < 10; i++) {
+                    assertThat(stub.sum(SumRequest.newBuilder().setA(c).setB(i).build()).getResult())
+                            .isEqualTo(c + i);
+                }
+            }
+            assertThat(mismatches).isEmpty();
+        } finally {
+            clients.forEach(ManagedChannel::shutdownNow);
+            sharedGateway.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            pinned.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            eventLoops.close();
+        }
+    }
+
     private Metadata header(String key, String value) {
         Metadata headers = new Metadata();
         headers.put(Metadata.Key.of(key, Metadata.ASCII_STRING_MARSHALLER), value);
@@ -148,8 +353,11 @@ public class GatewayServerTest {
     }
 
     static class CalculatorImpl extends CalculatorGrpc.CalculatorImplBase {
+        final AtomicInteger calls = new AtomicInteger();
+
         @Override
         public void sum(SumRequest req, StreamObserver<SumReply> responseObserver) {
+            calls.incrementAndGet();
             responseObserver.onNext(SumReply.newBuilder().setResult(req.getA() + req.getB()).build());
             responseObserver.onCompleted();
         }
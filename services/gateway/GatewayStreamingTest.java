@@ -0,0 +1,290 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Pushes every streaming method type through the gateway with enough messages that
+ * the proxy has to replenish its request window many times over.
+ */
+@RunWith(JUnit4.class)
+public class GatewayStreamingTest {
+    private static final int WINDOW = 4;
+    private static final int MESSAGES = 10_000;
+    private static final int PAYLOAD_SIZE = 1024;
+
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> CLIENT_STREAM = method(
+            MethodDescriptor.MethodType.CLIENT_STREAMING, "ClientStream");
+    private static final MethodDescriptor<byte[], byte[]> SERVER_STREAM = method(
+            MethodDescriptor.MethodType.SERVER_STREAMING, "ServerStream");
+    private static final MethodDescriptor<byte[], byte[]> BIDI_STREAM = method(
+            MethodDescriptor.MethodType.BIDI_STREAMING, "BidiStream");
+
+    private final AtomicInteger serverStreamSent = new AtomicInteger();
+
+    private Server backendServer;
+    private ManagedChannel backendChannel;
+    private Server gatewayServer;
+    private ManagedChannel gatewayChannel;
+
+    @Before
+    public void setUp() throws Exception {
+        String backendName = InProcessServerBuilder.generateName();
+        backendServer = InProcessServerBuilder.forName(backendName)
+                .addService(streamingService())
+                .build()
+                .start();
+        backendChannel = InProcessChannelBuilder.forName(backendName).build();
+
+        Map<String, ManagedChannel> channelMap = new HashMap<>();
+        channelMap.put("greeter", backendChannel);
+
+        String gatewayName = InProcessServerBuilder.generateName();
+        ProxyConfig config = ProxyConfig.newBuilder().setRequestWindow(WINDOW).build();
+        gatewayServer = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName), channelMap, config)
+                .start();
+        gatewayChannel = InProcessChannelBuilder.forName(gatewayName).build();
+    }
+
+    @After
+    public void tearDown() {
+        gatewayChannel.shutdownNow();
+        gatewayServer.shutdownNow();
+        backendChannel.shutdownNow();
+        backendServer.shutdownNow();
+    }
+
+    @Test
+    public void testClientStreaming() throws Exception {
+        Collector<byte[]> responses = new Collector<>();
+        StreamObserver<byte[]> requests = ClientCalls.asyncClientStreamingCall(
+                gatewayChannel.newCall(CLIENT_STREAM, CallOptions.DEFAULT), responses);
+        for (int i = 0; i < MESSAGES; i++) {
+            requests.onNext(new byte[PAYLOAD_SIZE]);
+        }
+        requests.onCompleted();
+
+        responses.await();
+        assertThat(responses.values).hasSize(1);
+        ByteBuffer summary = ByteBuffer.wrap(responses.values.get(0));
+        assertThat(summary.getLong()).isEqualTo(MESSAGES);
+        assertThat(summary.getLong()).isEqualTo((long) MESSAGES * PAYLOAD_SIZE);
+    }
+
+    @Test
+    public void testServerStreaming() {
+        Iterator<byte[]> responses = ClientCalls.blockingServerStreamingCall(
+                gatewayChannel, SERVER_STREAM, CallOptions.DEFAULT, encode(MESSAGES));
+
+        int expected = 0;
+        while (responses.hasNext()) {
+            assertThat(decode(responses.next())).isEqualTo(expected++);
+        }
+        assertThat(expected).isEqualTo(MESSAGES);
+    }
+
+    @Test
+    public void testBidiStreaming() throws Exception {
+        Collector<byte[]> responses = new Collector<>();
+        StreamObserver<byte[]> requests = ClientCalls.asyncBidiStreamingCall(
+                gatewayChannel.newCall(BIDI_STREAM, CallOptions.DEFAULT), responses);
+        for (int i = 0; i < MESSAGES; i++) {
+            requests.onNext(encode(i));
+        }
+        requests.onCompleted();
+
+        responses.await();
+        assertThat(responses.values).hasSize(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            assertThat(decode(responses.values.get(i))).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void testSlowClientPausesBackend() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        AtomicReference<Status> closeStatus = new AtomicReference<>();
+        AtomicInteger received = new AtomicInteger();
+
+        ClientCall<byte[], byte[]> call = gatewayChannel.newCall(SERVER_STREAM, CallOptions.DEFAULT);
+        call.start(new ClientCall.Listener<byte[]>() {
+            @Override
+            public void onMessage(byte[] message) {
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void onClose(Status status, Metadata trailers) {
+                closeStatus.set(status);
+                closed.countDown();
+            }
+        }, new Metadata());
+        call.sendMessage(encode(MESSAGES));
+        call.halfClose();
+        call.request(1);
+
+        // The backend may only fill the gateway's window, not the whole stream
+        Thread.sleep(500);
+        assertThat(received.get()).isEqualTo(1);
+        assertThat(serverStreamSent.get()).isAtMost(WINDOW + 1);
+
+        call.request(MESSAGES);
+        assertThat(closed.await(30, TimeUnit.SECONDS)).isTrue();
+        assertThat(closeStatus.get().isOk()).isTrue();
+        assertThat(received.get()).isEqualTo(MESSAGES);
+    }
+
+    private ServerServiceDefinition streamingService() {
+        return ServerServiceDefinition.builder("test.Streaming")
+                .addMethod(CLIENT_STREAM, ServerCalls.asyncClientStreamingCall(
+                        responseObserver -> new StreamObserver<byte[]>() {
+                            private long count;
+                            private long bytes;
+
+                            @Override
+                            public void onNext(byte[] value) {
+                                count++;
+                                bytes += value.length;
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                            }
+
+                            @Override
+                            public void onCompleted() {
+                                responseObserver.onNext(
+                                        ByteBuffer.allocate(16).putLong(count).putLong(bytes).array());
+                                responseObserver.onCompleted();
+                            }
+                        }))
+                .addMethod(SERVER_STREAM, ServerCalls.asyncServerStreamingCall((request, responseObserver) -> {
+                    // Only produce while the gateway is asking for more, like a well-behaved backend
+                    ServerCallStreamObserver<byte[]> observer = (ServerCallStreamObserver<byte[]>) responseObserver;
+                    int total = decode(request);
+                    AtomicBoolean completed = new AtomicBoolean();
+                    observer.setOnReadyHandler(() -> {
+                        while (observer.isReady() && serverStreamSent.get() < total) {
+                            observer.onNext(encode(serverStreamSent.getAndIncrement()));
+                        }
+                        if (serverStreamSent.get() == total && completed.compareAndSet(false, true)) {
+                            observer.onCompleted();
+                        }
+                    });
+                }))
+                .addMethod(BIDI_STREAM, ServerCalls.asyncBidiStreamingCall(
+                        responseObserver -> new StreamObserver<byte[]>() {
+                            @Override
+                            public void onNext(byte[] value) {
+                                responseObserver.onNext(value);
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                            }
+
+                            @Override
+                            public void onCompleted() {
+                                responseObserver.onCompleted();
+                            }
+                        }))
+                .build();
+    }
+
+    private static MethodDescriptor<byte[], byte[]> method(MethodDescriptor.MethodType type, String name) {
+        return MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setType(type)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName("test.Streaming", name))
+                .setRequestMarshaller(BYTES)
+                .setResponseMarshaller(BYTES)
+                .build();
+    }
+
+    private static byte[] encode(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static int decode(byte[] value) {
+        return ByteBuffer.wrap(value).getInt();
+    }
+
+    private static final class Collector<T> implements StreamObserver<T> {
+        final List<T> values = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable error;
+
+        @Override
+        public void onNext(T value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            done.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            done.countDown();
+        }
+
+        void await() throws Exception {
+            assertThat(done.await(30, TimeUnit.SECONDS)).isTrue();
+            if (error != null) {
+                throw new AssertionError("Stream failed", error);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package services.gateway;
+
+import com.sun.net.httpserver.HttpServer;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCalls;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import services.common.ServerExecutor;
+
+/**
+ * A unary call from a browser-like client to a Netty loopback backend, entering the
+ * gateway as gRPC-Web and as native gRPC.
+ *
+ * <p>{@code GRPC} is the hop Envoy makes today: HTTP/2 gRPC over loopback into the
+ * gateway's gRPC port. {@code GRPC_WEB} and {@code GRPC_WEB_TEXT} post HTTP/1.1
+ * gRPC-Web to {@link GrpcWebHandler} on the gateway's HTTP server, which replaces
+ * that hop with an in-process one. Envoy's own translation is not part of either;
+ * compare the whole setups with {@code //services/loadgen} against each deployment.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GrpcWebBenchmark {
+    private static final int PAYLOAD_SIZE = 256;
+
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> UNARY = MethodDescriptor.<byte[], byte[]>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("bench.Echo/Unary")
+            .setRequestMarshaller(BYTES)
+            .setResponseMarshaller(BYTES)
+            .build();
+
+    public enum Entry {
+        GRPC,
+        GRPC_WEB,
+        GRPC_WEB_TEXT,
+    }
+
+    @Param({"GRPC", "GRPC_WEB", "GRPC_WEB_TEXT"})
+    public Entry entry;
+
+    private Server backend;
+    private ManagedChannel backendChannel;
+    private EventLoops eventLoops;
+    private Server gateway;
+    private ManagedChannel client;
+    private Channel channel;
+    private HttpServer httpServer;
+    private ServerExecutor httpExecutor;
+    private HttpClient httpClient;
+    private HttpRequest webRequest;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws Exception {
+        payload = new byte[PAYLOAD_SIZE];
+        ThreadLocalRandom.current().nextBytes(payload);
+
+        backend = ServerBuilder.forPort(0).directExecutor()
+                .addService(ServerServiceDefinition.builder("bench.Echo")
+                        .addMethod(UNARY, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            responseObserver.onNext(request);
+                            responseObserver.onCompleted();
+                        }))
+                        .build())
+                .build()
+                .start();
+        ProxyConfig config = ProxyConfig.newBuilder()
+                .setStreamPlacement(StripedChannel.Placement.EVENT_LOOP)
+                .build();
+        eventLoops = EventLoops.create(config);
+        backendChannel = GatewayServer.pinnedChannel("localhost:" + backend.getPort(), eventLoops, config);
+        RoutingTable routingTable = RoutingTable.of(Map.of("echo", backendChannel));
+
+        if (entry == Entry.GRPC) {
+            gateway = GatewayServer.buildGrpcServer(eventLoops.serverBuilder(0).directExecutor(), routingTable,
+                    config).start();
+            Metadata headers = new Metadata();
+            headers.put(GatewayServer.TARGET_HEADER_KEY, "echo");
+            client = ManagedChannelBuilder.forAddress("localhost", gateway.getPort()).usePlaintext().build();
+            channel = ClientInterceptors.intercept(client, MetadataUtils.newAttachHeadersInterceptor(headers));
+            return;
+        }
+
+        // As main wires it
+        String gatewayName = InProcessServerBuilder.generateName();
+        gateway = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName).directExecutor(),
+                routingTable, config).start();
+        client = InProcessChannelBuilder.forName(gatewayName).directExecutor().build();
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpExecutor = ServerExecutor.of(ServerExecutor.Mode.VIRTUAL);
+        httpExecutor.configure(httpServer);
+        httpServer.createContext(GrpcWebHandler.PATH_PREFIX, new GrpcWebHandler(client));
+        httpServer.start();
+
+        byte[] frame = new byte[5 + PAYLOAD_SIZE];
+        frame[3] = (byte) (PAYLOAD_SIZE >>> 8);
+        frame[4] = (byte) PAYLOAD_SIZE;
+        System.arraycopy(payload, 0, frame, 5, PAYLOAD_SIZE);
+        boolean text = entry == Entry.GRPC_WEB_TEXT;
+        httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        webRequest = HttpRequest.newBuilder(URI.create("http://localhost:" + httpServer.getAddress().getPort()
+                        + GrpcWebHandler.PATH_PREFIX + "bench.Echo/Unary"))
+                .header("Content-Type", text ? GrpcWebHandler.TEXT_CONTENT_TYPE : GrpcWebHandler.CONTENT_TYPE)
+                .header("X-Grpc-Web", "1")
+                .header("X-Backend-Target", "echo")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(text ? Base64.getEncoder().encode(frame) : frame))
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpExecutor.close();
+        }
+        client.shutdownNow();
+        gateway.shutdownNow().awaitTermination();
+        backendChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        backend.shutdownNow().awaitTermination();
+        eventLoops.close();
+    }
+
+    @Benchmark
+    public byte[] unary() throws Exception {
+        if (entry == Entry.GRPC) {
+            return ClientCalls.blockingUnaryCall(channel, UNARY, CallOptions.DEFAULT, payload);
+        }
+        return httpClient.send(webRequest, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+}
@@ -0,0 +1,535 @@
+package services.gateway;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.KnownLength;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Terminates gRPC-Web, binary ({@code application/grpc-web}) and base64 text
+ * ({@code application/grpc-web-text}), on the HTTP server, so browsers need no
+ * translating proxy in front of the gateway.
+ *
+ * <p>{@code POST /application/grpc-web/<service>/<method>} becomes a call on
+ * {@code channel} with the request's headers as metadata. Request frames are
+ * forwarded one message at a time as they are read, and each reply message is
+ * written and flushed as soon as it arrives, so server streams reach the browser
+ * as they are produced. The call's status and trailers are sent as a trailer frame
+ * at the end of the body, as gRPC-Web has no HTTP trailers.
+ *
+ * <p>Replies are requested one at a time, after the previous one has been written,
+ * so a slow browser holds back the backend instead of filling the gateway's memory.
+ *
+ * <p>Pages served from another origin, such as the UI on a dev server, are answered
+ * with the same CORS headers the Envoy configuration sent: any origin, and the
+ * headers gRPC-Web clients need, including preflight {@code OPTIONS} requests.
+ */
+final class GrpcWebHandler implements HttpHandler {
+    private static final Logger logger = Logger.getLogger(GrpcWebHandler.class.getName());
+    static final String PATH_PREFIX = "/application/grpc-web/";
+    static final String CONTENT_TYPE = "application/grpc-web+proto";
+    static final String TEXT_CONTENT_TYPE = "application/grpc-web-text+proto";
+    // The default limit of grpc-java's servers, which the backends keep
+    static final int MAX_MESSAGE_SIZE = 4 * 1024 * 1024;
+
+    private static final int DATA_FRAME = 0x00;
+    private static final int COMPRESSED_FLAG = 0x01;
+    private static final int TRAILER_FRAME = 0x80;
+    private static final String TIMEOUT_HEADER = "grpc-timeout";
+    // Headers about the HTTP/1.1 exchange or the browser, not the call
+    private static final Set<String> UNFORWARDED_HEADERS = Set.of(
+            "accept", "accept-encoding", "accept-language", "connection", "content-length", "content-type",
+            "host", "keep-alive", "origin", "referer", "te", "transfer-encoding", "upgrade", "user-agent",
+            "x-grpc-web", "x-user-agent", TIMEOUT_HEADER);
+    // As in envoy-localhost.yaml, plus the headers the gateway itself reads
+    private static final String CORS_ALLOW_HEADERS = "keep-alive,user-agent,cache-control,content-type,"
+            + "content-transfer-encoding,custom-header-1,x-accept-content-transfer-encoding,"
+            + "x-accept-response-streaming,x-user-agent,x-grpc-web,grpc-timeout,authorization,x-backend-target";
+    private static final String CORS_EXPOSE_HEADERS = "custom-header-1,grpc-status,grpc-message";
+    private static final String CORS_MAX_AGE = "1728000";
+    // Reply messages are queued past the listener's return, when the transport closes
+    // the stream it parsed from, so they are detached from it (or copied) like the proxy's
+    private static final MethodDescriptor.Marshaller<InputStream> PASSTHROUGH =
+            new GatewayServer.InputStreamMarshaller();
+
+    private final Channel channel;
+
+    GrpcWebHandler(Channel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String origin = exchange.getRequestHeaders().getFirst("Origin");
+            if (origin != null) {
+                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", origin);
+                exchange.getResponseHeaders().set("Vary", "Origin");
+            }
+            if ("OPTIONS".equals(exchange.getRequestMethod()) && origin != null) {
+                exchange.getResponseHeaders().set("Access-Control-Allow-Methods", "POST, OPTIONS");
+                exchange.getResponseHeaders().set("Access-Control-Allow-Headers", CORS_ALLOW_HEADERS);
+                exchange.getResponseHeaders().set("Access-Control-Max-Age", CORS_MAX_AGE);
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+            if (origin != null) {
+                exchange.getResponseHeaders().set("Access-Control-Expose-Headers", CORS_EXPOSE_HEADERS);
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (contentType == null || !contentType.startsWith("application/grpc-web")) {
+                exchange.sendResponseHeaders(415, -1);
+                return;
+            }
+            boolean text = contentType.startsWith("application/grpc-web-text");
+            String fullMethodName = exchange.getRequestURI().getPath().substring(PATH_PREFIX.length());
+            if (fullMethodName.indexOf('/') <= 0) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            proxy(exchange, fullMethodName, text);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void proxy(HttpExchange exchange, String fullMethodName, boolean text) throws IOException {
+        MethodDescriptor<InputStream, InputStream> method = MethodDescriptor.newBuilder(PASSTHROUGH, PASSTHROUGH)
+                .setType(MethodDescriptor.MethodType.UNKNOWN)
+                .setFullMethodName(fullMethodName)
+                .build();
+        CallOptions callOptions = CallOptions.DEFAULT;
+        String timeout = exchange.getRequestHeaders().getFirst(TIMEOUT_HEADER);
+        if (timeout != null) {
+            long timeoutNanos = parseTimeout(timeout);
+            if (timeoutNanos >= 0) {
+                callOptions = callOptions.withDeadlineAfter(timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        Response response = new Response(exchange, text);
+        ClientCall<InputStream, InputStream> call = channel.newCall(method, callOptions);
+        call.start(response, toMetadata(exchange.getRequestHeaders()));
+        call.request(1);
+
+        InputStream body = new BufferedInputStream(exchange.getRequestBody());
+        try (InputStream in = text ? new TextDecodingInputStream(body) : body) {
+            byte[] message;
+            while ((message = readMessage(in)) != null) {
+                call.sendMessage(new ByteArrayInputStream(message));
+            }
+            call.halfClose();
+        } catch (StatusException e) {
+            response.requestFailed(e.getStatus());
+            call.cancel(e.getStatus().getDescription(), null);
+        } catch (MalformedBodyException e) {
+            response.requestFailed(Status.INTERNAL.withDescription(e.getMessage()));
+            call.cancel(e.getMessage(), null);
+        } catch (IOException e) {
+            // The browser went away while sending; nothing can be answered
+            call.cancel("Client disconnected", e);
+            response.discard();
+            return;
+        }
+
+        try {
+            while (!response.writeNext()) {
+                call.request(1);
+            }
+        } catch (IOException e) {
+            call.cancel("Client disconnected", e);
+            response.discard();
+        } catch (InterruptedException e) {
+            call.cancel("Gateway shutting down", e);
+            response.discard();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Returns the next request message, or null at the end of the body
+    @Nullable
+    static byte[] readMessage(InputStream in) throws IOException, StatusException {
+        int flags = in.read();
+        if (flags == -1) {
+            return null;
+        }
+        byte[] prefix = in.readNBytes(4);
+        if (prefix.length < 4) {
+            throw Status.INTERNAL.withDescription("Truncated gRPC-Web frame").asException();
+        }
+        if ((flags & COMPRESSED_FLAG) != 0) {
+            throw Status.UNIMPLEMENTED.withDescription("Compressed gRPC-Web messages are not supported")
+                    .asException();
+        }
+        if (flags != DATA_FRAME) {
+            throw Status.INTERNAL.withDescription("Unexpected gRPC-Web frame type " + flags).asException();
+        }
+        long length = ((prefix[0] & 0xFFL) << 24) | ((prefix[1] & 0xFF) << 16) | ((prefix[2] & 0xFF) << 8)
+                | (prefix[3] & 0xFF);
+        if (length > MAX_MESSAGE_SIZE) {
+            throw Status.RESOURCE_EXHAUSTED
+                    .withDescription("gRPC-Web message larger than " + MAX_MESSAGE_SIZE + " bytes").asException();
+        }
+        byte[] message = in.readNBytes((int) length);
+        if (message.length < length) {
+            throw Status.INTERNAL.withDescription("Truncated gRPC-Web frame").asException();
+        }
+        return message;
+    }
+
+    static Metadata toMetadata(Map<String, List<String>> headers) {
+        Metadata metadata = new Metadata();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (UNFORWARDED_HEADERS.contains(name) || name.startsWith("sec-")) {
+                continue;
+            }
+            try {
+                if (name.endsWith(Metadata.BINARY_HEADER_SUFFIX)) {
+                    Metadata.Key<byte[]> key = Metadata.Key.of(name, Metadata.BINARY_BYTE_MARSHALLER);
+                    for (String value : header.getValue()) {
+                        metadata.put(key, Base64.getDecoder().decode(value.trim()));
+                    }
+                } else {
+                    Metadata.Key<String> key = Metadata.Key.of(name, Metadata.ASCII_STRING_MARSHALLER);
+                    for (String value : header.getValue()) {
+                        metadata.put(key, value);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // Not a valid metadata name or base64 value; gRPC could not carry it
+                logger.log(Level.FINE, "Dropping header " + name, e);
+            }
+        }
+        return metadata;
+    }
+
+    // grpc-timeout is 1-8 digits and a unit: Hours, Minutes, Seconds, milli-, micro-, nanoseconds
+    static long parseTimeout(String value) {
+        if (value.length() < 2 || value.length() > 9) {
+            return -1;
+        }
+        long amount;
+        try {
+            amount = Long.parseLong(value.substring(0, value.length() - 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        switch (value.charAt(value.length() - 1)) {
+            case 'H':
+                return TimeUnit.HOURS.toNanos(amount);
+            case 'M':
+                return TimeUnit.MINUTES.toNanos(amount);
+            case 'S':
+                return TimeUnit.SECONDS.toNanos(amount);
+            case 'm':
+                return TimeUnit.MILLISECONDS.toNanos(amount);
+            case 'u':
+                return TimeUnit.MICROSECONDS.toNanos(amount);
+            case 'n':
+                return amount;
+            default:
+                return -1;
+        }
+    }
+
+    // Percent-encodes grpc-message as the gRPC spec asks for
+    static String percentEncode(String message) {
+        StringBuilder encoded = new StringBuilder(message.length());
+        for (byte b : message.getBytes(StandardCharsets.UTF_8)) {
+            if (b >= ' ' && b < 0x7F && b != '%') {
+                encoded.append((char) b);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    // Events of the call, queued by the listener on the transport's thread and written
+    // to the browser by the handler's thread, which may block on a slow connection
+    private static final class Response extends ClientCall.Listener<InputStream> {
+        private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+        private final HttpExchange exchange;
+        private final boolean text;
+        private boolean headersSent;
+        // Guarded by events; once set, replies are closed instead of queued
+        private boolean discarding;
+        @Nullable
+        private volatile Status requestError;
+
+        Response(HttpExchange exchange, boolean text) {
+            this.exchange = exchange;
+            this.text = text;
+        }
+
+        @Override
+        public void onHeaders(Metadata headers) {
+            events.add(headers);
+        }
+
+        @Override
+        public void onMessage(InputStream message) {
+            synchronized (events) {
+                if (!discarding) {
+                    events.add(message);
+                    return;
+                }
+            }
+            GatewayServer.closeQuietly(message);
+        }
+
+        @Override
+        public void onClose(Status status, Metadata trailers) {
+            events.add(new Closed(status, trailers));
+        }
+
+        // Reported instead of the CANCELLED the call ends with once it is cancelled
+        void requestFailed(Status status) {
+            requestError = status;
+        }
+
+        // After a cancel nothing more is written: releases the queued replies and any
+        // that the call still delivers before it closes
+        void discard() {
+            List<Object> queued = new ArrayList<>();
+            synchronized (events) {
+                discarding = true;
+                events.drainTo(queued);
+            }
+            for (Object event : queued) {
+                if (event instanceof InputStream) {
+                    GatewayServer.closeQuietly((InputStream) event);
+                }
+            }
+        }
+
+        // Writes the next event; returns true once the call has closed, false after a message
+        boolean writeNext() throws IOException, InterruptedException {
+            while (true) {
+                Object event = events.take();
+                if (event instanceof Metadata) {
+                    sendHeaders((Metadata) event);
+                } else if (event instanceof InputStream) {
+                    sendHeaders(null);
+                    writeMessage((InputStream) event);
+                    return false;
+                } else {
+                    Closed closed = (Closed) event;
+                    sendHeaders(null);
+                    Status status = requestError != null ? requestError : closed.status;
+                    writeFrame(TRAILER_FRAME, trailerBlock(status, closed.trailers));
+                    exchange.getResponseBody().flush();
+                    return true;
+                }
+            }
+        }
+
+        private void sendHeaders(@Nullable Metadata headers) throws IOException {
+            if (headersSent) {
+                return;
+            }
+            headersSent = true;
+            exchange.getResponseHeaders().set("Content-Type", text ? TEXT_CONTENT_TYPE : CONTENT_TYPE);
+            if (headers != null) {
+                for (String key : headers.keys()) {
+                    if (!key.equals("content-type")) {
+                        exchange.getResponseHeaders().put(key, values(headers, key));
+                    }
+                }
+            }
+            // Length unknown: the body is chunked and each frame goes out when it is written
+            exchange.sendResponseHeaders(200, 0);
+        }
+
+        private void writeMessage(InputStream message) throws IOException {
+            OutputStream out = exchange.getResponseBody();
+            // Closing releases the transport buffers the message was detached with
+            try (InputStream in = message) {
+                if (text || !(in instanceof KnownLength)) {
+                    writeFrame(DATA_FRAME, in.readAllBytes());
+                } else {
+                    // Stream the backend's buffer straight out after the frame prefix
+                    out.write(prefix(DATA_FRAME, in.available()));
+                    in.transferTo(out);
+                }
+            }
+            out.flush();
+        }
+
+        private void writeFrame(int flags, byte[] payload) throws IOException {
+            OutputStream out = exchange.getResponseBody();
+            if (!text) {
+                out.write(prefix(flags, payload.length));
+                out.write(payload);
+                return;
+            }
+            // Each frame is encoded on its own, padding included: the gRPC-Web client
+            // decodes every complete four-character group as it arrives
+            byte[] frame = new byte[5 + payload.length];
+            System.arraycopy(prefix(flags, payload.length), 0, frame, 0, 5);
+            System.arraycopy(payload, 0, frame, 5, payload.length);
+            out.write(Base64.getEncoder().encode(frame));
+        }
+
+        private static byte[] prefix(int flags, int length) {
+            return new byte[] {(byte) flags, (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8),
+                    (byte) length};
+        }
+
+        private static byte[] trailerBlock(Status status, Metadata trailers) {
+            StringBuilder block = new StringBuilder()
+                    .append("grpc-status:").append(status.getCode().value()).append("\r\n");
+            if (status.getDescription() != null) {
+                block.append("grpc-message:").append(percentEncode(status.getDescription())).append("\r\n");
+            }
+            for (String key : trailers.keys()) {
+                if (key.equals("grpc-status") || key.equals("grpc-message")) {
+                    continue;
+                }
+                for (String value : values(trailers, key)) {
+                    block.append(key).append(':').append(value).append("\r\n");
+                }
+            }
+            return block.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+
+        // Binary values travel base64-encoded, as they do in HTTP/2 gRPC headers
+        private static List<String> values(Metadata metadata, String key) {
+            List<String> values = new ArrayList<>();
+            if (key.endsWith(Metadata.BINARY_HEADER_SUFFIX)) {
+                for (byte[] value : metadata.getAll(Metadata.Key.of(key, Metadata.BINARY_BYTE_MARSHALLER))) {
+                    values.add(Base64.getEncoder().withoutPadding().encodeToString(value));
+                }
+            } else {
+                for (String value : metadata.getAll(Metadata.Key.of(key, Metadata.ASCII_STRING_MARSHALLER))) {
+                    values.add(value);
+                }
+            }
+            return values;
+        }
+    }
+
+    private static final class Closed {
+        final Status status;
+        final Metadata trailers;
+
+        Closed(Status status, Metadata trailers) {
+            this.status = status;
+            this.trailers = trailers;
+        }
+    }
+
+    // Decodes a grpc-web-text body. Clients may encode each frame separately, so padding
+    // can appear mid-body; a batch ends at padding, which Base64 decoders only accept last.
+    static final class TextDecodingInputStream extends InputStream {
+        private final InputStream in;
+        private final byte[] chars = new byte[4096];
+        private byte[] decoded = new byte[0];
+        private int position;
+
+        TextDecodingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == decoded.length && !decodeBatch()) {
+                return -1;
+            }
+            return decoded[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == decoded.length && !decodeBatch()) {
+                return -1;
+            }
+            int n = Math.min(len, decoded.length - position);
+            System.arraycopy(decoded, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean decodeBatch() throws IOException {
+            do {
+                int count = 0;
+                while (count < chars.length) {
+                    int c = in.read();
+                    if (c == -1) {
+                        break;
+                    }
+                    if (Character.isWhitespace(c)) {
+                        continue;
+                    }
+                    chars[count++] = (byte) c;
+                    // Stop at padding, and rather than wait for bytes the client has not sent
+                    if (count % 4 == 0 && (c == '=' || in.available() == 0)) {
+                        break;
+                    }
+                }
+                if (count == 0) {
+                    return false;
+                }
+                if (count % 4 != 0) {
+                    throw new MalformedBodyException("Truncated base64 in gRPC-Web text body");
+                }
+                try {
+                    decoded = Base64.getDecoder().decode(Arrays.copyOf(chars, count));
+                } catch (IllegalArgumentException e) {
+                    throw new MalformedBodyException("Invalid base64 in gRPC-Web text body");
+                }
+                position = 0;
+            } while (decoded.length == 0);
+            return true;
+        }
+    }
+
+    // A request body that arrived whole but cannot be decoded, unlike a connection failure
+    static final class MalformedBodyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        MalformedBodyException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.sun.net.httpserver.HttpServer;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCalls;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Sends gRPC-Web requests over HTTP/1.1 to the handler, wired to an in-process
+ * gateway as {@code GatewayServer.main} wires it. Target "web" is an in-process
+ * backend; "netty" is the same service over a real connection, whose replies reach
+ * the handler in pooled buffers that the transport frees.
+ */
+@RunWith(JUnit4.class)
+public class GrpcWebHandlerTest {
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> ECHO = method("Echo", MethodDescriptor.MethodType.UNARY);
+    private static final MethodDescriptor<byte[], byte[]> REPEAT =
+            method("Repeat", MethodDescriptor.MethodType.SERVER_STREAMING);
+    private static final MethodDescriptor<byte[], byte[]> FAIL = method("Fail", MethodDescriptor.MethodType.UNARY);
+    private static final Metadata.Key<String> REPLY_HEADER =
+            Metadata.Key.of("x-reply", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ExecutorService httpExecutor = Executors.newCachedThreadPool();
+    private Server backendServer;
+    private ManagedChannel backendChannel;
+    private Server nettyServer;
+    private ManagedChannel nettyChannel;
+    private Server gatewayServer;
+    private ManagedChannel gatewayChannel;
+    private HttpServer httpServer;
+
+    @Before
+    public void setUp() throws Exception {
+        String backendName = InProcessServerBuilder.generateName();
+        backendServer = InProcessServerBuilder.forName(backendName).addService(service()).build().start();
+        backendChannel = InProcessChannelBuilder.forName(backendName).build();
+        nettyServer = ServerBuilder.forPort(0).addService(service()).build().start();
+        nettyChannel = ManagedChannelBuilder.forAddress("localhost", nettyServer.getPort()).usePlaintext().build();
+
+        String gatewayName = InProcessServerBuilder.generateName();
+        gatewayServer = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName).directExecutor(),
+                Map.of("web", backendChannel, "netty", nettyChannel)).start();
+        gatewayChannel = InProcessChannelBuilder.forName(gatewayName).directExecutor().build();
+
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.setExecutor(httpExecutor);
+        httpServer.createContext(GrpcWebHandler.PATH_PREFIX, new GrpcWebHandler(gatewayChannel));
+        httpServer.start();
+    }
+
+    private ServerServiceDefinition service() {
+        return ServerServiceDefinition.builder("test.Web")
+                .addMethod(ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                    responseObserver.onNext(request);
+                    responseObserver.onCompleted();
+                }))
+                // Sends the request back once per byte of it, holding the rest
+                // back after the first until released
+                .addMethod(REPEAT, ServerCalls.asyncServerStreamingCall((request, responseObserver) -> {
+                    for (int i = 0; i < request.length; i++) {
+                        responseObserver.onNext(request);
+                        if (i == 0) {
+                            await(release);
+                        }
+                    }
+                    responseObserver.onCompleted();
+                }))
+                .addMethod(FAIL, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                    Metadata trailers = new Metadata();
+                    trailers.put(REPLY_HEADER, "failed");
+                    responseObserver.onError(Status.NOT_FOUND.withDescription("no 100% match: \u00fc")
+                            .asRuntimeException(trailers));
+                }))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        httpServer.stop(0);
+        httpExecutor.shutdownNow();
+        gatewayChannel.shutdownNow();
+        gatewayServer.shutdownNow();
+        backendChannel.shutdownNow();
+        backendServer.shutdownNow();
+        nettyChannel.shutdownNow();
+        nettyServer.shutdownNow();
+    }
+
+    @Test
+    public void testBinaryUnaryCall() throws Exception {
+        HttpResponse<byte[]> response = client.send(request("Echo", GrpcWebHandler.CONTENT_TYPE,
+                frame(0x00, "hello".getBytes(StandardCharsets.UTF_8))), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.headers().firstValue("Content-Type")).hasValue(GrpcWebHandler.CONTENT_TYPE);
+        List<byte[]> frames = frames(new ByteArrayInputStream(response.body()));
+        assertThat(frames).hasSize(2);
+        assertThat(new String(frames.get(0), StandardCharsets.UTF_8)).isEqualTo("\0hello");
+        assertThat(new String(frames.get(1), StandardCharsets.ISO_8859_1)).isEqualTo("\u0080grpc-status:0\r\n");
+    }
+
+    @Test
+    public void testTextUnaryCall() throws Exception {
+        byte[] body = Base64.getEncoder().encode(frame(0x00, "hi".getBytes(StandardCharsets.UTF_8)));
+
+        HttpResponse<byte[]> response = client.send(request("Echo", GrpcWebHandler.TEXT_CONTENT_TYPE, body),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(response.headers().firstValue("Content-Type")).hasValue(GrpcWebHandler.TEXT_CONTENT_TYPE);
+        // Frames are encoded one by one, so the body is decoded as the browser does
+        InputStream decoded = new GrpcWebHandler.TextDecodingInputStream(new ByteArrayInputStream(response.body()));
+        List<byte[]> frames = frames(decoded);
+        assertThat(new String(frames.get(0), StandardCharsets.UTF_8)).isEqualTo("\0hi");
+        assertThat(new String(frames.get(1), StandardCharsets.ISO_8859_1)).isEqualTo("\u0080grpc-status:0\r\n");
+    }
+
+    @Test
+    public void testStreamedRepliesAreWrittenAsTheyArrive() throws Exception {
+        HttpResponse<InputStream> response = client.send(request("Repeat", GrpcWebHandler.CONTENT_TYPE,
+                frame(0x00, new byte[] {1, 2, 3})), HttpResponse.BodyHandlers.ofInputStream());
+
+        try (DataInputStream body = new DataInputStream(response.body())) {
+            // The backend is still holding back the rest
+            assertThat(readFrame(body)).isEqualTo(new byte[] {0, 1, 2, 3});
+            release.countDown();
+            assertThat(readFrame(body)).isEqualTo(new byte[] {0, 1, 2, 3});
+            assertThat(readFrame(body)).isEqualTo(new byte[] {0, 1, 2, 3});
+            assertThat(new String(readFrame(body), StandardCharsets.ISO_8859_1)).isEqualTo("\u0080grpc-status:0\r\n");
+        }
+    }
+
+    @Test
+    public void testRepliesFromANettyBackendOutliveTheirTransportBuffers() throws Exception {
+        // Large enough to arrive in several pooled buffers
+        byte[] message = new byte[256 * 1024];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) (i * 31);
+        }
+        byte[] expected = new byte[1 + message.length];
+        System.arraycopy(message, 0, expected, 1, message.length);
+
+        for (String contentType : List.of(GrpcWebHandler.CONTENT_TYPE, GrpcWebHandler.TEXT_CONTENT_TYPE)) {
+            byte[] body = frame(0x00, message);
+            if (contentType.equals(GrpcWebHandler.TEXT_CONTENT_TYPE)) {
+                body = Base64.getEncoder().encode(body);
+            }
+            HttpResponse<byte[]> response = client.send(request("netty", "Echo", contentType, body),
+                    HttpResponse.BodyHandlers.ofByteArray());
+
+            InputStream in = new ByteArrayInputStream(response.body());
+            List<byte[]> frames = frames(contentType.equals(GrpcWebHandler.TEXT_CONTENT_TYPE)
+                    ? new GrpcWebHandler.TextDecodingInputStream(in) : in);
+            assertThat(frames).hasSize(2);
+            assertThat(Arrays.equals(frames.get(0), expected)).isTrue();
+            assertThat(new String(frames.get(1), StandardCharsets.ISO_8859_1)).isEqualTo("\u0080grpc-status:0\r\n");
+        }
+    }
+
+    @Test
+    public void testStreamedRepliesFromANettyBackend() throws Exception {
+        release.countDown();
+        HttpResponse<byte[]> response = client.send(request("netty", "Repeat", GrpcWebHandler.CONTENT_TYPE,
+                frame(0x00, new byte[] {4, 5, 6, 7})), HttpResponse.BodyHandlers.ofByteArray());
+
+        List<byte[]> frames = frames(new ByteArrayInputStream(response.body()));
+        assertThat(frames).hasSize(5);
+        for (byte[] frame : frames.subList(0, 4)) {
+            assertThat(frame).isEqualTo(new byte[] {0, 4, 5, 6, 7});
+        }
+    }
+
+    @Test
+    public void testErrorsAndTrailersAreSentInTheTrailerFrame() throws Exception {
+        HttpResponse<byte[]> response = client.send(request("Fail", GrpcWebHandler.CONTENT_TYPE,
+                frame(0x00, new byte[0])), HttpResponse.BodyHandlers.ofByteArray());
+
+        List<byte[]> frames = frames(new ByteArrayInputStream(response.body()));
+        assertThat(frames).hasSize(1);
+        String trailers = new String(frames.get(0), StandardCharsets.ISO_8859_1);
+        assertThat(trailers).startsWith("\u0080grpc-status:5\r\ngrpc-message:no 100%25 match: %C3%BC\r\n");
+        assertThat(trailers).contains("x-reply:failed\r\n");
+    }
+
+    @Test
+    public void testMalformedRequestIsInternal() throws Exception {
+        byte[] truncated = {0, 0, 0, 0, 9, 1, 2};
+
+        HttpResponse<byte[]> response = client.send(request("Echo", GrpcWebHandler.CONTENT_TYPE, truncated),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        List<byte[]> frames = frames(new ByteArrayInputStream(response.body()));
+        assertThat(new String(frames.get(frames.size() - 1), StandardCharsets.ISO_8859_1))
+                .startsWith("\u0080grpc-status:13\r\n");
+    }
+
+    @Test
+    public void testNonGrpcWebRequestsAreRefused() throws Exception {
+        HttpResponse<Void> get = client.send(HttpRequest.newBuilder(uri("Echo")).build(),
+                HttpResponse.BodyHandlers.discarding());
+        HttpResponse<Void> json = client.send(request("Echo", "application/json", new byte[0]),
+                HttpResponse.BodyHandlers.discarding());
+
+        assertThat(get.statusCode()).isEqualTo(405);
+        assertThat(json.statusCode()).isEqualTo(415);
+    }
+
+    @Test
+    public void testCrossOriginRequests() throws Exception {
+        HttpResponse<Void> preflight = client.send(HttpRequest.newBuilder(uri("Echo"))
+                .method("OPTIONS", HttpRequest.BodyPublishers.noBody())
+                .header("Origin", "http://localhost:3000")
+                .header("Access-Control-Request-Method", "POST")
+                .header("Access-Control-Request-Headers", "content-type,x-backend-target,x-grpc-web")
+                .build(), HttpResponse.BodyHandlers.discarding());
+        HttpResponse<byte[]> call = client.send(HttpRequest.newBuilder(uri("Echo"))
+                .header("Origin", "http://localhost:3000")
+                .header("Content-Type", GrpcWebHandler.CONTENT_TYPE)
+                .header("X-Backend-Target", "web")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(frame(0x00, new byte[] {1})))
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(preflight.statusCode()).isEqualTo(204);
+        assertThat(preflight.headers().firstValue("Access-Control-Allow-Origin")).hasValue("http://localhost:3000");
+        assertThat(preflight.headers().firstValue("Access-Control-Allow-Methods").orElse("")).contains("POST");
+        assertThat(preflight.headers().firstValue("Access-Control-Allow-Headers").orElse(""))
+                .contains("x-backend-target");
+        assertThat(call.statusCode()).isEqualTo(200);
+        assertThat(call.headers().firstValue("Access-Control-Allow-Origin")).hasValue("http://localhost:3000");
+        assertThat(call.headers().firstValue("Access-Control-Expose-Headers").orElse("")).contains("grpc-status");
+    }
+
+    @Test
+    public void testParseTimeout() {
+        assertThat(GrpcWebHandler.parseTimeout("5S")).isEqualTo(TimeUnit.SECONDS.toNanos(5));
+        assertThat(GrpcWebHandler.parseTimeout("250m")).isEqualTo(TimeUnit.MILLISECONDS.toNanos(250));
+        assertThat(GrpcWebHandler.parseTimeout("1H")).isEqualTo(TimeUnit.HOURS.toNanos(1));
+        assertThat(GrpcWebHandler.parseTimeout("10x")).isEqualTo(-1);
+        assertThat(GrpcWebHandler.parseTimeout("S")).isEqualTo(-1);
+    }
+
+    private HttpRequest request(String method, String contentType, byte[] body) {
+        return request("web", method, contentType, body);
+    }
+
+    private HttpRequest request(String target, String method, String contentType, byte[] body) {
+        return HttpRequest.newBuilder(uri(method))
+                .header("Content-Type", contentType)
+                .header("X-Grpc-Web", "1")
+                .header("X-Backend-Target", target)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    private URI uri(String method) {
+        return URI.create("http://localhost:" + httpServer.getAddress().getPort() + GrpcWebHandler.PATH_PREFIX
+                + "test.Web/" + method);
+    }
+
+    private static MethodDescriptor<byte[], byte[]> method(String name, MethodDescriptor.MethodType type) {
+        return MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setType(type)
+                .setFullMethodName("test.Web/" + name)
+                .setRequestMarshaller(BYTES)
+                .setResponseMarshaller(BYTES)
+                .build();
+    }
+
+    private static byte[] frame(int flags, byte[] payload) {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(flags);
+        frame.write(payload.length >>> 24);
+        frame.write(payload.length >>> 16);
+        frame.write(payload.length >>> 8);
+        frame.write(payload.length);
+        frame.writeBytes(payload);
+        return frame.toByteArray();
+    }
+
+    // Each frame's flags byte followed by its payload
+    private static List<byte[]> frames(InputStream body) throws IOException {
+        DataInputStream in = new DataInputStream(body);
+        List<byte[]> frames = new ArrayList<>();
+        byte[] frame;
+        while ((frame = readFrame(in)) != null) {
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        int flags = in.read();
+        if (flags == -1) {
+            return null;
+        }
+        byte[] frame = new byte[1 + in.readInt()];
+        frame[0] = (byte) flags;
+        in.readFully(frame, 1, frame.length - 1);
+        return frame;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
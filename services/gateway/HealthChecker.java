@@ -0,0 +1,127 @@
+package services.gateway;
+
+import io.grpc.Status;
+import io.grpc.health.v1.HealthCheckRequest;
+import io.grpc.health.v1.HealthCheckResponse;
+import io.grpc.health.v1.HealthGrpc;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Asks every replica in a {@link RoutingTable} for its {@code grpc.health.v1} status
+ * on a fixed interval, so a replica that is down or draining is taken out of rotation
+ * before calls find out the hard way.
+ *
+ * <p>A replica goes out after {@link #UNHEALTHY_THRESHOLD} failed probes in a row and
+ * comes back with its first good one. A probe fails when the replica answers anything
+ * but {@code SERVING}, fails the call, or does not answer within the timeout. Replicas
+ * without the health service answer {@code UNIMPLEMENTED}; they are left in and only
+ * judged by outlier detection. Probes are sent asynchronously on the replicas' own
+ * channels, so one thread serves any number of replicas.
+ */
+final class HealthChecker implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(HealthChecker.class.getName());
+
+    // Failed probes in a row that take a replica out; one late answer does not
+    static final int UNHEALTHY_THRESHOLD = 2;
+    // The empty service name asks after the server as a whole
+    private static final HealthCheckRequest REQUEST = HealthCheckRequest.newBuilder().setService("").build();
+
+    private final List<Probe> probes = new ArrayList<>();
+    private final long timeoutNanos;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "gateway-health-check");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private HealthChecker(RoutingTable routingTable, Duration interval, Duration timeout) {
+        this.timeoutNanos = timeout.toNanos();
+        routingTable.getBackends().forEach((target, backend) -> {
+            for (Backend.Endpoint endpoint : backend.getEndpoints()) {
+                probes.add(new Probe(target, endpoint));
+            }
+        });
+        scheduler.scheduleWithFixedDelay(this::probeAll, 0, interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /** Starts probing every replica, or returns null when {@code interval} is zero. */
+    @Nullable
+    static HealthChecker start(RoutingTable routingTable, Duration interval, Duration timeout) {
+        if (interval.isZero()) {
+            return null;
+        }
+        return new HealthChecker(routingTable, interval, timeout);
+    }
+
+    @Nullable
+    static HealthChecker start(RoutingTable routingTable, ProxyConfig config) {
+        return start(routingTable, config.getHealthCheckInterval(), config.getHealthCheckTimeout());
+    }
+
+    private void probeAll() {
+        for (Probe probe : probes) {
+            probe.send();
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private final class Probe {
+        private final String target;
+        private final Backend.Endpoint endpoint;
+        private final AtomicInteger failures = new AtomicInteger();
+
+        Probe(String target, Backend.Endpoint endpoint) {
+            this.target = target;
+            this.endpoint = endpoint;
+        }
+
+        void send() {
+            HealthGrpc.newStub(endpoint.getChannel())
+                    .withDeadlineAfter(timeoutNanos, TimeUnit.NANOSECONDS)
+                    .check(REQUEST, new StreamObserver<HealthCheckResponse>() {
+                        @Override
+                        public void onNext(HealthCheckResponse response) {
+                            answered(response.getStatus() == HealthCheckResponse.ServingStatus.SERVING,
+                                    response.getStatus().toString());
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            Status status = Status.fromThrowable(t);
+                            answered(status.getCode() == Status.Code.UNIMPLEMENTED, status.toString());
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                        }
+                    });
+        }
+
+        private void answered(boolean serving, String answer) {
+            if (serving) {
+                failures.set(0);
+                if (!endpoint.isServing()) {
+                    logger.info(target + " replica " + endpoint + " is serving again");
+                    endpoint.setServing(true);
+                }
+            } else if (failures.incrementAndGet() >= UNHEALTHY_THRESHOLD && endpoint.isServing()) {
+                logger.warning(target + " replica " + endpoint + " failed " + UNHEALTHY_THRESHOLD
+                        + " health checks, the last with " + answer + "; taking it out of rotation");
+                endpoint.setServing(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.services.HealthStatusManager;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class HealthCheckerTest {
+    private static final Duration INTERVAL = Duration.ofMillis(20);
+    private static final Duration TIMEOUT = Duration.ofMillis(20);
+
+    private final HealthStatusManager health = new HealthStatusManager();
+    private final List<Server> servers = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+    private HealthChecker checker;
+
+    @After
+    public void tearDown() {
+        if (checker != null) {
+            checker.close();
+        }
+        channels.forEach(ManagedChannel::shutdownNow);
+        servers.forEach(Server::shutdownNow);
+    }
+
+    @Test
+    public void testReplicaThatStopsServingLeavesAndRejoinsTheRotation() throws Exception {
+        Backend.Endpoint endpoint = start(replica(true));
+        assertThat(endpoint.isAvailable()).isTrue();
+
+        health.setStatus("", ServingStatus.NOT_SERVING);
+        await(() -> !endpoint.isAvailable());
+
+        health.setStatus("", ServingStatus.SERVING);
+        await(endpoint::isAvailable);
+    }
+
+    @Test
+    public void testReplicaThatDoesNotAnswerLeavesTheRotation() throws Exception {
+        Backend.Endpoint endpoint = start(replica(true));
+
+        servers.get(0).shutdownNow();
+
+        await(() -> !endpoint.isAvailable());
+    }
+
+    @Test
+    public void testReplicaWithoutTheHealthServiceStaysInTheRotation() throws Exception {
+        Backend.Endpoint endpoint = start(replica(false));
+
+        // Long enough for many more probes than the threshold
+        Thread.sleep(INTERVAL.toMillis() * HealthChecker.UNHEALTHY_THRESHOLD * 10);
+
+        assertThat(endpoint.isAvailable()).isTrue();
+    }
+
+    @Test
+    public void testProbingCanBeTurnedOff() {
+        ManagedChannel channel = InProcessChannelBuilder.forName(InProcessServerBuilder.generateName()).build();
+        channels.add(channel);
+        RoutingTable routingTable = RoutingTable.of(Map.of("checked", channel));
+
+        assertThat(HealthChecker.start(routingTable, Duration.ZERO, TIMEOUT)).isNull();
+    }
+
+    private Backend.Endpoint start(ManagedChannel channel) {
+        RoutingTable routingTable = RoutingTable.of(Map.of("checked", channel));
+        checker = HealthChecker.start(routingTable, INTERVAL, TIMEOUT);
+        return routingTable.route("checked").getEndpoints().get(0);
+    }
+
+    private ManagedChannel replica(boolean withHealthService) throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        InProcessServerBuilder builder = InProcessServerBuilder.forName(name);
+        if (withHealthService) {
+            builder.addService(health.getHealthService());
+        }
+        servers.add(builder.build().start());
+        ManagedChannel channel = InProcessChannelBuilder.forName(name).build();
+        channels.add(channel);
+        return channel;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime() - deadline).isLessThan(0L);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package services.gateway;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.auth0.jwt.interfaces.JWTVerifier;
+import com.auth0.jwt.interfaces.Verification;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.cert.CertificateFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Rejects calls without a valid RS256 bearer token in {@code authorization}, before
+ * any routing or backend call happens.
+ *
+ * <p>Verifying the signature is an RSA public-key operation, costly next to the rest
+ * of a proxied call. Tokens that verify are remembered, up to a bound, until their
+ * {@code exp}, so a client reusing a token across calls pays for one verification.
+ * Tokens without an {@code exp} are verified on every call. Rejected tokens are not
+ * remembered.
+ */
+final class JwtAuthInterceptor implements ServerInterceptor {
+    private static final Logger logger = Logger.getLogger(JwtAuthInterceptor.class.getName());
+    static final Metadata.Key<String> AUTHORIZATION_KEY = Metadata.Key.of("authorization",
+            Metadata.ASCII_STRING_MARSHALLER);
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final JWTVerifier verifier;
+    private final Clock clock;
+    // Token to the epoch millisecond its exp falls on
+    private final Cache<String, Long> verified;
+
+    JwtAuthInterceptor(JWTVerifier verifier, int cacheSize, Clock clock) {
+        this.verifier = verifier;
+        this.clock = clock;
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(cacheSize)
+                .expireAfter(new Expiry<String, Long>() {
+                    @Override
+                    public long expireAfterCreate(String token, Long expiresAtMillis, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, expiresAtMillis - clock.millis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String token, Long expiresAtMillis, long currentTime,
+                            long currentDuration) {
+                        return expireAfterCreate(token, expiresAtMillis, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String token, Long expiresAtMillis, long currentTime,
+                            long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /** Returns the interceptor {@code config} asks for, or null when calls are not authenticated. */
+    @Nullable
+    static JwtAuthInterceptor create(ProxyConfig config) {
+        if (config.getJwtPublicKey() == null) {
+            return null;
+        }
+        RSAPublicKey key;
+        try {
+            key = readPublicKey(config.getJwtPublicKey());
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalArgumentException("Cannot read JWT public key " + config.getJwtPublicKey(), e);
+        }
+        Clock clock = Clock.systemUTC();
+        Verification verification = JWT.require(Algorithm.RSA256(key, null));
+        if (config.getJwtIssuer() != null) {
+            verification.withIssuer(config.getJwtIssuer());
+        }
+        if (config.getJwtAudience() != null) {
+            verification.withAudience(config.getJwtAudience());
+        }
+        logger.info("Authenticating gRPC calls with bearer tokens signed by " + config.getJwtPublicKey());
+        // The clock is the one expiry is checked against, so cached and fresh checks agree
+        return new JwtAuthInterceptor(((com.auth0.jwt.JWTVerifier.BaseVerification) verification).build(clock),
+                config.getJwtCacheSize(), clock);
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+        String authorization = headers.get(AUTHORIZATION_KEY);
+        if (authorization == null
+                || !authorization.regionMatches(true, 0, BEARER_PREFIX, 0, BEARER_PREFIX.length())) {
+            return reject(call, "Missing bearer token");
+        }
+        String token = authorization.substring(BEARER_PREFIX.length()).trim();
+        String failure = verify(token);
+        if (failure != null) {
+            return reject(call, failure);
+        }
+        return next.startCall(call, headers);
+    }
+
+    // Returns why the token is not acceptable, or null when it is
+    @Nullable
+    String verify(String token) {
+        Long expiresAtMillis = verified.getIfPresent(token);
+        // The cache evicts lazily, so a hit may be a moment past its exp
+        if (expiresAtMillis != null && expiresAtMillis > clock.millis()) {
+            return null;
+        }
+        DecodedJWT jwt;
+        try {
+            jwt = verifier.verify(token);
+        } catch (JWTVerificationException e) {
+            return "Invalid bearer token: " + e.getMessage();
+        }
+        Instant expiresAt = jwt.getExpiresAtAsInstant();
+        if (expiresAt != null) {
+            verified.put(token, expiresAt.toEpochMilli());
+        }
+        return null;
+    }
+
+    long cachedTokens() {
+        verified.cleanUp();
+        return verified.estimatedSize();
+    }
+
+    private static <ReqT> ServerCall.Listener<ReqT> reject(ServerCall<ReqT, ?> call, String description) {
+        call.close(Status.UNAUTHENTICATED.withDescription(description), new Metadata());
+        return new ServerCall.Listener<ReqT>() {
+        };
+    }
+
+    /** Reads an RSA key from a PEM certificate, such as {@code keys/cert.pem}, or a PEM public key. */
+    static RSAPublicKey readPublicKey(Path pem) throws IOException, GeneralSecurityException {
+        String text = Files.readString(pem, StandardCharsets.US_ASCII);
+        PublicKey key;
+        if (text.contains("-----BEGIN CERTIFICATE-----")) {
+            key = CertificateFactory.getInstance("X.509")
+                    .generateCertificate(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)))
+                    .getPublicKey();
+        } else {
+            String base64 = text.replaceAll("-----[A-Z ]+-----", "").replaceAll("\\s", "");
+            key = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(Base64.getDecoder()
+                    .decode(base64)));
+        }
+        if (!(key instanceof RSAPublicKey)) {
+            throw new GeneralSecurityException("Not an RSA key: " + key.getAlgorithm());
+        }
+        return (RSAPublicKey) key;
+    }
+}
@@ -0,0 +1,249 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.auth0.jwt.interfaces.JWTVerifier;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCalls;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class JwtAuthInterceptorTest {
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> ECHO = MethodDescriptor.<byte[], byte[]>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Auth/Echo")
+            .setRequestMarshaller(BYTES)
+            .setResponseMarshaller(BYTES)
+            .build();
+
+    private static KeyPair keys;
+    private static KeyPair otherKeys;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger backendCalls = new AtomicInteger();
+    private Server backendServer;
+    private ManagedChannel backendChannel;
+    private Server gatewayServer;
+    private ManagedChannel gatewayChannel;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keys = generator.generateKeyPair();
+        otherKeys = generator.generateKeyPair();
+    }
+
+    @After
+    public void tearDown() {
+        if (gatewayChannel != null) {
+            gatewayChannel.shutdownNow();
+            gatewayServer.shutdownNow();
+            backendChannel.shutdownNow();
+            backendServer.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testValidTokenIsProxied() throws Exception {
+        startGateway();
+
+        byte[] reply = call("Bearer " + sign(keys, Instant.now().plusSeconds(60)));
+
+        assertThat(reply).isEqualTo(new byte[] {7});
+        assertThat(backendCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCallsWithoutValidTokenNeverReachTheBackend() throws Exception {
+        startGateway();
+
+        assertUnauthenticated(null);
+        assertUnauthenticated("Basic dXNlcjpwYXNz");
+        assertUnauthenticated("Bearer not-a-jwt");
+        assertUnauthenticated("Bearer " + sign(otherKeys, Instant.now().plusSeconds(60)));
+        assertUnauthenticated("Bearer " + sign(keys, Instant.now().minusSeconds(60)));
+        assertThat(backendCalls.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void testVerifiedTokensAreCachedUntilTheyExpire() {
+        MutableClock clock = new MutableClock(Instant.parse("2026-01-01T00:00:00Z"));
+        AtomicInteger verifications = new AtomicInteger();
+        JWTVerifier real = ((com.auth0.jwt.JWTVerifier.BaseVerification) JWT.require(algorithm(keys)))
+                .build(clock);
+        JWTVerifier counting = new JWTVerifier() {
+            @Override
+            public DecodedJWT verify(String token) {
+                verifications.incrementAndGet();
+                return real.verify(token);
+            }
+
+            @Override
+            public DecodedJWT verify(DecodedJWT jwt) {
+                verifications.incrementAndGet();
+                return real.verify(jwt);
+            }
+        };
+        JwtAuthInterceptor interceptor = new JwtAuthInterceptor(counting, 100, clock);
+        String token = sign(keys, clock.instant().plusSeconds(60));
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(interceptor.verify(token)).isNull();
+        }
+        assertThat(verifications.get()).isEqualTo(1);
+        assertThat(interceptor.cachedTokens()).isEqualTo(1);
+
+        clock.advance(Duration.ofSeconds(61));
+        assertThat(interceptor.verify(token)).contains("expired");
+        assertThat(verifications.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRejectedTokensAreNotCached() {
+        Clock clock = Clock.systemUTC();
+        JwtAuthInterceptor interceptor = new JwtAuthInterceptor(
+                ((com.auth0.jwt.JWTVerifier.BaseVerification) JWT.require(algorithm(keys))).build(clock), 100, clock);
+
+        assertThat(interceptor.verify(sign(otherKeys, Instant.now().plusSeconds(60)))).isNotNull();
+        assertThat(interceptor.cachedTokens()).isEqualTo(0);
+    }
+
+    private void startGateway() throws Exception {
+        String backendName = InProcessServerBuilder.generateName();
+        backendServer = InProcessServerBuilder.forName(backendName).directExecutor()
+                .addService(ServerServiceDefinition.builder("test.Auth")
+                        .addMethod(ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            backendCalls.incrementAndGet();
+                            responseObserver.onNext(request);
+                            responseObserver.onCompleted();
+                        }))
+                        .build())
+                .build()
+                .start();
+        backendChannel = InProcessChannelBuilder.forName(backendName).directExecutor().build();
+
+        // Configured as a deployment would be, from a PEM file
+        Path pem = folder.newFile("public.pem").toPath();
+        Files.writeString(pem, "-----BEGIN PUBLIC KEY-----\n"
+                + Base64.getMimeEncoder().encodeToString(keys.getPublic().getEncoded())
+                + "\n-----END PUBLIC KEY-----\n");
+        ProxyConfig config = ProxyConfig.newBuilder().setJwtPublicKey(pem).build();
+        String gatewayName = InProcessServerBuilder.generateName();
+        gatewayServer = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName).directExecutor(),
+                Map.of("auth", backendChannel), config).start();
+        gatewayChannel = InProcessChannelBuilder.forName(gatewayName).directExecutor().build();
+    }
+
+    private byte[] call(String authorization) {
+        Metadata headers = new Metadata();
+        headers.put(GatewayServer.TARGET_HEADER_KEY, "auth");
+        if (authorization != null) {
+            headers.put(JwtAuthInterceptor.AUTHORIZATION_KEY, authorization);
+        }
+        Channel channel = ClientInterceptors.intercept(gatewayChannel,
+                MetadataUtils.newAttachHeadersInterceptor(headers));
+        return ClientCalls.blockingUnaryCall(channel, ECHO, CallOptions.DEFAULT, new byte[] {7});
+    }
+
+    private void assertUnauthenticated(String authorization) {
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> call(authorization));
+        assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.UNAUTHENTICATED);
+    }
+
+    static String sign(KeyPair signer, Instant expiresAt) {
+        return JWT.create()
+                .withSubject("user-1")
+                .withExpiresAt(expiresAt)
+                .sign(algorithm(signer));
+    }
+
+    private static Algorithm algorithm(KeyPair pair) {
+        return Algorithm.RSA256((RSAPublicKey) pair.getPublic(), (RSAPrivateKey) pair.getPrivate());
+    }
+
+    private static final class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+        @Override
+        public java.time.ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(java.time.ZoneId zone) {
+            return this;
+        }
+    }
+}
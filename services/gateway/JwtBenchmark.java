@@ -0,0 +1,81 @@
+package services.gateway;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What {@link JwtAuthInterceptor} spends accepting one RS256 bearer token with a
+ * 2048-bit key.
+ *
+ * <p>{@code verifyUncached} checks the signature on every call, as a gateway without
+ * the cache would. {@code verifyCached} is a client reusing its token, the common
+ * case; {@code verifyCachedContended} does so from eight threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JwtBenchmark {
+    private JwtAuthInterceptor cached;
+    private JwtAuthInterceptor uncached;
+    private String token;
+
+    @Setup
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keys = generator.generateKeyPair();
+        Algorithm algorithm = Algorithm.RSA256((RSAPublicKey) keys.getPublic(), (RSAPrivateKey) keys.getPrivate());
+        token = JWT.create()
+                .withSubject("bench")
+                .withIssuer("https://idp.example.com")
+                .withExpiresAt(Instant.now().plusSeconds(3600))
+                .sign(algorithm);
+
+        Clock clock = Clock.systemUTC();
+        com.auth0.jwt.interfaces.JWTVerifier verifier =
+                ((com.auth0.jwt.JWTVerifier.BaseVerification) JWT.require(algorithm)).build(clock);
+        cached = new JwtAuthInterceptor(verifier, 10_000, clock);
+        // A zero-size cache drops every token it is given
+        uncached = new JwtAuthInterceptor(verifier, 0, clock);
+        if (cached.verify(token) != null) {
+            throw new IllegalStateException("Benchmark token does not verify");
+        }
+    }
+
+    @Benchmark
+    public String verifyUncached() {
+        return uncached.verify(token);
+    }
+
+    @Benchmark
+    public String verifyCached() {
+        return cached.verify(token);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String verifyCachedContended() {
+        return cached.verify(token);
+    }
+}
@@ -0,0 +1,161 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Starts several in-process replicas of one backend, one of them much slower than
+ * the rest, and compares how the balancing policies spread load across them.
+ */
+@RunWith(JUnit4.class)
+public class LoadBalancingTest {
+    private static final long[] REPLICA_LATENCY_MILLIS = {1, 1, 100};
+    private static final int SLOW_REPLICA = 2;
+    private static final int CLIENTS = 8;
+    private static final int CALLS_PER_CLIENT = 50;
+
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> ECHO = MethodDescriptor.<byte[], byte[]>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Replica/Echo")
+            .setRequestMarshaller(BYTES)
+            .setResponseMarshaller(BYTES)
+            .build();
+
+    private final List<Server> replicas = new ArrayList<>();
+    private final List<ManagedChannel> replicaChannels = new ArrayList<>();
+    private final AtomicInteger[] callsPerReplica = new AtomicInteger[REPLICA_LATENCY_MILLIS.length];
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < REPLICA_LATENCY_MILLIS.length; i++) {
+            long latencyMillis = REPLICA_LATENCY_MILLIS[i];
+            AtomicInteger calls = new AtomicInteger();
+            callsPerReplica[i] = calls;
+
+            String name = InProcessServerBuilder.generateName();
+            replicas.add(InProcessServerBuilder.forName(name)
+                    .addService(ServerServiceDefinition.builder("test.Replica")
+                            .addMethod(ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                                calls.incrementAndGet();
+                                try {
+                                    Thread.sleep(latencyMillis);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                responseObserver.onNext(request);
+                                responseObserver.onCompleted();
+                            }))
+                            .build())
+                    .build()
+                    .start());
+            replicaChannels.add(InProcessChannelBuilder.forName(name).build());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        replicaChannels.forEach(ManagedChannel::shutdownNow);
+        replicas.forEach(Server::shutdownNow);
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesAvoidsSlowReplica() throws Exception {
+        long[] roundRobin = run(Backend.Policy.ROUND_ROBIN);
+        int roundRobinSlowCalls = callsPerReplica[SLOW_REPLICA].getAndSet(0);
+
+        long[] powerOfTwo = run(Backend.Policy.POWER_OF_TWO_CHOICES);
+        int powerOfTwoSlowCalls = callsPerReplica[SLOW_REPLICA].get();
+
+        int totalCalls = CLIENTS * CALLS_PER_CLIENT;
+        // Round robin sends the slow replica its full share regardless of how it is doing
+        assertThat(roundRobinSlowCalls).isAtLeast(totalCalls / REPLICA_LATENCY_MILLIS.length - 1);
+        // Least-loaded choice sees its calls pile up and steers around it. Compared with
+        // round robin under the same load rather than against fixed numbers, which a
+        // busy machine can miss either way
+        assertThat(powerOfTwoSlowCalls).isLessThan(roundRobinSlowCalls / 2);
+        assertThat(percentile(powerOfTwo, 95)).isLessThan(percentile(roundRobin, 95));
+    }
+
+    // Runs the client workload through a fresh gateway and returns sorted latencies in ms
+    private long[] run(Backend.Policy policy) throws Exception {
+        Map<String, List<ManagedChannel>> endpoints = new HashMap<>();
+        endpoints.put("greeter", replicaChannels);
+        String gatewayName = InProcessServerBuilder.generateName();
+        Server gateway = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName),
+                RoutingTable.forEndpoints(endpoints, policy), ProxyConfig.defaults()).start();
+        ManagedChannel gatewayChannel = InProcessChannelBuilder.forName(gatewayName).build();
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try {
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int c = 0; c < CLIENTS; c++) {
+                results.add(clients.submit(() -> {
+                    long[] latencies = new long[CALLS_PER_CLIENT];
+                    for (int i = 0; i < CALLS_PER_CLIENT; i++) {
+                        long start = System.nanoTime();
+                        ClientCalls.blockingUnaryCall(gatewayChannel, ECHO, CallOptions.DEFAULT, new byte[16]);
+                        latencies[i] = (System.nanoTime() - start) / 1_000_000;
+                    }
+                    return latencies;
+                }));
+            }
+            long[] all = new long[CLIENTS * CALLS_PER_CLIENT];
+            for (int c = 0; c < CLIENTS; c++) {
+                System.arraycopy(results.get(c).get(), 0, all, c * CALLS_PER_CLIENT, CALLS_PER_CLIENT);
+            }
+            Arrays.sort(all);
+            return all;
+        } finally {
+            clients.shutdownNow();
+            gatewayChannel.shutdownNow();
+            gateway.shutdownNow();
+        }
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+}
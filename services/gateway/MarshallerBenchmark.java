@@ -0,0 +1,99 @@
+package services.gateway;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.internal.ReadableBuffers;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of moving one message through the proxy's marshallers: the transport hands
+ * the gateway a stream over its own buffers, the marshaller parses it, and the
+ * outbound transport drains it into its framer.
+ *
+ * <p>Run with {@code bazel run //services/gateway:gateway_benchmarks -- MarshallerBenchmark}.
+ * The GC profiler is on by default; {@code gc.alloc.rate.norm} is the number of
+ * bytes allocated per proxied message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MarshallerBenchmark {
+
+    @Param({"64", "4096", "65536", "1048576"})
+    public int payloadSize;
+
+    private final MethodDescriptor.Marshaller<InputStream> passthrough = new GatewayServer.InputStreamMarshaller();
+    private final MethodDescriptor.Marshaller<InputStream> copying = new CopyingMarshaller();
+
+    private byte[] payload;
+    // Stands in for the outbound framer's buffer; reused so the sink itself allocates nothing
+    private byte[] sink;
+
+    @Setup
+    public void setUp() {
+        payload = new byte[payloadSize];
+        ThreadLocalRandom.current().nextBytes(payload);
+        sink = new byte[8192];
+    }
+
+    @Benchmark
+    public long copying() throws IOException {
+        return proxy(copying);
+    }
+
+    @Benchmark
+    public long passthrough() throws IOException {
+        return proxy(passthrough);
+    }
+
+    private long proxy(MethodDescriptor.Marshaller<InputStream> marshaller) throws IOException {
+        // Same shape as ServerCallImpl / ClientCallImpl: parse, then close the transport's stream
+        InputStream inbound = ReadableBuffers.openStream(ReadableBuffers.wrap(payload), true);
+        InputStream message = marshaller.parse(inbound);
+        inbound.close();
+
+        // Same shape as AbstractStream.writeMessage: drain into the framer, then close
+        long written = 0;
+        try (InputStream outbound = marshaller.stream(message)) {
+            int n;
+            while ((n = outbound.read(sink)) != -1) {
+                written += n;
+            }
+        }
+        return written;
+    }
+
+    // The marshaller the gateway used before it detached transport buffers
+    static class CopyingMarshaller implements MethodDescriptor.Marshaller<InputStream> {
+        @Override
+        public InputStream stream(InputStream value) {
+            return value;
+        }
+
+        @Override
+        public InputStream parse(InputStream stream) {
+            try {
+                return new ByteArrayInputStream(stream.readAllBytes());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
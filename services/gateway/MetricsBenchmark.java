@@ -0,0 +1,77 @@
+package services.gateway;
+
+import io.grpc.Status;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What the proxy spends recording one call into {@link GatewayMetrics}: the method
+ * and backend counters, both histograms and the byte counts, as a handler records
+ * them for a unary call.
+ *
+ * <p>{@code recordCallContended} records from eight threads into the same method, the
+ * worst case for a hot method. The gc profiler's {@code gc.alloc.rate.norm} should be
+ * zero for both. {@code scrape} renders the exposition for fifty methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MetricsBenchmark {
+    private static final int MESSAGE_SIZE = 256;
+
+    private GatewayMetrics metrics;
+    private GatewayMetrics.MethodMetrics method;
+    private GatewayMetrics.BackendMetrics backend;
+
+    @Setup
+    public void setUp() {
+        metrics = new GatewayMetrics(1000);
+        method = metrics.forMethod("calculator.Calculator/Sum");
+        backend = metrics.forBackend("calculator");
+        for (int i = 0; i < 50; i++) {
+            GatewayMetrics.MethodMetrics other = metrics.forMethod("bench.Service/Method" + i);
+            other.callFinished(Status.Code.OK, other.callStarted());
+        }
+    }
+
+    @Benchmark
+    public long recordCall() {
+        return record();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long recordCallContended() {
+        return record();
+    }
+
+    @Benchmark
+    public int scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        metrics.writeTo(out);
+        return out.length();
+    }
+
+    private long record() {
+        long start = method.callStarted();
+        long backendStart = backend.callStarted();
+        method.messageReceived(MESSAGE_SIZE);
+        method.messageSent(MESSAGE_SIZE);
+        backend.callFinished(Status.Code.OK, backendStart);
+        method.callFinished(Status.Code.OK, start);
+        return start;
+    }
+}
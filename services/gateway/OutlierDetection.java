@@ -0,0 +1,99 @@
+package services.gateway;
+
+import io.grpc.Status;
+import java.time.Duration;
+
+/**
+ * Decides when a replica has failed often enough in a row to be taken out of its
+ * backend's rotation for a while, so calls stop queueing behind one that is down or
+ * wedged while the others are fine.
+ *
+ * <p>A finished call counts against its replica when the replica looks to be at fault:
+ * it ended with a code a crashed, unreachable or stuck server produces, or its first
+ * response took longer than the slow-call threshold. Streams are judged by their code
+ * alone, since they stay open as long as their caller likes and their backend may not
+ * answer until they end. A {@code DEADLINE_EXCEEDED} call counts only when it ran past
+ * the slow-call threshold: before that it is the caller's deadline that was short, not
+ * the replica that was slow. Such calls, like those the caller cancelled, do not count
+ * either way, and any other call clears the count. A replica that is ejected
+ * again soon after it came back stays out longer each time, up to
+ * {@link #MAX_EJECTION_MULTIPLIER} times the base ejection time.
+ */
+final class OutlierDetection {
+    static final OutlierDetection DISABLED = new OutlierDetection(0, Duration.ZERO, Duration.ZERO);
+
+    // Ejections in a row scale the ejection time up to this many times the base
+    static final int MAX_EJECTION_MULTIPLIER = 10;
+    // Response time given for calls that are not held to the slow-call threshold
+    static final long UNTIMED = -1;
+
+    private final int consecutiveFailures;
+    private final long slowCallNanos;
+    private final long baseEjectionNanos;
+
+    OutlierDetection(int consecutiveFailures, Duration slowCallThreshold, Duration baseEjectionTime) {
+        this.consecutiveFailures = consecutiveFailures;
+        this.slowCallNanos = slowCallThreshold.toNanos();
+        this.baseEjectionNanos = baseEjectionTime.toNanos();
+    }
+
+    /** Returns detection as {@code config} asks, or {@link #DISABLED}. */
+    static OutlierDetection create(ProxyConfig config) {
+        if (!config.isOutlierDetectionEnabled()) {
+            return DISABLED;
+        }
+        return new OutlierDetection(config.getOutlierConsecutiveFailures(), config.getOutlierSlowCallThreshold(),
+                config.getOutlierEjectionTime());
+    }
+
+    boolean isEnabled() {
+        return consecutiveFailures > 0;
+    }
+
+    /** Failures in a row that eject a replica. */
+    int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Whether a call that ended with {@code code}, {@code responseNanos} after it was
+     * sent or {@link #UNTIMED}, says anything about its replica. Calls that do not are
+     * neither failures nor successes.
+     */
+    boolean isJudged(Status.Code code, long responseNanos) {
+        switch (code) {
+            case CANCELLED:
+                return false;
+            case DEADLINE_EXCEEDED:
+                return isSlow(responseNanos);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Whether a call that ended with {@code code}, {@code responseNanos} after it was
+     * sent or {@link #UNTIMED}, counts against its replica. Codes such as {@code NOT_FOUND} or
+     * {@code RESOURCE_EXHAUSTED} are the application's answer and say the replica is up.
+     */
+    boolean isFailure(Status.Code code, long responseNanos) {
+        switch (code) {
+            case UNAVAILABLE:
+            case UNKNOWN:
+            case INTERNAL:
+            case DATA_LOSS:
+                return true;
+            default:
+                return isSlow(responseNanos);
+        }
+    }
+
+    private boolean isSlow(long responseNanos) {
+        return slowCallNanos > 0 && responseNanos > slowCallNanos;
+    }
+
+    /** How long a replica ejected for the {@code ejections}th time in a row stays out. */
+    long ejectionNanos(int ejections) {
+        return baseEjectionNanos * Math.min(ejections, MAX_EJECTION_MULTIPLIER);
+    }
+}
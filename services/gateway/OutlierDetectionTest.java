@@ -0,0 +1,357 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class OutlierDetectionTest {
+    private static final long FAST_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> ECHO = MethodDescriptor.<byte[], byte[]>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Replica/Echo")
+            .setRequestMarshaller(BYTES)
+            .setResponseMarshaller(BYTES)
+            .build();
+    private static final MethodDescriptor<byte[], byte[]> UPLOAD = ECHO.toBuilder()
+            .setType(MethodDescriptor.MethodType.CLIENT_STREAMING)
+            .setFullMethodName("test.Replica/Upload")
+            .build();
+
+    private final OutlierDetection outliers = new OutlierDetection(3, Duration.ofSeconds(1), Duration.ofSeconds(30));
+    private final List<Server> servers = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        channels.forEach(ManagedChannel::shutdownNow);
+        servers.forEach(Server::shutdownNow);
+    }
+
+    @Test
+    public void testConsecutiveFailuresEjectTheReplica() {
+        Backend.Endpoint endpoint = endpoint(outliers);
+
+        finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+        finish(endpoint, Status.Code.INTERNAL, FAST_NANOS);
+        assertThat(endpoint.isAvailable()).isTrue();
+        finish(endpoint, Status.Code.DATA_LOSS, FAST_NANOS);
+
+        assertThat(endpoint.isEjected()).isTrue();
+        assertThat(endpoint.isAvailable()).isFalse();
+        assertThat(endpoint.getEjections()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSlowCallsCountAsFailures() {
+        Backend.Endpoint endpoint = endpoint(outliers);
+
+        for (int i = 0; i < 3; i++) {
+            finish(endpoint, Status.Code.OK, SLOW_NANOS);
+        }
+
+        assertThat(endpoint.isEjected()).isTrue();
+    }
+
+    @Test
+    public void testDeadlinesCountOnlyPastTheSlowCallThreshold() {
+        Backend.Endpoint endpoint = endpoint(outliers);
+
+        // The caller's deadline was short, not the replica slow; the count is neither raised nor cleared
+        finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+        for (int i = 0; i < 5; i++) {
+            finish(endpoint, Status.Code.DEADLINE_EXCEEDED, FAST_NANOS);
+        }
+        finish(endpoint, Status.Code.DEADLINE_EXCEEDED, OutlierDetection.UNTIMED);
+        finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+        assertThat(endpoint.isEjected()).isFalse();
+
+        finish(endpoint, Status.Code.DEADLINE_EXCEEDED, SLOW_NANOS);
+        assertThat(endpoint.isEjected()).isTrue();
+    }
+
+    @Test
+    public void testStreamsAreJudgedByTheirCodeAlone() {
+        Backend.Endpoint endpoint = endpoint(outliers);
+
+        for (int i = 0; i < 3; i++) {
+            finish(endpoint, Status.Code.OK, OutlierDetection.UNTIMED);
+        }
+        assertThat(endpoint.isEjected()).isFalse();
+
+        for (int i = 0; i < 3; i++) {
+            finish(endpoint, Status.Code.UNAVAILABLE, OutlierDetection.UNTIMED);
+        }
+        assertThat(endpoint.isEjected()).isTrue();
+    }
+
+    @Test
+    public void testSuccessesAndApplicationErrorsClearTheCount() {
+        Backend.Endpoint endpoint = endpoint(outliers);
+
+        for (Status.Code between : List.of(Status.Code.OK, Status.Code.NOT_FOUND, Status.Code.RESOURCE_EXHAUSTED)) {
+            finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+            finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+            finish(endpoint, between, FAST_NANOS);
+        }
+        // Cancelled calls are the caller's doing; they neither count nor clear the count
+        finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+        finish(endpoint, Status.Code.CANCELLED, SLOW_NANOS);
+        finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+        assertThat(endpoint.isEjected()).isFalse();
+
+        finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+        assertThat(endpoint.isEjected()).isTrue();
+    }
+
+    @Test
+    public void testEjectionEndsAndRepeatEjectionsLastLonger() throws Exception {
+        OutlierDetection brief = new OutlierDetection(1, Duration.ZERO, Duration.ofMillis(100));
+        Backend.Endpoint endpoint = endpoint(brief);
+
+        finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+        assertThat(endpoint.isEjected()).isTrue();
+        // Calls that were already open when it was ejected do not extend the ejection
+        finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+        assertThat(endpoint.getEjections()).isEqualTo(1);
+        Thread.sleep(150);
+        assertThat(endpoint.isAvailable()).isTrue();
+
+        finish(endpoint, Status.Code.UNAVAILABLE, FAST_NANOS);
+        Thread.sleep(150);
+        assertThat(endpoint.isEjected()).isTrue();
+        assertThat(brief.ejectionNanos(2)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+        assertThat(brief.ejectionNanos(100)).isEqualTo(
+                TimeUnit.MILLISECONDS.toNanos(100) * OutlierDetection.MAX_EJECTION_MULTIPLIER);
+    }
+
+    @Test
+    public void testDisabledDetectionNeverEjects() {
+        Backend.Endpoint endpoint = endpoint(OutlierDetection.DISABLED);
+
+        for (int i = 0; i < 100; i++) {
+            finish(endpoint, Status.Code.UNAVAILABLE, SLOW_NANOS);
+        }
+
+        assertThat(endpoint.isAvailable()).isTrue();
+    }
+
+    @Test
+    public void testPickSkipsReplicasOutOfRotationUntilNoneAreLeft() {
+        for (Backend.Policy policy : Backend.Policy.values()) {
+            Backend backend = new Backend("test", List.of(channel(), channel(), channel()), policy, outliers);
+            List<Backend.Endpoint> endpoints = backend.getEndpoints();
+            for (int i = 0; i < 3; i++) {
+                finish(endpoints.get(0), Status.Code.UNAVAILABLE, FAST_NANOS);
+            }
+            endpoints.get(1).setServing(false);
+
+            for (int i = 0; i < 100; i++) {
+                assertThat(backend.pick()).isSameInstanceAs(endpoints.get(2));
+            }
+
+            // With every replica out, calls go to all of them rather than nowhere
+            endpoints.get(2).setServing(false);
+            for (int i = 0; i < 90; i++) {
+                backend.pick().callStarted();
+            }
+            for (Backend.Endpoint endpoint : endpoints) {
+                assertThat(endpoint.inFlight()).isGreaterThan(0);
+            }
+        }
+    }
+
+    @Test
+    public void testFailingReplicaStopsGettingCallsThroughTheGateway() throws Exception {
+        AtomicInteger badCalls = new AtomicInteger();
+        ManagedChannel good = replica(ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+            responseObserver.onNext(request);
+            responseObserver.onCompleted();
+        }));
+        ManagedChannel bad = replica(ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+            badCalls.incrementAndGet();
+            responseObserver.onError(Status.UNAVAILABLE.withDescription("wedged").asRuntimeException());
+        }));
+        String gatewayName = InProcessServerBuilder.generateName();
+        servers.add(GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName),
+                RoutingTable.forEndpoints(Map.of("replicated", List.of(good, bad)), Backend.Policy.ROUND_ROBIN,
+                        outliers), ProxyConfig.defaults()).start());
+        ManagedChannel gateway = InProcessChannelBuilder.forName(gatewayName).build();
+        channels.add(gateway);
+
+        int failed = 0;
+        for (int i = 0; i < 100; i++) {
+            try {
+                ClientCalls.blockingUnaryCall(gateway, ECHO, CallOptions.DEFAULT, new byte[] {1});
+            } catch (StatusRuntimeException e) {
+                assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+                failed++;
+            }
+        }
+
+        // Calls are sent one at a time, so the replica is out the moment its third failure closes
+        assertThat(badCalls.get()).isEqualTo(3);
+        assertThat(failed).isEqualTo(3);
+    }
+
+    @Test
+    public void testShortClientDeadlinesDoNotEjectAFastReplica() throws Exception {
+        ManagedChannel replica = replica(ServerCalls.asyncUnaryCall((request, responseObserver) ->
+                // Well within the slow-call threshold, but past the callers' deadlines
+                CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS).execute(() -> {
+                    responseObserver.onNext(request);
+                    responseObserver.onCompleted();
+                })));
+        RoutingTable routingTable = RoutingTable.forEndpoints(Map.of("replicated", List.of(replica)),
+                Backend.Policy.ROUND_ROBIN, outliers);
+        String gatewayName = InProcessServerBuilder.generateName();
+        servers.add(GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName), routingTable,
+                ProxyConfig.defaults()).start());
+        ManagedChannel gateway = InProcessChannelBuilder.forName(gatewayName).build();
+        channels.add(gateway);
+
+        for (int i = 0; i < 5; i++) {
+            StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                    () -> ClientCalls.blockingUnaryCall(gateway, ECHO,
+                            CallOptions.DEFAULT.withDeadlineAfter(30, TimeUnit.MILLISECONDS), new byte[] {1}));
+            assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.DEADLINE_EXCEEDED);
+        }
+
+        assertThat(routingTable.route("replicated").getEndpoints().get(0).isEjected()).isFalse();
+        assertThat(ClientCalls.blockingUnaryCall(gateway, ECHO, CallOptions.DEFAULT, new byte[] {2}))
+                .isEqualTo(new byte[] {2});
+    }
+
+    @Test
+    public void testLongStreamsThroughTheGatewayAreNotSlowCalls() throws Exception {
+        OutlierDetection quick = new OutlierDetection(3, Duration.ofMillis(20), Duration.ofSeconds(30));
+        ManagedChannel replica = replica(UPLOAD, ServerCalls.asyncClientStreamingCall(
+                responseObserver -> new StreamObserver<byte[]>() {
+                    @Override
+                    public void onNext(byte[] value) {
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        // Nothing, not even headers, goes back until the caller is done
+                        responseObserver.onNext(new byte[] {1});
+                        responseObserver.onCompleted();
+                    }
+                }));
+        RoutingTable routingTable = RoutingTable.forEndpoints(Map.of("replicated", List.of(replica)),
+                Backend.Policy.ROUND_ROBIN, quick);
+        String gatewayName = InProcessServerBuilder.generateName();
+        servers.add(GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName), routingTable,
+                ProxyConfig.defaults()).start());
+        ManagedChannel gateway = InProcessChannelBuilder.forName(gatewayName).build();
+        channels.add(gateway);
+
+        for (int i = 0; i < 3; i++) {
+            CompletableFuture<byte[]> reply = new CompletableFuture<>();
+            StreamObserver<byte[]> requests = ClientCalls.asyncClientStreamingCall(
+                    gateway.newCall(UPLOAD, CallOptions.DEFAULT), new StreamObserver<byte[]>() {
+                        @Override
+                        public void onNext(byte[] value) {
+                            reply.complete(value);
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            reply.completeExceptionally(t);
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                        }
+                    });
+            requests.onNext(new byte[] {1});
+            requests.onNext(new byte[] {2});
+            Thread.sleep(50);
+            requests.onCompleted();
+            reply.get(5, TimeUnit.SECONDS);
+        }
+
+        assertThat(routingTable.route("replicated").getEndpoints().get(0).isEjected()).isFalse();
+    }
+
+    private Backend.Endpoint endpoint(OutlierDetection outliers) {
+        return new Backend("test", List.of(channel()), Backend.Policy.ROUND_ROBIN, outliers).getEndpoints().get(0);
+    }
+
+    private static void finish(Backend.Endpoint endpoint, Status.Code code, long responseNanos) {
+        endpoint.callStarted();
+        endpoint.callFinished(code, responseNanos);
+    }
+
+    private ManagedChannel channel() {
+        ManagedChannel channel = InProcessChannelBuilder.forName(InProcessServerBuilder.generateName()).build();
+        channels.add(channel);
+        return channel;
+    }
+
+    private ManagedChannel replica(ServerCallHandler<byte[], byte[]> handler) throws IOException {
+        return replica(ECHO, handler);
+    }
+
+    private ManagedChannel replica(MethodDescriptor<byte[], byte[]> method, ServerCallHandler<byte[], byte[]> handler)
+            throws IOException {
+        String name = InProcessServerBuilder.generateName();
+        servers.add(InProcessServerBuilder.forName(name)
+                .addService(ServerServiceDefinition.builder("test.Replica").addMethod(method, handler).build())
+                .build()
+                .start());
+        ManagedChannel channel = InProcessChannelBuilder.forName(name).build();
+        channels.add(channel);
+        return channel;
+    }
+}
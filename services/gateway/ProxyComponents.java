@@ -0,0 +1,74 @@
+package services.gateway;
+
+import javax.annotation.Nullable;
+
+/**
+ * Configuration plus the state built from it that the proxy's call handlers share.
+ * Build one and hand it to every gRPC server that should share cached replies,
+ * in-flight calls, concurrency limits, metrics and the access log.
+ */
+final class ProxyComponents {
+    private final ProxyConfig config;
+    @Nullable
+    private final ResponseCache responseCache;
+    @Nullable
+    private final SingleFlight singleFlight;
+    private final GatewayMetrics metrics;
+    private final AccessLog accessLog;
+    @Nullable
+    private final JwtAuthInterceptor jwtAuth;
+    @Nullable
+    private final ConcurrencyLimiter.PerBackend concurrencyLimits;
+
+    private ProxyComponents(ProxyConfig config, @Nullable ResponseCache responseCache,
+            @Nullable SingleFlight singleFlight, GatewayMetrics metrics, AccessLog accessLog,
+            @Nullable JwtAuthInterceptor jwtAuth, @Nullable ConcurrencyLimiter.PerBackend concurrencyLimits) {
+        this.config = config;
+        this.responseCache = responseCache;
+        this.singleFlight = singleFlight;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.jwtAuth = jwtAuth;
+        this.concurrencyLimits = concurrencyLimits;
+    }
+
+    static ProxyComponents create(ProxyConfig config) {
+        return new ProxyComponents(config, ResponseCache.create(config), SingleFlight.create(config),
+                new GatewayMetrics(config.getMaxCachedMethods()), AccessLog.create(config),
+                JwtAuthInterceptor.create(config), ConcurrencyLimiter.PerBackend.create(config));
+    }
+
+    ProxyConfig getConfig() {
+        return config;
+    }
+
+    @Nullable
+    ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    @Nullable
+    SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    GatewayMetrics getMetrics() {
+        return metrics;
+    }
+
+    AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /** Checks callers' bearer tokens, or null when calls are not authenticated. */
+    @Nullable
+    JwtAuthInterceptor getJwtAuth() {
+        return jwtAuth;
+    }
+
+    /** Caps the calls open to each backend, or null when they are not limited. */
+    @Nullable
+    ConcurrencyLimiter.PerBackend getConcurrencyLimits() {
+        return concurrencyLimits;
+    }
+}
@@ -0,0 +1,875 @@
+package services.gateway;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Tuning knobs for the generic gRPC proxy.
+ *
+ * <p>Defaults are suitable for tests; {@link #fromEnvironment()} lets a deployment
+ * override them through {@code GATEWAY_*} environment variables.
+ */
+public final class ProxyConfig {
+    public static final int DEFAULT_REQUEST_WINDOW = 16;
+    public static final int DEFAULT_MAX_CACHED_METHODS = 1024;
+    public static final int DEFAULT_CONNECTIONS_PER_ENDPOINT = 1;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 4;
+    // gRPC servers commonly advertise MAX_CONCURRENT_STREAMS of 100
+    public static final int DEFAULT_MAX_STREAMS_PER_CONNECTION = 100;
+    public static final long DEFAULT_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+    // grpc-java's own default; the window grows from here when auto-tuning is on
+    public static final int DEFAULT_FLOW_CONTROL_WINDOW = 1024 * 1024;
+    public static final int DEFAULT_ACCESS_LOG_BUFFER_SIZE = 8192;
+    public static final Duration DEFAULT_ACCESS_LOG_SLOW_THRESHOLD = Duration.ofSeconds(1);
+    public static final int DEFAULT_JWT_CACHE_SIZE = 10_000;
+    public static final Duration DEFAULT_DEADLINE_BUDGET = Duration.ofMillis(5);
+    public static final Duration DEFAULT_MIN_BACKEND_DEADLINE = Duration.ofMillis(10);
+    public static final int DEFAULT_INITIAL_CONCURRENCY_LIMIT = 20;
+    public static final int DEFAULT_MIN_CONCURRENCY_LIMIT = 4;
+    public static final int DEFAULT_MAX_CONCURRENCY_LIMIT = 1000;
+    public static final int DEFAULT_OUTLIER_CONSECUTIVE_FAILURES = 5;
+    public static final Duration DEFAULT_OUTLIER_SLOW_CALL_THRESHOLD = Duration.ofSeconds(1);
+    public static final Duration DEFAULT_OUTLIER_EJECTION_TIME = Duration.ofSeconds(30);
+    public static final Duration DEFAULT_HEALTH_CHECK_INTERVAL = Duration.ofSeconds(5);
+    public static final Duration DEFAULT_HEALTH_CHECK_TIMEOUT = Duration.ofSeconds(1);
+    public static final int DEFAULT_WARMUP_CALLS = 2000;
+    public static final Duration DEFAULT_WARMUP_TIMEOUT = Duration.ofSeconds(30);
+
+    private final int requestWindow;
+    private final int maxCachedMethods;
+    private final int connectionsPerEndpoint;
+    private final int maxConnectionsPerEndpoint;
+    private final int maxStreamsPerConnection;
+    private final StripedChannel.Placement streamPlacement;
+    private final Map<String, Duration> cachedMethods;
+    private final long cacheMaxBytes;
+    private final boolean cacheOffHeap;
+    private final Set<String> singleFlightMethods;
+    private final Set<String> streamingMethods;
+    private final int eventLoopThreads;
+    private final boolean nativeTransport;
+    private final int flowControlWindow;
+    private final boolean flowControlAutoTune;
+    private final double accessLogSampleRate;
+    private final Duration accessLogSlowThreshold;
+    private final int accessLogBufferSize;
+    @Nullable
+    private final Path jwtPublicKey;
+    @Nullable
+    private final String jwtIssuer;
+    @Nullable
+    private final String jwtAudience;
+    private final int jwtCacheSize;
+    private final Duration deadlineBudget;
+    private final Duration minBackendDeadline;
+    private final boolean concurrencyLimitEnabled;
+    private final int initialConcurrencyLimit;
+    private final int minConcurrencyLimit;
+    private final int maxConcurrencyLimit;
+    private final boolean outlierDetectionEnabled;
+    private final int outlierConsecutiveFailures;
+    private final Duration outlierSlowCallThreshold;
+    private final Duration outlierEjectionTime;
+    private final Duration healthCheckInterval;
+    private final Duration healthCheckTimeout;
+    private final int warmupCalls;
+    private final Duration warmupTimeout;
+
+    private ProxyConfig(Builder builder) {
+        this.requestWindow = builder.requestWindow;
+        this.maxCachedMethods = builder.maxCachedMethods;
+        this.connectionsPerEndpoint = builder.connectionsPerEndpoint;
+        this.maxConnectionsPerEndpoint = Math.max(builder.maxConnectionsPerEndpoint, builder.connectionsPerEndpoint);
+        this.maxStreamsPerConnection = builder.maxStreamsPerConnection;
+        this.streamPlacement = builder.streamPlacement;
+        this.cachedMethods = Map.copyOf(builder.cachedMethods);
+        this.cacheMaxBytes = builder.cacheMaxBytes;
+        this.cacheOffHeap = builder.cacheOffHeap;
+        this.singleFlightMethods = Set.copyOf(builder.singleFlightMethods);
+        this.streamingMethods = Set.copyOf(builder.streamingMethods);
+        this.eventLoopThreads = builder.eventLoopThreads;
+        this.nativeTransport = builder.nativeTransport;
+        this.flowControlWindow = builder.flowControlWindow;
+        this.flowControlAutoTune = builder.flowControlAutoTune;
+        this.accessLogSampleRate = builder.accessLogSampleRate;
+        this.accessLogSlowThreshold = builder.accessLogSlowThreshold;
+        this.accessLogBufferSize = builder.accessLogBufferSize;
+        this.jwtPublicKey = builder.jwtPublicKey;
+        this.jwtIssuer = builder.jwtIssuer;
+        this.jwtAudience = builder.jwtAudience;
+        this.jwtCacheSize = builder.jwtCacheSize;
+        this.deadlineBudget = builder.deadlineBudget;
+        this.minBackendDeadline = builder.minBackendDeadline;
+        this.concurrencyLimitEnabled = builder.concurrencyLimitEnabled;
+        this.minConcurrencyLimit = builder.minConcurrencyLimit;
+        this.maxConcurrencyLimit = Math.max(builder.maxConcurrencyLimit, builder.minConcurrencyLimit);
+        this.initialConcurrencyLimit = Math.max(minConcurrencyLimit,
+                Math.min(maxConcurrencyLimit, builder.initialConcurrencyLimit));
+        this.outlierDetectionEnabled = builder.outlierDetectionEnabled;
+        this.outlierConsecutiveFailures = builder.outlierConsecutiveFailures;
+        this.outlierSlowCallThreshold = builder.outlierSlowCallThreshold;
+        this.outlierEjectionTime = builder.outlierEjectionTime;
+        this.healthCheckInterval = builder.healthCheckInterval;
+        // A probe still waiting when the next is due would only pile up behind it
+        this.healthCheckTimeout = builder.healthCheckInterval.isZero()
+                || builder.healthCheckTimeout.compareTo(builder.healthCheckInterval) <= 0
+                ? builder.healthCheckTimeout : builder.healthCheckInterval;
+        this.warmupCalls = builder.warmupCalls;
+        this.warmupTimeout = builder.warmupTimeout;
+    }
+
+    public static ProxyConfig defaults() {
+        return newBuilder().build();
+    }
+
+    public static ProxyConfig fromEnvironment() {
+        return newBuilder()
+                .setRequestWindow(intFromEnv("GATEWAY_REQUEST_WINDOW", DEFAULT_REQUEST_WINDOW))
+                .setMaxCachedMethods(intFromEnv("GATEWAY_MAX_CACHED_METHODS", DEFAULT_MAX_CACHED_METHODS))
+                .setConnectionsPerEndpoint(
+                        intFromEnv("GATEWAY_CONNECTIONS_PER_ENDPOINT", DEFAULT_CONNECTIONS_PER_ENDPOINT))
+                .setMaxConnectionsPerEndpoint(
+                        intFromEnv("GATEWAY_MAX_CONNECTIONS_PER_ENDPOINT", DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT))
+                .setMaxStreamsPerConnection(
+                        intFromEnv("GATEWAY_MAX_STREAMS_PER_CONNECTION", DEFAULT_MAX_STREAMS_PER_CONNECTION))
+                .setStreamPlacement(enumFromEnv("GATEWAY_STREAM_PLACEMENT", StripedChannel.Placement.ROUND_ROBIN))
+                .setCachedMethods(methodDurationsFromEnv("GATEWAY_CACHE_METHODS"))
+                .setCacheMaxBytes(longFromEnv("GATEWAY_CACHE_MAX_BYTES", DEFAULT_CACHE_MAX_BYTES))
+                .setCacheOffHeap(Boolean.parseBoolean(System.getenv("GATEWAY_CACHE_OFF_HEAP")))
+                .setSingleFlightMethods(methodsFromEnv("GATEWAY_SINGLE_FLIGHT_METHODS"))
+                .setStreamingMethods(methodsFromEnv("GATEWAY_STREAMING_METHODS"))
+                .setEventLoopThreads(intFromEnv("GATEWAY_EVENT_LOOP_THREADS", 0))
+                .setNativeTransport(!"false".equalsIgnoreCase(System.getenv("GATEWAY_NATIVE_TRANSPORT")))
+                .setFlowControlWindow(intFromEnv("GATEWAY_FLOW_CONTROL_WINDOW", DEFAULT_FLOW_CONTROL_WINDOW))
+                .setFlowControlAutoTune(!"false".equalsIgnoreCase(System.getenv("GATEWAY_FLOW_CONTROL_AUTOTUNE")))
+                .setAccessLogSampleRate(doubleFromEnv("GATEWAY_ACCESS_LOG_SAMPLE_RATE", 0.01))
+                .setAccessLogSlowThreshold(
+                        durationFromEnv("GATEWAY_ACCESS_LOG_SLOW_THRESHOLD", DEFAULT_ACCESS_LOG_SLOW_THRESHOLD))
+                .setAccessLogBufferSize(intFromEnv("GATEWAY_ACCESS_LOG_BUFFER_SIZE", DEFAULT_ACCESS_LOG_BUFFER_SIZE))
+                .setJwtPublicKey(pathFromEnv("GATEWAY_JWT_PUBLIC_KEY"))
+                .setJwtIssuer(blankToNull(System.getenv("GATEWAY_JWT_ISSUER")))
+                .setJwtAudience(blankToNull(System.getenv("GATEWAY_JWT_AUDIENCE")))
+                .setJwtCacheSize(intFromEnv("GATEWAY_JWT_CACHE_SIZE", DEFAULT_JWT_CACHE_SIZE))
+                .setDeadlineBudget(durationFromEnv("GATEWAY_DEADLINE_BUDGET", DEFAULT_DEADLINE_BUDGET))
+                .setMinBackendDeadline(
+                        durationFromEnv("GATEWAY_MIN_BACKEND_DEADLINE", DEFAULT_MIN_BACKEND_DEADLINE))
+                .setConcurrencyLimitEnabled(Boolean.parseBoolean(System.getenv("GATEWAY_CONCURRENCY_LIMIT")))
+                .setInitialConcurrencyLimit(
+                        intFromEnv("GATEWAY_CONCURRENCY_LIMIT_INITIAL", DEFAULT_INITIAL_CONCURRENCY_LIMIT))
+                .setMinConcurrencyLimit(intFromEnv("GATEWAY_CONCURRENCY_LIMIT_MIN", DEFAULT_MIN_CONCURRENCY_LIMIT))
+                .setMaxConcurrencyLimit(intFromEnv("GATEWAY_CONCURRENCY_LIMIT_MAX", DEFAULT_MAX_CONCURRENCY_LIMIT))
+                .setOutlierDetectionEnabled(!"false".equalsIgnoreCase(System.getenv("GATEWAY_OUTLIER_DETECTION")))
+                .setOutlierConsecutiveFailures(
+                        intFromEnv("GATEWAY_OUTLIER_CONSECUTIVE_FAILURES", DEFAULT_OUTLIER_CONSECUTIVE_FAILURES))
+                .setOutlierSlowCallThreshold(
+                        durationFromEnv("GATEWAY_OUTLIER_SLOW_CALL_THRESHOLD", DEFAULT_OUTLIER_SLOW_CALL_THRESHOLD))
+                .setOutlierEjectionTime(durationFromEnv("GATEWAY_OUTLIER_EJECTION_TIME", DEFAULT_OUTLIER_EJECTION_TIME))
+                .setHealthCheckInterval(durationFromEnv("GATEWAY_HEALTH_CHECK_INTERVAL", DEFAULT_HEALTH_CHECK_INTERVAL))
+                .setHealthCheckTimeout(durationFromEnv("GATEWAY_HEALTH_CHECK_TIMEOUT", DEFAULT_HEALTH_CHECK_TIMEOUT))
+                .setWarmupCalls(intFromEnv("GATEWAY_WARMUP_CALLS", DEFAULT_WARMUP_CALLS))
+                .setWarmupTimeout(durationFromEnv("GATEWAY_WARMUP_TIMEOUT", DEFAULT_WARMUP_TIMEOUT))
+                .build();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * Number of messages requested up front from each side of a proxied call. The
+     * window is replenished one message at a time as the opposite side becomes ready,
+     * so at most this many messages per direction are ever held by the gateway.
+     */
+    public int getRequestWindow() {
+        return requestWindow;
+    }
+
+    /** Upper bound on the number of method definitions the proxy registry keeps. */
+    public int getMaxCachedMethods() {
+        return maxCachedMethods;
+    }
+
+    /**
+     * HTTP/2 connections opened to each backend endpoint up front. Not used under
+     * {@link StripedChannel.Placement#EVENT_LOOP}, which opens one per event loop.
+     */
+    public int getConnectionsPerEndpoint() {
+        return connectionsPerEndpoint;
+    }
+
+    /**
+     * Connections each endpoint's pool may grow to when its connections saturate. Not
+     * used under {@link StripedChannel.Placement#EVENT_LOOP}, whose pool never grows.
+     */
+    public int getMaxConnectionsPerEndpoint() {
+        return maxConnectionsPerEndpoint;
+    }
+
+    /**
+     * Concurrent streams on one connection at which it counts as saturated. Under
+     * {@link StripedChannel.Placement#EVENT_LOOP} a call whose own loop's connection is
+     * saturated goes to the least loaded one instead of opening another.
+     */
+    public int getMaxStreamsPerConnection() {
+        return maxStreamsPerConnection;
+    }
+
+    /**
+     * How calls are spread over an endpoint's connections. {@code ROUND_ROBIN} and
+     * {@code HASHED} use a pool sized by {@link #getConnectionsPerEndpoint()}, growing
+     * to {@link #getMaxConnectionsPerEndpoint()}. {@code EVENT_LOOP} ignores both and
+     * opens one connection per event loop; see {@link #getEventLoopThreads()}.
+     */
+    public StripedChannel.Placement getStreamPlacement() {
+        return streamPlacement;
+    }
+
+    /**
+     * Unary methods whose replies the gateway caches, with the time each reply stays
+     * fresh. Callers must only list methods whose reply is a pure function of the
+     * request bytes and the target header.
+     */
+    public Map<String, Duration> getCachedMethods() {
+        return cachedMethods;
+    }
+
+    /** Upper bound on the bytes of requests and replies held by the response cache. */
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    /** Whether cached replies are stored in direct buffers outside the heap. */
+    public boolean isCacheOffHeap() {
+        return cacheOffHeap;
+    }
+
+    /**
+     * Unary methods whose identical concurrent calls share one backend call. Unlike
+     * caching this never serves a stale reply, but callers must still only list
+     * methods whose reply does not depend on per-caller metadata: the backend only
+     * sees the headers of the call that started the flight.
+     */
+    public Set<String> getSingleFlightMethods() {
+        return singleFlightMethods;
+    }
+
+    /**
+     * Streaming methods, which calls to are never held to the concurrency limit. Other
+     * calls are let go by the limit once they carry a second message either way, but
+     * a stream that idles before then would hold its place until it does.
+     */
+    public Set<String> getStreamingMethods() {
+        return streamingMethods;
+    }
+
+    /**
+     * Threads in the event-loop group shared by the gateway's servers and backend
+     * channels; 0 leaves the choice to Netty, which uses twice the number of cores.
+     */
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    /** Whether to use the native epoll transport when the platform supports it. */
+    public boolean isNativeTransport() {
+        return nativeTransport;
+    }
+
+    /**
+     * Initial HTTP/2 flow-control window, in bytes, of every connection the gateway
+     * accepts or opens. A window smaller than the bandwidth-delay product of a link
+     * stalls large messages on it.
+     */
+    public int getFlowControlWindow() {
+        return flowControlWindow;
+    }
+
+    /**
+     * Whether windows grow past {@link #getFlowControlWindow()} as Netty measures each
+     * connection's bandwidth-delay product. When off, the window stays fixed.
+     */
+    public boolean isFlowControlAutoTune() {
+        return flowControlAutoTune;
+    }
+
+    /**
+     * Fraction of successful calls written to the access log, from 0 to 1. Failed
+     * calls and calls slower than {@link #getAccessLogSlowThreshold()} are always
+     * written.
+     */
+    public double getAccessLogSampleRate() {
+        return accessLogSampleRate;
+    }
+
+    /** Duration past which a call is written to the access log whatever the sample rate. */
+    public Duration getAccessLogSlowThreshold() {
+        return accessLogSlowThreshold;
+    }
+
+    /**
+     * Entries the access log holds while its writer catches up. Entries logged while
+     * it is full are dropped and counted rather than blocking the call.
+     */
+    public int getAccessLogBufferSize() {
+        return accessLogBufferSize;
+    }
+
+    /**
+     * PEM file with the certificate or RSA public key that signs callers' bearer
+     * tokens. When set, the gateway rejects calls without a valid token; when null,
+     * calls are not authenticated.
+     */
+    @Nullable
+    public Path getJwtPublicKey() {
+        return jwtPublicKey;
+    }
+
+    /** Issuer ({@code iss}) tokens must name, or null to accept any. */
+    @Nullable
+    public String getJwtIssuer() {
+        return jwtIssuer;
+    }
+
+    /** Audience ({@code aud}) tokens must include, or null to accept any. */
+    @Nullable
+    public String getJwtAudience() {
+        return jwtAudience;
+    }
+
+    /** Verified tokens remembered until they expire, so each is checked once. */
+    public int getJwtCacheSize() {
+        return jwtCacheSize;
+    }
+
+    /**
+     * Time kept back from a caller's deadline for the gateway's own work: the
+     * backend call gets the caller's remaining time less this.
+     */
+    public Duration getDeadlineBudget() {
+        return deadlineBudget;
+    }
+
+    /**
+     * Least time a backend call may be given. Calls whose deadline leaves less, after
+     * {@link #getDeadlineBudget()}, fail with {@code DEADLINE_EXCEEDED} without
+     * reaching a backend.
+     */
+    public Duration getMinBackendDeadline() {
+        return minBackendDeadline;
+    }
+
+    /**
+     * Whether calls to each backend target are capped by a {@link ConcurrencyLimiter}
+     * that adapts to the backend's latency. Calls over the cap fail with
+     * {@code RESOURCE_EXHAUSTED}. Streams are not capped; see {@link #getStreamingMethods()}.
+     */
+    public boolean isConcurrencyLimitEnabled() {
+        return concurrencyLimitEnabled;
+    }
+
+    /** Calls each backend may have open before its latency has been measured. */
+    public int getInitialConcurrencyLimit() {
+        return initialConcurrencyLimit;
+    }
+
+    /** Calls each backend may have open however slow it gets. */
+    public int getMinConcurrencyLimit() {
+        return minConcurrencyLimit;
+    }
+
+    /** Calls each backend may have open however fast it is. */
+    public int getMaxConcurrencyLimit() {
+        return maxConcurrencyLimit;
+    }
+
+    /**
+     * Whether replicas that fail {@link #getOutlierConsecutiveFailures()} calls in a row
+     * are taken out of rotation for a while. See {@link OutlierDetection}.
+     */
+    public boolean isOutlierDetectionEnabled() {
+        return outlierDetectionEnabled;
+    }
+
+    public int getOutlierConsecutiveFailures() {
+        return outlierConsecutiveFailures;
+    }
+
+    /**
+     * Calls whose backend takes longer than this to answer count as failures; zero turns
+     * this off. Streams are not timed; see {@link OutlierDetection}.
+     */
+    public Duration getOutlierSlowCallThreshold() {
+        return outlierSlowCallThreshold;
+    }
+
+    /** How long a replica is ejected for the first time; repeat ejections last longer. */
+    public Duration getOutlierEjectionTime() {
+        return outlierEjectionTime;
+    }
+
+    /**
+     * How often each replica is asked for its {@code grpc.health.v1} status by a
+     * {@link HealthChecker}. Zero turns probing off.
+     */
+    public Duration getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    /** How long a health probe may take, at most {@link #getHealthCheckInterval()}. */
+    public Duration getHealthCheckTimeout() {
+        return healthCheckTimeout;
+    }
+
+    /**
+     * Synthetic calls a {@link WarmUp} sends through the proxy before the gateway reports
+     * ready, so the proxy path is compiled before real traffic arrives. Zero skips them.
+     */
+    public int getWarmupCalls() {
+        return warmupCalls;
+    }
+
+    /** How long the warm-up may take before the gateway reports ready regardless. */
+    public Duration getWarmupTimeout() {
+        return warmupTimeout;
+    }
+
+    @Nullable
+    static Path pathFromEnv(String name) {
+        String value = blankToNull(System.getenv(name));
+        return value == null ? null : Paths.get(value.trim());
+    }
+
+    @Nullable
+    private static String blankToNull(@Nullable String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    static <E extends Enum<E>> E enumFromEnv(String name, E defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(name + " is not a valid " + defaultValue.getDeclaringClass()
+                    .getSimpleName() + ": " + value, e);
+        }
+    }
+
+    static long longFromEnv(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer, got: " + value, e);
+        }
+    }
+
+    static double doubleFromEnv(String name, double defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number, got: " + value, e);
+        }
+    }
+
+    static Duration durationFromEnv(String name, Duration defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return parseDuration(name, value.trim());
+    }
+
+    // Parses "pkg.Service/Method,pkg.Service/Other"
+    static Set<String> methodsFromEnv(String name) {
+        Set<String> methods = new LinkedHashSet<>();
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return methods;
+        }
+        for (String method : value.split(",")) {
+            if (!method.isBlank()) {
+                methods.add(method.trim());
+            }
+        }
+        return methods;
+    }
+
+    // Parses "pkg.Service/Method=30s,pkg.Service/Other=500ms"; a bare number is seconds
+    static Map<String, Duration> methodDurationsFromEnv(String name) {
+        Map<String, Duration> durations = new LinkedHashMap<>();
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return durations;
+        }
+        for (String entry : value.split(",")) {
+            int eq = entry.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException(name + " entries must look like method=duration, got: " + entry);
+            }
+            durations.put(entry.substring(0, eq).trim(), parseDuration(name, entry.substring(eq + 1).trim()));
+        }
+        return durations;
+    }
+
+    private static Duration parseDuration(String name, String value) {
+        try {
+            if (value.endsWith("ms")) {
+                return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+            } else if (value.endsWith("s")) {
+                return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1)));
+            } else if (value.endsWith("m")) {
+                return Duration.ofMinutes(Long.parseLong(value.substring(0, value.length() - 1)));
+            } else if (value.endsWith("h")) {
+                return Duration.ofHours(Long.parseLong(value.substring(0, value.length() - 1)));
+            }
+            return Duration.ofSeconds(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " has an invalid duration: " + value, e);
+        }
+    }
+
+    static int intFromEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer, got: " + value, e);
+        }
+    }
+
+    public static final class Builder {
+        private int requestWindow = DEFAULT_REQUEST_WINDOW;
+        private int maxCachedMethods = DEFAULT_MAX_CACHED_METHODS;
+        private int connectionsPerEndpoint = DEFAULT_CONNECTIONS_PER_ENDPOINT;
+        private int maxConnectionsPerEndpoint = DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT;
+        private int maxStreamsPerConnection = DEFAULT_MAX_STREAMS_PER_CONNECTION;
+        private StripedChannel.Placement streamPlacement = StripedChannel.Placement.ROUND_ROBIN;
+        private Map<String, Duration> cachedMethods = Map.of();
+        private long cacheMaxBytes = DEFAULT_CACHE_MAX_BYTES;
+        private boolean cacheOffHeap;
+        private Set<String> singleFlightMethods = Set.of();
+        private Set<String> streamingMethods = Set.of();
+        private int eventLoopThreads;
+        private boolean nativeTransport = true;
+        private int flowControlWindow = DEFAULT_FLOW_CONTROL_WINDOW;
+        private boolean flowControlAutoTune = true;
+        // Only failed and slow calls unless asked, so tests and benchmarks stay quiet
+        private double accessLogSampleRate;
+        private Duration accessLogSlowThreshold = DEFAULT_ACCESS_LOG_SLOW_THRESHOLD;
+        private int accessLogBufferSize = DEFAULT_ACCESS_LOG_BUFFER_SIZE;
+        @Nullable
+        private Path jwtPublicKey;
+        @Nullable
+        private String jwtIssuer;
+        @Nullable
+        private String jwtAudience;
+        private int jwtCacheSize = DEFAULT_JWT_CACHE_SIZE;
+        private Duration deadlineBudget = DEFAULT_DEADLINE_BUDGET;
+        private Duration minBackendDeadline = DEFAULT_MIN_BACKEND_DEADLINE;
+        private boolean concurrencyLimitEnabled;
+        private int initialConcurrencyLimit = DEFAULT_INITIAL_CONCURRENCY_LIMIT;
+        private int minConcurrencyLimit = DEFAULT_MIN_CONCURRENCY_LIMIT;
+        private int maxConcurrencyLimit = DEFAULT_MAX_CONCURRENCY_LIMIT;
+        private boolean outlierDetectionEnabled;
+        private int outlierConsecutiveFailures = DEFAULT_OUTLIER_CONSECUTIVE_FAILURES;
+        private Duration outlierSlowCallThreshold = DEFAULT_OUTLIER_SLOW_CALL_THRESHOLD;
+        private Duration outlierEjectionTime = DEFAULT_OUTLIER_EJECTION_TIME;
+        private Duration healthCheckInterval = DEFAULT_HEALTH_CHECK_INTERVAL;
+        private Duration healthCheckTimeout = DEFAULT_HEALTH_CHECK_TIMEOUT;
+        private int warmupCalls = DEFAULT_WARMUP_CALLS;
+        private Duration warmupTimeout = DEFAULT_WARMUP_TIMEOUT;
+
+        private Builder() {
+        }
+
+        public Builder setRequestWindow(int requestWindow) {
+            if (requestWindow < 1) {
+                throw new IllegalArgumentException("requestWindow must be positive: " + requestWindow);
+            }
+            this.requestWindow = requestWindow;
+            return this;
+        }
+
+        public Builder setMaxCachedMethods(int maxCachedMethods) {
+            if (maxCachedMethods < 0) {
+                throw new IllegalArgumentException("maxCachedMethods must not be negative: " + maxCachedMethods);
+            }
+            this.maxCachedMethods = maxCachedMethods;
+            return this;
+        }
+
+        public Builder setConnectionsPerEndpoint(int connectionsPerEndpoint) {
+            if (connectionsPerEndpoint < 1) {
+                throw new IllegalArgumentException(
+                        "connectionsPerEndpoint must be positive: " + connectionsPerEndpoint);
+            }
+            this.connectionsPerEndpoint = connectionsPerEndpoint;
+            return this;
+        }
+
+        public Builder setMaxConnectionsPerEndpoint(int maxConnectionsPerEndpoint) {
+            if (maxConnectionsPerEndpoint < 1) {
+                throw new IllegalArgumentException(
+                        "maxConnectionsPerEndpoint must be positive: " + maxConnectionsPerEndpoint);
+            }
+            this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+            return this;
+        }
+
+        public Builder setMaxStreamsPerConnection(int maxStreamsPerConnection) {
+            if (maxStreamsPerConnection < 1) {
+                throw new IllegalArgumentException(
+                        "maxStreamsPerConnection must be positive: " + maxStreamsPerConnection);
+            }
+            this.maxStreamsPerConnection = maxStreamsPerConnection;
+            return this;
+        }
+
+        public Builder setStreamPlacement(StripedChannel.Placement streamPlacement) {
+            this.streamPlacement = streamPlacement;
+            return this;
+        }
+
+        public Builder setCachedMethods(Map<String, Duration> cachedMethods) {
+            for (Map.Entry<String, Duration> entry : cachedMethods.entrySet()) {
+                if (entry.getValue().isNegative() || entry.getValue().isZero()) {
+                    throw new IllegalArgumentException("Cache TTL for " + entry.getKey() + " must be positive");
+                }
+            }
+            this.cachedMethods = cachedMethods;
+            return this;
+        }
+
+        public Builder setCacheMaxBytes(long cacheMaxBytes) {
+            if (cacheMaxBytes < 0) {
+                throw new IllegalArgumentException("cacheMaxBytes must not be negative: " + cacheMaxBytes);
+            }
+            this.cacheMaxBytes = cacheMaxBytes;
+            return this;
+        }
+
+        public Builder setCacheOffHeap(boolean cacheOffHeap) {
+            this.cacheOffHeap = cacheOffHeap;
+            return this;
+        }
+
+        public Builder setSingleFlightMethods(Set<String> singleFlightMethods) {
+            this.singleFlightMethods = singleFlightMethods;
+            return this;
+        }
+
+        public Builder setStreamingMethods(Set<String> streamingMethods) {
+            this.streamingMethods = streamingMethods;
+            return this;
+        }
+
+        public Builder setEventLoopThreads(int eventLoopThreads) {
+            if (eventLoopThreads < 0) {
+                throw new IllegalArgumentException("eventLoopThreads must not be negative: " + eventLoopThreads);
+            }
+            this.eventLoopThreads = eventLoopThreads;
+            return this;
+        }
+
+        public Builder setNativeTransport(boolean nativeTransport) {
+            this.nativeTransport = nativeTransport;
+            return this;
+        }
+
+        public Builder setFlowControlWindow(int flowControlWindow) {
+            if (flowControlWindow < 1) {
+                throw new IllegalArgumentException("flowControlWindow must be positive: " + flowControlWindow);
+            }
+            this.flowControlWindow = flowControlWindow;
+            return this;
+        }
+
+        public Builder setFlowControlAutoTune(boolean flowControlAutoTune) {
+            this.flowControlAutoTune = flowControlAutoTune;
+            return this;
+        }
+
+        public Builder setAccessLogSampleRate(double accessLogSampleRate) {
+            if (!(accessLogSampleRate >= 0 && accessLogSampleRate <= 1)) {
+                throw new IllegalArgumentException(
+                        "accessLogSampleRate must be between 0 and 1: " + accessLogSampleRate);
+            }
+            this.accessLogSampleRate = accessLogSampleRate;
+            return this;
+        }
+
+        public Builder setAccessLogSlowThreshold(Duration accessLogSlowThreshold) {
+            if (accessLogSlowThreshold.isNegative()) {
+                throw new IllegalArgumentException(
+                        "accessLogSlowThreshold must not be negative: " + accessLogSlowThreshold);
+            }
+            this.accessLogSlowThreshold = accessLogSlowThreshold;
+            return this;
+        }
+
+        public Builder setAccessLogBufferSize(int accessLogBufferSize) {
+            if (accessLogBufferSize < 1) {
+                throw new IllegalArgumentException(
+                        "accessLogBufferSize must be positive: " + accessLogBufferSize);
+            }
+            this.accessLogBufferSize = accessLogBufferSize;
+            return this;
+        }
+
+        public Builder setJwtPublicKey(@Nullable Path jwtPublicKey) {
+            this.jwtPublicKey = jwtPublicKey;
+            return this;
+        }
+
+        public Builder setJwtIssuer(@Nullable String jwtIssuer) {
+            this.jwtIssuer = jwtIssuer;
+            return this;
+        }
+
+        public Builder setJwtAudience(@Nullable String jwtAudience) {
+            this.jwtAudience = jwtAudience;
+            return this;
+        }
+
+        public Builder setJwtCacheSize(int jwtCacheSize) {
+            if (jwtCacheSize < 0) {
+                throw new IllegalArgumentException("jwtCacheSize must not be negative: " + jwtCacheSize);
+            }
+            this.jwtCacheSize = jwtCacheSize;
+            return this;
+        }
+
+        public Builder setDeadlineBudget(Duration deadlineBudget) {
+            if (deadlineBudget.isNegative()) {
+                throw new IllegalArgumentException("deadlineBudget must not be negative: " + deadlineBudget);
+            }
+            this.deadlineBudget = deadlineBudget;
+            return this;
+        }
+
+        public Builder setMinBackendDeadline(Duration minBackendDeadline) {
+            if (minBackendDeadline.isNegative()) {
+                throw new IllegalArgumentException(
+                        "minBackendDeadline must not be negative: " + minBackendDeadline);
+            }
+            this.minBackendDeadline = minBackendDeadline;
+            return this;
+        }
+
+        public Builder setConcurrencyLimitEnabled(boolean concurrencyLimitEnabled) {
+            this.concurrencyLimitEnabled = concurrencyLimitEnabled;
+            return this;
+        }
+
+        public Builder setInitialConcurrencyLimit(int initialConcurrencyLimit) {
+            if (initialConcurrencyLimit < 1) {
+                throw new IllegalArgumentException(
+                        "initialConcurrencyLimit must be positive: " + initialConcurrencyLimit);
+            }
+            this.initialConcurrencyLimit = initialConcurrencyLimit;
+            return this;
+        }
+
+        public Builder setMinConcurrencyLimit(int minConcurrencyLimit) {
+            if (minConcurrencyLimit < 1) {
+                throw new IllegalArgumentException("minConcurrencyLimit must be positive: " + minConcurrencyLimit);
+            }
+            this.minConcurrencyLimit = minConcurrencyLimit;
+            return this;
+        }
+
+        public Builder setMaxConcurrencyLimit(int maxConcurrencyLimit) {
+            if (maxConcurrencyLimit < 1) {
+                throw new IllegalArgumentException("maxConcurrencyLimit must be positive: " + maxConcurrencyLimit);
+            }
+            this.maxConcurrencyLimit = maxConcurrencyLimit;
+            return this;
+        }
+
+        public Builder setOutlierDetectionEnabled(boolean outlierDetectionEnabled) {
+            this.outlierDetectionEnabled = outlierDetectionEnabled;
+            return this;
+        }
+
+        public Builder setOutlierConsecutiveFailures(int outlierConsecutiveFailures) {
+            if (outlierConsecutiveFailures < 1) {
+                throw new IllegalArgumentException(
+                        "outlierConsecutiveFailures must be positive: " + outlierConsecutiveFailures);
+            }
+            this.outlierConsecutiveFailures = outlierConsecutiveFailures;
+            return this;
+        }
+
+        public Builder setOutlierSlowCallThreshold(Duration outlierSlowCallThreshold) {
+            if (outlierSlowCallThreshold.isNegative()) {
+                throw new IllegalArgumentException(
+                        "outlierSlowCallThreshold must not be negative: " + outlierSlowCallThreshold);
+            }
+            this.outlierSlowCallThreshold = outlierSlowCallThreshold;
+            return this;
+        }
+
+        public Builder setOutlierEjectionTime(Duration outlierEjectionTime) {
+            if (outlierEjectionTime.isNegative() || outlierEjectionTime.isZero()) {
+                throw new IllegalArgumentException("outlierEjectionTime must be positive: " + outlierEjectionTime);
+            }
+            this.outlierEjectionTime = outlierEjectionTime;
+            return this;
+        }
+
+        public Builder setHealthCheckInterval(Duration healthCheckInterval) {
+            if (healthCheckInterval.isNegative()) {
+                throw new IllegalArgumentException("healthCheckInterval must not be negative: " + healthCheckInterval);
+            }
+            this.healthCheckInterval = healthCheckInterval;
+            return this;
+        }
+
+        public Builder setHealthCheckTimeout(Duration healthCheckTimeout) {
+            if (healthCheckTimeout.isNegative() || healthCheckTimeout.isZero()) {
+                throw new IllegalArgumentException("healthCheckTimeout must be positive: " + healthCheckTimeout);
+            }
+            this.healthCheckTimeout = healthCheckTimeout;
+            return this;
+        }
+
+        public Builder setWarmupCalls(int warmupCalls) {
+            if (warmupCalls < 0) {
+                throw new IllegalArgumentException("warmupCalls must not be negative: " + warmupCalls);
+            }
+            this.warmupCalls = warmupCalls;
+            return this;
+        }
+
+        public Builder setWarmupTimeout(Duration warmupTimeout) {
+            if (warmupTimeout.isNegative() || warmupTimeout.isZero()) {
+                throw new IllegalArgumentException("warmupTimeout must be positive: " + warmupTimeout);
+            }
+            this.warmupTimeout = warmupTimeout;
+            return this;
+        }
+
+        public ProxyConfig build() {
+            return new ProxyConfig(this);
+        }
+    }
+}
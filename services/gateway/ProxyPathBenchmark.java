@@ -0,0 +1,223 @@
+package services.gateway;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One message through a server made by {@link GatewayServer#buildGrpcServer}, as a
+ * unary call and as one round trip on an already open bidi stream, over in-process
+ * transports and over Netty loopback.
+ *
+ * <p>{@code BACKEND} calls the echo backend directly and {@code GATEWAY} calls it
+ * through the proxy, so the difference between the two is the proxy's overhead.
+ * Throughput mode reports ops/s and sample mode the latency percentiles.
+ *
+ * <p>Run with {@code bazel run //services/gateway:gateway_benchmarks -- ProxyPathBenchmark}.
+ * Add {@code -rf json -rff baseline.json} to keep a run to compare later changes with.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ProxyPathBenchmark {
+    private static final int PAYLOAD_SIZE = 256;
+
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> UNARY = method(MethodDescriptor.MethodType.UNARY, "Unary");
+    private static final MethodDescriptor<byte[], byte[]> BIDI = method(
+            MethodDescriptor.MethodType.BIDI_STREAMING, "Bidi");
+
+    public enum Transport {
+        IN_PROCESS,
+        NETTY,
+    }
+
+    public enum Hop {
+        BACKEND,
+        GATEWAY,
+    }
+
+    @Param({"IN_PROCESS", "NETTY"})
+    public Transport transport;
+
+    @Param({"BACKEND", "GATEWAY"})
+    public Hop hop;
+
+    private Server backend;
+    private ManagedChannel backendChannel;
+    private EventLoops eventLoops;
+    private Server gateway;
+    private ManagedChannel client;
+    // The client channel with the routing header attached, which the backend ignores
+    private Channel channel;
+    private StreamObserver<byte[]> stream;
+    private final BlockingQueue<byte[]> streamReplies = new ArrayBlockingQueue<>(1);
+    private byte[] payload;
+
+    @Setup
+    public void setUp() throws Exception {
+        payload = new byte[PAYLOAD_SIZE];
+        ThreadLocalRandom.current().nextBytes(payload);
+
+        ProxyConfig config = ProxyConfig.newBuilder()
+                .setStreamPlacement(StripedChannel.Placement.EVENT_LOOP)
+                .build();
+        if (transport == Transport.IN_PROCESS) {
+            String backendName = InProcessServerBuilder.generateName();
+            backend = InProcessServerBuilder.forName(backendName).directExecutor()
+                    .addService(echoService())
+                    .build()
+                    .start();
+            backendChannel = InProcessChannelBuilder.forName(backendName).directExecutor().build();
+            String gatewayName = InProcessServerBuilder.generateName();
+            gateway = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName).directExecutor(),
+                    Map.of("echo", backendChannel), config).start();
+            client = InProcessChannelBuilder.forName(hop == Hop.GATEWAY ? gatewayName : backendName)
+                    .directExecutor()
+                    .build();
+        } else {
+            backend = ServerBuilder.forPort(0).directExecutor()
+                    .addService(echoService())
+                    .build()
+                    .start();
+            // The gateway as main builds it: shared event loops, one backend connection per loop
+            eventLoops = EventLoops.create(config);
+            backendChannel = GatewayServer.pinnedChannel("localhost:" + backend.getPort(), eventLoops, config);
+            gateway = GatewayServer.buildGrpcServer(eventLoops.serverBuilder(0).directExecutor(),
+                    Map.of("echo", backendChannel), config).start();
+            client = ManagedChannelBuilder.forAddress("localhost",
+                    hop == Hop.GATEWAY ? gateway.getPort() : backend.getPort())
+                    .usePlaintext()
+                    .build();
+        }
+
+        Metadata headers = new Metadata();
+        headers.put(GatewayServer.TARGET_HEADER_KEY, "echo");
+        channel = ClientInterceptors.intercept(client, MetadataUtils.newAttachHeadersInterceptor(headers));
+        stream = ClientCalls.asyncBidiStreamingCall(channel.newCall(BIDI, CallOptions.DEFAULT),
+                new StreamObserver<byte[]>() {
+                    @Override
+                    public void onNext(byte[] reply) {
+                        streamReplies.add(reply);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        throw new IllegalStateException("Bidi stream failed", t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        stream.onCompleted();
+        client.shutdownNow();
+        gateway.shutdownNow().awaitTermination();
+        backendChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        backend.shutdownNow().awaitTermination();
+        if (eventLoops != null) {
+            eventLoops.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] unary() {
+        return ClientCalls.blockingUnaryCall(channel, UNARY, CallOptions.DEFAULT, payload);
+    }
+
+    @Benchmark
+    public byte[] streamingRoundTrip() throws InterruptedException {
+        stream.onNext(payload);
+        return streamReplies.take();
+    }
+
+    private static ServerServiceDefinition echoService() {
+        return ServerServiceDefinition.builder("bench.Echo")
+                .addMethod(UNARY, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                    responseObserver.onNext(request);
+                    responseObserver.onCompleted();
+                }))
+                .addMethod(BIDI, ServerCalls.asyncBidiStreamingCall(responseObserver -> new StreamObserver<byte[]>() {
+                    @Override
+                    public void onNext(byte[] value) {
+                        responseObserver.onNext(value);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        // The client went away; there is nobody left to reply to
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        responseObserver.onCompleted();
+                    }
+                }))
+                .build();
+    }
+
+    private static MethodDescriptor<byte[], byte[]> method(MethodDescriptor.MethodType type, String name) {
+        return MethodDescriptor.<byte[], byte[]>newBuilder()
+                .setType(type)
+                .setFullMethodName(MethodDescriptor.generateFullMethodName("bench.Echo", name))
+                .setRequestMarshaller(BYTES)
+                .setResponseMarshaller(BYTES)
+                .build();
+    }
+}
@@ -0,0 +1,53 @@
+package services.gateway;
+
+import java.util.Arrays;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Identity of a unary request as far as the gateway can tell: method,
+ * {@code x-backend-target} and the exact request bytes. Two calls with equal keys
+ * get the same reply from an idempotent backend.
+ */
+final class RequestKey {
+    private final String method;
+    @Nullable
+    private final String target;
+    private final byte[] request;
+    private final int hash;
+
+    RequestKey(String method, @Nullable String target, byte[] request) {
+        this.method = method;
+        this.target = target;
+        this.request = request;
+        this.hash = 31 * Objects.hash(method, target) + Arrays.hashCode(request);
+    }
+
+    String method() {
+        return method;
+    }
+
+    byte[] request() {
+        return request;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RequestKey)) {
+            return false;
+        }
+        RequestKey other = (RequestKey) o;
+        return hash == other.hash
+                && method.equals(other.method)
+                && Objects.equals(target, other.target)
+                && Arrays.equals(request, other.request);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,112 @@
+package services.gateway;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Replies of idempotent unary methods, keyed by method, {@code x-backend-target}
+ * and the exact request bytes.
+ *
+ * <p>Entries are bounded by their total size in bytes and evicted with Caffeine's
+ * W-TinyLFU policy, so a burst of one-off requests cannot flush the hot keys. Each
+ * method has its own TTL. With {@code offHeap}, reply bytes live in direct buffers
+ * so a large cache adds little to the heap the collector has to trace.
+ */
+final class ResponseCache {
+    private final Cache<RequestKey, Entry> cache;
+    private final Map<String, Duration> ttls;
+    private final boolean offHeap;
+
+    ResponseCache(Map<String, Duration> ttls, long maxBytes, boolean offHeap) {
+        this.ttls = Map.copyOf(ttls);
+        this.offHeap = offHeap;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((RequestKey key, Entry entry) -> key.request().length + entry.size())
+                .expireAfter(new Expiry<RequestKey, Entry>() {
+                    @Override
+                    public long expireAfterCreate(RequestKey key, Entry entry, long currentTime) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(RequestKey key, Entry entry, long currentTime, long currentDuration) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(RequestKey key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /** Returns the cache configured by {@code config}, or null when no method is cached. */
+    @Nullable
+    static ResponseCache create(ProxyConfig config) {
+        if (config.getCachedMethods().isEmpty()) {
+            return null;
+        }
+        return new ResponseCache(config.getCachedMethods(), config.getCacheMaxBytes(), config.isCacheOffHeap());
+    }
+
+    boolean isCached(String fullMethodName) {
+        return ttls.containsKey(fullMethodName);
+    }
+
+    /** Returns a fresh stream over the cached reply, or null on a miss. */
+    @Nullable
+    InputStream lookup(RequestKey key) {
+        Entry entry = cache.getIfPresent(key);
+        return entry == null ? null : entry.openStream();
+    }
+
+    void put(RequestKey key, byte[] response) {
+        Duration ttl = ttls.get(key.method());
+        if (ttl == null) {
+            return;
+        }
+        cache.put(key, new Entry(response, ttl.toNanos(), offHeap));
+    }
+
+    CacheStats stats() {
+        return cache.stats();
+    }
+
+    long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    private static final class Entry {
+        private final ByteBuffer reply;
+        private final long ttlNanos;
+
+        Entry(byte[] reply, long ttlNanos, boolean offHeap) {
+            if (offHeap) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(reply.length);
+                direct.put(reply).flip();
+                this.reply = direct.asReadOnlyBuffer();
+            } else {
+                this.reply = ByteBuffer.wrap(reply).asReadOnlyBuffer();
+            }
+            this.ttlNanos = ttlNanos;
+        }
+
+        int size() {
+            return reply.remaining();
+        }
+
+        InputStream openStream() {
+            return new ByteBufferInputStream(reply.duplicate());
+        }
+    }
+}
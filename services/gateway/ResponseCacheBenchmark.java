@@ -0,0 +1,142 @@
+package services.gateway;
+
+import calculator.CalculatorGrpc;
+import calculator.CalculatorOuterClass.SumReply;
+import calculator.CalculatorOuterClass.SumRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Calculator Sum calls with Zipf-distributed operands through an in-process gateway,
+ * with and without the response cache.
+ *
+ * <p>The {@code backendCalls} counter is the number of calls that reached the backend;
+ * divided by the operation count it is the fraction of traffic the cache did not
+ * absorb.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResponseCacheBenchmark {
+
+    @Param({"false", "true"})
+    public boolean cacheEnabled;
+
+    @Param({"100000"})
+    public int distinctKeys;
+
+    @Param({"0.99"})
+    public double zipfExponent;
+
+    private final AtomicLong backendCalls = new AtomicLong();
+
+    private Server backend;
+    private ManagedChannel backendChannel;
+    private Server gateway;
+    private ManagedChannel gatewayChannel;
+    private CalculatorGrpc.CalculatorBlockingStub stub;
+    private double[] cumulativeProbability;
+
+    @Setup
+    public void setUp() throws Exception {
+        String backendName = InProcessServerBuilder.generateName();
+        backend = InProcessServerBuilder.forName(backendName)
+                .directExecutor()
+                .addService(new CalculatorGrpc.CalculatorImplBase() {
+                    @Override
+                    public void sum(SumRequest request, StreamObserver<SumReply> responseObserver) {
+                        backendCalls.incrementAndGet();
+                        responseObserver.onNext(SumReply.newBuilder().setResult(request.getA() + request.getB()).build());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        backendChannel = InProcessChannelBuilder.forName(backendName).directExecutor().build();
+
+        ProxyConfig.Builder config = ProxyConfig.newBuilder();
+        if (cacheEnabled) {
+            config.setCachedMethods(Map.of("calculator.Calculator/Sum", Duration.ofMinutes(10)));
+        }
+        String gatewayName = InProcessServerBuilder.generateName();
+        gateway = GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName),
+                Map.of("calculator", backendChannel), config.build()).start();
+        gatewayChannel = InProcessChannelBuilder.forName(gatewayName).build();
+
+        Metadata headers = new Metadata();
+        headers.put(GatewayServer.TARGET_HEADER_KEY, "calculator");
+        stub = CalculatorGrpc.newBlockingStub(gatewayChannel)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+
+        cumulativeProbability = zipfCdf(distinctKeys, zipfExponent);
+    }
+
+    @TearDown
+    public void tearDown() {
+        gatewayChannel.shutdownNow();
+        gateway.shutdownNow();
+        backendChannel.shutdownNow();
+        backend.shutdownNow();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long backendCalls;
+    }
+
+    @Benchmark
+    public int sum(Counters counters) {
+        int key = nextKey();
+        // Benchmarks run single-threaded, so the delta is this call's own backend traffic
+        long before = backendCalls.get();
+        int result = stub.sum(SumRequest.newBuilder().setA(key).setB(1).build()).getResult();
+        counters.backendCalls += backendCalls.get() - before;
+        return result;
+    }
+
+    private int nextKey() {
+        int index = Arrays.binarySearch(cumulativeProbability, ThreadLocalRandom.current().nextDouble());
+        return index >= 0 ? index : Math.min(-index - 1, cumulativeProbability.length - 1);
+    }
+
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double total = 0;
+        for (int k = 0; k < n; k++) {
+            total += 1.0 / Math.pow(k + 1, exponent);
+            cdf[k] = total;
+        }
+        for (int k = 0; k < n; k++) {
+            cdf[k] /= total;
+        }
+        return cdf;
+    }
+}
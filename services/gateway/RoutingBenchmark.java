@@ -0,0 +1,177 @@
+package services.gateway;
+
+import io.grpc.Attributes;
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-call overhead of dispatching a proxied call: resolving the method in the
+ * fallback registry and running the routing interceptor.
+ *
+ * <p>{@code uncached*} reproduce the registry and interceptor as they were before
+ * method definitions were cached and routing was precomputed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RoutingBenchmark {
+    private static final String METHOD = "calculator.Calculator/Sum";
+    private static final Context.Key<ManagedChannel> UNCACHED_TARGET_CHANNEL = Context.key("target-channel");
+
+    private static final ServerCallHandler<InputStream, InputStream> NOOP_HANDLER =
+            (call, headers) -> new ServerCall.Listener<InputStream>() {
+            };
+
+    private final Map<String, ManagedChannel> channelMap = new HashMap<>();
+    private final Metadata headers = new Metadata();
+
+    private GatewayServer.GenericProxyRegistry registry;
+    private ServerInterceptor interceptor;
+    private ServerInterceptor uncachedInterceptor;
+    private ServerCall<InputStream, InputStream> call;
+
+    @Setup
+    public void setUp() {
+        // Channels are never used to start a call here, so they need not point anywhere real
+        channelMap.put("greeter", InProcessChannelBuilder.forName("greeter").build());
+        channelMap.put("calculator", InProcessChannelBuilder.forName("calculator").build());
+        headers.put(GatewayServer.TARGET_HEADER_KEY, "calculator");
+
+        registry = new GatewayServer.GenericProxyRegistry(ProxyConfig.defaults());
+        interceptor = new GatewayServer.RoutingInterceptor(RoutingTable.of(channelMap));
+        uncachedInterceptor = new UncachedRoutingInterceptor(channelMap);
+        call = new NoopServerCall();
+    }
+
+    @TearDown
+    public void tearDown() {
+        channelMap.values().forEach(ManagedChannel::shutdownNow);
+    }
+
+    @Benchmark
+    public ServerCall.Listener<InputStream> cached() {
+        registry.lookupMethod(METHOD, null);
+        return interceptor.interceptCall(call, headers, NOOP_HANDLER);
+    }
+
+    @Benchmark
+    public ServerCall.Listener<InputStream> uncached() {
+        uncachedLookupMethod(METHOD);
+        return uncachedInterceptor.interceptCall(call, headers, NOOP_HANDLER);
+    }
+
+    @Benchmark
+    public ServerCall.Listener<InputStream> interceptorOnly() {
+        return interceptor.interceptCall(call, headers, NOOP_HANDLER);
+    }
+
+    @Benchmark
+    public ServerCall.Listener<InputStream> uncachedInterceptorOnly() {
+        return uncachedInterceptor.interceptCall(call, headers, NOOP_HANDLER);
+    }
+
+    @Benchmark
+    public ServerMethodDefinition<?, ?> cachedLookupOnly() {
+        return registry.lookupMethod(METHOD, null);
+    }
+
+    @Benchmark
+    public ServerMethodDefinition<?, ?> uncachedLookupOnly() {
+        return uncachedLookupMethod(METHOD);
+    }
+
+    private static ServerMethodDefinition<?, ?> uncachedLookupMethod(String methodName) {
+        MethodDescriptor<InputStream, InputStream> methodDescriptor = MethodDescriptor
+                .<InputStream, InputStream>newBuilder()
+                .setType(MethodDescriptor.MethodType.UNKNOWN)
+                .setFullMethodName(methodName)
+                .setRequestMarshaller(new GatewayServer.InputStreamMarshaller())
+                .setResponseMarshaller(new GatewayServer.InputStreamMarshaller())
+                .build();
+        return ServerMethodDefinition.create(methodDescriptor,
+                new GatewayServer.GatewayServerCallHandler(methodDescriptor));
+    }
+
+    private static final class UncachedRoutingInterceptor implements ServerInterceptor {
+        private final Map<String, ManagedChannel> channelMap;
+
+        UncachedRoutingInterceptor(Map<String, ManagedChannel> channelMap) {
+            this.channelMap = channelMap;
+        }
+
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+            String target = headers.get(GatewayServer.TARGET_HEADER_KEY);
+            ManagedChannel selected = channelMap.values().stream().findFirst().orElse(null);
+            if (channelMap.containsKey("greeter")) {
+                selected = channelMap.get("greeter");
+            }
+            if (target != null && channelMap.containsKey(target)) {
+                selected = channelMap.get(target);
+            }
+            Context ctx = Context.current().withValue(UNCACHED_TARGET_CHANNEL, selected);
+            return Contexts.interceptCall(ctx, call, headers, next);
+        }
+    }
+
+    private static final class NoopServerCall extends ServerCall<InputStream, InputStream> {
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void sendHeaders(Metadata headers) {
+        }
+
+        @Override
+        public void sendMessage(InputStream message) {
+        }
+
+        @Override
+        public void close(Status status, Metadata trailers) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public Attributes getAttributes() {
+            return Attributes.EMPTY;
+        }
+
+        @Override
+        public MethodDescriptor<InputStream, InputStream> getMethodDescriptor() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package services.gateway;
+
+import io.grpc.ManagedChannel;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Immutable {@code x-backend-target} to {@link Backend} mapping, resolved once when
+ * the server is built so that routing a call is a single map lookup.
+ */
+final class RoutingTable {
+    // Calls without a (known) target header go here, matching the original gateway
+    static final String DEFAULT_TARGET = "greeter";
+
+    private final Map<String, Backend> backends;
+    @Nullable
+    private final Backend defaultBackend;
+
+    private RoutingTable(Map<String, Backend> backends, @Nullable Backend defaultBackend) {
+        this.backends = backends;
+        this.defaultBackend = defaultBackend;
+    }
+
+    /** One endpoint per target. */
+    static RoutingTable of(Map<String, ManagedChannel> channelMap) {
+        Map<String, List<ManagedChannel>> endpoints = new LinkedHashMap<>();
+        channelMap.forEach((target, channel) -> endpoints.put(target, List.of(channel)));
+        return forEndpoints(endpoints, Backend.Policy.POWER_OF_TWO_CHOICES);
+    }
+
+    /** Any number of replicas per target, balanced with {@code policy}. */
+    static RoutingTable forEndpoints(Map<String, ? extends List<? extends ManagedChannel>> endpoints,
+            Backend.Policy policy) {
+        return forEndpoints(endpoints, policy, OutlierDetection.DISABLED);
+    }
+
+    /** As above, taking replicas that {@code outliers} judges bad out of rotation for a while. */
+    static RoutingTable forEndpoints(Map<String, ? extends List<? extends ManagedChannel>> endpoints,
+            Backend.Policy policy, OutlierDetection outliers) {
+        Map<String, Backend> backends = new HashMap<>();
+        Backend first = null;
+        for (Map.Entry<String, ? extends List<? extends ManagedChannel>> entry : endpoints.entrySet()) {
+            Backend backend = new Backend(entry.getKey(), entry.getValue(), policy, outliers);
+            backends.put(entry.getKey(), backend);
+            if (first == null) {
+                first = backend;
+            }
+        }
+        Backend defaultBackend = backends.get(DEFAULT_TARGET);
+        if (defaultBackend == null) {
+            // Fall back to the first target the caller registered
+            defaultBackend = first;
+        }
+        return new RoutingTable(Map.copyOf(backends), defaultBackend);
+    }
+
+    Map<String, Backend> getBackends() {
+        return backends;
+    }
+
+    /** Returns the backend for {@code target}, or the default backend if it is absent or unknown. */
+    @Nullable
+    Backend route(@Nullable String target) {
+        if (target != null) {
+            Backend backend = backends.get(target);
+            if (backend != null) {
+                return backend;
+            }
+        }
+        return defaultBackend;
+    }
+}
@@ -0,0 +1,200 @@
+package services.gateway;
+
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.Status;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import javax.annotation.Nullable;
+
+/**
+ * Coalesces identical in-flight unary calls: while one call for a {@link RequestKey}
+ * is outstanding, later callers with an equal key wait for its reply instead of
+ * opening their own backend call. Once the reply arrives, successful or not, it is
+ * fanned out to every waiter and the flight is forgotten, so nothing is ever served
+ * stale.
+ *
+ * <p>A waiter that goes away only leaves its flight; the backend call is cancelled
+ * when the last waiter has left.
+ */
+final class SingleFlight {
+    private final Set<String> methods;
+    private final ConcurrentHashMap<RequestKey, Flight> flights = new ConcurrentHashMap<>();
+
+    SingleFlight(Set<String> methods) {
+        this.methods = Set.copyOf(methods);
+    }
+
+    /** Returns single-flight for the methods {@code config} lists, or null when there are none. */
+    @Nullable
+    static SingleFlight create(ProxyConfig config) {
+        if (config.getSingleFlightMethods().isEmpty()) {
+            return null;
+        }
+        return new SingleFlight(config.getSingleFlightMethods());
+    }
+
+    boolean isCoalesced(String fullMethodName) {
+        return methods.contains(fullMethodName);
+    }
+
+    /** Number of distinct requests currently waiting on the backend. */
+    int inFlight() {
+        return flights.size();
+    }
+
+    /**
+     * Adds {@code waiter} to the flight for {@code key}. If there is none, this caller
+     * leads a new one and {@code upstream} is started to produce the reply.
+     *
+     * @return a handle the caller uses to leave the flight if it is cancelled
+     */
+    Subscription join(RequestKey key, Consumer<Reply> waiter, Upstream upstream) {
+        while (true) {
+            Flight flight = flights.get(key);
+            if (flight == null) {
+                Flight created = new Flight(key);
+                flight = flights.putIfAbsent(key, created);
+                if (flight == null) {
+                    Subscription subscription = created.add(waiter);
+                    created.start(upstream);
+                    return subscription;
+                }
+            }
+            Subscription subscription = flight.add(waiter);
+            if (subscription != null) {
+                return subscription;
+            }
+            // The flight finished between the lookup and the join; its reply is not ours
+        }
+    }
+
+    /** Starts the single backend call of a flight. */
+    interface Upstream {
+        /**
+         * Starts the call and returns a handle that cancels it. The call must
+         * eventually pass its outcome to {@code complete}, exactly once.
+         */
+        Runnable start(Consumer<Reply> complete);
+    }
+
+    interface Subscription {
+        void leave();
+    }
+
+    /** Everything a unary call sent back, buffered so it can be replayed to several callers. */
+    static final class Reply {
+        @Nullable
+        private final Metadata headers;
+        @Nullable
+        private final byte[] message;
+        private final Status status;
+        private final Metadata trailers;
+
+        Reply(@Nullable Metadata headers, @Nullable byte[] message, Status status, Metadata trailers) {
+            this.headers = headers;
+            this.message = message;
+            this.status = status;
+            this.trailers = trailers;
+        }
+
+        Status getStatus() {
+            return status;
+        }
+
+        int messageSize() {
+            return message != null ? message.length : 0;
+        }
+
+        void deliverTo(ServerCall<?, InputStream> serverCall) {
+            // The transport edits the metadata it is given, so each caller gets a copy
+            if (headers != null) {
+                serverCall.sendHeaders(copy(headers));
+            }
+            if (message != null) {
+                serverCall.sendMessage(new ByteBufferInputStream(ByteBuffer.wrap(message)));
+            }
+            serverCall.close(status, copy(trailers));
+        }
+
+        private static Metadata copy(Metadata metadata) {
+            Metadata copy = new Metadata();
+            copy.merge(metadata);
+            return copy;
+        }
+    }
+
+    private final class Flight {
+        private final RequestKey key;
+        // Guarded by this
+        private final List<Consumer<Reply>> waiters = new ArrayList<>();
+        private Runnable cancelUpstream;
+        private boolean done;
+        private boolean abandoned;
+
+        Flight(RequestKey key) {
+            this.key = key;
+        }
+
+        // Returns null once the flight has finished and can take no more waiters
+        @Nullable
+        synchronized Subscription add(Consumer<Reply> waiter) {
+            if (done) {
+                return null;
+            }
+            waiters.add(waiter);
+            return () -> leave(waiter);
+        }
+
+        void start(Upstream upstream) {
+            Runnable cancel = upstream.start(this::complete);
+            boolean cancelNow;
+            synchronized (this) {
+                cancelUpstream = cancel;
+                // Every waiter may have left while the call was being started
+                cancelNow = abandoned;
+            }
+            if (cancelNow) {
+                cancel.run();
+            }
+        }
+
+        private void leave(Consumer<Reply> waiter) {
+            Runnable cancel;
+            synchronized (this) {
+                if (done || !waiters.remove(waiter) || !waiters.isEmpty()) {
+                    return;
+                }
+                done = true;
+                abandoned = true;
+                cancel = cancelUpstream;
+            }
+            flights.remove(key, this);
+            if (cancel != null) {
+                cancel.run();
+            }
+        }
+
+        private void complete(Reply reply) {
+            List<Consumer<Reply>> recipients;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                recipients = new ArrayList<>(waiters);
+                waiters.clear();
+            }
+            // Later callers start a fresh flight rather than reuse this reply
+            flights.remove(key, this);
+            for (Consumer<Reply> recipient : recipients) {
+                recipient.accept(reply);
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Sends bursts of identical unary calls through a gateway with single-flight
+ * enabled against a backend that holds every call until the test releases it.
+ */
+@RunWith(JUnit4.class)
+public class SingleFlightTest {
+    private static final int CALLERS = 10;
+
+    private static final MethodDescriptor.Marshaller<byte[]> BYTES = new MethodDescriptor.Marshaller<byte[]>() {
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                return stream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    private static final MethodDescriptor<byte[], byte[]> ECHO = MethodDescriptor.<byte[], byte[]>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Hot/Echo")
+            .setRequestMarshaller(BYTES)
+            .setResponseMarshaller(BYTES)
+            .build();
+
+    private final AtomicInteger backendCalls = new AtomicInteger();
+    private final CountDownLatch backendCancelled = new CountDownLatch(1);
+    private final AtomicReference<Status> backendStatus = new AtomicReference<>(Status.OK);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile CountDownLatch joined;
+
+    private Server backendServer;
+    private ManagedChannel backendChannel;
+    private Server gatewayServer;
+    private ManagedChannel gatewayChannel;
+
+    @Before
+    public void setUp() throws Exception {
+        String backendName = InProcessServerBuilder.generateName();
+        backendServer = InProcessServerBuilder.forName(backendName)
+                .addService(ServerServiceDefinition.builder("test.Hot")
+                        .addMethod(ECHO, ServerCalls.asyncUnaryCall((request, responseObserver) -> {
+                            backendCalls.incrementAndGet();
+                            ((ServerCallStreamObserver<byte[]>) responseObserver)
+                                    .setOnCancelHandler(backendCancelled::countDown);
+                            // Answered from another thread: blocking here would hold the call's
+                            // executor, which must stay free to run the cancel handler
+                            CompletableFuture.runAsync(() -> {
+                                try {
+                                    release.await();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                Status status = backendStatus.get();
+                                if (!status.isOk()) {
+                                    responseObserver.onError(status.asRuntimeException());
+                                    return;
+                                }
+                                responseObserver.onNext(request);
+                                responseObserver.onCompleted();
+                            });
+                        }))
+                        .build())
+                .build()
+                .start();
+        backendChannel = InProcessChannelBuilder.forName(backendName).build();
+
+        String gatewayName = InProcessServerBuilder.generateName();
+        ProxyConfig config = ProxyConfig.newBuilder().setSingleFlightMethods(Set.of("test.Hot/Echo")).build();
+        // Registered before the routing interceptor, so it sees the call after routing
+        InProcessServerBuilder builder = InProcessServerBuilder.forName(gatewayName).intercept(new JoinCounter());
+        gatewayServer = GatewayServer.buildGrpcServer(builder, Map.of("greeter", backendChannel), config).start();
+        gatewayChannel = InProcessChannelBuilder.forName(gatewayName).build();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        gatewayChannel.shutdownNow();
+        gatewayServer.shutdownNow();
+        backendChannel.shutdownNow();
+        backendServer.shutdownNow();
+    }
+
+    @Test
+    public void testIdenticalCallsShareOneBackendCall() throws Exception {
+        List<PendingCall> calls = startCalls(CALLERS, new byte[] {1, 2, 3});
+        release.countDown();
+
+        for (PendingCall call : calls) {
+            assertThat(call.result.get(5, TimeUnit.SECONDS)).isEqualTo(new byte[] {1, 2, 3});
+        }
+        assertThat(backendCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDistinctRequestsAreNotCoalesced() throws Exception {
+        joined = new CountDownLatch(2);
+        PendingCall first = new PendingCall(new byte[] {1});
+        PendingCall second = new PendingCall(new byte[] {2});
+        assertThat(joined.await(5, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+
+        assertThat(first.result.get(5, TimeUnit.SECONDS)).isEqualTo(new byte[] {1});
+        assertThat(second.result.get(5, TimeUnit.SECONDS)).isEqualTo(new byte[] {2});
+        assertThat(backendCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testFailureIsFannedOutToEveryCaller() throws Exception {
+        backendStatus.set(Status.UNAVAILABLE.withDescription("backend down"));
+        List<PendingCall> calls = startCalls(CALLERS, new byte[] {4});
+        release.countDown();
+
+        for (PendingCall call : calls) {
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> call.result.get(5, TimeUnit.SECONDS));
+            assertThat(Status.fromThrowable(e.getCause()).getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+        }
+        assertThat(backendCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCancelledCallersDoNotAffectTheRest() throws Exception {
+        List<PendingCall> calls = startCalls(CALLERS, new byte[] {5});
+        // Possibly including the caller whose call started the flight
+        for (int i = 0; i < CALLERS / 2; i++) {
+            calls.get(i).call.cancel("caller gave up", null);
+        }
+        release.countDown();
+
+        for (int i = CALLERS / 2; i < CALLERS; i++) {
+            assertThat(calls.get(i).result.get(5, TimeUnit.SECONDS)).isEqualTo(new byte[] {5});
+        }
+        for (int i = 0; i < CALLERS / 2; i++) {
+            PendingCall cancelled = calls.get(i);
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> cancelled.result.get(5, TimeUnit.SECONDS));
+            assertThat(Status.fromThrowable(e.getCause()).getCode()).isEqualTo(Status.Code.CANCELLED);
+        }
+        assertThat(backendCancelled.getCount()).isEqualTo(1);
+        assertThat(backendCalls.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testBackendCallIsCancelledWhenEveryCallerLeaves() throws Exception {
+        List<PendingCall> calls = startCalls(CALLERS, new byte[] {6});
+        for (PendingCall call : calls) {
+            call.call.cancel("caller gave up", null);
+        }
+        assertThat(backendCancelled.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // A new burst starts a fresh flight instead of joining the abandoned one
+        release.countDown();
+        PendingCall retry = new PendingCall(new byte[] {6});
+        assertThat(retry.result.get(5, TimeUnit.SECONDS)).isEqualTo(new byte[] {6});
+        assertThat(backendCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testShortDeadlineLeaderDoesNotCutOffLongDeadlineFollower() throws Exception {
+        joined = new CountDownLatch(1);
+        PendingCall leader = new PendingCall(new byte[] {7},
+                CallOptions.DEFAULT.withDeadlineAfter(300, TimeUnit.MILLISECONDS));
+        assertThat(joined.await(5, TimeUnit.SECONDS)).isTrue();
+        joined = new CountDownLatch(1);
+        PendingCall follower = new PendingCall(new byte[] {7},
+                CallOptions.DEFAULT.withDeadlineAfter(30, TimeUnit.SECONDS));
+        assertThat(joined.await(5, TimeUnit.SECONDS)).isTrue();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> leader.result.get(5, TimeUnit.SECONDS));
+        assertThat(Status.fromThrowable(e.getCause()).getCode()).isEqualTo(Status.Code.DEADLINE_EXCEEDED);
+        // The flight goes on for the follower after its leader has gone
+        assertThat(follower.result.isDone()).isFalse();
+        release.countDown();
+
+        assertThat(follower.result.get(5, TimeUnit.SECONDS)).isEqualTo(new byte[] {7});
+        assertThat(backendCancelled.getCount()).isEqualTo(1);
+        assertThat(backendCalls.get()).isEqualTo(1);
+    }
+
+    // Starts the calls and waits until every one of them has joined its flight
+    private List<PendingCall> startCalls(int count, byte[] request) throws InterruptedException {
+        joined = new CountDownLatch(count);
+        List<PendingCall> calls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            calls.add(new PendingCall(request));
+        }
+        assertThat(joined.await(5, TimeUnit.SECONDS)).isTrue();
+        return calls;
+    }
+
+    // Counts calls whose request has been handed to the proxy
+    private final class JoinCounter implements ServerInterceptor {
+        @Override
+        public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                ServerCallHandler<ReqT, RespT> next) {
+            return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(
+                    next.startCall(call, headers)) {
+                @Override
+                public void onHalfClose() {
+                    super.onHalfClose();
+                    CountDownLatch latch = joined;
+                    if (latch != null) {
+                        latch.countDown();
+                    }
+                }
+            };
+        }
+    }
+
+    private final class PendingCall {
+        final ClientCall<byte[], byte[]> call;
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        PendingCall(byte[] request) {
+            this(request, CallOptions.DEFAULT);
+        }
+
+        PendingCall(byte[] request, CallOptions callOptions) {
+            call = gatewayChannel.newCall(ECHO, callOptions);
+            call.start(new ClientCall.Listener<byte[]>() {
+                private byte[] reply;
+
+                @Override
+                public void onMessage(byte[] message) {
+                    reply = message;
+                }
+
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    if (status.isOk()) {
+                        result.complete(reply);
+                    } else {
+                        result.completeExceptionally(new StatusRuntimeException(status, trailers));
+                    }
+                }
+            }, new Metadata());
+            call.sendMessage(request);
+            call.halfClose();
+            call.request(1);
+        }
+    }
+}
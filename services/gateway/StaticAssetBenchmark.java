@@ -0,0 +1,133 @@
+package services.gateway;
+
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.SimpleFileServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A browser's requests for static assets over loopback HTTP/1.1, served by the
+ * JDK's {@link SimpleFileServer} as the gateway used to and by {@link StaticAssetHandler}.
+ *
+ * <p>{@code page} fetches the revalidated index page and {@code chunk} a 200 KB
+ * content-hashed script, both with {@code Accept-Encoding: gzip}. {@code revalidate}
+ * sends the page's ETag back, as a browser does on reload. The file server has no
+ * ETags, so it resends the page. It runs with {@code OutputLevel.NONE} here; the
+ * gateway ran it at {@code VERBOSE}, which also printed every request to stdout.
+ *
+ * <p>The score includes the client's work; compare the two servers with each other,
+ * not with other benchmarks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StaticAssetBenchmark {
+    private static final String CHUNK_PATH = "/_next/static/chunks/main-234fc3eb2f2da65b.js";
+
+    public enum Server {
+        FILE_SERVER,
+        IN_MEMORY,
+    }
+
+    @Param({"FILE_SERVER", "IN_MEMORY"})
+    public Server server;
+
+    private Path root;
+    private HttpServer httpServer;
+    private HttpClient client;
+    private HttpRequest page;
+    private HttpRequest chunk;
+    private HttpRequest revalidate;
+
+    @Setup
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("static-bench");
+        Files.writeString(root.resolve("index.html"), "<!DOCTYPE html><html><head><title>Gateway</title></head>"
+                + "<body>" + "<div class=\"row\">content</div>".repeat(200) + "</body></html>");
+        Path chunkFile = root.resolve(CHUNK_PATH.substring(1));
+        Files.createDirectories(chunkFile.getParent());
+        Files.writeString(chunkFile, script(200 * 1024));
+
+        InetSocketAddress address = new InetSocketAddress("localhost", 0);
+        if (server == Server.FILE_SERVER) {
+            httpServer = SimpleFileServer.createFileServer(address, root, SimpleFileServer.OutputLevel.NONE);
+        } else {
+            httpServer = HttpServer.create(address, 0);
+            httpServer.createContext("/", StaticAssetHandler.load(root));
+        }
+        httpServer.start();
+
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        page = request("/index.html").build();
+        chunk = request(CHUNK_PATH).build();
+        String etag = client.send(page, HttpResponse.BodyHandlers.discarding()).headers()
+                .firstValue("ETag").orElse("\"none\"");
+        revalidate = request("/index.html").header("If-None-Match", etag).build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        httpServer.stop(0);
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] page() throws Exception {
+        return client.send(page, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+
+    @Benchmark
+    public byte[] chunk() throws Exception {
+        return client.send(chunk, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+
+    @Benchmark
+    public int revalidate() throws Exception {
+        return client.send(revalidate, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + httpServer.getAddress().getPort() + path))
+                .header("Accept-Encoding", "gzip");
+    }
+
+    // Minified-looking JavaScript: repetitive enough to compress like the real bundles
+    private static String script(int size) {
+        StringBuilder script = new StringBuilder(size + 64);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (script.length() < size) {
+            script.append("function f").append(random.nextInt(5000)).append("(e,t){return e.")
+                    .append(random.nextBoolean() ? "map" : "filter").append("(n=>n+t)}");
+        }
+        return script.toString();
+    }
+}
@@ -0,0 +1,275 @@
+package services.gateway;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Serves a directory of static assets from memory.
+ *
+ * <p>Every file is read once, when the handler is built, together with its ETag and,
+ * for text formats, a gzip variant compressed at the highest level. A request is
+ * then a map lookup and a write of a prepared array: there is no disk access, no
+ * compression and no per-request logging.
+ *
+ * <p>Files under {@code /_next/static/} carry a content hash in their path, so they
+ * are sent with a year-long immutable {@code Cache-Control}. Everything else must be
+ * revalidated, which a browser does with {@code If-None-Match} and gets a 304 for.
+ * Assets changed on disk are only picked up by a restart, which is when they change
+ * in the image anyway.
+ */
+final class StaticAssetHandler implements HttpHandler {
+    private static final Logger logger = Logger.getLogger(StaticAssetHandler.class.getName());
+
+    static final String IMMUTABLE_PREFIX = "/_next/static/";
+    static final String IMMUTABLE_CACHE_CONTROL = "public, max-age=31536000, immutable";
+    static final String REVALIDATE_CACHE_CONTROL = "no-cache";
+    // Below this, gzip framing and the Vary header cost more than they save
+    private static final int MIN_COMPRESSED_SIZE = 512;
+
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html; charset=utf-8"),
+            Map.entry("css", "text/css; charset=utf-8"),
+            Map.entry("js", "text/javascript; charset=utf-8"),
+            Map.entry("mjs", "text/javascript; charset=utf-8"),
+            Map.entry("json", "application/json"),
+            Map.entry("map", "application/json"),
+            Map.entry("txt", "text/plain; charset=utf-8"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("wasm", "application/wasm"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"));
+
+    private final Map<String, Asset> assets;
+    @Nullable
+    private final Asset notFound;
+
+    private StaticAssetHandler(Map<String, Asset> assets) {
+        this.assets = assets;
+        this.notFound = assets.get("/404.html");
+    }
+
+    /** Reads and prepares every file below {@code root}. */
+    static StaticAssetHandler load(Path root) throws IOException {
+        Map<String, Asset> assets = new HashMap<>();
+        long identityBytes = 0;
+        long gzipBytes = 0;
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                String separator = file.getFileSystem().getSeparator();
+                String path = "/" + root.relativize(file).toString().replace(separator, "/");
+                Asset asset = Asset.create(path, Files.readAllBytes(file));
+                assets.put(path, asset);
+                identityBytes += asset.identity.length;
+                gzipBytes += asset.gzip != null ? asset.gzip.length : 0;
+            }
+        }
+        // Directory requests get their index, as the file server did
+        Map<String, Asset> indexes = new HashMap<>();
+        assets.forEach((path, asset) -> {
+            if (path.endsWith("/index.html")) {
+                indexes.put(path.substring(0, path.length() - "index.html".length()), asset);
+            }
+        });
+        assets.putAll(indexes);
+        logger.info("Loaded " + (assets.size() - indexes.size()) + " static assets from " + root + ": "
+                + identityBytes + " bytes, " + gzipBytes + " bytes of gzip variants");
+        return new StaticAssetHandler(Map.copyOf(assets));
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        boolean head = "HEAD".equals(method);
+        Headers responseHeaders = exchange.getResponseHeaders();
+        if (!head && !"GET".equals(method)) {
+            responseHeaders.set("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+
+        Asset asset = assets.get(exchange.getRequestURI().getPath());
+        int status = 200;
+        if (asset == null) {
+            if (notFound == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            asset = notFound;
+            status = 404;
+        }
+
+        responseHeaders.set("Content-Type", asset.contentType);
+        responseHeaders.set("Cache-Control", status == 404 ? REVALIDATE_CACHE_CONTROL : asset.cacheControl);
+        boolean gzip = asset.gzip != null
+                && acceptsGzip(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        if (asset.gzip != null) {
+            responseHeaders.set("Vary", "Accept-Encoding");
+        }
+        // Each encoding is its own representation, so each gets its own tag
+        String etag = gzip ? asset.gzipEtag : asset.etag;
+        if (status == 200) {
+            responseHeaders.set("ETag", etag);
+            if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), asset)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+
+        byte[] body = gzip ? asset.gzip : asset.identity;
+        if (gzip) {
+            responseHeaders.set("Content-Encoding", "gzip");
+        }
+        if (head) {
+            responseHeaders.set("Content-Length", Integer.toString(body.length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    // "gzip", "gzip;q=0.8" and "*" accept it; "gzip;q=0" refuses it
+    static boolean acceptsGzip(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            int semicolon = coding.indexOf(';');
+            String name = (semicolon < 0 ? coding : coding.substring(0, semicolon)).trim();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                return semicolon < 0 || !isZeroQuality(coding.substring(semicolon + 1));
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZeroQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(trimmed.substring(2)) == 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Weak comparison, as RFC 9110 asks of If-None-Match; either encoding's tag matches
+    private static boolean matches(@Nullable String ifNoneMatch, Asset asset) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmed = tag.trim();
+            if (trimmed.startsWith("W/")) {
+                trimmed = trimmed.substring(2);
+            }
+            if (trimmed.equals("*") || trimmed.equals(asset.etag) || trimmed.equals(asset.gzipEtag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Asset {
+        final byte[] identity;
+        @Nullable
+        final byte[] gzip;
+        final String contentType;
+        final String cacheControl;
+        final String etag;
+        final String gzipEtag;
+
+        private Asset(byte[] identity, @Nullable byte[] gzip, String contentType, String cacheControl,
+                String etag) {
+            this.identity = identity;
+            this.gzip = gzip;
+            this.contentType = contentType;
+            this.cacheControl = cacheControl;
+            this.etag = "\"" + etag + "\"";
+            this.gzipEtag = "\"" + etag + "-gzip\"";
+        }
+
+        static Asset create(String path, byte[] content) throws IOException {
+            String contentType = contentType(path);
+            byte[] gzip = null;
+            if (content.length >= MIN_COMPRESSED_SIZE && isCompressible(contentType)) {
+                gzip = gzip(content);
+                if (gzip.length >= content.length) {
+                    gzip = null;
+                }
+            }
+            String cacheControl = path.startsWith(IMMUTABLE_PREFIX) ? IMMUTABLE_CACHE_CONTROL
+                    : REVALIDATE_CACHE_CONTROL;
+            return new Asset(content, gzip, contentType, cacheControl, hash(content));
+        }
+
+        private static String contentType(String path) {
+            int dot = path.lastIndexOf('.');
+            String extension = dot < 0 ? "" : path.substring(dot + 1).toLowerCase(Locale.ROOT);
+            return CONTENT_TYPES.getOrDefault(extension, "application/octet-stream");
+        }
+
+        private static boolean isCompressible(String contentType) {
+            return contentType.startsWith("text/") || contentType.startsWith("application/json")
+                    || contentType.equals("image/svg+xml") || contentType.equals("application/wasm");
+        }
+
+        private static byte[] gzip(byte[] content) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            }) {
+                gzip.write(content);
+            }
+            return out.toByteArray();
+        }
+
+        private static String hash(byte[] content) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+                return HexFormat.of().formatHex(digest, 0, 16);
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError("SHA-256 is required of every JVM", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StaticAssetHandlerTest {
+    private static final String CHUNK_PATH = "/_next/static/chunks/main-234fc3eb2f2da65b.js";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private HttpServer server;
+    private String chunk;
+
+    @Before
+    public void setUp() throws Exception {
+        Path root = folder.getRoot().toPath();
+        chunk = "console.log('gateway');\n".repeat(200);
+        write(root, "index.html", "<html><body>index</body></html>");
+        write(root, "404.html", "<html><body>missing</body></html>");
+        write(root, CHUNK_PATH.substring(1), chunk);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", StaticAssetHandler.load(root));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testServesPrecompressedVariantToGzipClients() throws Exception {
+        HttpResponse<byte[]> response = get(CHUNK_PATH, "Accept-Encoding", "br, gzip;q=0.9");
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.headers().firstValue("Content-Encoding")).hasValue("gzip");
+        assertThat(response.headers().firstValue("Vary")).hasValue("Accept-Encoding");
+        assertThat(response.headers().firstValue("Content-Type")).hasValue("text/javascript; charset=utf-8");
+        assertThat(response.body().length).isLessThan(chunk.length());
+        assertThat(gunzip(response.body())).isEqualTo(chunk);
+    }
+
+    @Test
+    public void testServesIdentityWhenGzipIsNotAccepted() throws Exception {
+        HttpResponse<byte[]> plain = get(CHUNK_PATH);
+        HttpResponse<byte[]> refused = get(CHUNK_PATH, "Accept-Encoding", "gzip;q=0");
+
+        assertThat(plain.headers().firstValue("Content-Encoding")).isEmpty();
+        assertThat(new String(plain.body(), StandardCharsets.UTF_8)).isEqualTo(chunk);
+        assertThat(refused.headers().firstValue("Content-Encoding")).isEmpty();
+    }
+
+    @Test
+    public void testHashedAssetsAreImmutableAndOthersRevalidate() throws Exception {
+        assertThat(get(CHUNK_PATH).headers().firstValue("Cache-Control"))
+                .hasValue(StaticAssetHandler.IMMUTABLE_CACHE_CONTROL);
+        assertThat(get("/index.html").headers().firstValue("Cache-Control"))
+                .hasValue(StaticAssetHandler.REVALIDATE_CACHE_CONTROL);
+    }
+
+    @Test
+    public void testMatchingEtagGetsNotModified() throws Exception {
+        String etag = get("/").headers().firstValue("ETag").orElseThrow();
+
+        HttpResponse<byte[]> revalidated = get("/index.html", "If-None-Match", "\"other\", " + etag);
+        HttpResponse<byte[]> stale = get("/index.html", "If-None-Match", "\"other\"");
+
+        assertThat(revalidated.statusCode()).isEqualTo(304);
+        assertThat(revalidated.body()).isEmpty();
+        assertThat(revalidated.headers().firstValue("ETag")).hasValue(etag);
+        assertThat(stale.statusCode()).isEqualTo(200);
+    }
+
+    @Test
+    public void testUnknownPathsGetTheNotFoundPage() throws Exception {
+        HttpResponse<byte[]> response = get("/nope.html");
+
+        assertThat(response.statusCode()).isEqualTo(404);
+        assertThat(new String(response.body(), StandardCharsets.UTF_8)).contains("missing");
+    }
+
+    @Test
+    public void testHeadSendsHeadersOnlyAndPostIsRefused() throws Exception {
+        HttpResponse<byte[]> head = client.send(HttpRequest.newBuilder(uri(CHUNK_PATH))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+        HttpResponse<byte[]> post = client.send(HttpRequest.newBuilder(uri(CHUNK_PATH))
+                .POST(HttpRequest.BodyPublishers.ofString("x"))
+                .build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        assertThat(head.statusCode()).isEqualTo(200);
+        assertThat(head.headers().firstValue("Content-Length")).hasValue(Integer.toString(chunk.length()));
+        assertThat(head.body()).isEmpty();
+        assertThat(post.statusCode()).isEqualTo(405);
+        assertThat(post.headers().firstValue("Allow")).hasValue("GET, HEAD");
+    }
+
+    private HttpResponse<byte[]> get(String path, String... headers) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(path));
+        if (headers.length > 0) {
+            request.headers(headers);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private static void write(Path root, String path, String content) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private static String gunzip(byte[] body) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
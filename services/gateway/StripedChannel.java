@@ -0,0 +1,304 @@
+package services.gateway;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A channel to one backend address that spreads calls over several independent
+ * {@link ManagedChannel}s, i.e. several HTTP/2 connections. A single connection
+ * caps the number of concurrent streams at the server's MAX_CONCURRENT_STREAMS and
+ * serializes every frame through one socket; striping lifts both limits.
+ *
+ * <p>The pool starts with {@code initialStripes} connections and opens another one,
+ * up to {@code maxStripes}, whenever a call would otherwise land on a connection
+ * that already carries {@code maxStreamsPerStripe} streams.
+ *
+ * <p>A pool made with {@link #pinned} instead has a fixed set of connections, each
+ * owned by one thread (a Netty event loop), and under {@link Placement#EVENT_LOOP}
+ * places a call on the connection owned by the thread starting it.
+ */
+final class StripedChannel extends ManagedChannel {
+    private static final Logger logger = Logger.getLogger(StripedChannel.class.getName());
+
+    enum Placement {
+        ROUND_ROBIN,
+        // Hash of the call's AFFINITY_KEY, or of the calling thread when it has none
+        HASHED,
+        // The connection owned by the calling thread, else round robin; needs a pinned pool
+        EVENT_LOOP,
+    }
+
+    /** Calls carrying the same key are placed on the same connection under {@link Placement#HASHED}. */
+    static final CallOptions.Key<Object> AFFINITY_KEY = CallOptions.Key.create("stripe-affinity");
+
+    @Nullable
+    private final Supplier<ManagedChannel> channelFactory;
+    private final Placement placement;
+    private final int maxStripes;
+    private final int maxStreamsPerStripe;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final Object growLock = new Object();
+
+    // Copy-on-write so the per-call path reads it without locking
+    private volatile Stripe[] stripes;
+    private volatile boolean shutdown;
+
+    StripedChannel(Supplier<ManagedChannel> channelFactory, Placement placement, int initialStripes,
+            int maxStripes, int maxStreamsPerStripe) {
+        if (initialStripes < 1 || maxStripes < initialStripes) {
+            throw new IllegalArgumentException(
+                    "Need 1 <= initialStripes <= maxStripes, got " + initialStripes + " and " + maxStripes);
+        }
+        this.channelFactory = channelFactory;
+        this.placement = placement;
+        this.maxStripes = maxStripes;
+        this.maxStreamsPerStripe = maxStreamsPerStripe;
+        Stripe[] initial = new Stripe[initialStripes];
+        for (int i = 0; i < initial.length; i++) {
+            initial[i] = new Stripe(channelFactory.get());
+        }
+        this.stripes = initial;
+    }
+
+    private StripedChannel(Stripe[] stripes, int maxStreamsPerStripe) {
+        this.channelFactory = null;
+        this.placement = Placement.EVENT_LOOP;
+        this.maxStripes = stripes.length;
+        this.maxStreamsPerStripe = maxStreamsPerStripe;
+        this.stripes = stripes;
+    }
+
+    /**
+     * A pool over {@code channels}, where {@code owners.get(i)} tells whether the
+     * current thread owns {@code channels.get(i)}. The pool never grows; a call whose
+     * own connection is saturated goes to the least loaded one.
+     */
+    static StripedChannel pinned(List<ManagedChannel> channels, List<BooleanSupplier> owners,
+            int maxStreamsPerStripe) {
+        if (channels.isEmpty() || channels.size() != owners.size()) {
+            throw new IllegalArgumentException(
+                    "Need one owner per channel, got " + channels.size() + " and " + owners.size());
+        }
+        Stripe[] stripes = new Stripe[channels.size()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(channels.get(i), owners.get(i));
+        }
+        return new StripedChannel(stripes, maxStreamsPerStripe);
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method,
+            CallOptions callOptions) {
+        Stripe stripe = select(callOptions);
+        return stripe.track(stripe.channel.newCall(method, callOptions));
+    }
+
+    @Override
+    public String authority() {
+        return stripes[0].channel.authority();
+    }
+
+    /** Active streams on each connection, in the order the connections were opened. */
+    int[] activeStreamsPerStripe() {
+        Stripe[] current = stripes;
+        int[] active = new int[current.length];
+        for (int i = 0; i < current.length; i++) {
+            active[i] = current[i].activeStreams.get();
+        }
+        return active;
+    }
+
+    private Stripe select(CallOptions callOptions) {
+        Stripe[] current = stripes;
+        Stripe chosen = current[placementIndex(callOptions, current)];
+        if (chosen.activeStreams.get() < maxStreamsPerStripe) {
+            return chosen;
+        }
+        // The preferred connection is saturated: use any other with headroom, or open one
+        Stripe leastLoaded = chosen;
+        for (Stripe stripe : current) {
+            if (stripe.activeStreams.get() < leastLoaded.activeStreams.get()) {
+                leastLoaded = stripe;
+            }
+        }
+        if (leastLoaded.activeStreams.get() < maxStreamsPerStripe) {
+            return leastLoaded;
+        }
+        Stripe grown = grow(current);
+        return grown != null ? grown : leastLoaded;
+    }
+
+    private int placementIndex(CallOptions callOptions, Stripe[] current) {
+        int size = current.length;
+        if (size == 1) {
+            return 0;
+        }
+        if (placement == Placement.EVENT_LOOP) {
+            for (int i = 0; i < size; i++) {
+                if (current[i].owner != null && current[i].owner.getAsBoolean()) {
+                    return i;
+                }
+            }
+        }
+        if (placement == Placement.HASHED) {
+            Object key = callOptions.getOption(AFFINITY_KEY);
+            int hash = key != null ? key.hashCode() : Long.hashCode(Thread.currentThread().threadId());
+            // Spread the bits so sequential keys do not cluster
+            hash ^= hash >>> 16;
+            return Math.floorMod(hash * 0x9E3779B9, size);
+        }
+        return (nextIndex.getAndIncrement() & Integer.MAX_VALUE) % size;
+    }
+
+    // Returns the new stripe, or null when the pool is at its limit or shutting down
+    private Stripe grow(Stripe[] observed) {
+        synchronized (growLock) {
+            Stripe[] current = stripes;
+            if (current != observed) {
+                // Someone else grew the pool meanwhile; the new stripe is the last one
+                return current[current.length - 1];
+            }
+            if (shutdown || current.length >= maxStripes) {
+                return null;
+            }
+            Stripe stripe = new Stripe(channelFactory.get());
+            Stripe[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = stripe;
+            stripes = next;
+            logger.info("Opened connection " + next.length + "/" + maxStripes + " to " + authority()
+                    + " after streams reached " + maxStreamsPerStripe + " per connection");
+            return stripe;
+        }
+    }
+
+    @Override
+    public ConnectivityState getState(boolean requestConnection) {
+        // The pool is as good as its best connection
+        ConnectivityState best = null;
+        for (Stripe stripe : stripes) {
+            ConnectivityState state = stripe.channel.getState(requestConnection);
+            if (best == null || rank(state) < rank(best)) {
+                best = state;
+            }
+        }
+        return best;
+    }
+
+    private static int rank(ConnectivityState state) {
+        switch (state) {
+            case READY:
+                return 0;
+            case CONNECTING:
+                return 1;
+            case IDLE:
+                return 2;
+            case TRANSIENT_FAILURE:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+        synchronized (growLock) {
+            shutdown = true;
+        }
+        for (Stripe stripe : stripes) {
+            stripe.channel.shutdown();
+        }
+        return this;
+    }
+
+    @Override
+    public ManagedChannel shutdownNow() {
+        synchronized (growLock) {
+            shutdown = true;
+        }
+        for (Stripe stripe : stripes) {
+            stripe.channel.shutdownNow();
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        for (Stripe stripe : stripes) {
+            if (!stripe.channel.isTerminated()) {
+                return false;
+            }
+        }
+        return shutdown;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Stripe stripe : stripes) {
+            long remaining = deadline - System.nanoTime();
+            if (!stripe.channel.awaitTermination(Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // One connection of the pool and the number of streams currently open on it
+    private static final class Stripe {
+        final ManagedChannel channel;
+        @Nullable
+        final BooleanSupplier owner;
+        final AtomicInteger activeStreams = new AtomicInteger();
+
+        Stripe(ManagedChannel channel) {
+            this(channel, null);
+        }
+
+        Stripe(ManagedChannel channel, @Nullable BooleanSupplier owner) {
+            this.channel = channel;
+            this.owner = owner;
+        }
+
+        <ReqT, RespT> ClientCall<ReqT, RespT> track(ClientCall<ReqT, RespT> call) {
+            return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(call) {
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    activeStreams.incrementAndGet();
+                    try {
+                        super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(
+                                responseListener) {
+                            @Override
+                            public void onClose(Status status, Metadata trailers) {
+                                activeStreams.decrementAndGet();
+                                super.onClose(status, trailers);
+                            }
+                        }, headers);
+                    } catch (RuntimeException e) {
+                        activeStreams.decrementAndGet();
+                        throw e;
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import services.common.ServerExecutor;
+
+/**
+ * Runs the token proxy on an HTTP server configured as {@code GatewayServer.main}
+ * configures it, in front of a stub IdP whose token endpoint can be held.
+ */
+@RunWith(JUnit4.class)
+public class TokenProxyHandlerTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch idpReceived = new CountDownLatch(1);
+    private volatile boolean holdTokens;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ExecutorService idpExecutor = Executors.newCachedThreadPool();
+    private HttpServer idp;
+    private HttpServer gateway;
+    private ServerExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        idp = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        idp.setExecutor(idpExecutor);
+        idp.createContext("/token", this::token);
+        idp.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        if (gateway != null) {
+            gateway.stop(0);
+            executor.close();
+        }
+        idp.stop(0);
+        idpExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testForwardsTheTokenExchange() throws Exception {
+        startGateway(4, Duration.ofSeconds(5));
+
+        HttpResponse<String> response = client.send(post("grant_type=authorization_code&code=abc"),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.headers().firstValue("Content-Type")).hasValue("application/json");
+        assertThat(response.headers().firstValue("Access-Control-Allow-Origin")).hasValue("*");
+        assertThat(response.body()).isEqualTo("{\"echo\":\"grant_type=authorization_code&code=abc\"}");
+    }
+
+    @Test
+    public void testSlowIdpDoesNotStallOtherRequests() throws Exception {
+        startGateway(4, Duration.ofSeconds(30));
+        holdTokens = true;
+
+        CompletableFuture<HttpResponse<String>> pending = client.sendAsync(post("code=slow"),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(idpReceived.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // Answered while the token request still waits on the IdP
+        HttpResponse<String> asset = client.send(HttpRequest.newBuilder(uri("/asset")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(asset.body()).isEqualTo("asset");
+        assertThat(pending.isDone()).isFalse();
+
+        release.countDown();
+        assertThat(pending.get(5, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+    }
+
+    @Test
+    public void testRequestsPastTheLimitAreRefusedAtOnce() throws Exception {
+        startGateway(1, Duration.ofSeconds(30));
+        holdTokens = true;
+
+        CompletableFuture<HttpResponse<String>> first = client.sendAsync(post("code=1"),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(idpReceived.await(5, TimeUnit.SECONDS)).isTrue();
+        HttpResponse<String> second = client.send(post("code=2"), HttpResponse.BodyHandlers.ofString());
+
+        assertThat(second.statusCode()).isEqualTo(503);
+        assertThat(second.headers().firstValue("Retry-After")).hasValue("1");
+        release.countDown();
+        assertThat(first.get(5, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+    }
+
+    @Test
+    public void testEmptyBodyIsForwardedAndGivesItsPermitBack() throws Exception {
+        startGateway(1, Duration.ofSeconds(5));
+
+        // Sent with Content-Length: 0
+        HttpRequest empty = HttpRequest.newBuilder(uri("/api/proxy_token"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+        HttpResponse<String> response = client.sendAsync(empty, HttpResponse.BodyHandlers.ofString())
+                .get(5, TimeUnit.SECONDS);
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isEqualTo("{\"echo\":\"\"}");
+
+        HttpResponse<String> next = client.sendAsync(post("code=next"), HttpResponse.BodyHandlers.ofString())
+                .get(5, TimeUnit.SECONDS);
+        assertThat(next.statusCode()).isEqualTo(200);
+    }
+
+    @Test
+    public void testSlowIdpTimesOut() throws Exception {
+        startGateway(4, Duration.ofMillis(200));
+        holdTokens = true;
+
+        HttpResponse<String> response = client.send(post("code=late"), HttpResponse.BodyHandlers.ofString());
+
+        assertThat(response.statusCode()).isEqualTo(504);
+    }
+
+    @Test
+    public void testUnreachableIdpIsBadGateway() throws Exception {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        startGateway("http://localhost:" + closedPort + "/token", 4, Duration.ofSeconds(5));
+
+        HttpResponse<String> response = client.send(post("code=gone"), HttpResponse.BodyHandlers.ofString());
+
+        assertThat(response.statusCode()).isEqualTo(502);
+    }
+
+    private void startGateway(int maxConcurrent, Duration timeout) throws IOException {
+        startGateway("http://localhost:" + idp.getAddress().getPort() + "/token", maxConcurrent, timeout);
+    }
+
+    private void startGateway(String idpUrl, int maxConcurrent, Duration timeout) throws IOException {
+        gateway = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        executor = ServerExecutor.of(ServerExecutor.Mode.VIRTUAL);
+        executor.configure(gateway);
+        gateway.createContext("/api/proxy_token", new GatewayServer.TokenProxyHandler(idpUrl, maxConcurrent,
+                timeout));
+        gateway.createContext("/asset", exchange -> respond(exchange, "text/plain", "asset"));
+        gateway.start();
+    }
+
+    private void token(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        idpReceived.countDown();
+        if (holdTokens) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        respond(exchange, "application/json", "{\"echo\":\"" + body + "\"}");
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private HttpRequest post(String form) {
+        return HttpRequest.newBuilder(uri("/api/proxy_token"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + gateway.getAddress().getPort() + path);
+    }
+}
@@ -0,0 +1,119 @@
+package services.gateway;
+
+import calculator.CalculatorGrpc;
+import calculator.CalculatorOuterClass.SumReply;
+import calculator.CalculatorOuterClass.SumRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Unary Sum through the gateway over loopback HTTP/2, client to gateway to backend,
+ * with the gateway on separate default transports or on shared event loops.
+ *
+ * <p>{@code SEPARATE} is the gateway as it was: {@code ServerBuilder.forPort} on the
+ * default executor and a backend channel from {@code ManagedChannelBuilder}, each
+ * with its own NIO event loops. {@code SHARED} is the gateway as {@code main} now
+ * builds it: one epoll (or NIO) group for both, a direct executor and one backend
+ * connection per loop.
+ *
+ * <p>Run with {@code bazel run //services/gateway:gateway_benchmarks -- TransportBenchmark}.
+ * Client, gateway and backend share the machine, so compare the two within one run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Threads(32)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TransportBenchmark {
+
+    public enum Transport {
+        SEPARATE,
+        SHARED,
+    }
+
+    @Param({"SEPARATE", "SHARED"})
+    public Transport transport;
+
+    private Server backend;
+    private ManagedChannel backendChannel;
+    private EventLoops eventLoops;
+    private Server gateway;
+    private ManagedChannel client;
+    private CalculatorGrpc.CalculatorBlockingStub stub;
+
+    @Setup
+    public void setUp() throws Exception {
+        backend = ServerBuilder.forPort(0)
+                .directExecutor()
+                .addService(new CalculatorGrpc.CalculatorImplBase() {
+                    @Override
+                    public void sum(SumRequest request, StreamObserver<SumReply> responseObserver) {
+                        responseObserver.onNext(SumReply.newBuilder().setResult(request.getA() + request.getB()).build());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        String target = "localhost:" + backend.getPort();
+
+        ProxyConfig config = ProxyConfig.newBuilder()
+                .setStreamPlacement(StripedChannel.Placement.EVENT_LOOP)
+                .build();
+        ServerBuilder<?> gatewayBuilder;
+        if (transport == Transport.SHARED) {
+            eventLoops = EventLoops.create(config);
+            backendChannel = GatewayServer.pinnedChannel(target, eventLoops, config);
+            gatewayBuilder = eventLoops.serverBuilder(0).directExecutor();
+        } else {
+            backendChannel = ManagedChannelBuilder.forTarget(target).usePlaintext().build();
+            gatewayBuilder = ServerBuilder.forPort(0);
+        }
+        gateway = GatewayServer.buildGrpcServer(gatewayBuilder, Map.of("calculator", backendChannel), config).start();
+
+        Metadata headers = new Metadata();
+        headers.put(GatewayServer.TARGET_HEADER_KEY, "calculator");
+        client = ManagedChannelBuilder.forAddress("localhost", gateway.getPort()).usePlaintext().build();
+        stub = CalculatorGrpc.newBlockingStub(client)
+                .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.shutdownNow();
+        gateway.shutdownNow().awaitTermination();
+        backendChannel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        backend.shutdownNow().awaitTermination();
+        if (eventLoops != null) {
+            eventLoops.close();
+        }
+    }
+
+    @Benchmark
+    public int sum() {
+        int a = ThreadLocalRandom.current().nextInt(1 << 20);
+        return stub.sum(SumRequest.newBuilder().setA(a).setB(1).build()).getResult();
+    }
+}
@@ -0,0 +1,176 @@
+package services.gateway;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.health.v1.HealthCheckRequest;
+import io.grpc.health.v1.HealthCheckResponse;
+import io.grpc.health.v1.HealthGrpc;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Brings a freshly started gateway up to speed before it reports ready, so the first
+ * calls after a rollout do not pay for connection setup and interpreted code.
+ *
+ * <p>First every backend channel is asked to connect, with {@code getState(true)}, and
+ * polled until it is {@code READY}. Then synthetic {@code grpc.health.v1} checks are sent
+ * through the gateway's own port to each target in turn: the method is side-effect free,
+ * answered by every backend here, and unknown to the proxy, so the calls take the same
+ * interceptor, registry and handler path as real traffic, on the same connections. The
+ * gateway reports ready when both are done, or when the timeout runs out; replicas that
+ * are still down are left to health checking and outlier detection. A warm-up in which a
+ * backend did not connect or a call failed is logged as a warning and leaves
+ * {@link #isWarm()} false, since the proxy path it was meant to exercise may still be
+ * cold. The calls carry no credentials, so with authentication on they must be sent to
+ * an instance of the proxy that does not check them.
+ */
+final class WarmUp {
+    private static final Logger logger = Logger.getLogger(WarmUp.class.getName());
+
+    private static final long POLL_MILLIS = 10;
+    // Enough calls in flight to keep every event loop busy without queueing at the backends
+    static final int MAX_OUTSTANDING = 32;
+    private static final HealthCheckRequest REQUEST = HealthCheckRequest.newBuilder().setService("").build();
+
+    private volatile boolean ready;
+    private volatile boolean warm;
+
+    /** Whether the warm-up has finished and the gateway has not started shutting down since. */
+    boolean isReady() {
+        return ready;
+    }
+
+    /** Whether the last warm-up connected every backend and every one of its calls succeeded. */
+    boolean isWarm() {
+        return warm;
+    }
+
+    /** Reports the gateway not ready, e.g. while it drains on shutdown. */
+    void notReady() {
+        ready = false;
+    }
+
+    void run(RoutingTable routingTable, Channel gateway, ProxyConfig config) throws InterruptedException {
+        run(routingTable, gateway, config.getWarmupCalls(), config.getWarmupTimeout());
+    }
+
+    /** Connects every backend, sends {@code calls} synthetic calls through {@code gateway}, then reports ready. */
+    void run(RoutingTable routingTable, Channel gateway, int calls, Duration timeout) throws InterruptedException {
+        long started = System.nanoTime();
+        long deadline = started + timeout.toNanos();
+        warm = false;
+        try {
+            List<String> unconnected = connect(routingTable, deadline);
+            boolean succeeded = unconnected.isEmpty();
+            if (!succeeded) {
+                logger.warning("Warm-up gave up waiting for " + unconnected + " to connect");
+            }
+            if (calls > 0) {
+                Map<Status.Code, Integer> statuses = call(gateway, List.copyOf(routingTable.getBackends().keySet()),
+                        calls, deadline);
+                if (statuses.keySet().stream().allMatch(code -> code == Status.Code.OK)) {
+                    logger.info("Warm-up calls finished with " + statuses);
+                } else {
+                    logger.warning("Warm-up calls finished with " + statuses + "; the proxy path may still be cold");
+                    succeeded = false;
+                }
+            }
+            warm = succeeded;
+        } finally {
+            ready = true;
+            logger.info("Ready after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms of "
+                    + (warm ? "warm-up" : "failed warm-up"));
+        }
+    }
+
+    /** Returns the replicas, as "target endpoint", that were not READY by the deadline. */
+    static List<String> connect(RoutingTable routingTable, long deadlineNanos) throws InterruptedException {
+        Map<String, ManagedChannel> pending = new LinkedHashMap<>();
+        routingTable.getBackends().forEach((target, backend) -> {
+            for (Backend.Endpoint endpoint : backend.getEndpoints()) {
+                if (endpoint.getChannel() instanceof ManagedChannel) {
+                    pending.put(target + " " + endpoint, (ManagedChannel) endpoint.getChannel());
+                }
+            }
+        });
+        while (true) {
+            // Asking again also restarts a connection that went idle or failed meanwhile
+            pending.values().removeIf(channel -> channel.getState(true) == ConnectivityState.READY);
+            if (pending.isEmpty() || System.nanoTime() - deadlineNanos > 0) {
+                return new ArrayList<>(pending.keySet());
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Sends {@code calls} health checks through {@code gateway}, cycling through
+     * {@code targets}, and returns how they ended. Stops early at the deadline.
+     */
+    static Map<Status.Code, Integer> call(Channel gateway, List<String> targets, int calls, long deadlineNanos)
+            throws InterruptedException {
+        Map<Status.Code, Integer> statuses = new EnumMap<>(Status.Code.class);
+        if (targets.isEmpty()) {
+            return statuses;
+        }
+        List<Channel> routed = new ArrayList<>();
+        for (String target : targets) {
+            Metadata headers = new Metadata();
+            headers.put(GatewayServer.TARGET_HEADER_KEY, target);
+            routed.add(ClientInterceptors.intercept(gateway, MetadataUtils.newAttachHeadersInterceptor(headers)));
+        }
+        Semaphore outstanding = new Semaphore(MAX_OUTSTANDING);
+        for (int i = 0; i < calls; i++) {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0 || !outstanding.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                break;
+            }
+            ClientCalls.asyncUnaryCall(
+                    routed.get(i % routed.size()).newCall(HealthGrpc.getCheckMethod(),
+                            CallOptions.DEFAULT.withDeadlineAfter(remaining, TimeUnit.NANOSECONDS)),
+                    REQUEST,
+                    new StreamObserver<HealthCheckResponse>() {
+                        @Override
+                        public void onNext(HealthCheckResponse response) {
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            finished(Status.fromThrowable(t).getCode());
+                        }
+
+                        @Override
+                        public void onCompleted() {
+                            finished(Status.Code.OK);
+                        }
+
+                        private void finished(Status.Code code) {
+                            synchronized (statuses) {
+                                statuses.merge(code, 1, Integer::sum);
+                            }
+                            outstanding.release();
+                        }
+                    });
+        }
+        // Every call has a deadline, so this ends
+        outstanding.acquire(MAX_OUTSTANDING);
+        synchronized (statuses) {
+            return new EnumMap<>(statuses);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package services.gateway;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.services.HealthStatusManager;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class WarmUpTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<Server> servers = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        channels.forEach(ManagedChannel::shutdownNow);
+        servers.forEach(Server::shutdownNow);
+    }
+
+    @Test
+    public void testConnectsBackendsAndCallsThemThroughTheGatewayBeforeReporting() throws Exception {
+        AtomicInteger greeterCalls = new AtomicInteger();
+        AtomicInteger calculatorCalls = new AtomicInteger();
+        ManagedChannel greeter = backend(greeterCalls);
+        ManagedChannel calculator = backend(calculatorCalls);
+        RoutingTable routingTable = RoutingTable.of(Map.of("greeter", greeter, "calculator", calculator));
+        ManagedChannel gateway = gateway(routingTable);
+        WarmUp warmUp = new WarmUp();
+        assertThat(greeter.getState(false)).isEqualTo(ConnectivityState.IDLE);
+        assertThat(warmUp.isReady()).isFalse();
+
+        warmUp.run(routingTable, gateway, 100, Duration.ofSeconds(10));
+
+        assertThat(warmUp.isReady()).isTrue();
+        assertThat(warmUp.isWarm()).isTrue();
+        assertThat(greeter.getState(false)).isEqualTo(ConnectivityState.READY);
+        assertThat(calculator.getState(false)).isEqualTo(ConnectivityState.READY);
+        assertThat(greeterCalls.get()).isEqualTo(50);
+        assertThat(calculatorCalls.get()).isEqualTo(50);
+
+        warmUp.notReady();
+        assertThat(warmUp.isReady()).isFalse();
+    }
+
+    @Test
+    public void testCallsReportHowTheyEnded() throws Exception {
+        RoutingTable routingTable = RoutingTable.of(Map.of("greeter", backend(new AtomicInteger())));
+        ManagedChannel gateway = gateway(routingTable);
+
+        Map<Status.Code, Integer> statuses = WarmUp.call(gateway, List.of("greeter"), 40,
+                System.nanoTime() + Duration.ofSeconds(10).toNanos());
+
+        assertThat(statuses).containsExactly(Status.Code.OK, 40);
+    }
+
+    @Test
+    public void testWarmsUpPastAuthenticationWithoutOpeningItToCallers() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        RoutingTable routingTable = RoutingTable.of(Map.of("greeter", backend(calls)));
+        ProxyComponents components = ProxyComponents.create(ProxyConfig.newBuilder()
+                .setJwtPublicKey(publicKeyFile())
+                .build());
+        String gatewayName = InProcessServerBuilder.generateName();
+        servers.add(GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName), routingTable,
+                components).start());
+        ManagedChannel gateway = channel(gatewayName);
+        String warmUpName = InProcessServerBuilder.generateName();
+        servers.add(GatewayServer.buildUnauthenticatedGrpcServer(InProcessServerBuilder.forName(warmUpName),
+                routingTable, components).start());
+
+        // Through the authenticated server the warm-up never gets past the token check
+        WarmUp warmUp = new WarmUp();
+        warmUp.run(routingTable, gateway, 20, Duration.ofSeconds(10));
+        assertThat(warmUp.isReady()).isTrue();
+        assertThat(warmUp.isWarm()).isFalse();
+        assertThat(calls.get()).isEqualTo(0);
+        assertThat(WarmUp.call(gateway, List.of("greeter"), 1, System.nanoTime() + Duration.ofSeconds(10).toNanos()))
+                .containsExactly(Status.Code.UNAUTHENTICATED, 1);
+
+        warmUp.run(routingTable, channel(warmUpName), 20, Duration.ofSeconds(10));
+
+        assertThat(warmUp.isWarm()).isTrue();
+        assertThat(calls.get()).isEqualTo(20);
+    }
+
+    @Test
+    public void testReportsReadyWhenABackendNeverConnects() throws Exception {
+        ManagedChannel missing = channel(InProcessServerBuilder.generateName());
+        RoutingTable routingTable = RoutingTable.of(Map.of("missing", missing));
+        ManagedChannel gateway = gateway(routingTable);
+        WarmUp warmUp = new WarmUp();
+
+        assertThat(WarmUp.connect(routingTable, System.nanoTime() + Duration.ofMillis(50).toNanos()))
+                .containsExactly("missing " + routingTable.route("missing").getEndpoints().get(0));
+        long started = System.nanoTime();
+        warmUp.run(routingTable, gateway, 10, Duration.ofMillis(200));
+
+        assertThat(warmUp.isReady()).isTrue();
+        assertThat(warmUp.isWarm()).isFalse();
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofSeconds(5));
+    }
+
+    // A backend serving only the health service, counting the calls that reach it
+    private ManagedChannel backend(AtomicInteger calls) throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        ServerInterceptor counter = new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                    Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                calls.incrementAndGet();
+                return next.startCall(call, headers);
+            }
+        };
+        servers.add(InProcessServerBuilder.forName(name)
+                .addService(ServerInterceptors.intercept(new HealthStatusManager().getHealthService(), counter))
+                .build()
+                .start());
+        return channel(name);
+    }
+
+    private ManagedChannel gateway(RoutingTable routingTable) throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        servers.add(GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(name), routingTable,
+                ProxyConfig.defaults()).start());
+        return channel(name);
+    }
+
+    private Path publicKeyFile() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        Path pem = folder.newFile("public.pem").toPath();
+        Files.writeString(pem, "-----BEGIN PUBLIC KEY-----\n"
+                + Base64.getMimeEncoder().encodeToString(generator.generateKeyPair().getPublic().getEncoded())
+                + "\n-----END PUBLIC KEY-----\n");
+        return pem;
+    }
+
+    private ManagedChannel channel(String name) {
+        ManagedChannel channel = InProcessChannelBuilder.forName(name).build();
+        channels.add(channel);
+        return channel;
+    }
+}
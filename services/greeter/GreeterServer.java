@@ -16,40 +16,48 @@ import io.grpc.Metadata;
 import io.grpc.ServerCall;
 import io.grpc.ServerCallHandler;
 import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.health.v1.HealthCheckResponse.ServingStatus;
+import io.grpc.protobuf.services.HealthStatusManager;
+import services.common.Ports;
+import services.common.ServerExecutor;
 
 
 
 public class GreeterServer {
     private static final Logger logger = Logger.getLogger(GreeterServer.class.getName());
 
+    private final ServerExecutor executor;
+    // Answers the gateway's grpc.health.v1 probes
+    private final HealthStatusManager health = new HealthStatusManager();
     private Server server;
 
     public static final Context.Key<String> HEADER_KEY = Context.key("header-val");
     public static final Metadata.Key<String> TARGET_HEADER = Metadata.Key.of("x-backend-target", Metadata.ASCII_STRING_MARSHALLER);
 
     public static void main(String[] args) throws IOException, InterruptedException {
-        final GreeterServer server = new GreeterServer();
+        final GreeterServer server = new GreeterServer(ServerExecutor.fromArgs(args, "GREETER"));
         server.start();
         server.blockUntilShutdown();
     }
 
+    GreeterServer(ServerExecutor executor) {
+        this.executor = executor;
+    }
+
     private void start() throws IOException {
         /* The port on which the server should run */
-        int port = 9090;
-        server = ServerBuilder.forPort(port)
-                .addService(new GreeterImpl())
-                .intercept(new ServerInterceptor() {
-                    @Override
-                    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
-                            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
-                        String val = headers.get(TARGET_HEADER);
-                        Context ctx = Context.current().withValue(HEADER_KEY, val);
-                        return Contexts.interceptCall(ctx, call, headers, next);
-                    }
-                })
+        int port = Ports.fromEnv("GREETER_PORT", 9090);
+        ServerBuilder<?> builder = ServerBuilder.forPort(port);
+        executor.configure(builder);
+        server = builder
+                .addService(bindService())
+                .addService(health.getHealthService())
                 .build()
                 .start();
-        logger.info("Server started, listening on " + port);
+        health.setStatus(GreeterGrpc.SERVICE_NAME, ServingStatus.SERVING);
+        logger.info("Server started, listening on " + port + " with the " + executor + " executor");
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
@@ -67,9 +75,28 @@ public class GreeterServer {
     }
 
     private void stop() throws InterruptedException {
+        // Tells the gateway to stop sending calls before they start failing
+        health.enterTerminalState();
         if (server != null) {
             server.awaitTermination(30, TimeUnit.SECONDS);
         }
+        executor.close();
+    }
+
+    /**
+     * The greeter service as this server runs it, for hosting it in another server
+     * such as the gateway's embedded mode.
+     */
+    public static ServerServiceDefinition bindService() {
+        return ServerInterceptors.intercept(new GreeterImpl(), new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+                    ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+                String val = headers.get(TARGET_HEADER);
+                Context ctx = Context.current().withValue(HEADER_KEY, val);
+                return Contexts.interceptCall(ctx, call, headers, next);
+            }
+        });
     }
 
     /**
@@ -0,0 +1,523 @@
+package services.loadgen;
+
+import calculator.CalculatorGrpc;
+import calculator.CalculatorOuterClass.SumBatchReply;
+import calculator.CalculatorOuterClass.SumBatchRequest;
+import calculator.CalculatorOuterClass.SumReply;
+import calculator.CalculatorOuterClass.SumRequest;
+import helloworld.GreeterGrpc;
+import helloworld.Helloworld.HelloReply;
+import helloworld.Helloworld.HelloRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.ParseException;
+import services.gateway.GatewayServer;
+
+/**
+ * Open-loop load generator for the gateway and the backends.
+ *
+ * <p>Calls are started on a fixed schedule of {@code --rps} per second whether or not
+ * earlier ones have finished, so a slow server faces a growing queue just as it
+ * would in production. Latency is measured from each call's scheduled start (see
+ * {@link LoadReport}). The run is summarised as JSON on stdout or in {@code --output}.
+ *
+ * <pre>
+ * bazel run //services/loadgen -- --target=localhost:9000 --rps=2000 --duration=30 \
+ *     --mix=helloworld.Greeter/SayHello=1,calculator.Calculator/SumBatch=3 --output=/tmp/run.json
+ * bazel run //services/loadgen -- --in-process --rps=5000 --duration=10
+ * </pre>
+ */
+public final class LoadGenerator {
+    private static final Logger logger = Logger.getLogger(LoadGenerator.class.getName());
+
+    enum Operation {
+        SAY_HELLO("greeter", GreeterGrpc.getSayHelloMethod().getFullMethodName()),
+        SUM("calculator", CalculatorGrpc.getSumMethod().getFullMethodName()),
+        SUM_BATCH("calculator", CalculatorGrpc.getSumBatchMethod().getFullMethodName());
+
+        private final String service;
+        private final String fullMethodName;
+
+        Operation(String service, String fullMethodName) {
+            this.service = service;
+            this.fullMethodName = fullMethodName;
+        }
+
+        /** The gateway's x-backend-target for this operation. */
+        String service() {
+            return service;
+        }
+
+        String fullMethodName() {
+            return fullMethodName;
+        }
+
+        static Operation forMethod(String fullMethodName) {
+            for (Operation operation : values()) {
+                if (operation.fullMethodName.equals(fullMethodName)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown method " + fullMethodName + ", expected one of "
+                    + Arrays.stream(values()).map(Operation::fullMethodName).toList());
+        }
+    }
+
+    private final Options options;
+    private final Map<Operation, List<Caller>> callers = new EnumMap<>(Operation.class);
+    private final Operation[] schedule;
+    private final SplittableRandom random;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final LoadReport report = new LoadReport();
+
+    // Requests are built up front so the generator spends its time sending them
+    private final HelloRequest[] helloRequests;
+    private final SumBatchRequest[] batchRequests;
+
+    LoadGenerator(Options options, Function<String, ManagedChannel> channelForService) {
+        this.options = options;
+        this.random = new SplittableRandom(options.seed);
+        this.schedule = options.schedule();
+        for (Operation operation : options.mix.keySet()) {
+            List<Caller> list = new ArrayList<>();
+            for (int i = 0; i < options.connections; i++) {
+                list.add(new Caller(channelForService.apply(operation.service()), operation.service()));
+            }
+            callers.put(operation, list);
+        }
+        helloRequests = new HelloRequest[options.payloadBytes.length];
+        batchRequests = new SumBatchRequest[options.payloadBytes.length];
+        for (int i = 0; i < options.payloadBytes.length; i++) {
+            int size = options.payloadBytes[i];
+            helloRequests[i] = HelloRequest.newBuilder().setName("x".repeat(size)).build();
+            // A pair of small operands encodes to two bytes
+            SumBatchRequest.Builder batch = SumBatchRequest.newBuilder();
+            for (int j = 0; j < Math.max(1, size / 2); j++) {
+                batch.addA(j & 0x7f).addB(1);
+            }
+            batchRequests[i] = batch.build();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("loadgen", Options.cliOptions());
+            System.exit(2);
+            return;
+        }
+
+        List<ManagedChannel> channels = new ArrayList<>();
+        List<Server> servers = new ArrayList<>();
+        Function<String, ManagedChannel> channelForService;
+        if (options.inProcess) {
+            String gatewayName = InProcessBackends.start(servers, channels);
+            channelForService = service -> track(channels,
+                    InProcessChannelBuilder.forName(gatewayName).directExecutor().build());
+        } else {
+            channelForService = service -> track(channels,
+                    ManagedChannelBuilder.forTarget(options.targetFor(service)).usePlaintext().directExecutor().build());
+        }
+
+        LoadGenerator generator = new LoadGenerator(options, channelForService);
+        long started = System.nanoTime();
+        LoadReport report = generator.run();
+        long elapsed = System.nanoTime() - started - options.warmupNanos();
+
+        channels.forEach(ManagedChannel::shutdownNow);
+        servers.forEach(Server::shutdownNow);
+
+        String json = report.toJson(options, elapsed);
+        if (options.output != null) {
+            Files.writeString(options.output, json, StandardCharsets.UTF_8);
+            logger.info("Wrote results to " + options.output);
+        } else {
+            System.out.print(json);
+        }
+    }
+
+    private static ManagedChannel track(List<ManagedChannel> channels, ManagedChannel channel) {
+        synchronized (channels) {
+            channels.add(channel);
+        }
+        return channel;
+    }
+
+    /** Runs the warm-up and the measured period, then waits for outstanding calls. */
+    LoadReport run() throws InterruptedException {
+        double intervalNanos = 1e9 / options.rps;
+        long start = System.nanoTime();
+        long measureFrom = start + options.warmupNanos();
+        long end = measureFrom + options.durationNanos();
+        for (long i = 0; ; i++) {
+            // Derived from the start each time so rounding never accumulates into drift
+            long intended = start + (long) (i * intervalNanos);
+            if (intended >= end) {
+                break;
+            }
+            long now;
+            while ((now = System.nanoTime()) < intended) {
+                LockSupport.parkNanos(intended - now);
+            }
+            boolean measured = intended >= measureFrom;
+            if (outstanding.get() >= options.maxOutstanding) {
+                if (measured) {
+                    report.dropped();
+                }
+                continue;
+            }
+            issue(schedule[random.nextInt(schedule.length)], intended, measured);
+        }
+
+        // Every call has a deadline, so this ends
+        while (outstanding.get() > 0) {
+            Thread.sleep(10);
+        }
+        return report;
+    }
+
+    private void issue(Operation operation, long intended, boolean measured) {
+        List<Caller> candidates = callers.get(operation);
+        Caller caller = candidates.get(random.nextInt(candidates.size()));
+        int payload = random.nextInt(options.payloadBytes.length);
+        outstanding.incrementAndGet();
+        if (measured) {
+            report.sent();
+        }
+        Completion<Object> completion = new Completion<>(operation, intended, System.nanoTime(), measured);
+        switch (operation) {
+            case SAY_HELLO:
+                caller.greeter.withDeadlineAfter(options.timeoutMillis, TimeUnit.MILLISECONDS)
+                        .sayHello(helloRequests[payload], completion.as());
+                break;
+            case SUM:
+                caller.calculator.withDeadlineAfter(options.timeoutMillis, TimeUnit.MILLISECONDS)
+                        .sum(SumRequest.newBuilder().setA(random.nextInt(1 << 20)).setB(1).build(), completion.as());
+                break;
+            case SUM_BATCH:
+                caller.calculator.withDeadlineAfter(options.timeoutMillis, TimeUnit.MILLISECONDS)
+                        .sumBatch(batchRequests[payload], completion.as());
+                break;
+            default:
+                throw new AssertionError(operation);
+        }
+    }
+
+    // Stubs over one channel, with the gateway's routing header attached
+    private static final class Caller {
+        final GreeterGrpc.GreeterStub greeter;
+        final CalculatorGrpc.CalculatorStub calculator;
+
+        Caller(ManagedChannel channel, String service) {
+            Metadata headers = new Metadata();
+            headers.put(GatewayServer.TARGET_HEADER_KEY, service);
+            this.greeter = GreeterGrpc.newStub(channel)
+                    .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+            this.calculator = CalculatorGrpc.newStub(channel)
+                    .withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers));
+        }
+    }
+
+    private final class Completion<T> implements StreamObserver<T> {
+        private final Operation operation;
+        private final long intended;
+        private final long started;
+        private final boolean measured;
+
+        Completion(Operation operation, long intended, long started, boolean measured) {
+            this.operation = operation;
+            this.intended = intended;
+            this.started = started;
+            this.measured = measured;
+        }
+
+        @SuppressWarnings("unchecked")
+        <R> StreamObserver<R> as() {
+            return (StreamObserver<R>) this;
+        }
+
+        @Override
+        public void onNext(T value) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            finish(Status.fromThrowable(t).getCode());
+        }
+
+        @Override
+        public void onCompleted() {
+            finish(Status.Code.OK);
+        }
+
+        private void finish(Status.Code code) {
+            if (measured) {
+                report.record(operation, code, intended, started, System.nanoTime());
+            }
+            outstanding.decrementAndGet();
+        }
+    }
+
+    /** The parsed command line; every option also has a sensible default. */
+    static final class Options {
+        String target = "localhost:9000";
+        final Map<String, String> serviceTargets = new LinkedHashMap<>();
+        boolean inProcess;
+        double rps = 1000;
+        long durationSeconds = 30;
+        long warmupSeconds = 5;
+        int connections = 1;
+        int maxOutstanding = 10_000;
+        long timeoutMillis = 10_000;
+        Map<Operation, Integer> mix = new EnumMap<>(Map.of(Operation.SAY_HELLO, 1, Operation.SUM, 1));
+        int[] payloadBytes = {16};
+        long seed = 1;
+        @Nullable
+        Path output;
+
+        static org.apache.commons.cli.Options cliOptions() {
+            return new org.apache.commons.cli.Options()
+                    .addOption(option("target", "host:port", "where every call goes (default localhost:9000)"))
+                    .addOption(option("greeter-target", "host:port", "overrides --target for Greeter calls"))
+                    .addOption(option("calculator-target", "host:port", "overrides --target for Calculator calls"))
+                    .addOption(Option.builder().longOpt("in-process")
+                            .desc("drive an in-process gateway and backends instead of --target").build())
+                    .addOption(option("rps", "n", "calls started per second (default 1000)"))
+                    .addOption(option("duration", "seconds", "measured period (default 30)"))
+                    .addOption(option("warmup", "seconds", "unmeasured period before it (default 5)"))
+                    .addOption(option("connections", "n", "channels per service (default 1)"))
+                    .addOption(option("max-outstanding", "n",
+                            "calls in flight beyond which due calls are dropped and counted (default 10000)"))
+                    .addOption(option("timeout", "ms", "deadline of each call (default 10000)"))
+                    .addOption(option("mix", "method=weight,...",
+                            "relative frequency of each method (default SayHello=1,Sum=1)"))
+                    .addOption(option("payload-bytes", "n,...",
+                            "request sizes to pick from at random: SayHello name length, SumBatch operand bytes"))
+                    .addOption(option("seed", "n", "random seed, for reproducible runs (default 1)"))
+                    .addOption(option("output", "file", "write the JSON report here instead of stdout"));
+        }
+
+        private static Option option(String name, String argName, String description) {
+            return Option.builder().longOpt(name).hasArg().argName(argName).desc(description).build();
+        }
+
+        static Options parse(String[] args) {
+            CommandLine line;
+            try {
+                line = new DefaultParser().parse(cliOptions(), args);
+            } catch (ParseException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            Options options = new Options();
+            options.target = line.getOptionValue("target", options.target);
+            if (line.hasOption("greeter-target")) {
+                options.serviceTargets.put("greeter", line.getOptionValue("greeter-target"));
+            }
+            if (line.hasOption("calculator-target")) {
+                options.serviceTargets.put("calculator", line.getOptionValue("calculator-target"));
+            }
+            options.inProcess = line.hasOption("in-process");
+            options.rps = positive("rps", parseDouble("rps", line.getOptionValue("rps"), options.rps));
+            options.durationSeconds = (long) positive("duration",
+                    parseLong("duration", line.getOptionValue("duration"), options.durationSeconds));
+            options.warmupSeconds = parseLong("warmup", line.getOptionValue("warmup"), options.warmupSeconds);
+            options.connections = (int) positive("connections",
+                    parseLong("connections", line.getOptionValue("connections"), options.connections));
+            options.maxOutstanding = (int) positive("max-outstanding",
+                    parseLong("max-outstanding", line.getOptionValue("max-outstanding"), options.maxOutstanding));
+            options.timeoutMillis = (long) positive("timeout",
+                    parseLong("timeout", line.getOptionValue("timeout"), options.timeoutMillis));
+            if (line.hasOption("mix")) {
+                options.mix = parseMix(line.getOptionValue("mix"));
+            }
+            if (line.hasOption("payload-bytes")) {
+                options.payloadBytes = Arrays.stream(line.getOptionValue("payload-bytes").split(","))
+                        .mapToInt(value -> (int) parseLong("payload-bytes", value.trim(), 0))
+                        .toArray();
+            }
+            options.seed = parseLong("seed", line.getOptionValue("seed"), options.seed);
+            if (line.hasOption("output")) {
+                options.output = Paths.get(line.getOptionValue("output"));
+            }
+            return options;
+        }
+
+        // Parses "helloworld.Greeter/SayHello=1,calculator.Calculator/Sum=3"
+        static Map<Operation, Integer> parseMix(String value) {
+            Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+            for (String entry : value.split(",")) {
+                int eq = entry.indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException("--mix entries must look like method=weight, got: " + entry);
+                }
+                int weight = (int) parseLong("mix", entry.substring(eq + 1).trim(), 0);
+                if (weight < 0) {
+                    throw new IllegalArgumentException("--mix weights must not be negative: " + entry);
+                }
+                if (weight > 0) {
+                    mix.put(Operation.forMethod(entry.substring(0, eq).trim()), weight);
+                }
+            }
+            if (mix.isEmpty()) {
+                throw new IllegalArgumentException("--mix must give some method a positive weight");
+            }
+            return mix;
+        }
+
+        // One slot per unit of weight, so picking a slot uniformly follows the mix
+        Operation[] schedule() {
+            List<Operation> slots = new ArrayList<>();
+            for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+                for (int i = 0; i < entry.getValue(); i++) {
+                    slots.add(entry.getKey());
+                }
+            }
+            return slots.toArray(new Operation[0]);
+        }
+
+        String targetFor(String service) {
+            return serviceTargets.getOrDefault(service, target);
+        }
+
+        long durationNanos() {
+            return TimeUnit.SECONDS.toNanos(durationSeconds);
+        }
+
+        long warmupNanos() {
+            return TimeUnit.SECONDS.toNanos(warmupSeconds);
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder("{");
+            json.append("\"target\": \"").append(inProcess ? "in-process" : target).append('"');
+            for (Map.Entry<String, String> entry : serviceTargets.entrySet()) {
+                json.append(", \"").append(entry.getKey()).append("Target\": \"").append(entry.getValue()).append('"');
+            }
+            json.append(", \"rps\": ").append(rps);
+            json.append(", \"durationSeconds\": ").append(durationSeconds);
+            json.append(", \"warmupSeconds\": ").append(warmupSeconds);
+            json.append(", \"connections\": ").append(connections);
+            json.append(", \"maxOutstanding\": ").append(maxOutstanding);
+            json.append(", \"timeoutMillis\": ").append(timeoutMillis);
+            json.append(", \"mix\": {");
+            String separator = "";
+            for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+                json.append(separator).append('"').append(entry.getKey().fullMethodName()).append("\": ")
+                        .append(entry.getValue());
+                separator = ", ";
+            }
+            json.append("}, \"payloadBytes\": ").append(Arrays.toString(payloadBytes));
+            json.append(", \"seed\": ").append(seed);
+            return json.append('}').toString();
+        }
+
+        private static double positive(String name, double value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("--" + name + " must be positive: " + value);
+            }
+            return value;
+        }
+
+        private static long parseLong(String name, @Nullable String value, long defaultValue) {
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " must be an integer, got: " + value, e);
+            }
+        }
+
+        private static double parseDouble(String name, @Nullable String value, double defaultValue) {
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " must be a number, got: " + value, e);
+            }
+        }
+    }
+
+    /** A gateway in front of stand-in Greeter and Calculator backends, all in this JVM. */
+    static final class InProcessBackends {
+        private InProcessBackends() {
+        }
+
+        /** Starts everything, adds what it opened to the lists and returns the gateway's name. */
+        static String start(List<Server> servers, List<ManagedChannel> channels) throws IOException {
+            String backendName = InProcessServerBuilder.generateName();
+            servers.add(InProcessServerBuilder.forName(backendName)
+                    .directExecutor()
+                    .addService(new GreeterGrpc.GreeterImplBase() {
+                        @Override
+                        public void sayHello(HelloRequest request, StreamObserver<HelloReply> responseObserver) {
+                            responseObserver.onNext(HelloReply.newBuilder().setMessage("Hello " + request.getName())
+                                    .build());
+                            responseObserver.onCompleted();
+                        }
+                    })
+                    .addService(new CalculatorGrpc.CalculatorImplBase() {
+                        @Override
+                        public void sum(SumRequest request, StreamObserver<SumReply> responseObserver) {
+                            responseObserver.onNext(SumReply.newBuilder().setResult(request.getA() + request.getB())
+                                    .build());
+                            responseObserver.onCompleted();
+                        }
+
+                        @Override
+                        public void sumBatch(SumBatchRequest request, StreamObserver<SumBatchReply> responseObserver) {
+                            SumBatchReply.Builder reply = SumBatchReply.newBuilder();
+                            for (int i = 0; i < Math.min(request.getACount(), request.getBCount()); i++) {
+                                reply.addResults(request.getA(i) + request.getB(i));
+                            }
+                            responseObserver.onNext(reply.build());
+                            responseObserver.onCompleted();
+                        }
+                    })
+                    .build()
+                    .start());
+            ManagedChannel backend = track(channels,
+                    InProcessChannelBuilder.forName(backendName).directExecutor().build());
+
+            String gatewayName = InProcessServerBuilder.generateName();
+            servers.add(GatewayServer.buildGrpcServer(InProcessServerBuilder.forName(gatewayName).directExecutor(),
+                    Map.of("greeter", backend, "calculator", backend)).start());
+            return gatewayName;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package services.loadgen;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import helloworld.GreeterGrpc;
+import helloworld.Helloworld.HelloReply;
+import helloworld.Helloworld.HelloRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LoadGeneratorTest {
+    private final List<Server> servers = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        channels.forEach(ManagedChannel::shutdownNow);
+        servers.forEach(Server::shutdownNow);
+    }
+
+    @Test
+    public void testRunsTheMixThroughTheInProcessGateway() throws Exception {
+        LoadGenerator.Options options = LoadGenerator.Options.parse(new String[] {
+                "--in-process", "--rps=400", "--duration=1", "--warmup=0", "--payload-bytes=8,64",
+                "--mix=helloworld.Greeter/SayHello=1,calculator.Calculator/Sum=1,calculator.Calculator/SumBatch=1"});
+        String gateway = LoadGenerator.InProcessBackends.start(servers, channels);
+
+        LoadReport report = new LoadGenerator(options, service -> channel(gateway)).run();
+
+        assertThat(report.getSent()).isEqualTo(400);
+        assertThat(report.getCompleted()).isEqualTo(400);
+        assertThat(report.getErrors()).isEqualTo(0);
+        String json = report.toJson(options, 1_000_000_000L);
+        assertThat(json).contains("\"helloworld.Greeter/SayHello\": {\"count\": ");
+        assertThat(json).contains("\"calculator.Calculator/SumBatch\": {\"count\": ");
+        assertThat(json).contains("\"statuses\": {\"OK\": 400}");
+    }
+
+    @Test
+    public void testLatencyIncludesTimeSpentBehindAStalledServer() throws Exception {
+        // Each call holds the only thread for 20ms, so calls due every 5ms start ever later
+        String name = InProcessServerBuilder.generateName();
+        servers.add(InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .addService(new GreeterGrpc.GreeterImplBase() {
+                    @Override
+                    public void sayHello(HelloRequest request, StreamObserver<HelloReply> responseObserver) {
+                        try {
+                            Thread.sleep(20);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        responseObserver.onNext(HelloReply.getDefaultInstance());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start());
+        LoadGenerator.Options options = LoadGenerator.Options.parse(new String[] {
+                "--rps=200", "--duration=1", "--warmup=0", "--mix=helloworld.Greeter/SayHello=1"});
+
+        LoadReport report = new LoadGenerator(options, service -> channel(name)).run();
+
+        assertThat(report.getCompleted()).isEqualTo(200);
+        // A closed-loop view sees only the 20ms service time; the backlog reaches seconds
+        assertThat(report.serviceTimeMicros(99)).isLessThan(100_000.0);
+        assertThat(report.latencyMicros(99)).isGreaterThan(1_000_000.0);
+    }
+
+    @Test
+    public void testMixRejectsUnknownMethods() {
+        assertThrows(IllegalArgumentException.class,
+                () -> LoadGenerator.Options.parseMix("helloworld.Greeter/SayGoodbye=1"));
+        assertThrows(IllegalArgumentException.class,
+                () -> LoadGenerator.Options.parseMix("helloworld.Greeter/SayHello=0"));
+    }
+
+    @Test
+    public void testScheduleFollowsWeights() {
+        LoadGenerator.Options options = LoadGenerator.Options.parse(new String[] {
+                "--mix=helloworld.Greeter/SayHello=1,calculator.Calculator/Sum=3"});
+
+        assertThat(options.schedule()).asList().containsExactly(
+                LoadGenerator.Operation.SAY_HELLO, LoadGenerator.Operation.SUM,
+                LoadGenerator.Operation.SUM, LoadGenerator.Operation.SUM);
+    }
+
+    private ManagedChannel channel(String name) {
+        ManagedChannel channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        channels.add(channel);
+        return channel;
+    }
+}
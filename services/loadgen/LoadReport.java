@@ -0,0 +1,170 @@
+package services.loadgen;
+
+import io.grpc.Status;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.AbstractHistogram;
+import org.HdrHistogram.ConcurrentHistogram;
+
+/**
+ * Latency and outcome counts of one load run, safe to record into from the threads
+ * completing calls.
+ *
+ * <p>{@code latency} runs from the moment a call was scheduled to start to the
+ * moment it finished. When the system under test stalls, calls queued behind the
+ * stall are charged for the wait, which is the correction for coordinated omission.
+ * {@code serviceTime} runs from the moment the call was actually started and is
+ * what a closed-loop tool would have reported.
+ */
+final class LoadReport {
+    // Anything slower is clamped; calls have a deadline well below this anyway
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final ConcurrentHistogram latency = newHistogram();
+    private final ConcurrentHistogram serviceTime = newHistogram();
+    private final Map<LoadGenerator.Operation, ConcurrentHistogram> latencyByOperation =
+            new EnumMap<>(LoadGenerator.Operation.class);
+    private final Map<Status.Code, LongAdder> statuses = new EnumMap<>(Status.Code.class);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    LoadReport() {
+        // Filled up front so recording never writes to the maps
+        for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+            latencyByOperation.put(operation, newHistogram());
+        }
+        for (Status.Code code : Status.Code.values()) {
+            statuses.put(code, new LongAdder());
+        }
+    }
+
+    private static ConcurrentHistogram newHistogram() {
+        return new ConcurrentHistogram(1, HIGHEST_TRACKABLE_NANOS, SIGNIFICANT_DIGITS);
+    }
+
+    void sent() {
+        sent.increment();
+    }
+
+    /** A call that was due but not started because too many were already outstanding. */
+    void dropped() {
+        dropped.increment();
+    }
+
+    void record(LoadGenerator.Operation operation, Status.Code code, long intendedNanos, long startedNanos,
+            long finishedNanos) {
+        long corrected = clamp(finishedNanos - intendedNanos);
+        latency.recordValue(corrected);
+        latencyByOperation.get(operation).recordValue(corrected);
+        serviceTime.recordValue(clamp(finishedNanos - startedNanos));
+        statuses.get(code).increment();
+    }
+
+    private static long clamp(long nanos) {
+        return Math.max(1, Math.min(nanos, HIGHEST_TRACKABLE_NANOS));
+    }
+
+    long getSent() {
+        return sent.sum();
+    }
+
+    long getCompleted() {
+        return latency.getTotalCount();
+    }
+
+    long getDropped() {
+        return dropped.sum();
+    }
+
+    long getErrors() {
+        long errors = 0;
+        for (Map.Entry<Status.Code, LongAdder> entry : statuses.entrySet()) {
+            if (entry.getKey() != Status.Code.OK) {
+                errors += entry.getValue().sum();
+            }
+        }
+        return errors;
+    }
+
+    /** Latency at {@code percentile}, in microseconds, corrected for coordinated omission. */
+    double latencyMicros(double percentile) {
+        return micros(latency.getValueAtPercentile(percentile));
+    }
+
+    /** Time from actually starting a call to its end, in microseconds, as a closed-loop tool measures it. */
+    double serviceTimeMicros(double percentile) {
+        return micros(serviceTime.getValueAtPercentile(percentile));
+    }
+
+    String toJson(LoadGenerator.Options options, long elapsedNanos) {
+        double elapsedSeconds = Math.max(elapsedNanos, 1) / 1e9;
+        StringBuilder json = new StringBuilder(2048);
+        json.append("{\n");
+        json.append("  \"config\": ").append(options.toJson()).append(",\n");
+        json.append("  \"elapsedSeconds\": ").append(number(elapsedSeconds)).append(",\n");
+        json.append("  \"sent\": ").append(getSent()).append(",\n");
+        json.append("  \"completed\": ").append(getCompleted()).append(",\n");
+        json.append("  \"errors\": ").append(getErrors()).append(",\n");
+        json.append("  \"dropped\": ").append(getDropped()).append(",\n");
+        json.append("  \"achievedRps\": ").append(number(getCompleted() / elapsedSeconds)).append(",\n");
+        json.append("  \"statuses\": {");
+        String separator = "";
+        for (Map.Entry<Status.Code, LongAdder> entry : statuses.entrySet()) {
+            long count = entry.getValue().sum();
+            if (count > 0) {
+                json.append(separator).append('"').append(entry.getKey()).append("\": ").append(count);
+                separator = ", ";
+            }
+        }
+        json.append("},\n");
+        json.append("  \"latencyMicros\": ").append(summary(latency)).append(",\n");
+        json.append("  \"serviceTimeMicros\": ").append(summary(serviceTime)).append(",\n");
+        json.append("  \"latencyMicrosByMethod\": {");
+        separator = "\n";
+        for (Map.Entry<LoadGenerator.Operation, ConcurrentHistogram> entry : latencyByOperation.entrySet()) {
+            if (entry.getValue().getTotalCount() > 0) {
+                json.append(separator).append("    \"").append(entry.getKey().fullMethodName()).append("\": ")
+                        .append(summary(entry.getValue()));
+                separator = ",\n";
+            }
+        }
+        json.append("\n  }\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    private static String summary(AbstractHistogram histogram) {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"count\": ").append(histogram.getTotalCount());
+        if (histogram.getTotalCount() > 0) {
+            json.append(", \"min\": ").append(number(micros(histogram.getMinValue())));
+            json.append(", \"mean\": ").append(number(histogram.getMean() / 1e3));
+            for (double percentile : PERCENTILES) {
+                json.append(", \"p").append(percentileLabel(percentile)).append("\": ")
+                        .append(number(micros(histogram.getValueAtPercentile(percentile))));
+            }
+            json.append(", \"max\": ").append(number(micros(histogram.getMaxValue())));
+        }
+        return json.append('}').toString();
+    }
+
+    // 99.9 becomes "99_9", so the keys stay valid identifiers for jq and friends
+    private static String percentileLabel(double percentile) {
+        return percentile == Math.rint(percentile)
+                ? Long.toString((long) percentile)
+                : Double.toString(percentile).replace('.', '_');
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1e3;
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
@@ -0,0 +1,348 @@
+package services.loadgen;
+
+import calculator.CalculatorGrpc;
+import calculator.CalculatorOuterClass.SumBatchRequest;
+import calculator.CalculatorOuterClass.SumRequest;
+import helloworld.GreeterGrpc;
+import helloworld.Helloworld.HelloRequest;
+import io.grpc.Channel;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.MetadataUtils;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.ParseException;
+import services.gateway.GatewayServer;
+
+/**
+ * Launches a server and reports how long it takes to answer its first call.
+ *
+ * <p>The clock starts when the command is launched and stops when a call to
+ * {@code --target} first succeeds, so it covers JVM startup, class loading and the
+ * server's own setup. After that, {@code --calls} more calls cycle through
+ * {@code --methods}, and the server is stopped with SIGTERM. That makes it both the
+ * measurement behind {@code tools/appcds.py measure} and the training run for the
+ * AppCDS archives, which the JVM writes as it exits. With {@code --port-env} the
+ * server is started on free ports, named to it by environment variables, so neither
+ * needs the service's usual ports nor collides with another run.
+ *
+ * <pre>
+ * bazel run //services/loadgen:startup_probe -- --target=localhost:9090 \
+ *     --methods=helloworld.Greeter/SayHello -- java -jar /tmp/server_deploy.jar
+ * </pre>
+ */
+public final class StartupProbe {
+    private static final Logger logger = Logger.getLogger(StartupProbe.class.getName());
+
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long CALL_TIMEOUT_MILLIS = 5_000;
+    private static final long EXIT_TIMEOUT_SECONDS = 60;
+
+    private final GreeterGrpc.GreeterBlockingStub greeter;
+    private final CalculatorGrpc.CalculatorBlockingStub calculator;
+    private final SumBatchRequest batch;
+
+    StartupProbe(Channel channel) {
+        this.greeter = GreeterGrpc.newBlockingStub(channel);
+        this.calculator = CalculatorGrpc.newBlockingStub(channel);
+        SumBatchRequest.Builder batch = SumBatchRequest.newBuilder();
+        for (int i = 0; i < 64; i++) {
+            batch.addA(i).addB(1);
+        }
+        this.batch = batch.build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("startup_probe [options] -- command...", Options.cliOptions());
+            System.exit(2);
+            return;
+        }
+
+        // A call to the target before anything listens there loads the probe's own client
+        // classes, so they are not counted against the server, and shows the port is free
+        Map<String, String> environment = new LinkedHashMap<>();
+        if (!options.portEnv.isEmpty()) {
+            List<Integer> ports = freePorts(options.portEnv.size());
+            for (int i = 0; i < ports.size(); i++) {
+                environment.put(options.portEnv.get(i), Integer.toString(ports.get(i)));
+            }
+            options.target = withPort(options.target, ports.get(0));
+            logger.info("Starting the server with " + environment);
+        }
+
+        ManagedChannel warmup = channel(options.target);
+        try {
+            new StartupProbe(warmup).call(options.operations.get(0));
+            throw new IllegalStateException(options.target + " is already serving; stop that server first");
+        } catch (StatusRuntimeException expected) {
+            // Connection refused
+        } finally {
+            warmup.shutdownNow();
+        }
+
+        ManagedChannel channel = channel(options.target);
+        StartupProbe probe = new StartupProbe(channel);
+        long launched = System.nanoTime();
+        ProcessBuilder command = new ProcessBuilder(options.command).inheritIO();
+        command.environment().putAll(environment);
+        Process server = command.start();
+        long listening;
+        long firstCall;
+        int exitCode;
+        try {
+            awaitListening(options.target, server, launched + options.timeoutNanos());
+            listening = System.nanoTime() - launched;
+            probe.awaitFirstCall(options.operations.get(0), server, launched + options.timeoutNanos());
+            firstCall = System.nanoTime() - launched;
+            for (int i = 0; i < options.calls; i++) {
+                probe.call(options.operations.get(i % options.operations.size()));
+            }
+        } finally {
+            channel.shutdownNow();
+            exitCode = stop(server);
+        }
+
+        String json = String.format("{\"target\": \"%s\", \"timeToListeningMillis\": %.1f, "
+                + "\"timeToFirstCallMillis\": %.1f, \"calls\": %d, \"exitCode\": %d}%n",
+                options.target, listening / 1e6, firstCall / 1e6, options.calls, exitCode);
+        if (options.output != null) {
+            Files.writeString(options.output, json, StandardCharsets.UTF_8);
+            logger.info("Wrote results to " + options.output);
+        } else {
+            System.out.print(json);
+        }
+    }
+
+    /** Makes one call of {@code operation}, with the gateway's routing header attached. */
+    void call(LoadGenerator.Operation operation) {
+        Metadata headers = new Metadata();
+        headers.put(GatewayServer.TARGET_HEADER_KEY, operation.service());
+        switch (operation) {
+            case SAY_HELLO:
+                greeter.withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers))
+                        .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                        .sayHello(HelloRequest.newBuilder().setName("probe").build());
+                break;
+            case SUM:
+                calculator.withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers))
+                        .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                        .sum(SumRequest.newBuilder().setA(1).setB(2).build());
+                break;
+            case SUM_BATCH:
+                calculator.withInterceptors(MetadataUtils.newAttachHeadersInterceptor(headers))
+                        .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                        .sumBatch(batch);
+                break;
+            default:
+                throw new AssertionError(operation);
+        }
+    }
+
+    /**
+     * Repeats {@code operation} until it succeeds. UNAVAILABLE means the server, or the
+     * backend behind the gateway, is still starting; any other error is a real failure.
+     */
+    void awaitFirstCall(LoadGenerator.Operation operation, Process server, long deadlineNanos)
+            throws InterruptedException {
+        while (true) {
+            try {
+                call(operation);
+                return;
+            } catch (StatusRuntimeException e) {
+                if (e.getStatus().getCode() != Status.Code.UNAVAILABLE) {
+                    throw e;
+                }
+                checkStillStarting(server, deadlineNanos);
+                TimeUnit.NANOSECONDS.sleep(POLL_NANOS);
+            }
+        }
+    }
+
+    // Polling the port first keeps the channel out of its reconnect backoff, which would
+    // otherwise add up to a second to the measurement
+    private static void awaitListening(String target, Process server, long deadlineNanos)
+            throws InterruptedException {
+        InetSocketAddress address = address(target);
+        while (true) {
+            try (Socket socket = new Socket()) {
+                socket.connect(address, (int) CALL_TIMEOUT_MILLIS);
+                return;
+            } catch (IOException e) {
+                checkStillStarting(server, deadlineNanos);
+                TimeUnit.NANOSECONDS.sleep(POLL_NANOS);
+            }
+        }
+    }
+
+    private static void checkStillStarting(Process server, long deadlineNanos) {
+        if (!server.isAlive()) {
+            throw new IllegalStateException("The server exited with " + server.exitValue() + " before answering");
+        }
+        if (System.nanoTime() - deadlineNanos > 0) {
+            throw new IllegalStateException("The server did not answer in time");
+        }
+    }
+
+    // SIGTERM rather than SIGKILL, so shutdown hooks run and the JVM can write its archive
+    private static int stop(Process server) throws InterruptedException {
+        server.destroy();
+        if (!server.waitFor(EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            logger.warning("The server did not exit within " + EXIT_TIMEOUT_SECONDS + "s of SIGTERM; killing it");
+            server.destroyForcibly();
+        }
+        return server.waitFor();
+    }
+
+    private static ManagedChannel channel(String target) {
+        return ManagedChannelBuilder.forTarget(target).usePlaintext().directExecutor().build();
+    }
+
+    /**
+     * Returns {@code count} distinct ports nothing listens on. They are only free until
+     * someone else binds them, which in the ephemeral range is unlikely this soon.
+     */
+    static List<Integer> freePorts(int count) throws IOException {
+        List<ServerSocket> sockets = new ArrayList<>();
+        try {
+            List<Integer> ports = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                ServerSocket socket = new ServerSocket(0);
+                sockets.add(socket);
+                ports.add(socket.getLocalPort());
+            }
+            return ports;
+        } finally {
+            for (ServerSocket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    static String withPort(String target, int port) {
+        return target.substring(0, target.lastIndexOf(':') + 1) + port;
+    }
+
+    static InetSocketAddress address(String target) {
+        int colon = target.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("--target must look like host:port, got: " + target);
+        }
+        try {
+            return new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--target must look like host:port, got: " + target, e);
+        }
+    }
+
+    /** The parsed command line; everything after the options is the server's command. */
+    static final class Options {
+        String target = "localhost:9000";
+        List<LoadGenerator.Operation> operations = List.of(LoadGenerator.Operation.SAY_HELLO);
+        int calls;
+        long timeoutSeconds = 60;
+        List<String> portEnv = List.of();
+        List<String> command = List.of();
+        @Nullable
+        Path output;
+
+        static org.apache.commons.cli.Options cliOptions() {
+            return new org.apache.commons.cli.Options()
+                    .addOption(option("target", "host:port", "where the server answers (default localhost:9000)"))
+                    .addOption(option("methods", "method,...",
+                            "methods to call; the first one is timed (default helloworld.Greeter/SayHello)"))
+                    .addOption(option("calls", "n", "calls to make after the first one succeeds (default 0)"))
+                    .addOption(option("timeout", "seconds", "how long the server has to answer (default 60)"))
+                    .addOption(option("port-env", "NAME,...", "environment variables that each give the server "
+                            + "a free port; calls go to the first, on --target's host"))
+                    .addOption(option("output", "file", "write the JSON result here instead of stdout"));
+        }
+
+        private static Option option(String name, String argName, String description) {
+            return Option.builder().longOpt(name).hasArg().argName(argName).desc(description).build();
+        }
+
+        static Options parse(String[] args) {
+            CommandLine line;
+            try {
+                line = new DefaultParser().parse(cliOptions(), args, true);
+            } catch (ParseException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            Options options = new Options();
+            options.target = line.getOptionValue("target", options.target);
+            address(options.target);
+            if (line.hasOption("methods")) {
+                List<LoadGenerator.Operation> operations = new ArrayList<>();
+                for (String method : line.getOptionValue("methods").split(",")) {
+                    operations.add(LoadGenerator.Operation.forMethod(method.trim()));
+                }
+                options.operations = List.copyOf(operations);
+            }
+            options.calls = (int) parseNonNegative("calls", line.getOptionValue("calls"), options.calls);
+            options.timeoutSeconds = parseNonNegative("timeout", line.getOptionValue("timeout"),
+                    options.timeoutSeconds);
+            if (line.hasOption("port-env")) {
+                List<String> names = new ArrayList<>();
+                for (String name : line.getOptionValue("port-env").split(",")) {
+                    if (!name.isBlank()) {
+                        names.add(name.trim());
+                    }
+                }
+                options.portEnv = List.copyOf(names);
+            }
+            if (line.hasOption("output")) {
+                options.output = Paths.get(line.getOptionValue("output"));
+            }
+            options.command = List.copyOf(line.getArgList());
+            if (options.command.isEmpty()) {
+                throw new IllegalArgumentException("Give the command that starts the server after --");
+            }
+            return options;
+        }
+
+        long timeoutNanos() {
+            return TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        }
+
+        private static long parseNonNegative(String name, @Nullable String value, long defaultValue) {
+            if (value == null) {
+                return defaultValue;
+            }
+            long parsed;
+            try {
+                parsed = Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " must be an integer, got: " + value, e);
+            }
+            if (parsed < 0) {
+                throw new IllegalArgumentException("--" + name + " must not be negative: " + value);
+            }
+            return parsed;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package services.loadgen;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StartupProbeTest {
+    private final List<Server> servers = new ArrayList<>();
+    private final List<ManagedChannel> channels = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        channels.forEach(ManagedChannel::shutdownNow);
+        servers.forEach(Server::shutdownNow);
+    }
+
+    @Test
+    public void testEverythingAfterTheOptionsIsTheCommand() {
+        StartupProbe.Options options = StartupProbe.Options.parse(new String[] {
+                "--target=localhost:9091", "--methods=calculator.Calculator/Sum,calculator.Calculator/SumBatch",
+                "--calls=50", "--", "java", "--add-modules", "jdk.incubator.vector", "-jar", "server_deploy.jar"});
+
+        assertThat(options.target).isEqualTo("localhost:9091");
+        assertThat(options.operations)
+                .containsExactly(LoadGenerator.Operation.SUM, LoadGenerator.Operation.SUM_BATCH).inOrder();
+        assertThat(options.calls).isEqualTo(50);
+        assertThat(options.command)
+                .containsExactly("java", "--add-modules", "jdk.incubator.vector", "-jar", "server_deploy.jar")
+                .inOrder();
+    }
+
+    @Test
+    public void testPortEnvGivesTheServerFreePorts() throws Exception {
+        StartupProbe.Options options = StartupProbe.Options.parse(new String[] {
+                "--port-env=GATEWAY_GRPC_PORT, GATEWAY_HTTP_PORT", "--", "java", "-jar", "gateway_deploy.jar"});
+        assertThat(options.portEnv).containsExactly("GATEWAY_GRPC_PORT", "GATEWAY_HTTP_PORT").inOrder();
+
+        List<Integer> ports = StartupProbe.freePorts(3);
+
+        assertThat(ports).containsNoDuplicates();
+        for (int port : ports) {
+            // Each would throw if something still held the port
+            new ServerSocket(port).close();
+        }
+        assertThat(StartupProbe.withPort("localhost:9000", ports.get(0))).isEqualTo("localhost:" + ports.get(0));
+    }
+
+    @Test
+    public void testRejectsMissingCommandAndBadTarget() {
+        assertThrows(IllegalArgumentException.class,
+                () -> StartupProbe.Options.parse(new String[] {"--target=localhost:9000"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> StartupProbe.Options.parse(new String[] {"--target=localhost", "--", "java"}));
+        assertThrows(IllegalArgumentException.class,
+                () -> StartupProbe.Options.parse(new String[] {"--calls=-1", "--", "java"}));
+    }
+
+    @Test
+    public void testCallsEachMethodThroughTheGateway() throws Exception {
+        String gateway = LoadGenerator.InProcessBackends.start(servers, channels);
+        ManagedChannel channel = InProcessChannelBuilder.forName(gateway).build();
+        channels.add(channel);
+        StartupProbe probe = new StartupProbe(channel);
+
+        // Each would throw if the gateway could not route it
+        for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+            probe.call(operation);
+        }
+    }
+}
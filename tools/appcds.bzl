@@ -0,0 +1,54 @@
+"""Dynamic AppCDS archives for the java_binary images built on @distroless_java."""
+
+_PROBE = "//services/loadgen:startup_probe_deploy.jar"
+_BASE = "@distroless_java"
+
+def appcds_archive(name, deploy_jar, probe_args, jvm_flags = [], env = {}):
+    """Trains an AppCDS archive for deploy_jar and adds a target that measures it.
+
+    The archive, <name>.jsa, is written by the image's own JDK as it exits after a
+    startup_probe run, and belongs in /app next to the deploy jar. `bazel run
+    :<name>_startup` compares time to first call with and without it.
+
+    Training runs the image's linux/amd64 JDK on the host, so every target here is
+    tagged manual: only images that ask for the archive, such as :image_appcds,
+    build it. The server is started on free ports, which probe_args name with
+    --port-env, so runs neither need the service's own ports nor collide.
+
+    Args:
+      name: the archive target; the output is <name>.jsa.
+      deploy_jar: the _deploy.jar the image runs.
+      probe_args: startup_probe options saying which ports to give the server and what to call.
+      jvm_flags: flags the image's entrypoint passes to java besides the archive.
+      env: environment for the training run.
+    """
+    flags = " ".join(["--jvm-flag=%s" % flag for flag in jvm_flags] +
+                     ["--env=%s=%s" % (key, value) for key, value in env.items()])
+    native.genrule(
+        name = name,
+        srcs = [deploy_jar, _BASE, _PROBE],
+        outs = [name + ".jsa"],
+        cmd = "python3 $(location //tools:appcds.py) train --image $(location %s) --jar $(location %s) " % (
+            _BASE,
+            deploy_jar,
+        ) + "--probe $(location %s) --out $@ %s -- %s" % (_PROBE, flags, " ".join(probe_args)),
+        tools = ["//tools:appcds.py"],
+        # The training run talks to the server over loopback, and runs the image's
+        # linux/amd64 JDK on the host
+        tags = ["manual", "requires-network", "no-remote-exec"],
+    )
+
+    native.sh_binary(
+        name = name + "_startup",
+        srcs = ["//tools:appcds.py"],
+        args = [
+            "measure",
+            "--image=$(rootpath %s)" % _BASE,
+            "--jar=$(rootpath %s)" % deploy_jar,
+            "--probe=$(rootpath %s)" % _PROBE,
+            "--archive=$(rootpath :%s)" % name,
+        ] + ["--jvm-flag=%s" % flag for flag in jvm_flags] +
+        ["--env=%s=%s" % (key, value) for key, value in env.items()] + ["--"] + probe_args,
+        data = [deploy_jar, _BASE, _PROBE, ":" + name],
+        tags = ["manual"],
+    )
@@ -0,0 +1,184 @@
+#!/usr/bin/env python3
+"""Trains and measures dynamic AppCDS archives for the service images.
+
+A CDS archive is only used by the exact JVM build that wrote it, so both
+commands run the JDK out of the image's base layers rather than the host's.
+The deploy jar is given the mtime pkg_tar gives it in the image, since the JVM
+also refuses an archive whose class path entries have changed.
+
+    appcds.py train --image DIR --jar JAR --probe JAR --out FILE.jsa [--jvm-flag F]... [--env K=V]... -- PROBE_ARGS
+    appcds.py measure --image DIR --jar JAR --probe JAR --archive FILE.jsa [--runs N] ... -- PROBE_ARGS
+
+PROBE_ARGS go to //services/loadgen:startup_probe, which launches the server,
+times its first call and stops it; the JVM writes the archive as it exits.
+The extracted JDK is linked against the image's Debian 12 glibc, so the host
+needs glibc 2.36 or later.
+"""
+
+import argparse
+import gzip
+import json
+import os
+import shutil
+import statistics
+import subprocess
+import sys
+import tarfile
+import tempfile
+
+JAVA_HOME = "usr/lib/jvm/java-21-openjdk-amd64"
+
+# pkg_tar's portable mtime, 2000-01-01T00:00:00Z
+PKG_TAR_MTIME = 946684800
+
+
+def _blob(layout, digest):
+    algorithm, value = digest.split(":", 1)
+    return os.path.join(layout, "blobs", algorithm, value)
+
+
+def _manifest(layout):
+    with open(os.path.join(layout, "index.json")) as f:
+        index = json.load(f)
+    descriptor = index["manifests"][0]
+    with open(_blob(layout, descriptor["digest"])) as f:
+        manifest = json.load(f)
+    # oci_pull keeps the index of a multi-platform image; take the amd64 image from it
+    while "manifests" in manifest:
+        descriptor = next(m for m in manifest["manifests"]
+                          if m.get("platform", {}).get("architecture") == "amd64")
+        with open(_blob(layout, descriptor["digest"])) as f:
+            manifest = json.load(f)
+    return manifest
+
+
+def _remove(path):
+    if os.path.isdir(path) and not os.path.islink(path):
+        shutil.rmtree(path)
+    elif os.path.lexists(path):
+        os.remove(path)
+
+
+def extract_image(layout, root):
+    """Unpacks the image's layers into root, applying whiteouts as a runtime would."""
+    root = os.path.abspath(root)
+    for layer in _manifest(layout)["layers"]:
+        with open(_blob(layout, layer["digest"]), "rb") as raw:
+            stream = gzip.GzipFile(fileobj=raw) if layer["mediaType"].endswith("gzip") else raw
+            with tarfile.open(fileobj=stream, mode="r|") as tar:
+                for member in tar:
+                    directory, base = os.path.split(member.name)
+                    if base == ".wh..wh..opq":
+                        opaque = os.path.join(root, directory)
+                        for entry in os.listdir(opaque) if os.path.isdir(opaque) else []:
+                            _remove(os.path.join(opaque, entry))
+                        continue
+                    if base.startswith(".wh."):
+                        _remove(os.path.join(root, directory, base[len(".wh."):]))
+                        continue
+                    if member.isdev():
+                        continue
+                    target = os.path.join(root, member.name)
+                    if os.path.lexists(target) and not (member.isdir() and os.path.isdir(target)):
+                        _remove(target)
+                    if member.issym():
+                        # Debian points parts of the JDK at /etc; keep them inside the root
+                        link = member.linkname
+                        if link.startswith("/"):
+                            link = os.path.join(root, link.lstrip("/"))
+                        os.makedirs(os.path.dirname(target), exist_ok=True)
+                        os.symlink(link, target)
+                    else:
+                        tar.extract(member, root)
+    java = os.path.join(root, JAVA_HOME, "bin", "java")
+    if not os.path.exists(java):
+        sys.exit("appcds: no JDK at /%s in the image" % JAVA_HOME)
+    # Dynamic archives sit on top of the JDK's default one
+    if not os.path.exists(os.path.join(root, JAVA_HOME, "lib", "server", "classes.jsa")):
+        sys.exit("appcds: the image's JDK has no default CDS archive to build on")
+    return java
+
+
+def stage_jar(jar, root):
+    """Copies the deploy jar to /app in the root with the size and mtime it has in the image."""
+    app = os.path.join(root, "app")
+    os.makedirs(app, exist_ok=True)
+    staged = os.path.join(app, os.path.basename(jar))
+    shutil.copyfile(jar, staged)
+    os.utime(staged, (PKG_TAR_MTIME, PKG_TAR_MTIME))
+    return staged
+
+
+def probe(args, java, jar, server_flags, work):
+    """Runs the startup probe around one launch of the server and returns its result."""
+    result = os.path.join(work, "probe.json")
+    env = dict(os.environ)
+    env.update(kv.split("=", 1) for kv in args.env)
+    command = [java, "-jar", os.path.abspath(args.probe), "--output", result] + args.probe_args
+    command += ["--", java] + args.jvm_flag + server_flags + ["-jar", jar]
+    subprocess.run(command, env=env, check=True)
+    with open(result) as f:
+        return json.load(f)
+
+
+def train(args, java, jar, work):
+    out = os.path.abspath(args.out)
+    probe(args, java, jar, ["-XX:ArchiveClassesAtExit=" + out], work)
+    if not os.path.exists(out):
+        sys.exit("appcds: the training run exited without writing " + args.out)
+
+
+def measure(args, java, jar, work):
+    # -Xshare:on fails the run outright if the archive cannot be mapped, so the two
+    # columns never quietly measure the same thing
+    variants = {
+        "without": [],
+        "with": ["-Xshare:on", "-XX:SharedArchiveFile=" + os.path.abspath(args.archive)],
+    }
+    times = {name: [] for name in variants}
+    # Alternate, so drift in the machine's load affects both alike
+    for _ in range(args.runs):
+        for name, flags in variants.items():
+            times[name].append(probe(args, java, jar, flags, work)["timeToFirstCallMillis"])
+    print("time to first call over %d runs (ms)" % args.runs)
+    print("%-16s %8s %8s %8s" % ("", "median", "min", "max"))
+    for name, values in times.items():
+        print("%-16s %8.1f %8.1f %8.1f" % (name + " archive", statistics.median(values), min(values), max(values)))
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__.split("\n")[0])
+    parser.add_argument("command", choices=["train", "measure"])
+    parser.add_argument("--image", required=True, help="OCI layout of the base image")
+    parser.add_argument("--jar", required=True, help="the server's deploy jar")
+    parser.add_argument("--probe", required=True, help="startup_probe_deploy.jar")
+    parser.add_argument("--out", help="where train writes the archive")
+    parser.add_argument("--archive", help="the archive measure compares against none")
+    parser.add_argument("--runs", type=int, default=10, help="launches per variant for measure")
+    parser.add_argument("--jvm-flag", action="append", default=[], help="flag the server's JVM needs")
+    parser.add_argument("--env", action="append", default=[], help="KEY=VALUE for the server")
+    parser.add_argument("probe_args", nargs=argparse.REMAINDER)
+    args = parser.parse_args()
+    if args.probe_args[:1] == ["--"]:
+        args.probe_args = args.probe_args[1:]
+    if args.command == "train" and not args.out:
+        parser.error("train needs --out")
+    if args.command == "measure" and not args.archive:
+        parser.error("measure needs --archive")
+
+    work = tempfile.mkdtemp(prefix="appcds")
+    try:
+        root = os.path.join(work, "root")
+        os.makedirs(root)
+        java = extract_image(args.image, root)
+        jar = stage_jar(args.jar, root)
+        if args.command == "train":
+            train(args, java, jar, work)
+        else:
+            measure(args, java, jar, work)
+    finally:
+        shutil.rmtree(work, ignore_errors=True)
+
+
+if __name__ == "__main__":
+    main()